@@ -0,0 +1,75 @@
+package org.ggp.base.apps.benchmark;
+
+import org.ggp.base.util.game.Game;
+
+/**
+ * A single micro-benchmark, run by the BenchmarkRunner once per game.
+ *
+ * The runner calls setUp() for a game, then calls runBatch() repeatedly for each warm-up and measurement iteration
+ * (timing it), then calls tearDown().  Any fixed cost (building the state machine, sampling states to work on, etc.)
+ * belongs in setUp() so that the timed batches measure only the operation of interest.  A benchmark that can use up
+ * what it has set up can ask to be set up again between batches (see needsReset()).
+ */
+public abstract class Benchmark
+{
+  private long mSink;
+
+  /**
+   * @return the name of the benchmark, as it appears in the results.
+   */
+  public abstract String getName();
+
+  /**
+   * Prepare to run the benchmark for a game.
+   *
+   * @param xiGame - the game.
+   *
+   * @throws Exception if the benchmark can't be run for this game.  The runner records it as skipped.
+   */
+  public abstract void setUp(Game xiGame) throws Exception;
+
+  /**
+   * Run a batch of the operation being measured.  Batches should be short (of the order of milliseconds) so that the
+   * runner can stop promptly at the end of each iteration.
+   *
+   * @return the number of operations performed.
+   *
+   * @throws Exception if the operation fails.
+   */
+  public abstract long runBatch() throws Exception;
+
+  /**
+   * @return whether the benchmark has used up what setUp() prepared (e.g. by solving the game), in which case the
+   * runner sets it up again, untimed, before the next batch.
+   */
+  public boolean needsReset()
+  {
+    return false;
+  }
+
+  /**
+   * Release anything allocated by setUp().
+   */
+  public void tearDown()
+  {
+    // Nothing to do by default.
+  }
+
+  /**
+   * Consume a value computed by the benchmark, so that the JIT can't eliminate the work that produced it.
+   *
+   * @param xiValue - the value.
+   */
+  protected final void consume(long xiValue)
+  {
+    mSink += xiValue;
+  }
+
+  /**
+   * @return the sum of all consumed values.
+   */
+  long getSink()
+  {
+    return mSink;
+  }
+}
@@ -0,0 +1,155 @@
+package org.ggp.base.apps.benchmark;
+
+import external.JSON.JSONArray;
+import external.JSON.JSONException;
+import external.JSON.JSONObject;
+
+/**
+ * The throughput measured for one benchmark on one game.
+ *
+ * Results are serialized in the same layout as JMH's JSON output, so that the files can be compared by the same
+ * tools.
+ */
+public class BenchmarkResult
+{
+  /**
+   * Two-sided 99.9% normal quantile, used for the score error (as JMH reports).
+   */
+  private static final double CONFIDENCE_QUANTILE = 3.291;
+
+  private static final String MODE = "thrpt";
+  private static final String UNIT = "ops/s";
+
+  private final String   mBenchmark;
+  private final String   mGame;
+  private final int      mWarmupIterations;
+  private final double[] mScores;
+
+  /**
+   * Create a result.
+   *
+   * @param xiBenchmark        - the benchmark name.
+   * @param xiGame             - the game it was run on.
+   * @param xiWarmupIterations - the number of (unrecorded) warm-up iterations.
+   * @param xiScores           - throughput (in operations per second) for each measurement iteration.
+   */
+  public BenchmarkResult(String xiBenchmark, String xiGame, int xiWarmupIterations, double[] xiScores)
+  {
+    mBenchmark = xiBenchmark;
+    mGame = xiGame;
+    mWarmupIterations = xiWarmupIterations;
+    mScores = xiScores;
+  }
+
+  /**
+   * @return a key identifying the benchmark and game.
+   */
+  public String getKey()
+  {
+    return mBenchmark + " [" + mGame + "]";
+  }
+
+  /**
+   * @return the mean throughput, in operations per second.
+   */
+  public double getScore()
+  {
+    double lTotal = 0;
+    for (double lScore : mScores)
+    {
+      lTotal += lScore;
+    }
+    return mScores.length == 0 ? 0 : lTotal / mScores.length;
+  }
+
+  /**
+   * @return the half-width of the 99.9% confidence interval around the score.
+   */
+  public double getScoreError()
+  {
+    if (mScores.length < 2)
+    {
+      return Double.NaN;
+    }
+
+    double lMean = getScore();
+    double lSumSquares = 0;
+    for (double lScore : mScores)
+    {
+      lSumSquares += (lScore - lMean) * (lScore - lMean);
+    }
+
+    double lStdDev = Math.sqrt(lSumSquares / (mScores.length - 1));
+    return CONFIDENCE_QUANTILE * lStdDev / Math.sqrt(mScores.length);
+  }
+
+  /**
+   * @return this result in JMH's JSON layout.
+   *
+   * @throws JSONException if the result can't be serialized.
+   */
+  public JSONObject toJSON() throws JSONException
+  {
+    JSONObject lParams = new JSONObject();
+    lParams.put("game", mGame);
+
+    JSONArray lRawData = new JSONArray();
+    for (double lScore : mScores)
+    {
+      lRawData.put(lScore);
+    }
+
+    JSONObject lMetric = new JSONObject();
+    lMetric.put("score", getScore());
+    double lError = getScoreError();
+    lMetric.put("scoreError", Double.isNaN(lError) ? "NaN" : lError);
+    lMetric.put("scoreUnit", UNIT);
+    lMetric.put("rawData", new JSONArray().put(lRawData));
+
+    JSONObject lResult = new JSONObject();
+    lResult.put("benchmark", mBenchmark);
+    lResult.put("mode", MODE);
+    lResult.put("params", lParams);
+    lResult.put("warmupIterations", mWarmupIterations);
+    lResult.put("measurementIterations", mScores.length);
+    lResult.put("primaryMetric", lMetric);
+
+    return lResult;
+  }
+
+  /**
+   * @return a result read from JMH's JSON layout.
+   *
+   * @param xiJSON - the serialized result.
+   *
+   * @throws JSONException if the JSON isn't a valid result.
+   */
+  public static BenchmarkResult fromJSON(JSONObject xiJSON) throws JSONException
+  {
+    JSONObject lParams = xiJSON.optJSONObject("params");
+    String lGame = (lParams == null ? "" : lParams.optString("game"));
+
+    JSONArray lForks = xiJSON.getJSONObject("primaryMetric").getJSONArray("rawData");
+    int lNumScores = 0;
+    for (int lii = 0; lii < lForks.length(); lii++)
+    {
+      lNumScores += lForks.getJSONArray(lii).length();
+    }
+
+    double[] lScores = new double[lNumScores];
+    int lIndex = 0;
+    for (int lii = 0; lii < lForks.length(); lii++)
+    {
+      JSONArray lFork = lForks.getJSONArray(lii);
+      for (int ljj = 0; ljj < lFork.length(); ljj++)
+      {
+        lScores[lIndex++] = lFork.getDouble(ljj);
+      }
+    }
+
+    return new BenchmarkResult(xiJSON.getString("benchmark"),
+                               lGame,
+                               xiJSON.optInt("warmupIterations"),
+                               lScores);
+  }
+}
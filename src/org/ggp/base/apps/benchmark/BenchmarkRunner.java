@@ -0,0 +1,363 @@
+package org.ggp.base.apps.benchmark;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ggp.base.apps.benchmark.PropnetStateMachineBenchmark.Operation;
+import org.ggp.base.player.gamer.statemachine.sancho.MachineSpecificConfiguration;
+import org.ggp.base.player.gamer.statemachine.sancho.MachineSpecificConfiguration.CfgItem;
+import org.ggp.base.util.files.FileUtils;
+import org.ggp.base.util.game.Game;
+
+import external.JSON.JSONArray;
+import external.JSON.JSONException;
+
+/**
+ * Runs the benchmark suite for the state machines, propnet factory and MCTS hot paths over a fixed set of games.
+ *
+ * Each benchmark is run for a number of warm-up iterations (to let the JIT settle) and then a number of measurement
+ * iterations, each of a fixed duration.  Results are written as JSON, in the same layout as JMH's, and can be compared
+ * against the results from an earlier build to catch performance regressions.
+ */
+public class BenchmarkRunner
+{
+  private static final String[] DEFAULT_GAMES = {"ticTacToe", "connectFour", "BrkThru"};
+
+  private static final String GAMES_DIRECTORY = "games/all_games";
+
+  private int          mWarmupIterations    = 3;
+  private int          mMeasuredIterations  = 5;
+  private long         mIterationTime       = 1000;
+  private String       mFilter              = null;
+  private List<String> mGames               = new ArrayList<>();
+
+  /**
+   * @param args app commandline args, as follows:
+   *  [-games <game>,<game>...] - games to benchmark, by name in games/all_games (default ticTacToe, connectFour and
+   *                              BrkThru)
+   *  [-filter <text>] - only run benchmarks whose name contains the text
+   *  [-warmup <n>] - number of warm-up iterations (default 3)
+   *  [-iterations <n>] - number of measurement iterations (default 5)
+   *  [-time <ms>] - duration of each iteration (default 1000)
+   *  [-threads <n>] - number of CPU-intensive threads (default 2, i.e. 1 rollout thread)
+   *  [-out <file>] - write the results to a JSON file
+   *  [-baseline <file>] - compare the results against those in a JSON file from an earlier run
+   *  [-threshold <percent>] - drop in throughput from the baseline treated as a regression (default 10)
+   *
+   *  The exit code is 1 if a regression against the baseline is detected.
+   */
+  public static void main(String[] args) throws IOException, JSONException
+  {
+    BenchmarkRunner lRunner = new BenchmarkRunner();
+    String lOutFile = null;
+    String lBaselineFile = null;
+    double lThreshold = 10;
+    int lThreads = 2;
+
+    for (int lii = 0; lii < args.length; lii++)
+    {
+      String lArg = args[lii].toLowerCase();
+      if (lii + 1 >= args.length)
+      {
+        usage();
+      }
+
+      String lValue = args[++lii];
+      switch (lArg)
+      {
+        case "-games":
+          for (String lGame : lValue.split(","))
+          {
+            lRunner.mGames.add(lGame.trim());
+          }
+          break;
+        case "-filter":
+          lRunner.mFilter = lValue;
+          break;
+        case "-warmup":
+          lRunner.mWarmupIterations = Integer.parseInt(lValue);
+          break;
+        case "-iterations":
+          lRunner.mMeasuredIterations = Integer.parseInt(lValue);
+          break;
+        case "-time":
+          lRunner.mIterationTime = Long.parseLong(lValue);
+          break;
+        case "-threads":
+          lThreads = Integer.parseInt(lValue);
+          break;
+        case "-out":
+          lOutFile = lValue;
+          break;
+        case "-baseline":
+          lBaselineFile = lValue;
+          break;
+        case "-threshold":
+          lThreshold = Double.parseDouble(lValue);
+          break;
+        default:
+          usage();
+      }
+    }
+
+    if (lRunner.mGames.isEmpty())
+    {
+      for (String lGame : DEFAULT_GAMES)
+      {
+        lRunner.mGames.add(lGame);
+      }
+    }
+
+    //  This must be done before anything reads the thread configuration.  Local search is disabled because its
+    //  threads would compete with the benchmarks for CPU.
+    MachineSpecificConfiguration.setCfgVal(CfgItem.CPU_INTENSIVE_THREADS, lThreads);
+    MachineSpecificConfiguration.setCfgVal(CfgItem.USE_LOCAL_SEARCH, false);
+
+    List<BenchmarkResult> lResults = lRunner.run();
+
+    JSONArray lJSON = new JSONArray();
+    for (BenchmarkResult lResult : lResults)
+    {
+      lJSON.put(lResult.toJSON());
+    }
+
+    if (lOutFile != null)
+    {
+      try (Writer lWriter = new FileWriter(lOutFile))
+      {
+        lWriter.write(lJSON.toString(2));
+        lWriter.write("\n");
+      }
+      System.out.println("Results written to " + lOutFile);
+    }
+
+    if (lBaselineFile != null)
+    {
+      JSONArray lBaselineJSON = new JSONArray(FileUtils.readFileAsString(new File(lBaselineFile)));
+      List<BenchmarkResult> lBaseline = new ArrayList<>();
+      for (int lii = 0; lii < lBaselineJSON.length(); lii++)
+      {
+        lBaseline.add(BenchmarkResult.fromJSON(lBaselineJSON.getJSONObject(lii)));
+      }
+
+      if (compare(lBaseline, lResults, lThreshold))
+      {
+        System.exit(1);
+      }
+    }
+
+    //  Search and rollout threads may still be winding down
+    System.exit(0);
+  }
+
+  private static void usage()
+  {
+    System.out.println("Parameter usage: [-games <game>,...] [-filter <text>] [-warmup <n>] [-iterations <n>] " +
+                       "[-time <ms>] [-threads <n>] [-out <file>] [-baseline <file>] [-threshold <percent>]");
+    System.exit(1);
+  }
+
+  /**
+   * @return the benchmarks in the suite.  A new set is needed for each game.
+   */
+  private static List<Benchmark> createBenchmarks()
+  {
+    List<Benchmark> lBenchmarks = new ArrayList<>();
+
+    for (Operation lOperation : Operation.values())
+    {
+      lBenchmarks.add(new PropnetStateMachineBenchmark(lOperation));
+    }
+    for (Operation lOperation : Operation.values())
+    {
+      lBenchmarks.add(new ProverStateMachineBenchmark(lOperation, false));
+    }
+
+    //  Depth charges through the cache would just fill it with states that are never seen again
+    lBenchmarks.add(new ProverStateMachineBenchmark(Operation.LEGAL_MOVES, true));
+    lBenchmarks.add(new ProverStateMachineBenchmark(Operation.NEXT_STATE, true));
+
+    lBenchmarks.add(new MCTSBenchmark());
+    lBenchmarks.add(new PipelineBenchmark());
+    lBenchmarks.add(new PropNetFactoryBenchmark());
+
+    return lBenchmarks;
+  }
+
+  /**
+   * @return the results of running all the (selected) benchmarks on all the games.
+   */
+  private List<BenchmarkResult> run()
+  {
+    List<BenchmarkResult> lResults = new ArrayList<>();
+
+    for (String lGameName : mGames)
+    {
+      File lRulesheet = new File(GAMES_DIRECTORY + "/" + lGameName + "/" + lGameName + ".kif");
+      if (!lRulesheet.exists())
+      {
+        System.err.println("Game not found: " + lRulesheet);
+        continue;
+      }
+
+      Game lGame = Game.createEphemeralGame(Game.preprocessRulesheet(FileUtils.readFileAsString(lRulesheet)));
+
+      for (Benchmark lBenchmark : createBenchmarks())
+      {
+        if (mFilter != null && !lBenchmark.getName().contains(mFilter))
+        {
+          continue;
+        }
+
+        BenchmarkResult lResult = runBenchmark(lBenchmark, lGame, lGameName);
+        if (lResult != null)
+        {
+          lResults.add(lResult);
+        }
+      }
+    }
+
+    return lResults;
+  }
+
+  /**
+   * @return the result of running a benchmark on a game, or null if it couldn't be run.
+   *
+   * @param xiBenchmark - the benchmark.
+   * @param xiGame      - the game.
+   * @param xiGameName  - the name of the game.
+   */
+  private BenchmarkResult runBenchmark(Benchmark xiBenchmark, Game xiGame, String xiGameName)
+  {
+    String lKey = xiBenchmark.getName() + " [" + xiGameName + "]";
+    double[] lScores = new double[mMeasuredIterations];
+
+    try
+    {
+      xiBenchmark.setUp(xiGame);
+
+      for (int lii = 0; lii < mWarmupIterations; lii++)
+      {
+        double lScore = runIteration(xiBenchmark, xiGame);
+        System.out.println(String.format("%s: warm-up %d: %.1f ops/s", lKey, lii + 1, lScore));
+      }
+
+      for (int lii = 0; lii < mMeasuredIterations; lii++)
+      {
+        lScores[lii] = runIteration(xiBenchmark, xiGame);
+        System.out.println(String.format("%s: iteration %d: %.1f ops/s", lKey, lii + 1, lScores[lii]));
+      }
+    }
+    catch (Exception lEx)
+    {
+      System.out.println(lKey + ": skipped - " + lEx);
+      return null;
+    }
+    finally
+    {
+      xiBenchmark.tearDown();
+    }
+
+    BenchmarkResult lResult = new BenchmarkResult(xiBenchmark.getName(), xiGameName, mWarmupIterations, lScores);
+    System.out.println(String.format("%s: %.1f +- %.1f ops/s (sink %d)",
+                                     lKey,
+                                     lResult.getScore(),
+                                     lResult.getScoreError(),
+                                     xiBenchmark.getSink()));
+    return lResult;
+  }
+
+  /**
+   * @return the throughput, in operations per second, over one iteration.  Any time spent resetting the benchmark is
+   * excluded.
+   *
+   * @param xiBenchmark - the benchmark.
+   * @param xiGame      - the game.
+   *
+   * @throws Exception if the benchmark fails.
+   */
+  private double runIteration(Benchmark xiBenchmark, Game xiGame) throws Exception
+  {
+    long lOperations = 0;
+    long lStartTime = System.nanoTime();
+    long lEndTime = lStartTime + mIterationTime * 1000000L;
+    long lResetTime = 0;
+    long lNow;
+
+    do
+    {
+      lOperations += xiBenchmark.runBatch();
+      if (xiBenchmark.needsReset())
+      {
+        long lResetStartTime = System.nanoTime();
+        xiBenchmark.tearDown();
+        xiBenchmark.setUp(xiGame);
+        lResetTime += System.nanoTime() - lResetStartTime;
+      }
+      lNow = System.nanoTime();
+    }
+    while (lNow - lResetTime < lEndTime);
+
+    return lOperations * 1.0e9 / (lNow - lStartTime - lResetTime);
+  }
+
+  /**
+   * Compare results against a baseline, printing the change for each benchmark.
+   *
+   * A benchmark has regressed if its throughput has dropped by more than the threshold and by more than the combined
+   * error of the two measurements (so that noise alone isn't reported).
+   *
+   * @return whether any benchmark has regressed.
+   *
+   * @param xiBaseline  - the baseline results.
+   * @param xiResults   - the new results.
+   * @param xiThreshold - the percentage drop in throughput that counts as a regression.
+   */
+  private static boolean compare(List<BenchmarkResult> xiBaseline,
+                                 List<BenchmarkResult> xiResults,
+                                 double xiThreshold)
+  {
+    Map<String, BenchmarkResult> lBaselineByKey = new HashMap<>();
+    for (BenchmarkResult lResult : xiBaseline)
+    {
+      lBaselineByKey.put(lResult.getKey(), lResult);
+    }
+
+    boolean lRegressed = false;
+    System.out.println();
+    System.out.println("Comparison with baseline (threshold " + xiThreshold + "%):");
+
+    for (BenchmarkResult lResult : xiResults)
+    {
+      BenchmarkResult lBase = lBaselineByKey.get(lResult.getKey());
+      if (lBase == null)
+      {
+        System.out.println(String.format("  %-70s   (no baseline)", lResult.getKey()));
+        continue;
+      }
+
+      double lChange = (lResult.getScore() - lBase.getScore()) * 100 / lBase.getScore();
+      double lError = errorOrZero(lResult.getScoreError()) + errorOrZero(lBase.getScoreError());
+      boolean lIsRegression = (lChange < -xiThreshold) && (lBase.getScore() - lResult.getScore() > lError);
+
+      System.out.println(String.format("  %-70s %+7.1f%%%s",
+                                       lResult.getKey(),
+                                       lChange,
+                                       lIsRegression ? "   REGRESSION" : ""));
+      lRegressed |= lIsRegression;
+    }
+
+    return lRegressed;
+  }
+
+  private static double errorOrZero(double xiError)
+  {
+    return Double.isNaN(xiError) ? 0 : xiError;
+  }
+}
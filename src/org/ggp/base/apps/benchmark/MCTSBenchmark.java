@@ -0,0 +1,118 @@
+package org.ggp.base.apps.benchmark;
+
+import org.ggp.base.player.gamer.statemachine.sancho.GameSearcher;
+import org.ggp.base.player.gamer.statemachine.sancho.RoleOrdering;
+import org.ggp.base.player.gamer.statemachine.sancho.RuntimeGameCharacteristics;
+import org.ggp.base.player.gamer.statemachine.sancho.ThreadControl;
+import org.ggp.base.player.gamer.statemachine.sancho.heuristic.CombinedHeuristic;
+import org.ggp.base.player.gamer.statemachine.sancho.heuristic.Heuristic;
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonInternalMachineState;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.implementation.propnet.forwardDeadReckon.ForwardDeadReckonPropnetStateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+
+/**
+ * Benchmark of MCTS iterations - i.e. select, expand, rollout and update of node statistics in the search tree.  The
+ * iterations are run synchronously on the benchmark thread, so the measurement is of single-threaded tree work and is
+ * not affected by how the rollout threads happen to be scheduled.
+ */
+public class MCTSBenchmark extends Benchmark
+{
+  private static final int NODE_TABLE_SIZE      = 200000;
+  private static final int ITERATIONS_PER_BATCH = 100;
+
+  private GameSearcher mGameSearcher;
+  private long         mLastNumIterations;
+  private boolean      mSolved;
+
+  @Override
+  public String getName()
+  {
+    return "GameSearcher.expandSearch";
+  }
+
+  @Override
+  public void setUp(Game xiGame) throws Exception
+  {
+    //  The state machine needs to know our role up front for its role ordering
+    ProverStateMachine lProver = new ProverStateMachine();
+    lProver.initialize(xiGame.getRules());
+    Role lOurRole = lProver.getRoles()[0];
+
+    RuntimeGameCharacteristics lGameCharacteristics = new RuntimeGameCharacteristics(null);
+    ForwardDeadReckonPropnetStateMachine lStateMachine =
+                                       new ForwardDeadReckonPropnetStateMachine(ThreadControl.CPU_INTENSIVE_THREADS,
+                                                                                System.currentTimeMillis() + 60000,
+                                                                                lOurRole,
+                                                                                lGameCharacteristics);
+    lStateMachine.initialize(xiGame.getRules());
+    lStateMachine.enableGreedyRollouts(false, true);
+    lGameCharacteristics.setRolloutSampleSize(1);
+    lStateMachine.optimizeStateTransitionMechanism(System.currentTimeMillis() + 5000);
+
+    Heuristic lHeuristic = new CombinedHeuristic();
+    lHeuristic.tuningComplete();
+
+    ForwardDeadReckonInternalMachineState lInitialState =
+                                   lStateMachine.createInternalState(lStateMachine.getInitialState());
+
+    mGameSearcher = new GameSearcher(NODE_TABLE_SIZE, lStateMachine.getRoles().length, "Benchmark");
+    mGameSearcher.setup(lStateMachine,
+                        lInitialState,
+                        new RoleOrdering(lStateMachine, lOurRole),
+                        lGameCharacteristics,
+                        true,
+                        lHeuristic,
+                        null,
+                        null);
+    mGameSearcher.startSearch(Long.MAX_VALUE, lInitialState, (short)0, null);
+    mLastNumIterations = 0;
+    mSolved = false;
+  }
+
+  @Override
+  public long runBatch() throws Exception
+  {
+    assert(ThreadControl.takeTreeOwnership());
+    try
+    {
+      for (int lii = 0; lii < ITERATIONS_PER_BATCH; lii++)
+      {
+        if (mGameSearcher.expandSearch(true))
+        {
+          //  Once the tree is solved, iterations no longer do any work, so start again with a new tree
+          mSolved = true;
+          break;
+        }
+      }
+    }
+    finally
+    {
+      assert(ThreadControl.releaseTreeOwnership());
+    }
+
+    long lNumIterations = mGameSearcher.getNumIterations();
+    long lDone = lNumIterations - mLastNumIterations;
+    mLastNumIterations = lNumIterations;
+    consume(lDone);
+
+    return lDone;
+  }
+
+  @Override
+  public boolean needsReset()
+  {
+    return mSolved;
+  }
+
+  @Override
+  public void tearDown()
+  {
+    if (mGameSearcher != null)
+    {
+      mGameSearcher.terminate();
+      mGameSearcher = null;
+    }
+  }
+}
@@ -0,0 +1,79 @@
+package org.ggp.base.apps.benchmark;
+
+import org.ggp.base.player.gamer.statemachine.sancho.Pipeline;
+import org.ggp.base.player.gamer.statemachine.sancho.ThreadControl;
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.statemachine.implementation.propnet.forwardDeadReckon.ForwardDeadReckonPropnetStateMachine;
+
+/**
+ * Benchmark of the pipeline hand-off between the tree thread and the rollout threads.  A single thread plays all the
+ * parts (expand, rollout and back-propagation) without doing any of the real work, so this measures only the
+ * overhead of passing requests through the pipeline.
+ */
+public class PipelineBenchmark extends Benchmark
+{
+  private static final int PIPELINE_SIZE    = 64;
+  private static final int FILLS_PER_BATCH  = 64;
+
+  private Pipeline mPipeline;
+
+  @Override
+  public String getName()
+  {
+    return "Pipeline.handOff";
+  }
+
+  @Override
+  public void setUp(Game xiGame) throws Exception
+  {
+    if (ThreadControl.ROLLOUT_THREADS != 1)
+    {
+      throw new IllegalStateException("Needs exactly 1 rollout thread (run with -threads 2)");
+    }
+
+    ForwardDeadReckonPropnetStateMachine lStateMachine = PropnetStateMachineBenchmark.createStateMachine(xiGame);
+    mPipeline = new Pipeline(PIPELINE_SIZE, lStateMachine.getRoles().length, lStateMachine);
+  }
+
+  @Override
+  public long runBatch()
+  {
+    long lNumRequests = 0;
+
+    for (int lii = 0; lii < FILLS_PER_BATCH; lii++)
+    {
+      int lNumQueued = 0;
+      while (mPipeline.canExpand())
+      {
+        mPipeline.getNextExpandSlot();
+        mPipeline.completedExpansion();
+        lNumQueued++;
+      }
+
+      for (int ljj = 0; ljj < lNumQueued; ljj++)
+      {
+        mPipeline.completedRollout(mPipeline.getNextRolloutRequest(0));
+      }
+
+      while (mPipeline.canBackPropagate())
+      {
+        int lBatchSize = mPipeline.getRequestsForBackPropagation();
+        for (int ljj = 0; ljj < lBatchSize; ljj++)
+        {
+          mPipeline.completedBackPropagation(mPipeline.getRequestForBackPropagation(ljj));
+        }
+      }
+
+      lNumRequests += lNumQueued;
+    }
+
+    consume(lNumRequests);
+    return lNumRequests;
+  }
+
+  @Override
+  public void tearDown()
+  {
+    mPipeline = null;
+  }
+}
@@ -0,0 +1,45 @@
+package org.ggp.base.apps.benchmark;
+
+import java.util.List;
+
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.propnet.polymorphic.PolymorphicPropNet;
+import org.ggp.base.util.propnet.polymorphic.factory.OptimizingPolymorphicPropNetFactory;
+import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonComponentFactory;
+
+/**
+ * Benchmark of building a propnet from the game rules.  Each batch is a single build, so use a long iteration time
+ * (a second or more) for stable results on the larger games.
+ */
+public class PropNetFactoryBenchmark extends Benchmark
+{
+  private List<Gdl> mRules;
+
+  @Override
+  public String getName()
+  {
+    return "OptimizingPolymorphicPropNetFactory.create";
+  }
+
+  @Override
+  public void setUp(Game xiGame)
+  {
+    mRules = xiGame.getRules();
+  }
+
+  @Override
+  public long runBatch() throws InterruptedException
+  {
+    PolymorphicPropNet lPropNet = OptimizingPolymorphicPropNetFactory.create(mRules,
+                                                                             new ForwardDeadReckonComponentFactory());
+    consume(lPropNet.getComponents().size());
+    return 1;
+  }
+
+  @Override
+  public void tearDown()
+  {
+    mRules = null;
+  }
+}
@@ -0,0 +1,164 @@
+package org.ggp.base.apps.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonInternalMachineState;
+import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonLegalMoveInfo;
+import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonLegalMoveSet;
+import org.ggp.base.util.statemachine.implementation.propnet.forwardDeadReckon.ForwardDeadReckonPropnetStateMachine;
+
+/**
+ * Benchmarks of the basic operations of the propnet state machine.  Each batch works through a fixed set of states,
+ * sampled by random play, so that the measurements aren't dominated by the (atypically small) initial state.
+ */
+public class PropnetStateMachineBenchmark extends Benchmark
+{
+  /**
+   * The operation to measure.
+   */
+  public enum Operation
+  {
+    /**
+     * getLegalMoveSet() for each sampled state.
+     */
+    LEGAL_MOVES("getLegalMoveSet"),
+    /**
+     * getNextState() for each sampled state, with a fixed random joint move.
+     */
+    NEXT_STATE("getNextState"),
+    /**
+     * getDepthChargeResult() (i.e. a random playout to a terminal state) from each sampled state.
+     */
+    DEPTH_CHARGE("getDepthChargeResult");
+
+    final String mMethodName;
+
+    Operation(String xiMethodName)
+    {
+      mMethodName = xiMethodName;
+    }
+  }
+
+  private static final int NUM_SAMPLE_STATES = 256;
+
+  private final Operation mOperation;
+
+  private ForwardDeadReckonPropnetStateMachine      mStateMachine;
+  private ForwardDeadReckonInternalMachineState[]   mStates;
+  private ForwardDeadReckonLegalMoveInfo[][]        mMoves;
+  private ForwardDeadReckonInternalMachineState     mNextState;
+  private ForwardDeadReckonPropnetStateMachine.PlayoutInfo mPlayoutInfo;
+
+  /**
+   * Create a benchmark of a state machine operation.
+   *
+   * @param xiOperation - the operation to measure.
+   */
+  public PropnetStateMachineBenchmark(Operation xiOperation)
+  {
+    mOperation = xiOperation;
+  }
+
+  @Override
+  public String getName()
+  {
+    return "ForwardDeadReckonPropnetStateMachine." + mOperation.mMethodName;
+  }
+
+  @Override
+  public void setUp(Game xiGame) throws Exception
+  {
+    mStateMachine = createStateMachine(xiGame);
+
+    int lNumRoles = mStateMachine.getRoles().length;
+    Random lRandom = new Random(0);
+    ForwardDeadReckonInternalMachineState lInitialState =
+                                   mStateMachine.createInternalState(mStateMachine.getInitialState());
+    ForwardDeadReckonInternalMachineState lState = lInitialState;
+
+    mStates = new ForwardDeadReckonInternalMachineState[NUM_SAMPLE_STATES];
+    mMoves = new ForwardDeadReckonLegalMoveInfo[NUM_SAMPLE_STATES][lNumRoles];
+    mNextState = mStateMachine.createEmptyInternalState();
+
+    for (int lii = 0; lii < NUM_SAMPLE_STATES; lii++)
+    {
+      mStates[lii] = lState;
+      ForwardDeadReckonLegalMoveSet lLegalMoves = mStateMachine.getLegalMoveSet(lState);
+      for (int lRoleIndex = 0; lRoleIndex < lNumRoles; lRoleIndex++)
+      {
+        List<ForwardDeadReckonLegalMoveInfo> lRoleMoves = new ArrayList<>(lLegalMoves.getContents(lRoleIndex));
+        mMoves[lii][lRoleIndex] = lRoleMoves.get(lRandom.nextInt(lRoleMoves.size()));
+      }
+
+      ForwardDeadReckonInternalMachineState lNextState = mStateMachine.createEmptyInternalState();
+      mStateMachine.getNextState(lState, null, mMoves[lii], lNextState);
+      lState = (mStateMachine.isTerminal(lNextState) ? lInitialState : lNextState);
+    }
+
+    mPlayoutInfo = mStateMachine.new PlayoutInfo(-1);
+    mPlayoutInfo.factor = null;
+    mPlayoutInfo.cutoffDepth = 1000;
+  }
+
+  @Override
+  public long runBatch()
+  {
+    switch (mOperation)
+    {
+      case LEGAL_MOVES:
+        for (ForwardDeadReckonInternalMachineState lState : mStates)
+        {
+          consume(mStateMachine.getLegalMoveSet(lState).getNumChoices(0));
+        }
+        return mStates.length;
+
+      case NEXT_STATE:
+        for (int lii = 0; lii < mStates.length; lii++)
+        {
+          mStateMachine.getNextState(mStates[lii], null, mMoves[lii], mNextState);
+          consume(mNextState.size());
+        }
+        return mStates.length;
+
+      case DEPTH_CHARGE:
+        //  Playouts are much more expensive than the other operations, so keep the batch short
+        for (int lii = 0; lii < mStates.length; lii += 16)
+        {
+          mStateMachine.getDepthChargeResult(mStates[lii], mPlayoutInfo);
+          consume(mPlayoutInfo.playoutLength);
+        }
+        return (mStates.length + 15) / 16;
+
+      default:
+        throw new IllegalStateException("Unknown operation " + mOperation);
+    }
+  }
+
+  @Override
+  public void tearDown()
+  {
+    mStateMachine = null;
+    mStates = null;
+    mMoves = null;
+    mNextState = null;
+    mPlayoutInfo = null;
+  }
+
+  /**
+   * @return a propnet state machine for a game, optimized as it would be for play.
+   *
+   * @param xiGame - the game.
+   */
+  static ForwardDeadReckonPropnetStateMachine createStateMachine(Game xiGame)
+  {
+    ForwardDeadReckonPropnetStateMachine lStateMachine = new ForwardDeadReckonPropnetStateMachine();
+    lStateMachine.initialize(xiGame.getRules());
+    lStateMachine.enableGreedyRollouts(false, true);
+    lStateMachine.optimizeStateTransitionMechanism(System.currentTimeMillis() + 5000);
+
+    return lStateMachine;
+  }
+}
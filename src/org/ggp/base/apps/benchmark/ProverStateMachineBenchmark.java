@@ -0,0 +1,130 @@
+package org.ggp.base.apps.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.ggp.base.apps.benchmark.PropnetStateMachineBenchmark.Operation;
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.cache.CachedStateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+
+/**
+ * Benchmarks of the basic operations of the prover state machine, either on its own or behind a cache.  As for the
+ * propnet benchmarks, each batch works through a fixed set of states sampled by random play.  With the cache, every
+ * state is seen on each batch, so after the first batch this measures the cost of a cache hit.
+ */
+public class ProverStateMachineBenchmark extends Benchmark
+{
+  private static final int NUM_SAMPLE_STATES = 64;
+
+  private final Operation mOperation;
+  private final boolean   mCached;
+
+  private StateMachine     mStateMachine;
+  private MachineState[]   mStates;
+  private List<List<Move>> mMoves;
+  private final int[]      mDepth = new int[1];
+
+  /**
+   * Create a benchmark of a prover state machine operation.
+   *
+   * @param xiOperation - the operation to measure.
+   * @param xiCached    - whether to put a CachedStateMachine in front of the prover.
+   */
+  public ProverStateMachineBenchmark(Operation xiOperation, boolean xiCached)
+  {
+    mOperation = xiOperation;
+    mCached = xiCached;
+  }
+
+  @Override
+  public String getName()
+  {
+    String lMethodName;
+    switch (mOperation)
+    {
+      case LEGAL_MOVES:
+        lMethodName = "getLegalJointMoves";
+        break;
+      case NEXT_STATE:
+        lMethodName = "getNextState";
+        break;
+      default:
+        lMethodName = "performDepthCharge";
+        break;
+    }
+
+    return (mCached ? "CachedStateMachine." : "ProverStateMachine.") + lMethodName;
+  }
+
+  @Override
+  public void setUp(Game xiGame) throws Exception
+  {
+    StateMachine lProver = new ProverStateMachine();
+    mStateMachine = (mCached ? new CachedStateMachine(lProver) : lProver);
+    mStateMachine.initialize(xiGame.getRules());
+    mStateMachine.setRandomSeed(0);
+
+    Random lRandom = new Random(0);
+    MachineState lInitialState = mStateMachine.getInitialState();
+    MachineState lState = lInitialState;
+
+    mStates = new MachineState[NUM_SAMPLE_STATES];
+    mMoves = new ArrayList<>(NUM_SAMPLE_STATES);
+
+    for (int lii = 0; lii < NUM_SAMPLE_STATES; lii++)
+    {
+      mStates[lii] = lState;
+      List<List<Move>> lJointMoves = mStateMachine.getLegalJointMoves(lState);
+      List<Move> lJointMove = lJointMoves.get(lRandom.nextInt(lJointMoves.size()));
+      mMoves.add(lJointMove);
+
+      MachineState lNextState = mStateMachine.getNextState(lState, lJointMove);
+      lState = (mStateMachine.isTerminal(lNextState) ? lInitialState : lNextState);
+    }
+  }
+
+  @Override
+  public long runBatch() throws Exception
+  {
+    switch (mOperation)
+    {
+      case LEGAL_MOVES:
+        for (MachineState lState : mStates)
+        {
+          consume(mStateMachine.getLegalJointMoves(lState).size());
+        }
+        return mStates.length;
+
+      case NEXT_STATE:
+        for (int lii = 0; lii < mStates.length; lii++)
+        {
+          consume(mStateMachine.getNextState(mStates[lii], mMoves.get(lii)).getContents().size());
+        }
+        return mStates.length;
+
+      case DEPTH_CHARGE:
+        for (int lii = 0; lii < mStates.length; lii += 16)
+        {
+          mStateMachine.performDepthCharge(mStates[lii], mDepth);
+          consume(mDepth[0]);
+        }
+        return (mStates.length + 15) / 16;
+
+      default:
+        throw new IllegalStateException("Unknown operation " + mOperation);
+    }
+  }
+
+  @Override
+  public void tearDown()
+  {
+    mStateMachine = null;
+    mStates = null;
+    mMoves = null;
+  }
+}
@@ -30,6 +30,7 @@ import org.ggp.base.apps.server.leaderboard.LeaderboardPanel;
 import org.ggp.base.apps.server.scheduling.PendingMatch;
 import org.ggp.base.apps.server.scheduling.Scheduler;
 import org.ggp.base.apps.server.scheduling.SchedulingPanel;
+import org.ggp.base.server.GameServer.Referee;
 import org.ggp.base.util.crypto.BaseCryptography.EncodedKeyPair;
 import org.ggp.base.util.game.Game;
 import org.ggp.base.util.game.GameRepository;
@@ -108,6 +109,7 @@ public final class Server extends JPanel implements ActionListener
   private final JSpinner                playClockSpinner;
   private final JSpinner                repetitionsSpinner;
   private final JSpinner                moveLimitSpinner;
+  private final JComboBox<Referee>      refereeComboBox;
 
   private final JCheckBox               shouldScramble;
   private final JCheckBox               shouldQueue;
@@ -133,6 +135,7 @@ public final class Server extends JPanel implements ActionListener
     playClockSpinner = new JSpinner(new SpinnerNumberModel(15, 1, 300, 1));
     repetitionsSpinner = new JSpinner(new SpinnerNumberModel(1, 1, 1000, 1));
     moveLimitSpinner = new JSpinner(new SpinnerNumberModel(0, 0, 1000, 1));
+    refereeComboBox = new JComboBox<>(Referee.values());
     matchesTabbedPane = new JTabbedPane();
 
     managerPanel = new JPanel(new GridBagLayout());
@@ -312,6 +315,30 @@ public final class Server extends JPanel implements ActionListener
                                          new Insets(1, 5, 5, 5),
                                          5,
                                          5));
+    gamePanel.add(new JLabel("Referee:"),
+                  new GridBagConstraints(0,
+                                         nRowCount,
+                                         1,
+                                         1,
+                                         0.0,
+                                         0.0,
+                                         GridBagConstraints.EAST,
+                                         GridBagConstraints.NONE,
+                                         new Insets(1, 5, 5, 5),
+                                         5,
+                                         5));
+    gamePanel.add(refereeComboBox,
+                  new GridBagConstraints(1,
+                                         nRowCount++,
+                                         1,
+                                         1,
+                                         0.0,
+                                         0.0,
+                                         GridBagConstraints.EAST,
+                                         GridBagConstraints.HORIZONTAL,
+                                         new Insets(1, 5, 5, 5),
+                                         5,
+                                         5));
     gamePanel.add(shouldScramble,
                   new GridBagConstraints(1,
                                          nRowCount++,
@@ -674,7 +701,8 @@ public final class Server extends JPanel implements ActionListener
                                                   shouldQueue.isSelected(),
                                                   shouldDetail.isSelected(),
                                                   shouldSave.isSelected(),
-                                                  shouldPublish.isSelected()));
+                                                  shouldPublish.isSelected(),
+                                                  (Referee)refereeComboBox.getSelectedItem()));
             thePlayers.add(thePlayers.remove(0)); // rotate player roster for repeated matches
             try
             {
@@ -716,7 +744,8 @@ public final class Server extends JPanel implements ActionListener
                                                      false,
                                                      true,
                                                      false,
-                                                     false));
+                                                     false,
+                                                     Referee.PROVER));
         }
       }
     };
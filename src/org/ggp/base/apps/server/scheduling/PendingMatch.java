@@ -3,6 +3,7 @@ package org.ggp.base.apps.server.scheduling;
 
 import java.util.List;
 
+import org.ggp.base.server.GameServer.Referee;
 import org.ggp.base.util.game.Game;
 import org.ggp.base.util.presence.PlayerPresence;
 
@@ -20,6 +21,7 @@ public final class PendingMatch
   public final boolean              shouldDetail;
   public final boolean              shouldSave;
   public final boolean              shouldPublish;
+  public final Referee              referee;
 
   public PendingMatch(String matchIdPrefix,
                       Game theGame,
@@ -32,7 +34,8 @@ public final class PendingMatch
                       boolean shouldQueue,
                       boolean shouldDetail,
                       boolean shouldSave,
-                      boolean shouldPublish)
+                      boolean shouldPublish,
+                      Referee referee)
   {
     this.matchID = matchIdPrefix + "." + theGame.getKey() + "." +
                    System.currentTimeMillis();
@@ -47,5 +50,6 @@ public final class PendingMatch
     this.shouldDetail = shouldDetail;
     this.shouldSave = shouldSave;
     this.shouldPublish = shouldPublish;
+    this.referee = referee;
   }
 }
\ No newline at end of file
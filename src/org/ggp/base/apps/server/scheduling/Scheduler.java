@@ -146,7 +146,7 @@ public final class Scheduler implements Observer
         match.enableScrambling();
       }
 
-      GameServer gameServer = new GameServer(match, hosts, ports);
+      GameServer gameServer = new GameServer(match, hosts, ports, spec.referee);
       if (spec.shouldDetail)
       {
         gameServer.addObserver(errorPanel);
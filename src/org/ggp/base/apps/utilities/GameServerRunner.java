@@ -5,9 +5,11 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.ggp.base.server.GameServer;
+import org.ggp.base.server.GameServer.Referee;
 import org.ggp.base.util.game.CloudGameRepository;
 import org.ggp.base.util.game.Game;
 import org.ggp.base.util.match.Match;
@@ -26,14 +28,17 @@ import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
 public final class GameServerRunner
 {
   private static final String sHelp =
-    "Args: <Tournament name> <Repo> <Game key> <Start> <Play> <Limit>\n" +
+    "Args: [-referee PROVER|PROPNET|VERIFIED_PROPNET]\n" +
+    "      <Tournament name> <Repo> <Game key> <Start> <Play> <Limit>\n" +
     "      <Player1Host> <Player1Port> <Player1Name> [<Player2><><>...]\n";
 
   private static final int NUM_FIXED_ARGS = 6;
 
   /**
    * Run a single match directly from the command line.  It takes the following
-   * arguments:
+   * arguments, optionally preceded by "-referee &lt;kind&gt;" to choose the
+   * state machine that referees the match (see {@link Referee} - the default
+   * is the prover):
    *
    * @param args
    * - args[0] = tournament name, for storing results
@@ -52,6 +57,13 @@ public final class GameServerRunner
   public static void main(String[] args)
     throws IOException, InterruptedException, GoalDefinitionException
   {
+    Referee referee = Referee.PROVER;
+    if ((args.length >= 2) && args[0].equals("-referee"))
+    {
+      referee = Referee.valueOf(args[1]);
+      args = Arrays.copyOfRange(args, 2, args.length);
+    }
+
     if (args.length < NUM_FIXED_ARGS)
     {
       System.err.println(sHelp);
@@ -95,7 +107,7 @@ public final class GameServerRunner
     match.setPlayerNamesFromHost(playerNames);
 
     // Actually run the match, using the desired configuration.
-    GameServer server = new GameServer(match, hostNames, portNumbers);
+    GameServer server = new GameServer(match, hostNames, portNumbers, referee);
     server.run();
     server.join();
 
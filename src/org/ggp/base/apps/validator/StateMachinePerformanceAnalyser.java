@@ -2,6 +2,7 @@ package org.ggp.base.apps.validator;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -19,6 +20,8 @@ import org.ggp.base.util.game.LocalGameRepository;
 import org.ggp.base.util.gdl.grammar.Gdl;
 import org.ggp.base.util.logging.GamerLogger;
 import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonInternalMachineState;
+import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonLegalMoveInfo;
+import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonLegalMoveSet;
 import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
@@ -92,12 +95,15 @@ public class StateMachinePerformanceAnalyser
     public int expansionsPerSecond;
     public long highestLatency;
     public long averageLatency;
+    public int sequentialNextStatesPerSecond;
+    public int batchNextStatesPerSecond;
   }
 
   /**
    * @param args app commandline args, as follows:
    *  [-statemachine] - includes direct state machine rollout tests
    *  [-gamesearcher] - includes tests of the higher-level game searcher
+   *  [-batch] - includes tests of batch (bit-parallel) next state calculation, against one state at a time
    *  [-time<num seconds>] - specify how long to run each test for
    *  <remaining params, of arbitrary number, each of which is a game name to test>
    */
@@ -106,6 +112,7 @@ public class StateMachinePerformanceAnalyser
     Map<String,PerformanceInfo> gamesList = new HashMap<>();
     boolean testDirectStateMachine = false;
     boolean testSanchoGameSearcher = false;
+    boolean testBatchEvaluation = false;
     boolean useLocalRepository = false;
 
     for(String arg : args)
@@ -120,6 +127,9 @@ public class StateMachinePerformanceAnalyser
           case "-gamesearcher":
             testSanchoGameSearcher = true;
             break;
+          case "-batch":
+            testBatchEvaluation = true;
+            break;
           case "-local":
             useLocalRepository = true;
             break;
@@ -130,7 +140,7 @@ public class StateMachinePerformanceAnalyser
             }
             else
             {
-              System.out.println("Parameter usage: [-statemachine] [-gamesearcher] [-time<numSeconds>] <gameName> [<gameName>...]");
+              System.out.println("Parameter usage: [-statemachine] [-gamesearcher] [-batch] [-time<numSeconds>] <gameName> [<gameName>...]");
               System.exit(1);
             }
         }
@@ -157,6 +167,11 @@ public class StateMachinePerformanceAnalyser
         analyser.testGameSearcher(theRepository, gamesList);
       }
 
+      if ( testBatchEvaluation )
+      {
+        analyser.testBatchEvaluation(theRepository, gamesList);
+      }
+
       for(Entry<String, PerformanceInfo> e : gamesList.entrySet())
       {
         if ( e.getValue() != null )
@@ -173,6 +188,11 @@ public class StateMachinePerformanceAnalyser
             System.out.println("  GameSearcher highest pipeline latency(micro seconds): " + e.getValue().highestLatency/1000);
             System.out.println("  GameSearcher average pipeline latency(micro seconds): " + e.getValue().averageLatency/1000);
           }
+          if ( testBatchEvaluation )
+          {
+            System.out.println("  Sequential next states per second: " + e.getValue().sequentialNextStatesPerSecond);
+            System.out.println("  Batch next states per second: " + e.getValue().batchNextStatesPerSecond);
+          }
         }
       }
 
@@ -403,6 +423,102 @@ public class StateMachinePerformanceAnalyser
     }
   }
 
+  private void testBatchEvaluation(GameRepository theRepository, Map<String,PerformanceInfo> gamesList)
+  {
+    final int numSampleStates = 4096;
+
+    for(String gameKey : gamesList.keySet())
+    {
+      if ( !theRepository.getGameKeys().contains(gameKey))
+      {
+        System.out.println("Game " + gameKey + " not found");
+        continue;
+      }
+
+      System.out.println("Measure game " + gameKey + " batch evaluation performance.");
+      List<Gdl> description = theRepository.getGame(gameKey).getRules();
+
+      PerformanceInfo perfInfo = gamesList.get(gameKey);
+      if ( perfInfo == null )
+      {
+        perfInfo = new PerformanceInfo();
+      }
+
+      //  Time each mode with a fresh state machine (the batch evaluator is built on first use)
+      for(int mode = 0; mode < 2; mode++)
+      {
+        ForwardDeadReckonPropnetStateMachine theMachine = new ForwardDeadReckonPropnetStateMachine();
+        theMachine.initialize(description);
+        int numRoles = theMachine.getRoles().length;
+
+        //  Sample states by random play, then shuffle them so that successive states are unrelated (as when
+        //  expanding many different nodes)
+        Random rand = new Random(0);
+        ForwardDeadReckonInternalMachineState initialState = theMachine.createInternalState(theMachine.getInitialState());
+        ForwardDeadReckonInternalMachineState[] states = new ForwardDeadReckonInternalMachineState[numSampleStates];
+        ForwardDeadReckonInternalMachineState[] nextStates = new ForwardDeadReckonInternalMachineState[numSampleStates];
+        ForwardDeadReckonLegalMoveInfo[][] moves = new ForwardDeadReckonLegalMoveInfo[numSampleStates][numRoles];
+        ForwardDeadReckonInternalMachineState state = initialState;
+
+        for(int i = 0; i < numSampleStates; i++)
+        {
+          states[i] = state;
+          ForwardDeadReckonLegalMoveSet legalMoves = theMachine.getLegalMoveSet(state);
+          for(int roleIndex = 0; roleIndex < numRoles; roleIndex++)
+          {
+            List<ForwardDeadReckonLegalMoveInfo> roleMoves = new ArrayList<>(legalMoves.getContents(roleIndex));
+            moves[i][roleIndex] = roleMoves.get(rand.nextInt(roleMoves.size()));
+          }
+          nextStates[i] = theMachine.createEmptyInternalState();
+          theMachine.getNextState(state, null, moves[i], nextStates[i]);
+          state = (theMachine.isTerminal(nextStates[i]) ? initialState : nextStates[i]);
+        }
+
+        for(int i = numSampleStates - 1; i > 0; i--)
+        {
+          int j = rand.nextInt(i + 1);
+          ForwardDeadReckonInternalMachineState tempState = states[i];
+          states[i] = states[j];
+          states[j] = tempState;
+          ForwardDeadReckonLegalMoveInfo[] tempMoves = moves[i];
+          moves[i] = moves[j];
+          moves[j] = tempMoves;
+        }
+
+        long startTime = System.currentTimeMillis();
+        long numNextStates = 0;
+
+        while(System.currentTimeMillis() < startTime + 1000*numSeconds)
+        {
+          if ( mode == 0 )
+          {
+            for(int i = 0; i < numSampleStates; i++)
+            {
+              theMachine.getNextState(states[i], null, moves[i], nextStates[i]);
+            }
+          }
+          else
+          {
+            theMachine.getNextStates(states, null, moves, numSampleStates, nextStates);
+          }
+          numNextStates += numSampleStates;
+        }
+
+        int nextStatesPerSecond = (int)(numNextStates/numSeconds);
+        if ( mode == 0 )
+        {
+          perfInfo.sequentialNextStatesPerSecond = nextStatesPerSecond;
+        }
+        else
+        {
+          perfInfo.batchNextStatesPerSecond = nextStatesPerSecond;
+        }
+      }
+
+      gamesList.put(gameKey, perfInfo);
+    }
+  }
+
   private void testGameSearcher(GameRepository theRepository, Map<String,PerformanceInfo> gamesList)
   {
     for (String gameKey : gamesList.keySet())
@@ -0,0 +1,703 @@
+package org.ggp.base.player.gamer.statemachine.sancho;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.ggp.base.player.gamer.statemachine.sancho.MachineSpecificConfiguration.CfgItem;
+import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonInternalMachineState;
+import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonLegalMoveInfo;
+import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonStateEncoding;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.implementation.propnet.forwardDeadReckon.ForwardDeadReckonPropnetStateMachine;
+
+/**
+ * Parallel, memory-bounded A* search for a puzzle whose solution (target) state is known.
+ *
+ * The search is hash-distributed.  Each thread owns the states whose fingerprints hash to it, and holds the frontier
+ * and the closed set for those states.  A thread that generates a state owned by another thread hands it to the owner,
+ * so duplicate detection needs no locking.
+ *
+ * To keep memory use down...
+ *
+ * - The frontier of each thread is a bucket queue indexed by priority (path length plus estimated distance to the
+ *   target), rather than a heap of nodes.
+ * - The closed set holds only a 64-bit fingerprint of each state (with the control propositions masked out).
+ * - A node holds a copy of its state only until it has been expanded.  Where possible, the copy is encoded so that each
+ *   group of mutually exclusive propositions (such as the possible contents of a cell) takes just a few bits.
+ * - Once expanded, a node is kept (for the path back to the initial state) only as long as it has descendants on the
+ *   frontier.  Nodes are reference counted so that this memory is accounted for exactly.
+ *
+ * Once the memory budget is used up, the least promising frontier nodes are discarded to make room for better ones, so
+ * the search degrades gracefully into a beam search rather than running out of memory.
+ */
+class AStarSolver
+{
+  private static final Logger LOGGER = LogManager.getLogger();
+
+  /**
+   * Approximate heap cost of a node, excluding its state.
+   */
+  private static final int NODE_OVERHEAD_BYTES = 56;
+
+  /**
+   * Approximate heap cost of an array, excluding its contents.
+   */
+  private static final int ARRAY_OVERHEAD_BYTES = 16;
+
+  /**
+   * Heap cost of each entry in a closed set (which is kept at most half full).
+   */
+  private static final int CLOSED_ENTRY_BYTES = 16;
+
+  /**
+   * A node in the search - a state and the path by which it was reached.
+   */
+  private static class Node
+  {
+    /**
+     * Reference count - one for the node itself until it has been discarded or expanded, plus one for each child that
+     * is still needed.
+     */
+    static final AtomicIntegerFieldUpdater<Node> REFERENCES = AtomicIntegerFieldUpdater.newUpdater(Node.class,
+                                                                                                   "mReferences");
+
+    long[]        mStateBits;
+    volatile int  mReferences = 1;
+    final boolean mIsEncoded;
+    final boolean mIsXState;
+    final long    mFingerprint;
+    final Node    mParent;
+    final Move    mMove;
+    final int     mPathLength;
+    final int     mPriority;
+
+    Node(ForwardDeadReckonInternalMachineState xiState,
+         ForwardDeadReckonStateEncoding xiEncoding,
+         long xiFingerprint,
+         Node xiParent,
+         Move xiMove,
+         int xiDistanceEstimate)
+    {
+      long[] lEncoded = xiEncoding.encode(xiState);
+      mIsEncoded = (lEncoded != null);
+      mStateBits = mIsEncoded ? lEncoded : Arrays.copyOf(xiState.contents.getBits(), xiState.contents.getNumWords());
+      mIsXState = xiState.isXState;
+      mFingerprint = xiFingerprint;
+      mParent = xiParent;
+      mMove = xiMove;
+      mPathLength = (xiParent == null ? 0 : xiParent.mPathLength + 1);
+      mPriority = mPathLength + xiDistanceEstimate;
+    }
+
+    long getStateBytes()
+    {
+      return (mStateBits == null) ? 0 : ARRAY_OVERHEAD_BYTES + 8L * mStateBits.length;
+    }
+
+    void getState(ForwardDeadReckonInternalMachineState xbState, ForwardDeadReckonStateEncoding xiEncoding)
+    {
+      if (mIsEncoded)
+      {
+        xiEncoding.decode(mStateBits, xbState);
+      }
+      else
+      {
+        System.arraycopy(mStateBits, 0, xbState.contents.getBits(), 0, mStateBits.length);
+        xbState.markDirty();
+      }
+      xbState.isXState = mIsXState;
+    }
+  }
+
+  /**
+   * Frontier nodes, bucketed by priority.  The best node is the most recently added one of lowest priority.
+   */
+  private static class BucketQueue
+  {
+    private final List<ArrayDeque<Node>> mBuckets = new ArrayList<>();
+    private int mMinPriority = Integer.MAX_VALUE;
+    private int mMaxPriority = -1;
+    private int mSize;
+
+    void add(Node xiNode)
+    {
+      while (mBuckets.size() <= xiNode.mPriority)
+      {
+        mBuckets.add(new ArrayDeque<Node>());
+      }
+
+      mBuckets.get(xiNode.mPriority).addLast(xiNode);
+      mMinPriority = Math.min(mMinPriority, xiNode.mPriority);
+      mMaxPriority = Math.max(mMaxPriority, xiNode.mPriority);
+      mSize++;
+    }
+
+    /**
+     * @return the best node (which is removed), or null if the queue is empty.
+     */
+    Node pollBest()
+    {
+      if (mSize == 0)
+      {
+        return null;
+      }
+
+      while (mBuckets.get(mMinPriority).isEmpty())
+      {
+        mMinPriority++;
+      }
+      mSize--;
+      return mBuckets.get(mMinPriority).pollLast();
+    }
+
+    /**
+     * @return the worst node (which is removed), or null if the queue is empty.
+     */
+    Node pollWorst()
+    {
+      if (mSize == 0)
+      {
+        return null;
+      }
+
+      while (mBuckets.get(mMaxPriority).isEmpty())
+      {
+        mMaxPriority--;
+      }
+      mSize--;
+      return mBuckets.get(mMaxPriority).pollFirst();
+    }
+
+    /**
+     * @return the priority of the worst node, or -1 if the queue is empty.
+     */
+    int getWorstPriority()
+    {
+      if (mSize == 0)
+      {
+        return -1;
+      }
+
+      while (mBuckets.get(mMaxPriority).isEmpty())
+      {
+        mMaxPriority--;
+      }
+      return mMaxPriority;
+    }
+  }
+
+  /**
+   * Set of state fingerprints, using open addressing.  Zero is used to mark empty slots, so a zero fingerprint is
+   * stored as 1.
+   */
+  private static class FingerprintSet
+  {
+    private static final int INITIAL_CAPACITY = 1 << 12;
+
+    private final int mMaxSize;
+    private long[] mTable = new long[INITIAL_CAPACITY];
+    private int mSize;
+
+    FingerprintSet(int xiMaxSize)
+    {
+      mMaxSize = xiMaxSize;
+    }
+
+    /**
+     * @return whether the set contains the fingerprint.
+     *
+     * @param xiFingerprint - the fingerprint.
+     */
+    boolean contains(long xiFingerprint)
+    {
+      long lFingerprint = (xiFingerprint == 0) ? 1 : xiFingerprint;
+      int lMask = mTable.length - 1;
+
+      for (int lIndex = (int)lFingerprint & lMask; mTable[lIndex] != 0; lIndex = (lIndex + 1) & lMask)
+      {
+        if (mTable[lIndex] == lFingerprint)
+        {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Add a fingerprint that isn't already in the set.
+     *
+     * @return whether the fingerprint was added - false if the set is full.
+     *
+     * @param xiFingerprint - the fingerprint.
+     */
+    boolean add(long xiFingerprint)
+    {
+      if (mSize >= mMaxSize)
+      {
+        return false;
+      }
+
+      long lFingerprint = (xiFingerprint == 0) ? 1 : xiFingerprint;
+      int lMask = mTable.length - 1;
+      int lIndex = (int)lFingerprint & lMask;
+      while (mTable[lIndex] != 0)
+      {
+        lIndex = (lIndex + 1) & lMask;
+      }
+
+      mTable[lIndex] = lFingerprint;
+      if (++mSize * 2 > mTable.length)
+      {
+        grow();
+      }
+      return true;
+    }
+
+    private void grow()
+    {
+      long[] lOldTable = mTable;
+      mTable = new long[lOldTable.length * 2];
+      int lMask = mTable.length - 1;
+
+      for (long lFingerprint : lOldTable)
+      {
+        if (lFingerprint != 0)
+        {
+          int lIndex = (int)lFingerprint & lMask;
+          while (mTable[lIndex] != 0)
+          {
+            lIndex = (lIndex + 1) & lMask;
+          }
+          mTable[lIndex] = lFingerprint;
+        }
+      }
+    }
+  }
+
+  /**
+   * A search thread, with its own state machine instance and its share of the frontier and closed set.
+   */
+  private class Worker implements Callable<Void>
+  {
+    private final ForwardDeadReckonPropnetStateMachine  mStateMachine;
+    private final BucketQueue                           mFrontier    = new BucketQueue();
+    private final FingerprintSet                        mClosed;
+    private final ConcurrentLinkedQueue<Node>           mInbox       = new ConcurrentLinkedQueue<>();
+    private final ForwardDeadReckonInternalMachineState mState;
+    private final ForwardDeadReckonInternalMachineState mChildState;
+    private final ForwardDeadReckonInternalMachineState mSteplessState;
+    private final ForwardDeadReckonLegalMoveInfo[]      mJointMove   = new ForwardDeadReckonLegalMoveInfo[1];
+    int                                                 mNumExpanded = 0;
+
+    Worker(ForwardDeadReckonPropnetStateMachine xiStateMachine, int xiMaxClosedSize)
+    {
+      mStateMachine = xiStateMachine;
+      mClosed = new FingerprintSet(xiMaxClosedSize);
+      mState = xiStateMachine.createEmptyInternalState();
+      mChildState = xiStateMachine.createEmptyInternalState();
+      mSteplessState = xiStateMachine.createEmptyInternalState();
+    }
+
+    @Override
+    public Void call()
+    {
+      while (!mDone)
+      {
+        if (System.currentTimeMillis() > mTimeout)
+        {
+          mDone = true;
+          break;
+        }
+
+        for (Node lNode = mInbox.poll(); lNode != null; lNode = mInbox.poll())
+        {
+          admit(lNode);
+        }
+
+        Node lNode = mFrontier.pollBest();
+        if (lNode == null)
+        {
+          // Nothing to do unless other threads have nodes still to hand over.
+          if (mOutstanding.get() == 0)
+          {
+            mDone = true;
+          }
+          else
+          {
+            Thread.yield();
+          }
+          continue;
+        }
+
+        expand(lNode);
+        mOutstanding.decrementAndGet();
+      }
+
+      return null;
+    }
+
+    /**
+     * Add a node generated by any thread to this thread's frontier, unless it's a duplicate or isn't worth the memory.
+     *
+     * @param xiNode - the node.
+     */
+    void admit(Node xiNode)
+    {
+      if (mClosed.contains(xiNode.mFingerprint))
+      {
+        discard(xiNode);
+        return;
+      }
+
+      if (!mClosed.add(xiNode.mFingerprint))
+      {
+        // The closed set is full.  Carry on without duplicate detection for new states.
+        mPruned = true;
+      }
+
+      if (mMemoryUsed.get() > mNodeMemoryBudget)
+      {
+        // Make room by discarding the least promising node - which might be this one.
+        mPruned = true;
+        if (mFrontier.getWorstPriority() <= xiNode.mPriority)
+        {
+          discard(xiNode);
+          return;
+        }
+        discard(mFrontier.pollWorst());
+      }
+
+      mFrontier.add(xiNode);
+    }
+
+    private void discard(Node xiNode)
+    {
+      release(xiNode);
+      mOutstanding.decrementAndGet();
+    }
+
+    private void expand(Node xiNode)
+    {
+      mNumExpanded++;
+
+      // The state is no longer needed once the node has been expanded.
+      xiNode.getState(mState, mEncoding);
+      dropState(xiNode);
+
+      if (mStateMachine.isTerminal(mState))
+      {
+        recordSolution(xiNode, mStateMachine.getGoal(mState, mRole));
+      }
+      else
+      {
+        for (ForwardDeadReckonLegalMoveInfo lMoveInfo : mStateMachine.getLegalMoves(mState, mRole))
+        {
+          mJointMove[0] = lMoveInfo;
+          mStateMachine.getNextState(mState, null, mJointMove, mChildState);
+
+          Node lChild = createNode(mChildState,
+                                   getFingerprint(mChildState, mSteplessState),
+                                   xiNode,
+                                   lMoveInfo.mMove);
+          mOutstanding.incrementAndGet();
+
+          Worker lOwner = getOwner(lChild.mFingerprint);
+          if (lOwner == this)
+          {
+            admit(lChild);
+          }
+          else
+          {
+            lOwner.mInbox.add(lChild);
+          }
+        }
+      }
+
+      // The node is now only needed by its children (if any).
+      release(xiNode);
+    }
+  }
+
+  private final ForwardDeadReckonPropnetStateMachine  mStateMachine;
+  private final Role                                  mRole;
+  private final ForwardDeadReckonInternalMachineState mTargetState;
+  private final int                                   mTargetStateSize;
+  private final ForwardDeadReckonInternalMachineState mSteplessStateMask;
+  private final ForwardDeadReckonStateEncoding        mEncoding;
+  private final long                                  mMemoryBudget;
+  private final long                                  mNodeMemoryBudget;
+
+  private Worker[]                                    mWorkers;
+  private long                                        mTimeout;
+  private volatile boolean                            mDone;
+  private volatile boolean                            mPruned;
+  private final AtomicLong                            mMemoryUsed  = new AtomicLong();
+
+  /**
+   * The number of nodes that have been generated but not yet expanded or discarded.  The search space is exhausted
+   * when this reaches zero.
+   */
+  private final AtomicLong                            mOutstanding = new AtomicLong();
+
+  private int                                         mBestGoal;
+  private List<Move>                                  mBestPath;
+
+  /**
+   * Create a solver.
+   *
+   * @param xiStateMachine - the master state machine.  Further instances are created for the search threads and
+   *                         released again when the search completes.
+   * @param xiRole         - our role.
+   * @param xiTargetState  - the target state (which is reached when all its propositions are set).
+   */
+  AStarSolver(ForwardDeadReckonPropnetStateMachine xiStateMachine,
+              Role xiRole,
+              ForwardDeadReckonInternalMachineState xiTargetState)
+  {
+    mStateMachine = xiStateMachine;
+    mRole = xiRole;
+    mTargetState = xiTargetState;
+    mTargetStateSize = (int)xiTargetState.size();
+    mSteplessStateMask = xiStateMachine.getNonControlMask();
+    mEncoding = new ForwardDeadReckonStateEncoding(xiTargetState);
+
+    long lBudgetMB = MachineSpecificConfiguration.getCfgInt(CfgItem.A_STAR_MEMORY_MB);
+    mMemoryBudget = (lBudgetMB > 0) ? lBudgetMB * 1024 * 1024 : Runtime.getRuntime().maxMemory() / 4;
+
+    // A quarter of the budget is reserved for the closed sets and the rest is for nodes.
+    mNodeMemoryBudget = mMemoryBudget - mMemoryBudget / 4;
+  }
+
+  /**
+   * Search for a solution.
+   *
+   * @param xiInitialState - the state to search from.
+   * @param xiScoreThreshold - score required to be considered as an acceptable solution.
+   * @param xiTimeout - time to search until (max).
+   *
+   * @return the moves of the solution if one was found, else null.
+   */
+  Collection<Move> solve(ForwardDeadReckonInternalMachineState xiInitialState, int xiScoreThreshold, long xiTimeout)
+  {
+    long lStartTime = System.currentTimeMillis();
+    int lNumThreads = ThreadControl.RUN_SYNCHRONOUSLY ? 1 :
+                             Math.max(1, Math.min(ThreadControl.CPU_INTENSIVE_THREADS,
+                                                  mStateMachine.getNumFreeInstances() + 1));
+
+    int lMaxClosedSize = (int)Math.min(Integer.MAX_VALUE / 2,
+                                       mMemoryBudget / 4 / CLOSED_ENTRY_BYTES / lNumThreads);
+
+    mTimeout = xiTimeout;
+    mDone = false;
+    mPruned = false;
+    mMemoryUsed.set(0);
+    mOutstanding.set(1);
+    mBestGoal = -1;
+    mBestPath = null;
+
+    // The master state machine is used by the first worker.  Create instances for the others now, on this thread,
+    // because creating instances isn't thread-safe.
+    mWorkers = new Worker[lNumThreads];
+    for (int lii = 0; lii < lNumThreads; lii++)
+    {
+      mWorkers[lii] = new Worker(lii == 0 ? mStateMachine : mStateMachine.createInstance(), lMaxClosedSize);
+    }
+
+    ForwardDeadReckonInternalMachineState lSteplessState = mStateMachine.createEmptyInternalState();
+    Node lRoot = createNode(xiInitialState, getFingerprint(xiInitialState, lSteplessState), null, null);
+    getOwner(lRoot.mFingerprint).admit(lRoot);
+
+    try
+    {
+      run();
+    }
+    finally
+    {
+      mStateMachine.releaseInstances(mStateMachine.getNumInstances() - (lNumThreads - 1));
+    }
+
+    int lNumExpanded = 0;
+    for (Worker lWorker : mWorkers)
+    {
+      lNumExpanded += lWorker.mNumExpanded;
+    }
+    mWorkers = null;
+
+    LOGGER.info("A* processed " + lNumExpanded + " states in " + (System.currentTimeMillis() - lStartTime) +
+                "ms using " + lNumThreads + " threads - best goal " + mBestGoal +
+                (mPruned ? " (frontier was pruned to fit the memory budget)" : ""));
+    return (mBestGoal >= xiScoreThreshold ? mBestPath : null);
+  }
+
+  private void run()
+  {
+    if (mWorkers.length == 1)
+    {
+      mWorkers[0].call();
+      return;
+    }
+
+    ExecutorService lExecutor = Executors.newFixedThreadPool(mWorkers.length);
+    try
+    {
+      List<Future<Void>> lFutures = new ArrayList<>();
+      for (Worker lWorker : mWorkers)
+      {
+        lFutures.add(lExecutor.submit(lWorker));
+      }
+
+      for (Future<Void> lFuture : lFutures)
+      {
+        lFuture.get();
+      }
+    }
+    catch (InterruptedException lEx)
+    {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted during A* search", lEx);
+    }
+    catch (ExecutionException lEx)
+    {
+      Throwable lCause = lEx.getCause();
+      if (lCause instanceof RuntimeException)
+      {
+        throw (RuntimeException)lCause;
+      }
+      if (lCause instanceof Error)
+      {
+        throw (Error)lCause;
+      }
+      throw new RuntimeException(lCause);
+    }
+    finally
+    {
+      // Stop any workers still running (if another failed).
+      mDone = true;
+      lExecutor.shutdownNow();
+    }
+  }
+
+  /**
+   * Create a node, accounting for its memory.
+   *
+   * @return the node.
+   *
+   * @param xiState       - the node's state.
+   * @param xiFingerprint - the fingerprint of the state.
+   * @param xiParent      - the parent node, or null for the initial state.
+   * @param xiMove        - the move from the parent, or null for the initial state.
+   */
+  private Node createNode(ForwardDeadReckonInternalMachineState xiState,
+                          long xiFingerprint,
+                          Node xiParent,
+                          Move xiMove)
+  {
+    Node lNode = new Node(xiState, mEncoding, xiFingerprint, xiParent, xiMove, getDistanceEstimate(xiState));
+    if (xiParent != null)
+    {
+      Node.REFERENCES.incrementAndGet(xiParent);
+    }
+    mMemoryUsed.addAndGet(NODE_OVERHEAD_BYTES + lNode.getStateBytes());
+    return lNode;
+  }
+
+  /**
+   * Drop a node's copy of its state, which is no longer needed once the node has been expanded.
+   *
+   * @param xiNode - the node.
+   */
+  private void dropState(Node xiNode)
+  {
+    mMemoryUsed.addAndGet(-xiNode.getStateBytes());
+    xiNode.mStateBits = null;
+  }
+
+  /**
+   * Release a reference to a node.  If that was the last one, the node's memory is released, along with its reference
+   * to its parent.
+   *
+   * @param xiNode - the node.
+   */
+  private void release(Node xiNode)
+  {
+    for (Node lNode = xiNode; (lNode != null) && (Node.REFERENCES.decrementAndGet(lNode) == 0); lNode = lNode.mParent)
+    {
+      dropState(lNode);
+      mMemoryUsed.addAndGet(-NODE_OVERHEAD_BYTES);
+    }
+  }
+
+  /**
+   * Record a terminal state reached by the search.
+   *
+   * @param xiNode - the node for the terminal state.
+   * @param xiGoal - our goal value in the state.
+   */
+  synchronized void recordSolution(Node xiNode, int xiGoal)
+  {
+    if (xiGoal > mBestGoal)
+    {
+      mBestPath = new LinkedList<>();
+      for (Node lNode = xiNode; lNode != null && lNode.mMove != null; lNode = lNode.mParent)
+      {
+        mBestPath.add(0, lNode.mMove);
+      }
+
+      mBestGoal = xiGoal;
+      if (xiGoal == 100)
+      {
+        mDone = true;
+      }
+    }
+  }
+
+  /**
+   * @return the fingerprint of a state, ignoring its control propositions.
+   *
+   * @param xiState - the state.
+   * @param xbBuffer - a buffer for use in the calculation.
+   */
+  long getFingerprint(ForwardDeadReckonInternalMachineState xiState, ForwardDeadReckonInternalMachineState xbBuffer)
+  {
+    xbBuffer.copy(xiState);
+    xbBuffer.intersect(mSteplessStateMask);
+    return xbBuffer.getHashKey();
+  }
+
+  /**
+   * @return an estimate of the number of moves needed to reach the target - the number of propositions of the target
+   * state that aren't set.
+   *
+   * @param xiState - the state.
+   */
+  int getDistanceEstimate(ForwardDeadReckonInternalMachineState xiState)
+  {
+    return mTargetStateSize - xiState.intersectionSize(mTargetState);
+  }
+
+  /**
+   * @return the worker that owns the specified state.
+   *
+   * @param xiFingerprint - the fingerprint of the state.
+   */
+  Worker getOwner(long xiFingerprint)
+  {
+    // Use the high bits, because the closed sets are indexed by the low bits.
+    return mWorkers[(int)((xiFingerprint >>> 33) % mWorkers.length)];
+  }
+}
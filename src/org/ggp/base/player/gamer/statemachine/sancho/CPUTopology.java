@@ -0,0 +1,279 @@
+package org.ggp.base.player.gamer.statemachine.sancho;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * The layout of the vCPUs available to this process - which NUMA node, socket and physical core each one belongs to.
+ *
+ * On Linux, this is discovered from /sys/devices/system.  Elsewhere (or if that fails), every vCPU is assumed to be a
+ * separate core on a single node.
+ */
+public class CPUTopology
+{
+  private static final Logger LOGGER = LogManager.getLogger();
+
+  private static final File CPU_DIR = new File("/sys/devices/system/cpu");
+  private static final File NODE_DIR = new File("/sys/devices/system/node");
+
+  /**
+   * A single vCPU.
+   */
+  private static class VirtualCPU
+  {
+    final int mId;
+    final int mNode;
+    final int mSocket;
+    final int mCore;
+    int mSiblingIndex;
+
+    VirtualCPU(int xiId, int xiNode, int xiSocket, int xiCore)
+    {
+      mId = xiId;
+      mNode = xiNode;
+      mSocket = xiSocket;
+      mCore = xiCore;
+    }
+  }
+
+  private final List<VirtualCPU> mCPUs = new ArrayList<>();
+  private final int mNumNodes;
+  private final int mNumSockets;
+  private final int mNumCores;
+
+  /**
+   * Discover the topology of the specified vCPUs.
+   *
+   * @param xiCPUs - the IDs of the vCPUs that this process may run on.
+   */
+  public CPUTopology(int[] xiCPUs)
+  {
+    Map<Integer, Integer> lNodeOfCPU = readNodes();
+    Map<String, List<VirtualCPU>> lCores = new HashMap<>();
+
+    for (int lCPU : xiCPUs)
+    {
+      File lTopologyDir = new File(new File(CPU_DIR, "cpu" + lCPU), "topology");
+      int lSocket = readInt(new File(lTopologyDir, "physical_package_id"), 0);
+      int lCore = readInt(new File(lTopologyDir, "core_id"), lCPU);
+      Integer lNode = lNodeOfCPU.get(lCPU);
+
+      VirtualCPU lVirtualCPU = new VirtualCPU(lCPU, (lNode == null) ? lSocket : lNode, lSocket, lCore);
+      mCPUs.add(lVirtualCPU);
+
+      String lCoreKey = lSocket + ":" + lCore;
+      if (!lCores.containsKey(lCoreKey))
+      {
+        lCores.put(lCoreKey, new ArrayList<VirtualCPU>());
+      }
+      lCores.get(lCoreKey).add(lVirtualCPU);
+    }
+
+    // Number the SMT siblings within each physical core.
+    for (List<VirtualCPU> lSiblings : lCores.values())
+    {
+      for (int lii = 0; lii < lSiblings.size(); lii++)
+      {
+        lSiblings.get(lii).mSiblingIndex = lii;
+      }
+    }
+
+    mNumNodes = countDistinct(true);
+    mNumSockets = countDistinct(false);
+    mNumCores = lCores.size();
+  }
+
+  /**
+   * @return the order in which vCPUs should be handed out to CPU-intensive threads.
+   *
+   * All the vCPUs of one NUMA node come before any of the next (starting with the node with most vCPUs available), so
+   * that a set of threads which is no larger than a node all share the node's memory and caches.  Within a node, one
+   * vCPU of each physical core comes before any of the SMT siblings.
+   *
+   * @param xiAlternateSiblings - whether to start from the second SMT sibling of each core, so that two instances
+   *                              running on the same machine get different hyper-threads.
+   */
+  public int[] getPlacementOrder(final boolean xiAlternateSiblings)
+  {
+    final Map<Integer, Integer> lNodeSizes = new HashMap<>();
+    final Map<String, Integer> lCoreSizes = new HashMap<>();
+    for (VirtualCPU lCPU : mCPUs)
+    {
+      Integer lNodeSize = lNodeSizes.get(lCPU.mNode);
+      lNodeSizes.put(lCPU.mNode, (lNodeSize == null) ? 1 : lNodeSize + 1);
+      Integer lCoreSize = lCoreSizes.get(lCPU.mSocket + ":" + lCPU.mCore);
+      lCoreSizes.put(lCPU.mSocket + ":" + lCPU.mCore, (lCoreSize == null) ? 1 : lCoreSize + 1);
+    }
+
+    List<VirtualCPU> lOrdered = new ArrayList<>(mCPUs);
+    Collections.sort(lOrdered, new Comparator<VirtualCPU>()
+    {
+      @Override
+      public int compare(VirtualCPU xiA, VirtualCPU xiB)
+      {
+        if (xiA.mNode != xiB.mNode)
+        {
+          int lSizeDiff = lNodeSizes.get(xiB.mNode) - lNodeSizes.get(xiA.mNode);
+          return (lSizeDiff != 0) ? lSizeDiff : Integer.compare(xiA.mNode, xiB.mNode);
+        }
+
+        int lRankDiff = siblingRank(xiA) - siblingRank(xiB);
+        if (lRankDiff != 0)
+        {
+          return lRankDiff;
+        }
+
+        return (xiA.mSocket != xiB.mSocket) ? Integer.compare(xiA.mSocket, xiB.mSocket) :
+               (xiA.mCore != xiB.mCore) ? Integer.compare(xiA.mCore, xiB.mCore) :
+               Integer.compare(xiA.mId, xiB.mId);
+      }
+
+      private int siblingRank(VirtualCPU xiCPU)
+      {
+        int lNumSiblings = lCoreSizes.get(xiCPU.mSocket + ":" + xiCPU.mCore);
+        return (xiCPU.mSiblingIndex + (xiAlternateSiblings ? 1 : 0)) % lNumSiblings;
+      }
+    });
+
+    int[] lOrder = new int[lOrdered.size()];
+    for (int lii = 0; lii < lOrder.length; lii++)
+    {
+      lOrder[lii] = lOrdered.get(lii).mId;
+    }
+    return lOrder;
+  }
+
+  /**
+   * @return the NUMA node that the specified vCPU belongs to, or -1 if it isn't one of the vCPUs in this topology.
+   *
+   * @param xiCPU - the vCPU.
+   */
+  public int getNode(int xiCPU)
+  {
+    for (VirtualCPU lCPU : mCPUs)
+    {
+      if (lCPU.mId == xiCPU)
+      {
+        return lCPU.mNode;
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public String toString()
+  {
+    return mCPUs.size() + " vCPUs on " + mNumCores + " cores, " + mNumSockets + " sockets, " + mNumNodes +
+           " NUMA nodes";
+  }
+
+  private int countDistinct(boolean xiNodes)
+  {
+    List<Integer> lSeen = new ArrayList<>();
+    for (VirtualCPU lCPU : mCPUs)
+    {
+      Integer lValue = xiNodes ? lCPU.mNode : lCPU.mSocket;
+      if (!lSeen.contains(lValue))
+      {
+        lSeen.add(lValue);
+      }
+    }
+    return lSeen.size();
+  }
+
+  /**
+   * @return a map from vCPU to the NUMA node it belongs to.  Empty if the system doesn't report NUMA nodes.
+   */
+  private static Map<Integer, Integer> readNodes()
+  {
+    Map<Integer, Integer> lNodeOfCPU = new HashMap<>();
+    File[] lNodeDirs = NODE_DIR.listFiles();
+    if (lNodeDirs != null)
+    {
+      for (File lNodeDir : lNodeDirs)
+      {
+        if (lNodeDir.getName().matches("node[0-9]+"))
+        {
+          int lNode = Integer.parseInt(lNodeDir.getName().substring(4));
+          String lCPUList = readString(new File(lNodeDir, "cpulist"));
+          if (lCPUList != null)
+          {
+            for (int lCPU : parseCPUList(lCPUList))
+            {
+              lNodeOfCPU.put(lCPU, lNode);
+            }
+          }
+        }
+      }
+    }
+    return lNodeOfCPU;
+  }
+
+  /**
+   * @return the vCPUs in a Linux CPU list, such as "0-3,8,10-11".
+   *
+   * @param xiCPUList - the CPU list.
+   */
+  static int[] parseCPUList(String xiCPUList)
+  {
+    List<Integer> lCPUs = new ArrayList<>();
+    for (String lRange : xiCPUList.trim().split(","))
+    {
+      if (lRange.isEmpty())
+      {
+        continue;
+      }
+
+      String[] lEnds = lRange.split("-");
+      int lFirst = Integer.parseInt(lEnds[0].trim());
+      int lLast = (lEnds.length == 1) ? lFirst : Integer.parseInt(lEnds[1].trim());
+      for (int lCPU = lFirst; lCPU <= lLast; lCPU++)
+      {
+        lCPUs.add(lCPU);
+      }
+    }
+
+    int[] lResult = new int[lCPUs.size()];
+    for (int lii = 0; lii < lResult.length; lii++)
+    {
+      lResult[lii] = lCPUs.get(lii);
+    }
+    return lResult;
+  }
+
+  private static String readString(File xiFile)
+  {
+    try
+    {
+      return new String(Files.readAllBytes(xiFile.toPath())).trim();
+    }
+    catch (IOException | SecurityException lEx)
+    {
+      LOGGER.debug("Unable to read " + xiFile + ": " + lEx);
+      return null;
+    }
+  }
+
+  private static int readInt(File xiFile, int xiDefault)
+  {
+    String lValue = readString(xiFile);
+    try
+    {
+      return (lValue == null) ? xiDefault : Integer.parseInt(lValue);
+    }
+    catch (NumberFormatException lEx)
+    {
+      return xiDefault;
+    }
+  }
+}
@@ -0,0 +1,22 @@
+package org.ggp.base.player.gamer.statemachine.sancho;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CPUTopologyTest extends Assert
+{
+  @Test
+  public void testParseCPUList()
+  {
+    assertArrayEquals(new int[] {0}, CPUTopology.parseCPUList("0"));
+    assertArrayEquals(new int[] {0, 1, 2, 3}, CPUTopology.parseCPUList("0-3"));
+    assertArrayEquals(new int[] {0, 1, 2, 3, 8, 10, 11}, CPUTopology.parseCPUList("0-3,8,10-11"));
+
+    // As read from sysfs - with a trailing newline.
+    assertArrayEquals(new int[] {32, 33, 63}, CPUTopology.parseCPUList("32-33,63\n"));
+
+    // A node with no CPUs has an empty list.
+    assertArrayEquals(new int[0], CPUTopology.parseCPUList(""));
+    assertArrayEquals(new int[0], CPUTopology.parseCPUList("\n"));
+  }
+}
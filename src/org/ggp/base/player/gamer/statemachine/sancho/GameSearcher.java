@@ -7,7 +7,6 @@ import java.util.Set;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.ThreadContext;
-import org.apache.lucene.util.OpenBitSet;
 import org.ggp.base.player.gamer.statemachine.sancho.LocalRegionSearcher.LocalSearchResultConsumer;
 import org.ggp.base.player.gamer.statemachine.sancho.MachineSpecificConfiguration.CfgItem;
 import org.ggp.base.player.gamer.statemachine.sancho.StatsLogUtils.Series;
@@ -58,6 +57,12 @@ public class GameSearcher implements Runnable, ActivityController, LocalSearchRe
   private static final long               STATS_LOG_INTERVAL_MS = 1000;
   private static final int                PIPELINE_SIZE = 24; //  Default set to give reasonable results on 2 and 4 cores
 
+  /**
+   * Number of in-flight rollouts per rollout thread when virtual loss is in use.  Virtual loss stops the extra
+   * pipeline depth from degrading selection, so the pipeline can grow with the number of cores.
+   */
+  private static final int                VIRTUAL_LOSS_PIPELINE_SIZE_PER_THREAD = 8;
+
   private static final boolean            ADJUST_EXPLORATION_BIAS_FROM_TREE_SHAPE = false;
 
   /**
@@ -96,11 +101,10 @@ public class GameSearcher implements Runnable, ActivityController, LocalSearchRe
   public boolean                          mUseRAVE = false;
   public boolean                          mUseGoalGreedy = false;
   /**
-   * Trace of moves played below the current node being updated by back propagation
-   * (including the playout itself).  Enabled only if RAVE is in use.  BitSet indexes
-   * are onto the master move list
+   * Whether in-flight rollouts apply a virtual loss to the edges on their selection path
    */
-  private OpenBitSet                      mPlayoutTrace = null;
+  final boolean                           mUseVirtualLoss = MachineSpecificConfiguration.getCfgBool(CfgItem.USE_VIRTUAL_LOSS);
+  private final int                       mPipelineSize;
 
   private final String                    mLogName;
 
@@ -120,7 +124,8 @@ public class GameSearcher implements Runnable, ActivityController, LocalSearchRe
   /**
    * The last combined performance statistics from all rollout threads.
    */
-  private RolloutPerfStats                mLastRolloutPerfStats = new RolloutPerfStats(0, 0);
+  private RolloutPerfStats                mLastRolloutPerfStats = new RolloutPerfStats(0, 0, 0, 0);
+  private RolloutPerfStats[]              mLastThreadPerfStats = new RolloutPerfStats[ThreadControl.ROLLOUT_THREADS];
 
   /**
    * Longest observed latency for a rollout.  Used by the performance analysis test.
@@ -147,7 +152,8 @@ public class GameSearcher implements Runnable, ActivityController, LocalSearchRe
   private ForwardDeadReckonLegalMoveInfo priorityLocalSearchSeed      = null;
   private LocalSearchResults searchResultsBuffer = new LocalSearchResults();
   private volatile int lastProcessedSearchResultSeq = 0;
-  private int lastQueuedSearchResultSeq = 0;
+  private volatile int lastQueuedSearchResultSeq = 0;
+  private final Object localSearchResultQueueLock = new Object();
   private int localSearchResultProcessingAttemptSeq = 0;
   private static final int LOCAL_SEARCH_WIN_PROCESSING_MAX_RETRIES = 100;
   /**
@@ -182,7 +188,9 @@ public class GameSearcher implements Runnable, ActivityController, LocalSearchRe
     // mNodePool = new UnsafePool<>(TreeNode.class, nodeTableSize);
     mNodePool = new CappedPool<>(nodeTableSize);
     mEdgePool = new UncappedPool<>(nodeTableSize * 2);
-    mPathPool = new UncappedPool<>(PIPELINE_SIZE * 2);
+    mPipelineSize = (mUseVirtualLoss ? Math.max(PIPELINE_SIZE, ThreadControl.ROLLOUT_THREADS * VIRTUAL_LOSS_PIPELINE_SIZE_PER_THREAD) :
+                                       PIPELINE_SIZE);
+    mPathPool = new UncappedPool<>(mPipelineSize * 2);
     mRAVEStatsPool = new UncappedPool<>(nodeTableSize);
     mScoreVectorPool = new ScoreVectorPool(nodeTableSize, numRoles);
     mLogName = xiLogName;
@@ -249,7 +257,8 @@ public class GameSearcher implements Runnable, ActivityController, LocalSearchRe
 
     if (ThreadControl.ROLLOUT_THREADS > 0)
     {
-      mPipeline = new Pipeline(PIPELINE_SIZE, underlyingStateMachine.getRoles().length, underlyingStateMachine);
+      mPipeline = new Pipeline(mPipelineSize, underlyingStateMachine.getRoles().length, underlyingStateMachine);
+      LOGGER.info("Rollout pipeline size " + mPipelineSize + (mUseVirtualLoss ? " (using virtual loss)" : ""));
     }
 
     rolloutPool = new RolloutProcessorPool(mPipeline, underlyingStateMachine, roleOrdering, mLogName);
@@ -315,7 +324,16 @@ public class GameSearcher implements Runnable, ActivityController, LocalSearchRe
           gameCharacteristics.getAverageLength() < (2*(double)gameCharacteristics.getMaxLength())/3)
       {
         localSearchRoot = underlyingStateMachine.createEmptyInternalState();
-        moveConsequenceSearcher = new MoveConsequenceSearcher(underlyingStateMachine.createInstance(), roleOrdering, mLogName, this);
+
+        //  Instance creation is not thread-safe, so create the local search instances here
+        ForwardDeadReckonPropnetStateMachine[] localSearchInstances =
+          new ForwardDeadReckonPropnetStateMachine[Math.max(1, Math.min(ThreadControl.LOCAL_SEARCH_THREADS,
+                                                                        underlyingStateMachine.getNumFreeInstances()))];
+        for (int lii = 0; lii < localSearchInstances.length; lii++)
+        {
+          localSearchInstances[lii] = underlyingStateMachine.createInstance();
+        }
+        moveConsequenceSearcher = new MoveConsequenceSearcher(localSearchInstances, roleOrdering, mLogName, this);
       }
       else
       {
@@ -332,14 +350,10 @@ public class GameSearcher implements Runnable, ActivityController, LocalSearchRe
 
     if (mUseRAVE)
     {
-      mPlayoutTrace = new OpenBitSet(underlyingStateMachine.getFullPropNet().getMasterMoveList().length);
-
       LOGGER.info("Using RAVE");
     }
     else
     {
-      mPlayoutTrace = null;
-
       LOGGER.info("Not using RAVE");
     }
   }
@@ -493,6 +507,11 @@ public class GameSearcher implements Runnable, ActivityController, LocalSearchRe
     }
 
     Series.NODE_RE_EXPANSIONS.logDataPoint(lLogBuf, xiTime, numReExpansions);
+
+    SanchoMetrics.NODE_POOL_USED.set(mNodePool.getNumItemsInUse());
+    SanchoMetrics.NODE_POOL_CAPACITY.set(mNodePool.getCapacity());
+    SanchoMetrics.NODE_ALLOCATIONS.add(newNumAllocations - mLastAllocations);
+    SanchoMetrics.TRANSPOSITIONS.add(newNumTranspositions - mLastTranspositions);
     if (newNumAllocations > mLastAllocations)
     {
       Series.TRANSITION_RATE.logDataPoint(lLogBuf, xiTime, (100*(newNumTranspositions-mLastTranspositions))/(newNumAllocations-mLastAllocations));
@@ -604,6 +623,82 @@ public class GameSearcher implements Runnable, ActivityController, LocalSearchRe
     }
   }
 
+  /**
+   * Give any candidate local search threads the most visited alternatives to the primary line to search around.
+   *
+   * @param xiPrimaryLine - the move the primary local search is seeded with.
+   */
+  private void queueCandidateLocalSearches(ForwardDeadReckonLegalMoveInfo xiPrimaryLine)
+  {
+    int lNumCandidates = moveConsequenceSearcher.getNumCandidateSearchers();
+    if (lNumCandidates == 0 || factorTrees.length > 1)
+    {
+      return;
+    }
+
+    synchronized(getSerializationObject())
+    {
+      //  Find the first node with a real choice, as for the primary path
+      TreeNode lNode = factorTrees[0].mRoot;
+      while (lNode.mNumChildren == 1 && lNode.mChildren[0] instanceof TreeEdge)
+      {
+        TreeNode lChild = lNode.get(((TreeEdge)lNode.mChildren[0]).getChildRef());
+        if (lChild == null)
+        {
+          return;
+        }
+        lNode = lChild;
+      }
+
+      //  Pick out the most visited incomplete children, other than the primary line
+      TreeEdge[] lCandidates = new TreeEdge[lNumCandidates];
+      int lNumFound = 0;
+      for (short lii = 0; lii < lNode.mNumChildren; lii++)
+      {
+        if (!(lNode.mChildren[lii] instanceof TreeEdge) ||
+            (lNode.mPrimaryChoiceMapping != null && lNode.mPrimaryChoiceMapping[lii] != lii))
+        {
+          continue;
+        }
+
+        TreeEdge lEdge = (TreeEdge)lNode.mChildren[lii];
+        if (lEdge.mPartialMove == xiPrimaryLine || lEdge.getChildRef() == TreeNode.NULL_REF)
+        {
+          continue;
+        }
+
+        TreeNode lChild = lNode.get(lEdge.getChildRef());
+        if (lChild == null || lChild.mComplete)
+        {
+          continue;
+        }
+
+        int lInsertAt = lNumFound;
+        while (lInsertAt > 0 && lCandidates[lInsertAt - 1].getNumChildVisits() < lEdge.getNumChildVisits())
+        {
+          lInsertAt--;
+        }
+
+        if (lInsertAt < lNumCandidates)
+        {
+          int lNumToShift = Math.min(lNumFound, lNumCandidates - 1) - lInsertAt;
+          System.arraycopy(lCandidates, lInsertAt, lCandidates, lInsertAt + 1, lNumToShift);
+          lCandidates[lInsertAt] = lEdge;
+          lNumFound = Math.min(lNumFound + 1, lNumCandidates);
+        }
+      }
+
+      for (int lii = 0; lii < lNumFound; lii++)
+      {
+        TreeNode lChild = lNode.get(lCandidates[lii].getChildRef());
+        moveConsequenceSearcher.addCandidateSearch(lChild.mState,
+                                                   factorTrees[0].mRoot.mState,
+                                                   lCandidates[lii].mPartialMove,
+                                                   (lChild.mDecidingRoleIndex + 1) % 2);
+      }
+    }
+  }
+
   /**
    * @return the best move discovered (from the current root of the tree).
    */
@@ -833,6 +928,18 @@ public class GameSearcher implements Runnable, ActivityController, LocalSearchRe
       return true;
     }
 
+    //  Reclaim the nodes left behind by re-rooting a little at a time - or all at once if we've run out of nodes (in
+    //  which case it's better to reclaim them than to trim the live tree)
+    for (MCTSTree tree : factorTrees)
+    {
+      tree.mReclaimer.step(mNodePool.isFull() ? Integer.MAX_VALUE : NodeReclaimer.STEP_BUDGET);
+    }
+
+    if (mNodePool.isFull())
+    {
+      SanchoMetrics.NODE_POOL_FULL.increment();
+    }
+
     while (mNodePool.isFull())
     {
       boolean somethingDisposed = false;
@@ -906,6 +1013,8 @@ public class GameSearcher implements Runnable, ActivityController, LocalSearchRe
           moveConsequenceSearcher.newSearch(localSearchRoot, factorTrees[0].mRoot.mState, primaryLine, choosingRole, getRootDepth() != rootDepthAtLastLocalSearchStart, false);
           rootDepthAtLastLocalSearchStart = getRootDepth();
 
+          queueCandidateLocalSearches(primaryLine);
+
           //  Recheck periodically that we're still thinking the same move is most interesting.
           //  We don't want to wind up chopping backwards and forwards between a couple of moves
           //  and having to restart frequently, so give a fixed proportion the remaining time at each rechoice
@@ -1185,23 +1294,14 @@ public class GameSearcher implements Runnable, ActivityController, LocalSearchRe
           lNode = lRequest.mPath.getTailElement().getChildNode();
         }
 
-        if (mUseRAVE)
-        {
-          //  Decant played moves into a bitset for O(1) existance queries
-          mPlayoutTrace.clear(0, mPlayoutTrace.capacity());
-
-          assert(lRequest.mRecordPlayoutTrace);
-          for(int i = 0; i < lRequest.mPlayoutInfo.playoutLength; i++)
-          {
-            mPlayoutTrace.set(lRequest.mPlayoutInfo.playoutTrace[i].mMasterIndex);
-          }
-        }
+        //  The rollout thread has already decanted the played moves into a bitset (if RAVE is in use)
+        assert(!mUseRAVE || lRequest.mPlayedMoves != null);
 
         lBackPropTime = lNode.updateStats(lRequest.mAverageScores,
                                           lRequest.mAverageSquaredScores,
                                           lRequest.mPath,
                                           lRequest.mWeight,
-                                          mUseRAVE ? mPlayoutTrace : null);
+                                          mUseRAVE ? lRequest.mPlayedMoves : null);
       }
     }
 
@@ -1209,7 +1309,8 @@ public class GameSearcher implements Runnable, ActivityController, LocalSearchRe
   }
 
   /**
-   * Process all completed rollouts in the pipeline.
+   * Process all completed rollouts in the pipeline.  They're taken from the pipeline in batches (of everything that's
+   * ready), which keeps the cost of the hand-off from the rollout threads down.
    *
    * @param xiNeedToDoOne - whether this method should block until at least 1 rollout has been performed.
    *
@@ -1245,29 +1346,38 @@ public class GameSearcher implements Runnable, ActivityController, LocalSearchRe
         continue;
       }
 
+      // Take everything that's ready in one go.  This only blocks if there's nothing ready at all.
       long lStallStartTime = System.nanoTime();
-      RolloutRequest lRequest = mPipeline.getNextRequestForBackPropagation();
-      long lDequeue2Time = System.nanoTime();
-      lStallTime = lDequeue2Time - lStallStartTime;
+      int lBatchSize = mPipeline.getRequestsForBackPropagation();
+      lStallTime = System.nanoTime() - lStallStartTime;
+
+      SanchoMetrics.ROLLOUT_REQUESTS.add(lBatchSize);
+      SanchoMetrics.PIPELINE_DEPTH.observe(mPipeline.getNumQueuedItems());
 
-      if (longestObservedLatency < lRequest.mQueueLatency)
+      for (int lii = 0; lii < lBatchSize; lii++)
       {
-        longestObservedLatency = lRequest.mQueueLatency;
-      }
-      averageLatency = (averageLatency*numCompletedRollouts + lRequest.mQueueLatency)/(numCompletedRollouts+1);
-      numCompletedRollouts++;
+        RolloutRequest lRequest = mPipeline.getRequestForBackPropagation(lii);
 
-      long lBackPropTime = processCompletedRollout(lRequest);
+        if (longestObservedLatency < lRequest.mQueueLatency)
+        {
+          longestObservedLatency = lRequest.mQueueLatency;
+        }
+        averageLatency = (averageLatency*numCompletedRollouts + lRequest.mQueueLatency)/(numCompletedRollouts+1);
+        numCompletedRollouts++;
+
+        long lBackPropTime = processCompletedRollout(lRequest);
 
-      recordIterationTimings(lRequest.mSelectElapsedTime,
-                             lRequest.mExpandElapsedTime,
-                             lRequest.mGetSlotElapsedTime,
-                             lRequest.mEnqueue2Time - lRequest.mRolloutStartTime,
-                             lBackPropTime);
+        recordIterationTimings(lRequest.mSelectElapsedTime,
+                               lRequest.mExpandElapsedTime,
+                               lRequest.mGetSlotElapsedTime,
+                               lRequest.mEnqueue2Time - lRequest.mRolloutStartTime,
+                               lBackPropTime);
 
-      mPathPool.free(lRequest.mPath, 0);
-      lRequest.mPath = null;
-      mPipeline.completedBackPropagation();
+        lRequest.mPath.releaseVirtualLoss();
+        mPathPool.free(lRequest.mPath, 0);
+        lRequest.mPath = null;
+        mPipeline.completedBackPropagation(lRequest);
+      }
       xiNeedToDoOne = false;
     }
 
@@ -1296,6 +1406,7 @@ public class GameSearcher implements Runnable, ActivityController, LocalSearchRe
     mBackPropTime += xiBackPropTime;
 
     mNumIterations++;
+    SanchoMetrics.ITERATIONS.increment();
   }
 
   /**
@@ -1319,10 +1430,15 @@ public class GameSearcher implements Runnable, ActivityController, LocalSearchRe
     if (mPipeline != null)
     {
       // Get the most recent combined total statistics and calculate the difference from last time round.
-      RolloutPerfStats lCombinedStatsTotal = new RolloutPerfStats(mPipeline.getRolloutPerfStats());
+      RolloutPerfStats[] lThreadStats = mPipeline.getRolloutPerfStats();
+      RolloutPerfStats lCombinedStatsTotal = new RolloutPerfStats(lThreadStats);
       RolloutPerfStats lStatsDiff = lCombinedStatsTotal.getDifference(mLastRolloutPerfStats);
       mLastRolloutPerfStats = lCombinedStatsTotal;
 
+      SanchoMetrics.ROLLOUT_BUSY_TIME.add(lStatsDiff.mUsefulWork);
+      SanchoMetrics.ROLLOUT_BLOCKED_TIME.add(lStatsDiff.mBlockedFor);
+      SanchoMetrics.ROLLOUTS_STOLEN.add(lStatsDiff.mNumStolen);
+
       double lSampleSize = mGameCharacteristics.getExactRolloutSampleSize();
 
       double lNewSampleSize = lSampleSize * 0.8 / lStatsDiff.mUsefulWorkFraction;
@@ -1361,6 +1477,8 @@ public class GameSearcher implements Runnable, ActivityController, LocalSearchRe
         }
       }
 
+      SanchoMetrics.SAMPLE_SIZE.set(mGameCharacteristics.getRolloutSampleSize());
+
       LOGGER.debug("Dynamic sample size");
       LOGGER.debug("  Useful work last time:  " + (int)(lStatsDiff.mUsefulWorkFraction * 100) + "%");
       LOGGER.debug("  Calculated sample size: " + (int)(lNewSampleSize + 0.5));
@@ -1368,6 +1486,21 @@ public class GameSearcher implements Runnable, ActivityController, LocalSearchRe
       LOGGER.debug("  Now using sample size:  " + mGameCharacteristics.getRolloutSampleSize() + (mUseRAVE ? " (forced by use of RAVE)" : ""));
       LOGGER.debug("  Useful work total:      " + (int)(lCombinedStatsTotal.mUsefulWorkFraction * 100) + "%");
 
+      // Report the throughput of each rollout thread.
+      for (int lii = 0; lii < lThreadStats.length; lii++)
+      {
+        if (lThreadStats[lii] != null)
+        {
+          RolloutPerfStats lThreadDiff = (mLastThreadPerfStats[lii] == null) ?
+                                          lThreadStats[lii] :
+                                          lThreadStats[lii].getDifference(mLastThreadPerfStats[lii]);
+          mLastThreadPerfStats[lii] = lThreadStats[lii];
+          LOGGER.debug("  Rollout thread " + lii + ":       " + lThreadDiff.mNumRequests + " requests (" +
+                       lThreadDiff.mNumStolen + " stolen), " + (int)(lThreadDiff.mUsefulWorkFraction * 100) +
+                       "% useful, " + (int)(lThreadDiff.getMeanServiceTime() / 1000) + "us per request");
+        }
+      }
+
       mSuppressSampleSizeUpdate = false;
     }
   }
@@ -1396,6 +1529,14 @@ public class GameSearcher implements Runnable, ActivityController, LocalSearchRe
     }
   }
 
+  /**
+   * @return the search trees - one for each factor of the game.
+   */
+  MCTSTree[] getFactorTrees()
+  {
+    return factorTrees;
+  }
+
   /**
    * @return depth of root in game tree from initial state
    */
@@ -1413,14 +1554,19 @@ public class GameSearcher implements Runnable, ActivityController, LocalSearchRe
   public void ProcessLocalSearchResult(LocalSearchResults xiResults)
   {
     LOGGER.info("Received search result for processing when numIterations=" + mNumIterations);
-    while (lastProcessedSearchResultSeq != lastQueuedSearchResultSeq && !mTerminateRequested)
+
+    //  Results may come from several local search threads, which queue them one at a time
+    synchronized(localSearchResultQueueLock)
     {
-      //  Spin-wait
-      Thread.yield();
-    }
+      while (lastProcessedSearchResultSeq != lastQueuedSearchResultSeq && !mTerminateRequested)
+      {
+        //  Spin-wait
+        Thread.yield();
+      }
 
-    searchResultsBuffer.copyFrom(xiResults);
-    lastQueuedSearchResultSeq++;
+      searchResultsBuffer.copyFrom(xiResults);
+      lastQueuedSearchResultSeq++;
+    }
   }
 
   private void ProcessQueuedLocalSearchResults()
@@ -90,16 +90,37 @@ public class LocalRegionSearcher
 
   private final ForwardDeadReckonLegalMoveSet[][] relevantMoves;
 
+  //  Proven wins shared with any other local searchers (or null if not shared)
+  private final LocalSearchTranspositionTable transpositionTable;
+
   public LocalRegionSearcher(
                     ForwardDeadReckonPropnetStateMachine xiUnderlyingStateMachine,
                     RoleOrdering xiRoleOrdering,
                     LocalSearchController xiController,
                     LocalSearchResultConsumer xiResultsConsumer)
+  {
+    this(xiUnderlyingStateMachine, xiRoleOrdering, xiController, xiResultsConsumer, null);
+  }
+
+  /**
+   * @param xiUnderlyingStateMachine - state machine instance for this searcher's exclusive use
+   * @param xiRoleOrdering           - canonical role order mappings
+   * @param xiController             - controller used to terminate searches early (may be null)
+   * @param xiResultsConsumer        - interface by which results are communicated (may be null)
+   * @param xiTranspositionTable     - table of proven wins shared with other local searchers (may be null)
+   */
+  public LocalRegionSearcher(
+                    ForwardDeadReckonPropnetStateMachine xiUnderlyingStateMachine,
+                    RoleOrdering xiRoleOrdering,
+                    LocalSearchController xiController,
+                    LocalSearchResultConsumer xiResultsConsumer,
+                    LocalSearchTranspositionTable xiTranspositionTable)
   {
     underlyingStateMachine = xiUnderlyingStateMachine;
     roleOrdering = xiRoleOrdering;
     controller = xiController;
     resultsConsumer = xiResultsConsumer;
+    transpositionTable = xiTranspositionTable;
 
     numRoles = underlyingStateMachine.getRoles().length;
     jointMove = new ForwardDeadReckonLegalMoveInfo[MAX_DEPTH+1][];
@@ -162,6 +183,18 @@ public class LocalRegionSearcher
     return (moveDistances != null);
   }
 
+  /**
+   * Use the move distance analysis of another searcher for the same game, rather than repeating it
+   * @param xiOther - searcher to share the analysis of
+   */
+  public void shareMoveDistances(LocalRegionSearcher xiOther)
+  {
+    xiOther.canPerformLocalSearch();
+
+    moveDistances = xiOther.moveDistances;
+    distancesAnalysed = true;
+  }
+
   /**
    * Decay killer move stats (between turns typically)
    */
@@ -295,6 +328,35 @@ public class LocalRegionSearcher
   {
     //LOGGER.info("Local move search beginning for depth " + currentDepth);
 
+    if ( transpositionTable != null )
+    {
+      long provenEntry = transpositionTable.probe(LocalSearchTranspositionTable.getKey(startingState.getHashKey(),
+                                                                                        regionCentre));
+      if ( provenEntry != 0 )
+      {
+        int provenDepth = LocalSearchTranspositionTable.getDepth(provenEntry);
+        int provenWinForRole = LocalSearchTranspositionTable.getWinForRole(provenEntry);
+
+        if ( currentDepth == 1 && provenDepth > 1 && provenDepth <= MAX_DEPTH )
+        {
+          //  A previous search (possibly on another thread) around the same seed proved a win from here, so
+          //  neither role can have a shallower forced win in this region than the one it found.  Jump straight
+          //  to that depth.
+          LOGGER.info("Start state is a known local win for role " + roleOrdering.roleIndexToRole(provenWinForRole) +
+                      " at depth " + provenDepth + " - starting search at that depth");
+          currentDepth = provenDepth;
+          firstSearchedRole = provenWinForRole;
+        }
+        else if ( provenDepth < currentDepth )
+        {
+          //  The win from here has already been reported at a shallower depth than we could now find
+          LOGGER.info("Local search from this state already found win for role " + roleOrdering.roleIndexToRole(provenWinForRole) +
+                      " at depth " + provenDepth + " - abandoning search");
+          return true;
+        }
+      }
+    }
+
     if ( tenukiLossSeeds[firstSearchedRole] != null )
     {
       firstSearchedRole = 1-firstSearchedRole;
@@ -412,6 +474,15 @@ public class LocalRegionSearcher
             resultsConsumer.ProcessLocalSearchResult(searchResult);
           }
 
+          //  Only the start state's result is recorded.  The states along the win path were only searched as
+          //  far as this line needed, so a shallower win from one of them may not have been looked for.
+          if ( transpositionTable != null )
+          {
+            transpositionTable.recordWin(LocalSearchTranspositionTable.getKey(startingState.getHashKey(), regionCentre),
+                                         1-optionalRole,
+                                         currentDepth);
+          }
+
           //  Treat the winning move the same as a tenuki loss at the previous level to
           //  force searching relative to it in other alternatives
           for(int i = 0; i < jointMove[1].length; i++)
@@ -0,0 +1,119 @@
+package org.ggp.base.player.gamer.statemachine.sancho;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonLegalMoveInfo;
+
+/**
+ * Table of the (local) forced wins proven by local search, shared between all the local search threads.
+ *
+ * Entries are keyed by state hash and seed move (see {@link #getKey}) and record which role has the win and the search
+ * depth it was proven at.  Only the start states of completed searches are recorded, so the depth is the shallowest at
+ * which either role has a forced win around that seed.  Each entry is packed into a single long so that the table can
+ * be read and written without locking.  The upper bits of the hash are kept in the entry to detect collisions - a
+ * false match is possible (if very unlikely) so entries are only ever used as hints for where to start searching,
+ * never as results in their own right.
+ */
+class LocalSearchTranspositionTable
+{
+  private static final int  TABLE_SIZE_BITS = 16;
+  private static final int  TABLE_MASK      = (1 << TABLE_SIZE_BITS) - 1;
+
+  private static final long KEY_MASK        = 0xFFFFFFFFFFFF0000L;
+  private static final int  DEPTH_SHIFT     = 8;
+  private static final long DEPTH_MASK      = 0xFF;
+  private static final long ROLE_FLAG       = 0x01;
+  private static final long VALID_FLAG      = 0x02;
+
+  // Odd multiplier (2^64 / golden ratio) to spread seed move indices over all the bits of a key.
+  private static final long SEED_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+  private final AtomicLongArray mEntries = new AtomicLongArray(1 << TABLE_SIZE_BITS);
+
+  /**
+   * @return the key for a state, as searched around a particular seed move.  A search only looks for wins within the
+   * locality region of its seed, so a win it proves doesn't rule out shallower wins elsewhere.  Wins proven around
+   * different seeds are therefore kept apart.
+   *
+   * @param xiHashKey - hash key of the state.
+   * @param xiSeed    - the seed move of the search, or null for an unconstrained search.
+   */
+  static long getKey(long xiHashKey, ForwardDeadReckonLegalMoveInfo xiSeed)
+  {
+    if (xiSeed == null)
+    {
+      return xiHashKey;
+    }
+
+    return xiHashKey ^ ((xiSeed.mMasterIndex + 1) * SEED_MULTIPLIER);
+  }
+
+  /**
+   * Record a proven win.  An existing entry for the same state is only replaced by a shallower proof.
+   *
+   * @param xiKey         - key (from getKey()) of the state the win was proven from.
+   * @param xiWinForRole  - the role with the forced win.
+   * @param xiDepth       - the search depth at which it was proven.
+   */
+  void recordWin(long xiKey, int xiWinForRole, int xiDepth)
+  {
+    int lIndex = (int)(xiKey & TABLE_MASK);
+    long lNewEntry = (xiKey & KEY_MASK) |
+                     ((xiDepth & DEPTH_MASK) << DEPTH_SHIFT) |
+                     (xiWinForRole == 0 ? 0 : ROLE_FLAG) |
+                     VALID_FLAG;
+
+    while (true)
+    {
+      long lOldEntry = mEntries.get(lIndex);
+
+      if (isFor(lOldEntry, xiKey) && (getDepth(lOldEntry) <= xiDepth))
+      {
+        return;
+      }
+
+      if (mEntries.compareAndSet(lIndex, lOldEntry, lNewEntry))
+      {
+        return;
+      }
+    }
+  }
+
+  /**
+   * @return the entry for the specified state and seed, or 0 if there isn't one.  Use the static accessors to unpack
+   * it.
+   *
+   * @param xiKey - key (from getKey()) of the state.
+   */
+  long probe(long xiKey)
+  {
+    long lEntry = mEntries.get((int)(xiKey & TABLE_MASK));
+
+    return isFor(lEntry, xiKey) ? lEntry : 0;
+  }
+
+  /**
+   * @return the role with the forced win recorded in an entry.
+   *
+   * @param xiEntry - a non-zero entry returned by probe().
+   */
+  static int getWinForRole(long xiEntry)
+  {
+    return ((xiEntry & ROLE_FLAG) == 0) ? 0 : 1;
+  }
+
+  /**
+   * @return the search depth at which the win recorded in an entry was proven.
+   *
+   * @param xiEntry - a non-zero entry returned by probe().
+   */
+  static int getDepth(long xiEntry)
+  {
+    return (int)((xiEntry >>> DEPTH_SHIFT) & DEPTH_MASK);
+  }
+
+  private static boolean isFor(long xiEntry, long xiKey)
+  {
+    return ((xiEntry & VALID_FLAG) != 0) && ((xiEntry & KEY_MASK) == (xiKey & KEY_MASK));
+  }
+}
@@ -1,6 +1,5 @@
 package org.ggp.base.player.gamer.statemachine.sancho;
 
-import gnu.trove.map.hash.TObjectLongHashMap;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -108,7 +107,8 @@ public class MCTSTree
   final Pool<TreePath>                                 mPathPool;
   final Pool<RAVEStats>                                mRAVEStatsPool;
   final CappedPool<MoveScoreInfo>                      mCachedMoveScorePool;
-  private final TObjectLongHashMap<ForwardDeadReckonInternalMachineState> mPositions;
+  private final TranspositionTable                     mPositions;
+  final NodeReclaimer                                  mReclaimer;
   int                                                  mSweepInstance                               = 0;
   NodeRefQueue                                         mCompletedNodeRefQueue                       = new NodeRefQueue(512);
   Map<Move, MoveScoreInfo>                             mCousinMoveCache                             = new HashMap<>();
@@ -198,6 +198,7 @@ public class MCTSTree
   {
     mUnderlyingStateMachine = xiStateMachine;
     mNumRoles = xiStateMachine.getRoles().length;
+    mReclaimer = new NodeReclaimer(this);
     mStateSimilarityMap = (MachineSpecificConfiguration.getCfgBool(CfgItem.DISABLE_STATE_SIMILARITY_EXPANSION_WEIGHTING) ? null : new StateSimilarityMap(xiStateMachine.getFullPropNet(), xiNodePool));
     mRoleControlProps = roleControlProps;
     mNodePool = xiNodePool;
@@ -369,7 +370,7 @@ public class MCTSTree
     mHeuristic = xiHeuristic;
     mGameCharacteristics = xiGameCharacteristics;
     mRolloutPool = xiRolloutPool;
-    mPositions = new TObjectLongHashMap<>((int)(mNodePool.getCapacity() / 0.75f), 0.75f, TreeNode.NULL_REF);
+    mPositions = new TranspositionTable(mNodePool.getCapacity(), mNodePool);
 
     //  For now we only automatically enable use of estimated values for unplayed nodes (in select)
     //  in games with negative goal latches, which amounts to ELB.  Further testing is needed, so for
@@ -450,6 +451,7 @@ public class MCTSTree
     mMaxAutoExpansionDepth = 0;
     mAverageAutoExpansionDepth = 0;
     mRoot = null;
+    mReclaimer.reset();
     mNodePool.clear(mTreeNodeAllocator, true);
     mPositions.clear();
     mNumIncompleteNodes = 0;
@@ -535,8 +537,8 @@ public class MCTSTree
   {
     if (SUPPORT_TRANSITIONS)
     {
-      assert(!mPositions.containsKey(xiTreeNode.mState));
-      mPositions.put(xiTreeNode.mState, xiTreeNode.getRef());
+      assert(mPositions.get(xiTreeNode.mState) == null);
+      mPositions.put(xiTreeNode);
     }
   }
 
@@ -544,20 +546,7 @@ public class MCTSTree
   {
     if (SUPPORT_TRANSITIONS)
     {
-      long lRef = mPositions.get(xiTreeNode.mState);
-
-      if (lRef == TreeNode.NULL_REF)
-      {
-        return;
-      }
-      else if (lRef == xiTreeNode.getRef())
-      {
-        mPositions.remove(xiTreeNode.mState);
-      }
-      else
-      {
-        //assert(false) : "Attempt to remove incorrect node from position indexes";
-      }
+      mPositions.remove(xiTreeNode);
     }
   }
 
@@ -565,15 +554,20 @@ public class MCTSTree
   {
     if (SUPPORT_TRANSITIONS)
     {
-      long lRef = mPositions.get(xiState);
+      TreeNode lNode = mPositions.get(xiState);
 
-      if (lRef == TreeNode.NULL_REF)
+      if (lNode == null)
       {
         return null;
       }
 
-      TreeNode lNode = TreeNode.get(mNodePool, lRef);
-      assert(lNode != null);
+      //  A node that is waiting to be reclaimed must not be linked back into the tree, so drop it from the index now
+      if (mReclaimer.isAbandoned(lNode))
+      {
+        mPositions.remove(lNode);
+        return null;
+      }
+
       assert(xiState.equals(lNode.mState));
       assert(!mRemoveNonDecisionNodes || lNode == mRoot || lNode.mComplete || lNode.mNumChildren != 1);
 
@@ -704,7 +698,7 @@ public class MCTSTree
 
           assert(existingRootStateNode.linkageValid());
           mRoot = existingRootStateNode;
-          assert(mRoot.mParents.size()>0);
+          assert(mRoot.getNumParents()>0);
         }
         else
         {
@@ -809,7 +803,20 @@ public class MCTSTree
           }
         }
 
-        int percentageFreed = oldRoot.freeAllBut(mRoot);
+        //  Cut the new root (and, if we've allocated a proxy for it, the node it proxies) off from the old
+        //  tree.  The reclaimer then marks what is still reachable, unlinking it from the rest, which it
+        //  frees incrementally as the search continues.
+        mRoot.clearParents();
+        if (existingRootStateNode != null && existingRootStateNode != mRoot)
+        {
+          existingRootStateNode.clearParentsBut(mRoot);
+        }
+        mReclaimer.startEpoch(mRoot);
+
+        //  The proportion of the tree that has been abandoned is estimated from the visit counts (which
+        //  roughly track the number of nodes below each)
+        int percentageFreed = (oldRoot.mNumVisits == 0 ? 0 : 100 - (int)((100L * mRoot.mNumVisits) / oldRoot.mNumVisits));
+        LOGGER.info("Re-rooted tree - abandoned approximately " + percentageFreed + "% of it");
 
         if ( previousChoiceNode != null && previousChoiceNode.mNumChildren > 1 && mGameSearcher.getPlan().isEmpty() )
         {
@@ -834,13 +841,13 @@ public class MCTSTree
             }
           }
         }
-        assert(existingRootStateNode == null || existingRootStateNode == mRoot || existingRootStateNode.mParents.size()==1);
-        assert(mRoot.mParents.size() == 0);
+        assert(existingRootStateNode == null || existingRootStateNode == mRoot || existingRootStateNode.getNumParents()==1);
+        assert(mRoot.getNumParents() == 0);
       }
     }
 
     assert(!mRoot.mFreed) : "Root node has been freed";
-    assert(mRoot.mParents.size() == 0);
+    assert(mRoot.getNumParents() == 0);
     //validateAll();
 
     //  Special case - because we can mark nodes complete before they are terminal if greedy rollouts are
@@ -941,6 +948,7 @@ public class MCTSTree
     {
       bestMoveInfo.logBest();
       LOGGER.info("Num nodes in use: " + mNodePool.getNumItemsInUse());
+      LOGGER.info("Num transposition table replacements: " + mPositions.getNumReplacements());
       LOGGER.info("Num true rollouts added: " + mNumNonTerminalRollouts);
       LOGGER.info("Num terminal nodes revisited: " + mNumTerminalRollouts);
       LOGGER.info("Num incomplete nodes: " + mNumIncompleteNodes);
@@ -1154,9 +1162,9 @@ public class MCTSTree
     if (mRoot != null)
       mRoot.validate(true);
 
-    for (ForwardDeadReckonInternalMachineState e : mPositions.keySet())
+    for (int lSlot = 0; lSlot < mPositions.getCapacity(); lSlot++)
     {
-      TreeNode node = findTransposition(e);
+      TreeNode node = mPositions.getNodeInSlot(lSlot);
 
       if (node != null)
       {
@@ -1164,7 +1172,7 @@ public class MCTSTree
         {
           LOGGER.warn("Position references bad type");
         }
-        if (!node.mState.equals(e))
+        if (findTransposition(node.mState) != node)
         {
           LOGGER.warn("Position state mismatch");
         }
@@ -1277,7 +1285,7 @@ public class MCTSTree
     if (!cur.mComplete && (cur.mNumVisits >= mExpandAfterVisitThreshold || cur.getDepth() >= mShallowestCompletionDepth - mNumRoles))
     {
       assert(selected == null || cur == selected.getChildNode());
-      assert(selected == null || cur.mParents.contains(selected.getParentNode()));
+      assert(selected == null || cur.hasParent(selected.getParentNode()));
 
       //  Expand for each role so we're back to our-move as we always rollout after joint moves
       cur = cur.expand(visited, mJointMoveBuffer, parentDepth);
@@ -72,6 +72,11 @@ public class MachineSpecificConfiguration
      */
     DISABLE_SAVED_PLANS(false),
 
+    /**
+     * Whether to disable the use of persisted (reduced) propnets (auto disabled if learning is disabled).
+     */
+    DISABLE_PROPNET_CACHE(false),
+
     /**
      * Whether to disable node trimming on pool full (if disabled search stalls until the next move
      * reroots the tree).
@@ -88,6 +93,11 @@ public class MachineSpecificConfiguration
      */
     DISABLE_A_STAR(false),
 
+    /**
+     * Memory budget for the A* puzzle solver, in MB, or -1 to use a quarter of the maximum heap size.
+     */
+    A_STAR_MEMORY_MB(-1),
+
     /**
      * If positive, used as the rollout sample size, without any dynamic tuning.  Otherwise, dynamically determine the
      * best number of samples per rollout request.
@@ -114,6 +124,34 @@ public class MachineSpecificConfiguration
      */
     USE_LOCAL_SEARCH(true),
 
+    /**
+     * Number of threads to run local search on, or -1 to use the vCPUs not needed by the CPU-intensive threads (up to
+     * a maximum of 4).  The first thread searches around the current best move and the others around alternatives.
+     */
+    LOCAL_SEARCH_THREADS(-1),
+
+    /**
+     * Whether to apply a virtual loss to edges on the path of each in-flight rollout.  This lets the search thread keep
+     * a much deeper rollout pipeline busy (scaled by the number of rollout threads) without successive selections all
+     * piling onto the same leaf.
+     *
+     * Off by default.  This is groundwork for scaling across many cores - so far it has only been measured on a single
+     * vCPU, where it neither costs nor gains anything significant.
+     */
+    USE_VIRTUAL_LOSS(false),
+
+    /**
+     * Whether idle rollout threads may steal work queued for other rollout threads (in which case new work is also
+     * placed according to each thread's measured throughput, rather than strictly round-robin).
+     */
+    USE_WORK_STEALING(true),
+
+    /**
+     * Number of threads to use when building the propnet, or -1 to use all the available vCPUs (which are otherwise
+     * idle at that point in meta-gaming).
+     */
+    PROPNET_BUILD_THREADS(-1),
+
     /**
      * Whether RAVE may be used.
      */
@@ -124,12 +162,29 @@ public class MachineSpecificConfiguration
      */
     ALLOW_HYPEREXPANSION(true),
 
+    /**
+     * Whether to bias playouts by learned move statistics (MAST/NST) in games that don't use greedy rollouts.  The
+     * statistics are saved with the game, so later matches of the same game start with what was learned before.
+     */
+    USE_LEARNED_PLAYOUT_POLICY(false),
+
     /**
      * Time, in milliseconds, after which we assume that we aren't going to here from the server again - in which case
      * we abort the match.
      */
     DEAD_MATCH_INTERVAL((int)TimeUnit.MINUTES.toMillis(10)),
 
+    /**
+     * Port on which to serve live search metrics (in the Prometheus text format), or -1 for none.
+     */
+    METRICS_PORT(-1),
+
+    /**
+     * Address on which to serve metrics.  Only local scrapers can reach the default - use 0.0.0.0 to serve on all
+     * interfaces.
+     */
+    METRICS_ADDRESS("127.0.0.1"),
+
     /**
      * The tlk.io channel to log to.
      */
@@ -264,13 +319,37 @@ public class MachineSpecificConfiguration
 
 
   /**
-   * UT-only method for overriding configuration.
+   * Override a configuration value for the rest of the run, e.g. for a unit test or a tool that runs the player's code
+   * with particular settings.  This only affects code that reads the value afterwards, so it should be done before the
+   * code in question starts.
+   *
+   * @param xiKey - the property to override.
+   * @param xiValue - the new value.
+   */
+  public static void setCfgVal(CfgItem xiKey, String xiValue)
+  {
+    MACHINE_PROPERTIES.setProperty(xiKey.toString(), xiValue);
+  }
+
+  /**
+   * Override a boolean configuration value - see {@link #setCfgVal(CfgItem, String)}.
+   *
+   * @param xiKey - the property to override.
+   * @param xiValue - the new value.
+   */
+  public static void setCfgVal(CfgItem xiKey, boolean xiValue)
+  {
+    setCfgVal(xiKey, xiValue ? "true" : "false");
+  }
+
+  /**
+   * Override an integer configuration value - see {@link #setCfgVal(CfgItem, String)}.
    *
    * @param xiKey - the property to override.
    * @param xiValue - the new value.
    */
-  public static void utOverrideCfgVal(CfgItem xiKey, boolean xiValue)
+  public static void setCfgVal(CfgItem xiKey, int xiValue)
   {
-    MACHINE_PROPERTIES.setProperty(xiKey.toString(), xiValue ? "true" : "false");
+    setCfgVal(xiKey, Integer.toString(xiValue));
   }
 }
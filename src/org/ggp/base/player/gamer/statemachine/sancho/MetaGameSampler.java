@@ -0,0 +1,852 @@
+package org.ggp.base.player.gamer.statemachine.sancho;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.ThreadContext;
+import org.ggp.base.player.gamer.statemachine.sancho.heuristic.Heuristic;
+import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonInternalMachineState;
+import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonLegalMoveInfo;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.implementation.propnet.forwardDeadReckon.Factor;
+import org.ggp.base.util.statemachine.implementation.propnet.forwardDeadReckon.ForwardDeadReckonPropnetStateMachine;
+import org.ggp.base.util.statemachine.implementation.propnet.forwardDeadReckon.ForwardDeadReckonPropnetStateMachine.PlayoutInfo;
+
+/**
+ * Plays the sample games used during meta-gaming to discover the characteristics of a game and to tune the heuristics.
+ *
+ * The games are spread across several threads, each with its own instance of the state machine.  Each thread
+ * accumulates its own statistics, which are merged once sampling is complete.  Heuristic tuning isn't thread-safe, so
+ * the sample games for tuning are recorded and replayed into the heuristic on the calling thread (concurrently with
+ * the sampling threads playing further games).
+ */
+class MetaGameSampler
+{
+  private static final Logger LOGGER = LogManager.getLogger();
+
+  /**
+   * Maximum number of recorded sample games (per sampling thread) that may be waiting to be replayed into the
+   * heuristic.  When the heuristic falls behind, the sampling threads wait rather than use ever more memory.
+   */
+  private static final int MAX_QUEUED_GAMES_PER_THREAD = 4;
+
+  /**
+   * Maximum time to wait for the sampling threads to stop, once they have been told to.  They check for interruption
+   * between games, so this only needs to be longer than a single game takes.
+   */
+  private static final long THREAD_STOP_TIMEOUT_MS = 5000;
+
+  /**
+   * Statistics from the move-by-move sample games.
+   */
+  static class PrimaryStats
+  {
+    public int                                     mNumSamples;
+    public final ForwardDeadReckonInternalMachineState[] mRoleControlMasks;
+    public final List<Set<Move>>                   mRoleMoves = new ArrayList<>();
+    public final int[]                             mPlayerMoveParity;
+    public boolean                                 mIsIteratedGame = true;
+    public boolean                                 mIsStrictlyAlternatingPlay = true;
+    public boolean                                 mIsSimultaneousMove;
+    public boolean                                 mIsPseudoSimultaneousMove;
+    public boolean                                 mMoveChoicesFromMultipleFactors;
+    public double                                  mBranchingFactorApproximation;
+    public int                                     mMaxNumTurns = 0;
+    public int                                     mMinNumTurns = Integer.MAX_VALUE;
+    public int                                     mTotalTurnSamples;
+    public int                                     mTotalGoalChangeCount;
+    public int                                     mTotalHyperSequenceLength;
+    public int                                     mTotalSquaredHyperSequenceLength;
+    public int                                     mTotalHyperSequenceCount;
+    public boolean                                 mGoalsMonotonic = true;
+
+    PrimaryStats(ForwardDeadReckonPropnetStateMachine xiStateMachine, int xiNumRoles)
+    {
+      // Create masks of possible control props, which we'll whittle down during simulation.
+      mRoleControlMasks = new ForwardDeadReckonInternalMachineState[xiNumRoles];
+      mPlayerMoveParity = new int[xiNumRoles];
+      for (int lii = 0; lii < xiNumRoles; lii++)
+      {
+        mRoleControlMasks[lii] = xiStateMachine.createEmptyInternalState();
+        mRoleControlMasks[lii].clear();
+        mRoleControlMasks[lii].invert();
+        mRoleMoves.add(null);
+        mPlayerMoveParity[lii] = -1;
+      }
+    }
+
+    /**
+     * Merge statistics gathered by another sampling thread into these.
+     *
+     * @param xiOther - the other statistics.
+     */
+    void merge(PrimaryStats xiOther)
+    {
+      mNumSamples += xiOther.mNumSamples;
+
+      for (int lii = 0; lii < mRoleControlMasks.length; lii++)
+      {
+        mRoleControlMasks[lii].intersect(xiOther.mRoleControlMasks[lii]);
+
+        // A game is only iterated if every thread saw the same choice of moves.
+        Set<Move> lOtherMoves = xiOther.mRoleMoves.get(lii);
+        if (mRoleMoves.get(lii) == null)
+        {
+          mRoleMoves.set(lii, lOtherMoves);
+        }
+        else if ((lOtherMoves != null) && (!mRoleMoves.get(lii).equals(lOtherMoves)))
+        {
+          mIsIteratedGame = false;
+        }
+
+        // Likewise, play is only strictly alternating if every thread saw each role move with the same parity.
+        if (mPlayerMoveParity[lii] == -1)
+        {
+          mPlayerMoveParity[lii] = xiOther.mPlayerMoveParity[lii];
+        }
+        else if ((xiOther.mPlayerMoveParity[lii] != -1) &&
+                 (xiOther.mPlayerMoveParity[lii] != mPlayerMoveParity[lii]))
+        {
+          mIsStrictlyAlternatingPlay = false;
+        }
+      }
+
+      mIsIteratedGame &= xiOther.mIsIteratedGame;
+      mIsStrictlyAlternatingPlay &= xiOther.mIsStrictlyAlternatingPlay;
+      mIsSimultaneousMove |= xiOther.mIsSimultaneousMove;
+      mIsPseudoSimultaneousMove |= xiOther.mIsPseudoSimultaneousMove;
+      mMoveChoicesFromMultipleFactors |= xiOther.mMoveChoicesFromMultipleFactors;
+      mBranchingFactorApproximation += xiOther.mBranchingFactorApproximation;
+      mMaxNumTurns = Math.max(mMaxNumTurns, xiOther.mMaxNumTurns);
+      mMinNumTurns = Math.min(mMinNumTurns, xiOther.mMinNumTurns);
+      mTotalTurnSamples += xiOther.mTotalTurnSamples;
+      mTotalGoalChangeCount += xiOther.mTotalGoalChangeCount;
+      mTotalHyperSequenceLength += xiOther.mTotalHyperSequenceLength;
+      mTotalSquaredHyperSequenceLength += xiOther.mTotalSquaredHyperSequenceLength;
+      mTotalHyperSequenceCount += xiOther.mTotalHyperSequenceCount;
+      mGoalsMonotonic &= xiOther.mGoalsMonotonic;
+    }
+  }
+
+  /**
+   * Statistics from the depth-charge simulations.
+   */
+  static class SimulationStats
+  {
+    public long   mSimulationsPerformed;
+    public int    mNumNonDrawSimulations;
+    public long   mTotalNonDrawTurns;
+    public int    mMinNumNonDrawTurns = Integer.MAX_VALUE;
+    public long   mTotalTurns;
+    public long   mTotalSquaredTurns;
+    public int    mMinNumTurns;
+    public int    mMaxNumTurns;
+    public int    mNumLongGames;
+    public int    mNumLongDraws;
+    public long   mTotalBranchingFactor;
+    public int    mChoicesHighWaterMark;
+    public int    mScoreSum = -1;
+    public boolean mIsFixedSum = true;
+    public int    mMultiRoleSamples;
+    public int    mMultiRoleScoreDiff;
+    public int    mObservedMinNetScore = Integer.MAX_VALUE;
+    public int    mObservedMaxNetScore = Integer.MIN_VALUE;
+
+    SimulationStats(int xiMinNumTurns, int xiMaxNumTurns)
+    {
+      mMinNumTurns = xiMinNumTurns;
+      mMaxNumTurns = xiMaxNumTurns;
+    }
+
+    /**
+     * Merge statistics gathered by another sampling thread into these.
+     *
+     * @param xiOther - the other statistics.
+     */
+    void merge(SimulationStats xiOther)
+    {
+      mSimulationsPerformed += xiOther.mSimulationsPerformed;
+      mNumNonDrawSimulations += xiOther.mNumNonDrawSimulations;
+      mTotalNonDrawTurns += xiOther.mTotalNonDrawTurns;
+      mMinNumNonDrawTurns = Math.min(mMinNumNonDrawTurns, xiOther.mMinNumNonDrawTurns);
+      mTotalTurns += xiOther.mTotalTurns;
+      mTotalSquaredTurns += xiOther.mTotalSquaredTurns;
+      mMinNumTurns = Math.min(mMinNumTurns, xiOther.mMinNumTurns);
+      mMaxNumTurns = Math.max(mMaxNumTurns, xiOther.mMaxNumTurns);
+      mNumLongGames += xiOther.mNumLongGames;
+      mNumLongDraws += xiOther.mNumLongDraws;
+      mTotalBranchingFactor += xiOther.mTotalBranchingFactor;
+      mChoicesHighWaterMark = Math.max(mChoicesHighWaterMark, xiOther.mChoicesHighWaterMark);
+      if (mScoreSum == -1)
+      {
+        mScoreSum = xiOther.mScoreSum;
+      }
+      mIsFixedSum &= xiOther.mIsFixedSum && ((xiOther.mScoreSum == -1) || (xiOther.mScoreSum == mScoreSum));
+      mMultiRoleSamples += xiOther.mMultiRoleSamples;
+      mMultiRoleScoreDiff += xiOther.mMultiRoleScoreDiff;
+      mObservedMinNetScore = Math.min(mObservedMinNetScore, xiOther.mObservedMinNetScore);
+      mObservedMaxNetScore = Math.max(mObservedMaxNetScore, xiOther.mObservedMaxNetScore);
+    }
+  }
+
+  /**
+   * A sample game, recorded so that it can be replayed into the heuristic.
+   */
+  private static class SampleGame
+  {
+    final List<ForwardDeadReckonInternalMachineState> mStates = new ArrayList<>();
+    final List<Integer> mChoosingRoles = new ArrayList<>();
+    ForwardDeadReckonInternalMachineState mTerminalState;
+    int[] mRoleScores;
+  }
+
+  private final ForwardDeadReckonPropnetStateMachine mStateMachine;
+  private final RoleOrdering                         mRoleOrdering;
+  private final Role                                 mOurRole;
+  private final int                                  mNumRoles;
+  private final String                               mLogName;
+
+  /**
+   * The number of sampling threads.  If 0, sampling is done on the calling thread with the master state machine.
+   */
+  private final int                                  mNumThreads;
+
+  /**
+   * Create a meta-game sampler.
+   *
+   * @param xiStateMachine - the master state machine, from which an instance will be created for each thread.
+   * @param xiOurRole      - our role.
+   */
+  MetaGameSampler(ForwardDeadReckonPropnetStateMachine xiStateMachine, Role xiOurRole)
+  {
+    mStateMachine = xiStateMachine;
+    mRoleOrdering = xiStateMachine.getRoleOrdering();
+    mOurRole = xiOurRole;
+    mNumRoles = xiStateMachine.getRoles().length;
+    mLogName = ThreadContext.get("matchID");
+    mNumThreads = ThreadControl.RUN_SYNCHRONOUSLY ? 0 :
+                             Math.min(ThreadControl.CPU_INTENSIVE_THREADS, xiStateMachine.getNumFreeInstances());
+    LOGGER.info("Meta-game sampling with " + mNumThreads + " threads");
+  }
+
+  /**
+   * @return the number of threads that sample games at once (at least 1).
+   */
+  int getParallelism()
+  {
+    return Math.max(1, mNumThreads);
+  }
+
+  /**
+   * Play move-by-move sample games, feeding each of them to the heuristic for tuning.
+   *
+   * Sampling stops at the specified time or, if simultaneous moves are seen, once the minimum number of samples has
+   * been played.
+   *
+   * @return the statistics from the sample games.
+   *
+   * @param xiInitialState - the state to play from.
+   * @param xiFactors      - the game's factors, or null if it isn't factored.
+   * @param xiHeuristic    - the heuristic to tune.
+   * @param xiStopTime     - the time at which to stop sampling.
+   * @param xiMinSamples   - the minimum number of samples to play if simultaneous moves are seen.
+   */
+  PrimaryStats playPrimarySamples(final ForwardDeadReckonInternalMachineState xiInitialState,
+                                  final Collection<Factor> xiFactors,
+                                  Heuristic xiHeuristic,
+                                  final long xiStopTime,
+                                  final int xiMinSamples)
+  {
+    final AtomicInteger lNumGamesPlayed = new AtomicInteger(0);
+    final AtomicBoolean lSimultaneousSeen = new AtomicBoolean(false);
+    final PrimaryStats lStats = new PrimaryStats(mStateMachine, mNumRoles);
+
+    if (mNumThreads == 0)
+    {
+      Random lRandom = new Random();
+      while ((System.currentTimeMillis() < xiStopTime) &&
+             ((lStats.mNumSamples < xiMinSamples) || (!lStats.mIsSimultaneousMove)))
+      {
+        replay(playSampleGame(mStateMachine, xiInitialState, xiFactors, lStats, lRandom), xiHeuristic);
+      }
+      return lStats;
+    }
+
+    final LinkedBlockingQueue<SampleGame> lQueue = new LinkedBlockingQueue<>();
+    final int lMaxQueued = mNumThreads * MAX_QUEUED_GAMES_PER_THREAD;
+    List<Callable<PrimaryStats>> lTasks = new ArrayList<>();
+    for (final ForwardDeadReckonPropnetStateMachine lStateMachine : createInstances())
+    {
+      lTasks.add(new Callable<PrimaryStats>()
+      {
+        @Override
+        public PrimaryStats call() throws InterruptedException
+        {
+          ThreadContext.put("matchID", mLogName);
+          PrimaryStats lThreadStats = new PrimaryStats(lStateMachine, mNumRoles);
+          Random lRandom = new Random();
+
+          while ((System.currentTimeMillis() < xiStopTime) &&
+                 ((lNumGamesPlayed.get() < xiMinSamples) || (!lSimultaneousSeen.get())) &&
+                 (!Thread.currentThread().isInterrupted()))
+          {
+            // Don't get too far ahead of the heuristic.
+            if (lQueue.size() >= lMaxQueued)
+            {
+              Thread.sleep(1);
+              continue;
+            }
+
+            lQueue.put(playSampleGame(lStateMachine, xiInitialState, xiFactors, lThreadStats, lRandom));
+            lNumGamesPlayed.incrementAndGet();
+            if (lThreadStats.mIsSimultaneousMove)
+            {
+              lSimultaneousSeen.set(true);
+            }
+          }
+          return lThreadStats;
+        }
+      });
+    }
+
+    List<PrimaryStats> lThreadStats = runTasks(lTasks, lQueue, xiHeuristic);
+    for (PrimaryStats lThreadStat : lThreadStats)
+    {
+      lStats.merge(lThreadStat);
+    }
+    return lStats;
+  }
+
+  /**
+   * Play a single move-by-move sample game, with random moves for all roles.
+   *
+   * @return the recorded game.
+   *
+   * @param xiStateMachine - the state machine to use.
+   * @param xiInitialState - the state to play from.
+   * @param xiFactors      - the game's factors, or null if it isn't factored.
+   * @param xiStats        - the statistics to update.
+   * @param xiRandom       - the source of randomness for move selection.
+   */
+  private SampleGame playSampleGame(ForwardDeadReckonPropnetStateMachine xiStateMachine,
+                                    ForwardDeadReckonInternalMachineState xiInitialState,
+                                    Collection<Factor> xiFactors,
+                                    PrimaryStats xiStats,
+                                    Random xiRandom)
+  {
+    SampleGame lGame = new SampleGame();
+    ForwardDeadReckonInternalMachineState sampleState = new ForwardDeadReckonInternalMachineState(xiInitialState);
+    ForwardDeadReckonInternalMachineState newState = new ForwardDeadReckonInternalMachineState(xiInitialState);
+
+    int numRoleMovesSimulated = 0;
+    int numBranchesTaken = 0;
+    int turnNum = 0;
+    int lastOurGoal = xiStateMachine.getGoal(sampleState, mOurRole);
+    int hyperExpansionLength = -1;
+    int previousChoosingRoleIndex;
+    int choosingRoleIndex = -2;
+
+    while (!xiStateMachine.isTerminal(sampleState))
+    {
+      boolean roleWithChoiceSeen = false;
+      ForwardDeadReckonLegalMoveInfo[] jointMove = new ForwardDeadReckonLegalMoveInfo[mNumRoles];
+      Set<Move> allMovesInState = new HashSet<>();
+
+      previousChoosingRoleIndex = choosingRoleIndex;
+      choosingRoleIndex = -2;
+
+      turnNum++;
+      hyperExpansionLength++;
+
+      for (int i = 0; i < mNumRoles; i++)
+      {
+        List<ForwardDeadReckonLegalMoveInfo> legalMoves =
+                        new ArrayList<>(xiStateMachine.getLegalMoves(sampleState, mRoleOrdering.roleIndexToRole(i)));
+
+        if (legalMoves.size() > 1)
+        {
+          if (xiStats.mRoleControlMasks[i].size() > 0)
+          {
+            if (xiStats.mRoleControlMasks[i].intersectionSize(sampleState) == 0)
+            {
+              LOGGER.debug("Eliminating role control props");
+            }
+            //  This player has control (may not be only this player)
+            xiStats.mRoleControlMasks[i].intersect(sampleState);
+          }
+
+          Set<Move> previousChoices = xiStats.mRoleMoves.get(i);
+
+          if (previousChoices != null)
+          {
+            if (xiStats.mIsIteratedGame)
+            {
+              Set<Move> moves = new HashSet<>();
+
+              for (ForwardDeadReckonLegalMoveInfo moveInfo : legalMoves)
+              {
+                moves.add(moveInfo.mMove);
+              }
+
+              if (!previousChoices.equals(moves))
+              {
+                xiStats.mIsIteratedGame = false;
+              }
+            }
+          }
+          else
+          {
+            Set<Move> moves = new HashSet<>();
+
+            for (ForwardDeadReckonLegalMoveInfo moveInfo : legalMoves)
+            {
+              moves.add(moveInfo.mMove);
+            }
+
+            xiStats.mRoleMoves.set(i, moves);
+          }
+
+          choosingRoleIndex = i;
+          Factor turnFactor = null;
+
+          if (xiStats.mIsStrictlyAlternatingPlay)
+          {
+            int moveParity = (turnNum%mNumRoles);
+            if (xiStats.mPlayerMoveParity[choosingRoleIndex] == -1)
+            {
+              xiStats.mPlayerMoveParity[choosingRoleIndex] = moveParity;
+            }
+            else if (moveParity != xiStats.mPlayerMoveParity[choosingRoleIndex])
+            {
+              xiStats.mIsStrictlyAlternatingPlay = false;
+            }
+          }
+
+          for (ForwardDeadReckonLegalMoveInfo moveInfo : legalMoves)
+          {
+            if (xiFactors != null)
+            {
+              for (Factor factor : xiFactors)
+              {
+                if (factor.getMoves().contains(moveInfo.mMove))
+                {
+                  if (turnFactor != null && turnFactor != factor)
+                  {
+                    xiStats.mMoveChoicesFromMultipleFactors = true;
+                    break;
+                  }
+                  turnFactor = factor;
+                }
+              }
+            }
+            if (allMovesInState.contains(moveInfo.mMove))
+            {
+              xiStats.mIsSimultaneousMove = true;
+              choosingRoleIndex = -1;
+              break;
+            }
+            allMovesInState.add(moveInfo.mMove);
+          }
+
+          if (roleWithChoiceSeen)
+          {
+            xiStats.mIsPseudoSimultaneousMove = true;
+            choosingRoleIndex = -1;
+          }
+
+          roleWithChoiceSeen = true;
+
+          numBranchesTaken += legalMoves.size();
+          numRoleMovesSimulated++;
+        }
+
+        jointMove[i] = legalMoves.get(xiRandom.nextInt(legalMoves.size()));
+      }
+
+      if (choosingRoleIndex < 0 ||
+          (choosingRoleIndex != previousChoosingRoleIndex && previousChoosingRoleIndex >= 0))
+      {
+        xiStats.mTotalHyperSequenceLength += hyperExpansionLength;
+        xiStats.mTotalSquaredHyperSequenceLength += hyperExpansionLength*hyperExpansionLength;
+        hyperExpansionLength = 0;
+        xiStats.mTotalHyperSequenceCount++;
+      }
+
+      lGame.mStates.add(new ForwardDeadReckonInternalMachineState(sampleState));
+      lGame.mChoosingRoles.add(choosingRoleIndex);
+
+      xiStateMachine.getNextState(sampleState, null, jointMove, newState);
+
+      sampleState.copy(newState);
+
+      int currentOurGoal = xiStateMachine.getGoal(sampleState, mOurRole);
+
+      xiStats.mTotalTurnSamples++;
+      if (currentOurGoal != lastOurGoal)
+      {
+        xiStats.mTotalGoalChangeCount++;
+        if (lastOurGoal > currentOurGoal)
+        {
+          xiStats.mGoalsMonotonic = false;
+        }
+        lastOurGoal = currentOurGoal;
+      }
+    }
+
+    if (hyperExpansionLength > 0)
+    {
+      xiStats.mTotalHyperSequenceLength += hyperExpansionLength;
+      xiStats.mTotalSquaredHyperSequenceLength += hyperExpansionLength*hyperExpansionLength;
+      xiStats.mTotalHyperSequenceCount++;
+    }
+
+    if (turnNum > xiStats.mMaxNumTurns)
+    {
+      xiStats.mMaxNumTurns = turnNum;
+    }
+    if (turnNum < xiStats.mMinNumTurns)
+    {
+      assert(turnNum>0);
+      xiStats.mMinNumTurns = turnNum;
+    }
+
+    lGame.mRoleScores = new int[mNumRoles];
+    for (int i = 0; i < mNumRoles; i++)
+    {
+      lGame.mRoleScores[i] = xiStateMachine.getGoal(sampleState, mRoleOrdering.roleIndexToRole(i));
+    }
+    lGame.mTerminalState = sampleState;
+
+    if (numRoleMovesSimulated > 0)
+    {
+      xiStats.mBranchingFactorApproximation += (numBranchesTaken / numRoleMovesSimulated);
+    }
+    xiStats.mNumSamples++;
+
+    return lGame;
+  }
+
+  /**
+   * Replay a recorded sample game into the heuristic.
+   *
+   * @param xiGame      - the game.
+   * @param xiHeuristic - the heuristic.
+   */
+  private static void replay(SampleGame xiGame, Heuristic xiHeuristic)
+  {
+    xiHeuristic.tuningStartSampleGame();
+
+    for (int lii = 0; lii < xiGame.mStates.size(); lii++)
+    {
+      xiHeuristic.tuningInterimStateSample(xiGame.mStates.get(lii), xiGame.mChoosingRoles.get(lii));
+    }
+
+    // Tell the heuristic about the terminal state, for tuning purposes.
+    xiHeuristic.tuningTerminalStateSample(xiGame.mTerminalState, xiGame.mRoleScores);
+  }
+
+  /**
+   * Play depth-charge simulations to measure the game's length, scores and branching factor.
+   *
+   * @return the statistics from the simulations.
+   *
+   * @param xiInitialState - the state to play from.
+   * @param xiStopTime     - the time at which to stop.
+   * @param xiMinNumTurns  - the shortest game seen so far.
+   * @param xiMaxNumTurns  - the longest game seen so far.
+   */
+  SimulationStats playSimulations(final ForwardDeadReckonInternalMachineState xiInitialState,
+                                  final long xiStopTime,
+                                  final int xiMinNumTurns,
+                                  final int xiMaxNumTurns)
+  {
+    if (mNumThreads == 0)
+    {
+      return playSimulations(mStateMachine, xiInitialState, xiStopTime, xiMinNumTurns, xiMaxNumTurns);
+    }
+
+    List<ForwardDeadReckonPropnetStateMachine> lInstances = createInstances();
+    List<Callable<SimulationStats>> lTasks = new ArrayList<>();
+    for (final ForwardDeadReckonPropnetStateMachine lStateMachine : lInstances)
+    {
+      lTasks.add(new Callable<SimulationStats>()
+      {
+        @Override
+        public SimulationStats call()
+        {
+          ThreadContext.put("matchID", mLogName);
+          return playSimulations(lStateMachine, xiInitialState, xiStopTime, xiMinNumTurns, xiMaxNumTurns);
+        }
+      });
+    }
+
+    SimulationStats lStats = new SimulationStats(xiMinNumTurns, xiMaxNumTurns);
+    for (SimulationStats lThreadStats : runTasks(lTasks, null, null))
+    {
+      lStats.merge(lThreadStats);
+    }
+
+    // The master state machine keeps track of how effective greedy rollouts are.
+    for (ForwardDeadReckonPropnetStateMachine lInstance : lInstances)
+    {
+      mStateMachine.mergeGreedyRolloutStats(lInstance);
+    }
+    return lStats;
+  }
+
+  private SimulationStats playSimulations(ForwardDeadReckonPropnetStateMachine xiStateMachine,
+                                          ForwardDeadReckonInternalMachineState xiInitialState,
+                                          long xiStopTime,
+                                          int xiMinNumTurns,
+                                          int xiMaxNumTurns)
+  {
+    SimulationStats lStats = new SimulationStats(xiMinNumTurns, xiMaxNumTurns);
+    PlayoutInfo playoutInfo = xiStateMachine.new PlayoutInfo(-1);
+
+    playoutInfo.cutoffDepth = 1000;
+    playoutInfo.factor = null;
+    playoutInfo.moveWeights = null;
+
+    //  Stop early if interrupted - e.g. because another sampling thread has failed.
+    while ((System.currentTimeMillis() < xiStopTime) && (!Thread.currentThread().isInterrupted()))
+    {
+      lStats.mSimulationsPerformed++;
+
+      xiStateMachine.getDepthChargeResult(xiInitialState, playoutInfo);
+
+      int netScore = Sancho.rawNetScore(xiStateMachine, null, mOurRole);
+      if (netScore != 50)
+      {
+        lStats.mNumNonDrawSimulations++;
+        lStats.mTotalNonDrawTurns += playoutInfo.playoutLength;
+        if (lStats.mMinNumNonDrawTurns > playoutInfo.playoutLength)
+        {
+          lStats.mMinNumNonDrawTurns = playoutInfo.playoutLength;
+        }
+      }
+
+      int thisScoreSum = 0;
+
+      for (int i = 0; i < mNumRoles; i++)
+      {
+        int roleScore = xiStateMachine.getGoal(mRoleOrdering.roleIndexToRole(i));
+
+        thisScoreSum += roleScore;
+        if (i != 0 && mNumRoles > 2)
+        {
+          //	If there are several enemy players involved extract a measure
+          //	of their goal correlation
+          for (Role role2 : xiStateMachine.getRoles())
+          {
+            if (!role2.equals(mOurRole) && !role2.equals(mRoleOrdering.roleIndexToRole(i)))
+            {
+              int role2Score = xiStateMachine.getGoal(role2);
+
+              lStats.mMultiRoleSamples++;
+              lStats.mMultiRoleScoreDiff += Math.abs(role2Score - roleScore);
+            }
+          }
+        }
+      }
+
+      if (lStats.mScoreSum == -1)
+      {
+        lStats.mScoreSum = thisScoreSum;
+      }
+      if (lStats.mScoreSum != thisScoreSum)
+      {
+        lStats.mIsFixedSum = false;
+      }
+
+      lStats.mTotalTurns += playoutInfo.playoutLength;
+      lStats.mTotalSquaredTurns += playoutInfo.playoutLength * playoutInfo.playoutLength;
+
+      if (playoutInfo.playoutLength < lStats.mMinNumTurns)
+      {
+        assert(playoutInfo.playoutLength>0);
+        lStats.mMinNumTurns = playoutInfo.playoutLength;
+      }
+      if (playoutInfo.playoutLength > lStats.mMaxNumTurns)
+      {
+        lStats.mMaxNumTurns = playoutInfo.playoutLength;
+      }
+
+      if (playoutInfo.playoutLength >= (lStats.mMaxNumTurns*95)/100)
+      {
+        lStats.mNumLongGames++;
+
+        if (netScore == 50)
+        {
+          lStats.mNumLongDraws++;
+        }
+      }
+
+      lStats.mTotalBranchingFactor += playoutInfo.averageBranchingFactor;
+      lStats.mChoicesHighWaterMark = Math.max(lStats.mChoicesHighWaterMark, playoutInfo.averageBranchingFactor);
+
+      if (netScore < lStats.mObservedMinNetScore)
+      {
+        lStats.mObservedMinNetScore = netScore;
+      }
+
+      if (netScore > lStats.mObservedMaxNetScore)
+      {
+        lStats.mObservedMaxNetScore = netScore;
+      }
+    }
+
+    return lStats;
+  }
+
+  /**
+   * @return a state machine instance for each sampling thread.  They must be released (by {@link #runTasks}) when
+   * sampling is complete.
+   */
+  private List<ForwardDeadReckonPropnetStateMachine> createInstances()
+  {
+    // Create the instances now (and before any other thread might create instances).  They're created afresh for each
+    // batch of sampling, because instances take a copy of the master's configuration, which changes during
+    // meta-gaming.
+    List<ForwardDeadReckonPropnetStateMachine> lInstances = new ArrayList<>();
+    for (int lii = 0; lii < mNumThreads; lii++)
+    {
+      lInstances.add(mStateMachine.createInstance());
+    }
+    return lInstances;
+  }
+
+  /**
+   * Run tasks on the sampling threads and wait for them all to complete.  If a queue of sample games is specified,
+   * they're replayed into the heuristic (on the calling thread) as they arrive.
+   *
+   * @return the results of the tasks.
+   *
+   * @param xiTasks     - the tasks, one per sampling thread.
+   * @param xiQueue     - the queue of sample games, or null if there isn't one.
+   * @param xiHeuristic - the heuristic to replay the sample games into, or null if there isn't a queue.
+   */
+  private <T> List<T> runTasks(List<Callable<T>> xiTasks,
+                               LinkedBlockingQueue<SampleGame> xiQueue,
+                               Heuristic xiHeuristic)
+  {
+    ExecutorService lExecutor = Executors.newFixedThreadPool(xiTasks.size());
+    List<T> lResults = new ArrayList<>();
+    try
+    {
+      List<Future<T>> lFutures = new ArrayList<>();
+      for (Callable<T> lTask : xiTasks)
+      {
+        lFutures.add(lExecutor.submit(lTask));
+      }
+
+      for (Future<T> lFuture : lFutures)
+      {
+        // Replay sample games until this task has completed.
+        while ((xiQueue != null) && (!lFuture.isDone()))
+        {
+          SampleGame lGame = xiQueue.poll(10, TimeUnit.MILLISECONDS);
+          if (lGame != null)
+          {
+            replay(lGame, xiHeuristic);
+          }
+        }
+
+        lResults.add(lFuture.get());
+      }
+
+      // Replay any remaining games.
+      for (SampleGame lGame = (xiQueue == null ? null : xiQueue.poll());
+           lGame != null;
+           lGame = xiQueue.poll())
+      {
+        replay(lGame, xiHeuristic);
+      }
+    }
+    catch (InterruptedException lEx)
+    {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted during meta-game sampling", lEx);
+    }
+    catch (ExecutionException lEx)
+    {
+      Throwable lCause = lEx.getCause();
+      if (lCause instanceof RuntimeException)
+      {
+        throw (RuntimeException)lCause;
+      }
+      if (lCause instanceof Error)
+      {
+        throw (Error)lCause;
+      }
+      throw new RuntimeException(lCause);
+    }
+    finally
+    {
+      // The instances were only needed for sampling.  Return them so that they're available for the search - but only
+      // once the threads using them have stopped, since releasing an instance resets it.
+      lExecutor.shutdownNow();
+      if (awaitTermination(lExecutor))
+      {
+        mStateMachine.releaseInstances(mStateMachine.getNumInstances() - xiTasks.size());
+      }
+      else
+      {
+        LOGGER.warn("Meta-game sampling threads didn't stop - leaking their state machine instances");
+      }
+    }
+
+    return lResults;
+  }
+
+  /**
+   * Wait (for a bounded time) for an executor's threads to stop, having shut it down.  Interruption doesn't cut the
+   * wait short, but is preserved for the caller.
+   *
+   * @return whether all the threads stopped.
+   *
+   * @param xiExecutor - the executor.
+   */
+  private static boolean awaitTermination(ExecutorService xiExecutor)
+  {
+    long lDeadline = System.currentTimeMillis() + THREAD_STOP_TIMEOUT_MS;
+    boolean lInterrupted = false;
+    try
+    {
+      while (true)
+      {
+        try
+        {
+          long lTimeLeft = Math.max(0, lDeadline - System.currentTimeMillis());
+          return xiExecutor.awaitTermination(lTimeLeft, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException lEx)
+        {
+          lInterrupted = true;
+        }
+      }
+    }
+    finally
+    {
+      if (lInterrupted)
+      {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
@@ -14,50 +14,256 @@ import org.ggp.base.util.statemachine.implementation.propnet.forwardDeadReckon.F
  *
  *  This class is responsible for local search to determine whether there are forced win/loss
  *  consequences of a given seed move from a given state
+ *
+ *  Searches run on a pool of threads, each with its own local region searcher.  The first thread
+ *  runs the primary search (around the move currently considered best).  Any others run candidate
+ *  searches around alternative seeds, so that a forced win in a line MCTS does not yet favour is
+ *  still found promptly.  All the threads share a table of the wins that have been proven.
  */
-public class MoveConsequenceSearcher implements Runnable, LocalSearchController
+public class MoveConsequenceSearcher
 {
   private static final Logger LOGGER       = LogManager.getLogger();
 
-  private boolean mTerminateRequested = false;
-  private volatile int searchRequested = -1;
-  private int searchProcessing = -1;
-  private int nextSearch = 0;
-  private ForwardDeadReckonInternalMachineState currentState;
-  private ForwardDeadReckonInternalMachineState choiceFromState;
-  private ForwardDeadReckonLegalMoveInfo        seedMove;
-  private int                                   choosingRole;
-  private boolean resetStats = false;
-  private final Thread mThread;
-
-  private final LocalRegionSearcher regionSearcher;
+  private final SearchWorker[] mWorkers;
+  private final LocalSearchTranspositionTable mTranspositionTable = new LocalSearchTranspositionTable();
   private final String mLogName;
+  private int mNextCandidateWorker = 1;
+
+  /**
+   * A single local search thread.
+   */
+  private class SearchWorker implements Runnable, LocalSearchController
+  {
+    private volatile boolean mTerminateRequested = false;
+    private volatile int searchRequested = -1;
+    private int searchProcessing = -1;
+    private int nextSearch = 0;
+    private ForwardDeadReckonInternalMachineState currentState;
+    private ForwardDeadReckonInternalMachineState choiceFromState;
+    private ForwardDeadReckonLegalMoveInfo        seedMove;
+    private int                                   choosingRole;
+    private boolean resetStats = false;
+    private final Thread mThread;
+
+    private final LocalRegionSearcher regionSearcher;
+
+    SearchWorker(ForwardDeadReckonPropnetStateMachine xiUnderlyingStateMachine,
+                 RoleOrdering xiRoleOrdering,
+                 LocalSearchResultConsumer xiResultConsumer,
+                 int xiIndex,
+                 LocalRegionSearcher xiAnalysedSearcher)
+    {
+      regionSearcher = new LocalRegionSearcher(xiUnderlyingStateMachine,
+                                               xiRoleOrdering,
+                                               this,
+                                               xiResultConsumer,
+                                               mTranspositionTable);
+      if ( xiAnalysedSearcher != null )
+      {
+        regionSearcher.shareMoveDistances(xiAnalysedSearcher);
+      }
+
+      if ( regionSearcher.canPerformLocalSearch() )
+      {
+        mThread = new Thread(this, "Move Consequence Processor" + (xiIndex == 0 ? "" : " " + xiIndex));
+        mThread.setDaemon(true);
+        mThread.start();
+      }
+      else
+      {
+        mThread = null;
+      }
+    }
+
+    void stop()
+    {
+      //  Set under the lock so that the worker can't miss the notification between checking the flag and waiting
+      synchronized(this)
+      {
+        mTerminateRequested = true;
+        this.notifyAll();
+      }
+
+      if ( mThread != null )
+      {
+
+        try
+        {
+          mThread.join(2000);
+          if ( mThread.isAlive() )
+          {
+            LOGGER.warn("Local search processor failed to stop cleanly - interrupting");
+            mThread.interrupt();
+            mThread.join(5000);
+          }
+        }
+        catch (InterruptedException lEx)
+        {
+          LOGGER.warn("Unexpectedly interrupted whilst stopping local search processor");
+        }
+      }
+    }
+
+    /**
+     * @return whether the specified search is the one this worker was most recently asked to run
+     */
+    synchronized boolean isAssigned(ForwardDeadReckonInternalMachineState startState,
+                                    ForwardDeadReckonLegalMoveInfo seed)
+    {
+      return ( seedMove != null && seedMove.mMasterIndex == seed.mMasterIndex && startState.equals(currentState) );
+    }
+
+    void newSearch(ForwardDeadReckonInternalMachineState startState,
+                   ForwardDeadReckonInternalMachineState xiChoiceFromState,
+                   ForwardDeadReckonLegalMoveInfo seed,
+                   int xiChoosingRole,
+                   boolean isNewTurn,
+                   boolean forceSearchReset)
+    {
+      synchronized(this)
+      {
+        //  If we're being asked for the same search again just continue
+        if ( seedMove == null || seedMove.mMasterIndex != seed.mMasterIndex || forceSearchReset || !startState.equals(currentState) )
+        {
+          LOGGER.info("New local search request - move " + ((seedMove == null || seedMove.mMasterIndex != seed.mMasterIndex) ?  "differs" : "does not differ") + ", state " + (startState.equals(currentState) ? "does not differ" : "differs"));
+          currentState = new ForwardDeadReckonInternalMachineState(startState);
+          if ( xiChoiceFromState != null )
+          {
+            choiceFromState = new ForwardDeadReckonInternalMachineState(xiChoiceFromState);
+          }
+          else
+          {
+            choiceFromState = null;
+          }
+          seedMove = seed;
+          choosingRole = xiChoosingRole;
+
+          searchRequested = ++nextSearch;
+
+          this.notifyAll();
+        }
+        else
+        {
+          LOGGER.info("New search request ignored - matching state and seed move");
+        }
+        if ( isNewTurn )
+        {
+          LOGGER.info("Is new turn");
+          resetStats |= isNewTurn;
+        }
+      }
+    }
+
+    void endSearch(boolean isNewTurn)
+    {
+      synchronized(this)
+      {
+        searchRequested = -1;
+        resetStats |= isNewTurn;
+      }
+    }
+
+    @Override
+    public void run()
+    {
+      // Register this thread.
+      ThreadContext.put("matchID", mLogName);
+      ThreadControl.registerSearchThread();
+
+      if ( !regionSearcher.canPerformLocalSearch() )
+      {
+        LOGGER.info("Local search not supported for this game");
+        return;
+      }
+
+      while(!mTerminateRequested)
+      {
+        synchronized(this)
+        {
+          if ( searchRequested == -1 )
+          {
+            try
+            {
+              if ( !mTerminateRequested )
+              {
+                this.wait();
+              }
+            }
+            catch (InterruptedException e)
+            {
+              // TODO Auto-generated catch block
+              e.printStackTrace();
+            }
+
+            //  Woken without a search to run (e.g. because we're being stopped)
+            if ( searchRequested == -1 )
+            {
+              continue;
+            }
+          }
+
+          if ( searchRequested != searchProcessing )
+          {
+            //  Start a new search
+            regionSearcher.setSearchParameters(currentState, choiceFromState, seedMove, choosingRole);
+            searchProcessing = searchRequested;
+
+            if ( resetStats )
+            {
+              regionSearcher.decayKillerStatistics();
+              resetStats = false;
+            }
+          }
+        }
+
+        if ( regionSearcher.iterate() )
+        {
+          // Current search complete
+          synchronized(this)
+          {
+            if ( searchRequested == searchProcessing )
+            {
+              searchRequested = -1;
+            }
+          }
+        }
+      }
+
+      LOGGER.info("Local search thread exitting");
+    }
+
+    @Override
+    public boolean terminateSearch()
+    {
+      return (mTerminateRequested || searchProcessing != searchRequested);
+    }
+  }
 
   /**
-   * @param xiUnderlyingStateMachine - state machine instance the move consequence searcher can use -
-   *                                   this must not be shared with other uses on other threads
-   * @param xiRoleOrdering           - canonical role order mappings
-   * @param logName                  - the name of the log
-   * @param resultConsumer           - interface by which results of the search are communicated
+   * @param xiUnderlyingStateMachines - state machine instances the move consequence searcher can use, one
+   *                                    per search thread - these must not be shared with other uses on other
+   *                                    threads
+   * @param xiRoleOrdering            - canonical role order mappings
+   * @param logName                   - the name of the log
+   * @param resultConsumer            - interface by which results of the search are communicated.  This
+   *                                    is called from all the search threads.
    */
   public MoveConsequenceSearcher(
-                    ForwardDeadReckonPropnetStateMachine xiUnderlyingStateMachine,
+                    ForwardDeadReckonPropnetStateMachine[] xiUnderlyingStateMachines,
                     RoleOrdering xiRoleOrdering,
                     String logName,
                     LocalSearchResultConsumer resultConsumer)
   {
-    regionSearcher = new LocalRegionSearcher(xiUnderlyingStateMachine, xiRoleOrdering, this, resultConsumer);
     mLogName = logName;
+    mWorkers = new SearchWorker[xiUnderlyingStateMachines.length];
 
-    if ( regionSearcher.canPerformLocalSearch() )
-    {
-      mThread = new Thread(this, "Move Consequence Processor");
-      mThread.setDaemon(true);
-      mThread.start();
-    }
-    else
+    for(int i = 0; i < mWorkers.length; i++)
     {
-      mThread = null;
+      mWorkers[i] = new SearchWorker(xiUnderlyingStateMachines[i],
+                                     xiRoleOrdering,
+                                     resultConsumer,
+                                     i,
+                                     (i == 0 ? null : mWorkers[0].regionSearcher));
     }
   }
 
@@ -66,42 +272,30 @@ public class MoveConsequenceSearcher implements Runnable, LocalSearchController
    */
   public boolean isEnabled()
   {
-    return regionSearcher.canPerformLocalSearch();
+    return mWorkers[0].regionSearcher.canPerformLocalSearch();
   }
 
   /**
-   * Terminate the local search thread
+   * @return the number of threads available for candidate searches (in addition to the primary search)
    */
-  public void stop()
+  public int getNumCandidateSearchers()
   {
-    mTerminateRequested = true;
+    return mWorkers.length - 1;
+  }
 
-    if ( mThread != null )
+  /**
+   * Terminate the local search threads
+   */
+  public void stop()
+  {
+    for(SearchWorker worker : mWorkers)
     {
-      synchronized(this)
-      {
-        this.notifyAll();
-      }
-
-      try
-      {
-        mThread.join(2000);
-        if ( mThread.isAlive() )
-        {
-          LOGGER.warn("Local search processor failed to stop cleanly - interrupting");
-          mThread.interrupt();
-          mThread.join(5000);
-        }
-      }
-      catch (InterruptedException lEx)
-      {
-        LOGGER.warn("Unexpectedly interrupted whilst stopping local search processor");
-      }
+      worker.stop();
     }
   }
 
   /**
-   * Start a new local search
+   * Start a new primary local search
    * @param startState        - root state for the new search
    * @param xiChoiceFromState - state the start state is a child of
    * @param seed              - move being used as a locality seed
@@ -116,114 +310,61 @@ public class MoveConsequenceSearcher implements Runnable, LocalSearchController
                         boolean isNewTurn,
                         boolean forceSearchReset)
   {
-    synchronized(this)
+    if ( isNewTurn )
     {
-      //  If we're being asked for the same search again just continue
-      if ( seedMove == null || seedMove.mMasterIndex != seed.mMasterIndex || forceSearchReset || !startState.equals(currentState) )
+      //  Candidate searches from the previous turn are no longer of interest
+      for(int i = 1; i < mWorkers.length; i++)
       {
-        LOGGER.info("New local search request - move " + ((seedMove == null || seedMove.mMasterIndex != seed.mMasterIndex) ?  "differs" : "does not differ") + ", state " + (startState.equals(currentState) ? "does not differ" : "differs"));
-        currentState = new ForwardDeadReckonInternalMachineState(startState);
-        if ( xiChoiceFromState != null )
-        {
-          choiceFromState = new ForwardDeadReckonInternalMachineState(xiChoiceFromState);
-        }
-        else
-        {
-          choiceFromState = null;
-        }
-        seedMove = seed;
-        choosingRole = xiChoosingRole;
-
-        searchRequested = ++nextSearch;
-
-        this.notifyAll();
-      }
-      else
-      {
-        LOGGER.info("New search request ignored - matching state and seed move");
-      }
-      if ( isNewTurn )
-      {
-        LOGGER.info("Is new turn");
-        resetStats |= isNewTurn;
+        mWorkers[i].endSearch(true);
       }
     }
+
+    mWorkers[0].newSearch(startState, xiChoiceFromState, seed, xiChoosingRole, isNewTurn, forceSearchReset);
   }
 
   /**
-   * Stop the current search
+   * Start a candidate local search on one of the candidate search threads (if there are any).  The
+   * thread used is the one whose search was requested longest ago.  Requests for a search that one
+   * of the threads is already running (or has completed) are ignored.
+   * @param startState        - root state for the new search
+   * @param xiChoiceFromState - state the start state is a child of
+   * @param seed              - move being used as a locality seed
+   * @param xiChoosingRole    - role for whom we are looking for a forced win
    */
-  public void endSearch()
+  public void addCandidateSearch(ForwardDeadReckonInternalMachineState startState,
+                                 ForwardDeadReckonInternalMachineState xiChoiceFromState,
+                                 ForwardDeadReckonLegalMoveInfo seed,
+                                 int xiChoosingRole)
   {
-    synchronized(this)
+    if ( mWorkers.length == 1 )
     {
-      searchRequested = -1;
-    }
-  }
-
-  @Override
-  public void run()
-  {
-    // Register this thread.
-    ThreadContext.put("matchID", mLogName);
-    ThreadControl.registerSearchThread();
-
-    if ( !regionSearcher.canPerformLocalSearch() )
-    {
-      LOGGER.info("Local search not supported for this game");
       return;
     }
 
-    while(!mTerminateRequested)
+    for(SearchWorker worker : mWorkers)
     {
-      synchronized(this)
+      if ( worker.isAssigned(startState, seed) )
       {
-        if ( searchRequested == -1 )
-        {
-          try
-          {
-            this.wait();
-          }
-          catch (InterruptedException e)
-          {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
-          }
-        }
-
-        if ( searchRequested != searchProcessing )
-        {
-          //  Start a new search
-          regionSearcher.setSearchParameters(currentState, choiceFromState, seedMove, choosingRole);
-          searchProcessing = searchRequested;
-
-          if ( resetStats )
-          {
-            regionSearcher.decayKillerStatistics();
-            resetStats = false;
-          }
-        }
-      }
-
-      if ( regionSearcher.iterate() )
-      {
-        // Current search complete
-        synchronized(this)
-        {
-          if ( searchRequested == searchProcessing )
-          {
-            searchRequested = -1;
-          }
-        }
+        return;
       }
     }
 
-    LOGGER.info("Local search thread exitting");
+    mWorkers[mNextCandidateWorker].newSearch(startState, xiChoiceFromState, seed, xiChoosingRole, false, false);
+
+    if ( ++mNextCandidateWorker == mWorkers.length )
+    {
+      mNextCandidateWorker = 1;
+    }
   }
 
-  @Override
-  public boolean terminateSearch()
+  /**
+   * Stop the current searches
+   */
+  public void endSearch()
   {
-    return (mTerminateRequested || searchProcessing != searchRequested);
+    for(SearchWorker worker : mWorkers)
+    {
+      worker.endSearch(false);
+    }
   }
 }
@@ -0,0 +1,210 @@
+package org.ggp.base.player.gamer.statemachine.sancho;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Incremental reclamation of the nodes that are left behind when the root of a tree advances.  Only the sweep is
+ * incremental - marking is not.
+ *
+ * When the tree is re-rooted, the nodes that are still reachable from the new root are stamped with a new epoch.  This
+ * is done straight away, so that the search never sees a node whose liveness isn't yet known.  Any live node that is
+ * also a child of an abandoned node (through a transposition) then has that parent unlinked, so that walks up the tree
+ * from a live node only ever reach live nodes.
+ *
+ * Freeing the abandoned nodes, which is the bulk of the work, is done a few at a time between search iterations, by
+ * sweeping the node pool for any of the tree's nodes with an older stamp.  References to reclaimed nodes are
+ * invalidated by the sequence number in the node reference, exactly as if the nodes had been freed immediately.
+ *
+ * The search carries on whilst sweeping, so...
+ *
+ * - nodes are allocated already stamped with the current epoch;
+ * - unmarked nodes are hidden from the transposition table (so that the search can't link back to them).
+ *
+ * All methods must be called with tree ownership.
+ */
+public class NodeReclaimer
+{
+  private static final Logger LOGGER = LogManager.getLogger();
+
+  /**
+   * Number of pool entries to sweep per search iteration.
+   */
+  public static final int STEP_BUDGET = 1000;
+
+  private static enum Phase
+  {
+    IDLE, SWEEPING
+  }
+
+  private final MCTSTree mTree;
+  private Phase          mPhase       = Phase.IDLE;
+  private int            mEpoch       = 1;
+
+  // Nodes that have been stamped, but whose children haven't yet been visited.
+  private long[]         mMarkStack   = new long[1024];
+  private int            mMarkStackSize;
+
+  // Marked nodes with more than one parent, some of which may have been abandoned.
+  private long[]         mTranspositions = new long[64];
+  private int            mNumTranspositions;
+
+  private int            mSweepIndex;
+  private int            mNumReclaimed;
+
+  /**
+   * Create a reclaimer for the nodes of a tree.
+   *
+   * @param xiTree - the tree.
+   */
+  public NodeReclaimer(MCTSTree xiTree)
+  {
+    mTree = xiTree;
+  }
+
+  /**
+   * @return the current epoch, with which all live nodes are stamped.
+   */
+  int getEpoch()
+  {
+    return mEpoch;
+  }
+
+  /**
+   * @return whether reclamation is still in progress.
+   */
+  public boolean isBusy()
+  {
+    return mPhase != Phase.IDLE;
+  }
+
+  /**
+   * @return whether the specified node is waiting to be reclaimed, in which case it must not be linked back into the
+   * tree.
+   *
+   * @param xiNode - the node.
+   */
+  boolean isAbandoned(TreeNode xiNode)
+  {
+    return (mPhase == Phase.SWEEPING) && (xiNode.getEpoch() != mEpoch);
+  }
+
+  /**
+   * Start a new epoch, following re-rooting of the tree.  Everything not reachable from the new root will be
+   * reclaimed.
+   *
+   * If the previous reclamation is still in progress, it is abandoned.  Anything it hadn't yet reclaimed is stamped
+   * with an older epoch and so will be picked up by this one.
+   *
+   * This marks the whole of the live tree before returning, so its cost is proportional to the size of the subtree
+   * under the new root (not constant).  Marking incrementally would need a write barrier on every parent link made
+   * during marking, and the transposition unlinking to wait until marking was complete.
+   *
+   * @param xiRoot - the new root.
+   */
+  void startEpoch(TreeNode xiRoot)
+  {
+    mEpoch++;
+    mSweepIndex = 0;
+    mNumReclaimed = 0;
+
+    //  Mark everything reachable from the new root.
+    mMarkStackSize = 0;
+    mNumTranspositions = 0;
+    shade(xiRoot);
+    while (mMarkStackSize > 0)
+    {
+      TreeNode.get(mTree.mNodePool, mMarkStack[--mMarkStackSize]).shadeChildren(this);
+    }
+
+    //  Now that all the live nodes are known, cut them off from any abandoned parents.
+    for (int lii = 0; lii < mNumTranspositions; lii++)
+    {
+      TreeNode.get(mTree.mNodePool, mTranspositions[lii]).unlinkAbandonedParents();
+    }
+    mNumTranspositions = 0;
+
+    mPhase = Phase.SWEEPING;
+  }
+
+  /**
+   * Abandon any reclamation in progress.  For use when all the tree's nodes are being freed anyway.
+   */
+  void reset()
+  {
+    mPhase = Phase.IDLE;
+  }
+
+  /**
+   * Stamp a node with the current epoch (if not already stamped) and queue it for visiting its children.
+   *
+   * @param xiNode - the node.
+   */
+  void shade(TreeNode xiNode)
+  {
+    if (xiNode.getEpoch() == mEpoch)
+    {
+      return;
+    }
+
+    xiNode.setEpoch(mEpoch);
+    mMarkStack = push(mMarkStack, mMarkStackSize++, xiNode.getRef());
+
+    if (xiNode.getNumParents() > 1)
+    {
+      mTranspositions = push(mTranspositions, mNumTranspositions++, xiNode.getRef());
+    }
+  }
+
+  /**
+   * @return the stack, with the specified entry added (growing the stack if necessary).
+   *
+   * @param xiStack - the stack.
+   * @param xiSize  - the number of entries already on the stack.
+   * @param xiRef   - the node reference to add.
+   */
+  private static long[] push(long[] xiStack, int xiSize, long xiRef)
+  {
+    long[] lStack = xiStack;
+    if (xiSize == lStack.length)
+    {
+      lStack = new long[xiSize * 2];
+      System.arraycopy(xiStack, 0, lStack, 0, xiSize);
+    }
+    lStack[xiSize] = xiRef;
+
+    return lStack;
+  }
+
+  /**
+   * Perform some reclamation work.
+   *
+   * @param xiBudget - the maximum number of pool entries to sweep.
+   */
+  public void step(int xiBudget)
+  {
+    int lBudget = xiBudget;
+
+    int lPoolSize = mTree.mNodePool.getCapacity();
+    while (mPhase == Phase.SWEEPING && lBudget > 0)
+    {
+      // Pool entries are allocated in order, so the first empty one marks the end of the pool.
+      TreeNode lNode = (mSweepIndex < lPoolSize) ? mTree.mNodePool.get(mSweepIndex) : null;
+      if (lNode == null)
+      {
+        LOGGER.info("Reclaimed " + mNumReclaimed + " nodes left behind by re-rooting");
+        mPhase = Phase.IDLE;
+        break;
+      }
+
+      if ((lNode.mTree == mTree) && (!lNode.mFreed) && (lNode.getEpoch() != mEpoch))
+      {
+        assert(lNode != mTree.mRoot) : "Root node not marked";
+        lNode.reclaim();
+        mNumReclaimed++;
+      }
+      mSweepIndex++;
+      lBudget--;
+    }
+  }
+}
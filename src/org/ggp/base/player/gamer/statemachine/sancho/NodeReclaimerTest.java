@@ -0,0 +1,194 @@
+package org.ggp.base.player.gamer.statemachine.sancho;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.ggp.base.player.gamer.statemachine.sancho.heuristic.CombinedHeuristic;
+import org.ggp.base.player.gamer.statemachine.sancho.heuristic.Heuristic;
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonInternalMachineState;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.implementation.propnet.forwardDeadReckon.ForwardDeadReckonPropnetStateMachine;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class NodeReclaimerTest extends Assert
+{
+  private static final int NODE_TABLE_SIZE = 100000;
+  private static final int NUM_ITERATIONS  = 5000;
+
+  /**
+   * Re-root a Tic-Tac-Toe tree two plies down.  Because the order of moves doesn't matter, some of the nodes below the
+   * new root are also reachable from positions that have been abandoned.  Check that such nodes lose their abandoned
+   * parents straight away, and that the sweep then frees exactly the abandoned nodes.
+   */
+  @Test
+  public void testReRootWithTranspositions() throws Exception
+  {
+    Game lGame = new TestGameRepository().getGame("ticTacToe");
+    RuntimeGameCharacteristics lGameCharacteristics = new RuntimeGameCharacteristics(null);
+    ForwardDeadReckonPropnetStateMachine lStateMachine =
+                                       new ForwardDeadReckonPropnetStateMachine(ThreadControl.CPU_INTENSIVE_THREADS,
+                                                                                System.currentTimeMillis() + 60000,
+                                                                                null,
+                                                                                lGameCharacteristics);
+    lStateMachine.initialize(lGame.getRules());
+    lStateMachine.enableGreedyRollouts(false, true);
+    lGameCharacteristics.setRolloutSampleSize(1);
+    lStateMachine.optimizeStateTransitionMechanism(System.currentTimeMillis() + 5000);
+    Role lOurRole = lStateMachine.getRoles()[0];
+
+    Heuristic lHeuristic = new CombinedHeuristic();
+    lHeuristic.tuningComplete();
+
+    MachineState lInitialState = lStateMachine.getInitialState();
+    GameSearcher lSearcher = new GameSearcher(NODE_TABLE_SIZE, lStateMachine.getRoles().length, "NodeReclaimerTest");
+    try
+    {
+      lSearcher.setup(lStateMachine,
+                      lStateMachine.createInternalState(lInitialState),
+                      new RoleOrdering(lStateMachine, lOurRole),
+                      lGameCharacteristics,
+                      true,
+                      lHeuristic,
+                      new GamePlan(),
+                      null);
+      lSearcher.startSearch(Long.MAX_VALUE, lStateMachine.createInternalState(lInitialState), (short)0, null);
+
+      assert(ThreadControl.takeTreeOwnership());
+      try
+      {
+        for (int lii = 0; lii < NUM_ITERATIONS && !lSearcher.expandSearch(true); lii++)
+        {
+          // Keep searching.
+        }
+      }
+      finally
+      {
+        assert(ThreadControl.releaseTreeOwnership());
+      }
+
+      MCTSTree lTree = lSearcher.getFactorTrees()[0];
+
+      //  Play the first legal move for each role in turn.
+      MachineState lState = lInitialState;
+      for (int lii = 0; lii < 2; lii++)
+      {
+        List<Move> lJointMove = new ArrayList<>();
+        for (Role lRole : lStateMachine.getRoles())
+        {
+          lJointMove.add(lStateMachine.getLegalMoves(lState, lRole).get(0));
+        }
+        lState = lStateMachine.getNextState(lState, lJointMove);
+      }
+      ForwardDeadReckonInternalMachineState lNewRootState = lStateMachine.createInternalState(lState);
+
+      TreeNode lNewRoot = lTree.findTransposition(lNewRootState);
+      assertNotNull("New root not in tree", lNewRoot);
+      Set<TreeNode> lLive = getReachable(lNewRoot);
+      int lNumAbandonedParents = 0;
+      for (TreeNode lNode : lLive)
+      {
+        for (int lii = 0; lii < lNode.getNumParents(); lii++)
+        {
+          if (!lLive.contains(lNode.getParent(lii)))
+          {
+            lNumAbandonedParents++;
+          }
+        }
+      }
+      assertTrue("No transpositions into the new root's subtree", lNumAbandonedParents > 0);
+
+      lSearcher.startSearch(Long.MAX_VALUE, lNewRootState, (short)(2 * lStateMachine.getRoles().length), null);
+      assertSame(lNewRoot, lTree.mRoot);
+
+      //  Every node reachable from the new root should now have only reachable parents.
+      lLive = getReachable(lTree.mRoot);
+      assertTrue(lTree.mReclaimer.isBusy());
+      for (TreeNode lNode : lLive)
+      {
+        for (int lii = 0; lii < lNode.getNumParents(); lii++)
+        {
+          assertTrue("Live node still linked to abandoned parent", lLive.contains(lNode.getParent(lii)));
+        }
+      }
+
+      //  Sweeping should free everything else, and nothing that is still reachable.
+      assert(ThreadControl.takeTreeOwnership());
+      try
+      {
+        lTree.mReclaimer.step(Integer.MAX_VALUE);
+      }
+      finally
+      {
+        assert(ThreadControl.releaseTreeOwnership());
+      }
+      assertFalse(lTree.mReclaimer.isBusy());
+      int lNumInUse = 0;
+      for (int lii = 0; lii < lTree.mNodePool.getCapacity(); lii++)
+      {
+        TreeNode lNode = lTree.mNodePool.get(lii);
+        if (lNode == null)
+        {
+          break;
+        }
+        if ((lNode.mTree == lTree) && (!lNode.mFreed))
+        {
+          assertTrue("Abandoned node not reclaimed", lLive.contains(lNode));
+          lNumInUse++;
+        }
+      }
+      assertEquals(lLive.size(), lNumInUse);
+    }
+    finally
+    {
+      lSearcher.terminate();
+    }
+  }
+
+  /**
+   * @return all the nodes reachable (by direct edges) from the specified node, including the node itself.
+   *
+   * @param xiNode - the node.
+   */
+  private static Set<TreeNode> getReachable(TreeNode xiNode)
+  {
+    Set<TreeNode> lReachable = new HashSet<>();
+    List<TreeNode> lToVisit = new ArrayList<>();
+    lToVisit.add(xiNode);
+
+    while (!lToVisit.isEmpty())
+    {
+      TreeNode lNode = lToVisit.remove(lToVisit.size() - 1);
+      assertFalse("Reachable node has been freed", lNode.mFreed);
+      if (!lReachable.add(lNode))
+      {
+        continue;
+      }
+
+      for (int lii = 0; lii < lNode.mNumChildren; lii++)
+      {
+        Object lChoice = lNode.mChildren[lii];
+        if (lChoice instanceof TreeEdge)
+        {
+          TreeEdge lEdge = (TreeEdge)lChoice;
+          if (!lEdge.isHyperEdge() && lEdge.getChildRef() != TreeNode.NULL_REF)
+          {
+            TreeNode lChild = lNode.get(lEdge.getChildRef());
+            if (lChild != null)
+            {
+              lToVisit.add(lChild);
+            }
+          }
+        }
+      }
+    }
+
+    return lReachable;
+  }
+}
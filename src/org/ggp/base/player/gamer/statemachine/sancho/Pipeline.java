@@ -1,9 +1,11 @@
 package org.ggp.base.player.gamer.statemachine.sancho;
 
+import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.ggp.base.player.gamer.statemachine.sancho.MachineSpecificConfiguration.CfgItem;
 import org.ggp.base.util.statemachine.implementation.propnet.forwardDeadReckon.ForwardDeadReckonPropnetStateMachine;
 
 /**
@@ -25,11 +27,26 @@ public class Pipeline
   private final AtomicReferenceArray<RolloutPerfStats> mThreadPerfStats;
 
   /**
-   * The next rollout thread to give new (expansion) work to and the next thread to drain (back-propagation) work from.
+   * The next rollout thread to give new (expansion) work to and the first thread to drain (back-propagation) work from.
    */
   private int mNextExpandThread = -1;
   private int mNextDrainThread = -1;
 
+  /**
+   * Whether idle rollout threads may steal work from the queues of other rollout threads.
+   */
+  private final boolean mWorkStealing = MachineSpecificConfiguration.getCfgBool(CfgItem.USE_WORK_STEALING);
+
+  /**
+   * The most recent mean time (in nanoseconds) that each rollout thread has taken to process a request, along with the
+   * statistics from which it was calculated.  Used to decide which thread to give new work to.
+   *
+   * Written by: Tree thread.
+   * Read by:    Tree thread.
+   */
+  private final double[] mServiceTime;
+  private final RolloutPerfStats[] mServiceTimeStats;
+
   /**
    * The maximum permitted number of items in the pipeline.
    */
@@ -40,6 +57,11 @@ public class Pipeline
    */
   private int mCurrentQueuedItems;
 
+  /**
+   * The requests most recently taken for back-propagation.  This is big enough for every request in the pipeline.
+   */
+  private final RolloutRequest[] mBackPropagationBatch;
+
   /**
    * Create a pipeline with the specified maximum size.
    *
@@ -52,6 +74,12 @@ public class Pipeline
     mMaxQueuedItems = xiSize;
     mThreadPipelines = new SimplePipeline[ThreadControl.ROLLOUT_THREADS];
     mThreadPerfStats = new AtomicReferenceArray<>(ThreadControl.ROLLOUT_THREADS);
+    mServiceTime = new double[ThreadControl.ROLLOUT_THREADS];
+    mServiceTimeStats = new RolloutPerfStats[ThreadControl.ROLLOUT_THREADS];
+    mBackPropagationBatch = new RolloutRequest[xiSize];
+
+    // Until the threads have reported, assume that they're all equally fast.
+    Arrays.fill(mServiceTime, 1);
 
     // Create per-thread pipelines big enough that we'll be able to queue xiSize items across all of them.  If there's
     // a little spare capacity in the per-thread queues, that's okay.  We still limit the overall pipeline size.
@@ -75,6 +103,14 @@ public class Pipeline
     return mCurrentQueuedItems < mMaxQueuedItems;
   }
 
+  /**
+   * @return the number of requests in the pipeline (at any stage).
+   */
+  public int getNumQueuedItems()
+  {
+    return mCurrentQueuedItems;
+  }
+
   /**
    * @return a blank rollout request to be filled in.
    *
@@ -90,6 +126,12 @@ public class Pipeline
     assert(mCurrentQueuedItems < mMaxQueuedItems) : "Pipeline unexpectedly full - num items: " + mCurrentQueuedItems;
     mCurrentQueuedItems++;
 
+    if (mWorkStealing)
+    {
+      mNextExpandThread = chooseExpandThread();
+      return mThreadPipelines[mNextExpandThread].getNextExpandSlot();
+    }
+
     // Find the next thread with a slot.  The calling restrictions ensure that there is one (and therefore this won't
     // loop forever).
     for (mNextExpandThread = (mNextExpandThread + 1) % ThreadControl.ROLLOUT_THREADS;
@@ -103,6 +145,58 @@ public class Pipeline
     return mThreadPipelines[mNextExpandThread].getNextExpandSlot();
   }
 
+  /**
+   * @return the rollout thread that should be given the next piece of work.  This is the thread with a free slot that
+   * is expected to get through its current backlog soonest, judged by its recent throughput.  Ties are broken
+   * round-robin.
+   */
+  private int chooseExpandThread()
+  {
+    int lBestThread = -1;
+    double lBestCost = Double.MAX_VALUE;
+
+    for (int lii = 1; lii <= ThreadControl.ROLLOUT_THREADS; lii++)
+    {
+      int lThread = (mNextExpandThread + lii) % ThreadControl.ROLLOUT_THREADS;
+      if (mThreadPipelines[lThread].canExpand())
+      {
+        double lCost = (mThreadPipelines[lThread].getNumUnclaimed() + 1) * getServiceTime(lThread);
+        if (lCost < lBestCost)
+        {
+          lBestThread = lThread;
+          lBestCost = lCost;
+        }
+      }
+    }
+
+    assert(lBestThread != -1) : "No rollout thread has a free slot";
+    return lBestThread;
+  }
+
+  /**
+   * @return the mean time (in nanoseconds) that the specified rollout thread took to process each request over its
+   * last performance statistics reporting interval.
+   *
+   * @param xiThreadIndex - the rollout thread.
+   */
+  private double getServiceTime(int xiThreadIndex)
+  {
+    RolloutPerfStats lStats = mThreadPerfStats.get(xiThreadIndex);
+    RolloutPerfStats lPrevious = mServiceTimeStats[xiThreadIndex];
+
+    if ((lStats != null) && (lStats != lPrevious))
+    {
+      RolloutPerfStats lInterval = (lPrevious == null) ? lStats : lStats.getDifference(lPrevious);
+      if (lInterval.mNumRequests > 0)
+      {
+        mServiceTime[xiThreadIndex] = lInterval.getMeanServiceTime();
+      }
+      mServiceTimeStats[xiThreadIndex] = lStats;
+    }
+
+    return mServiceTime[xiThreadIndex];
+  }
+
   /**
    * Publish a rollout request for further processing.
    */
@@ -112,27 +206,86 @@ public class Pipeline
   }
 
   /**
-   * Get the next rollout request for the specified thread.
+   * Get the next rollout request for the specified thread.  The thread's own queue is served first.  If that's empty
+   * (and work stealing is enabled), the thread takes a request from the peer with the longest queue instead.
    *
-   * This method will not return until a rollout request is available.
+   * This method will not return until a rollout request is available or the thread is interrupted.
    *
    * @param xiThreadIndex - the thread making the request.
    *
-   * @return the next rollout request.
+   * @return the next rollout request, or null if the thread was interrupted.
    */
   public RolloutRequest getNextRolloutRequest(int xiThreadIndex)
   {
-    return mThreadPipelines[xiThreadIndex].getNextRolloutRequest();
+    final SimplePipeline lOwnPipeline = mThreadPipelines[xiThreadIndex];
+    final Thread lThread = Thread.currentThread();
+
+    while (true)
+    {
+      RolloutRequest lRequest = lOwnPipeline.tryClaimRolloutRequest();
+      if ((lRequest == null) && (mWorkStealing))
+      {
+        lRequest = stealRolloutRequest(xiThreadIndex);
+      }
+
+      if (lRequest != null)
+      {
+        lRequest.mThreadId = xiThreadIndex;
+        return lRequest;
+      }
+
+      if (lThread.isInterrupted())
+      {
+        return null;
+      }
+
+      Thread.yield();
+    }
+  }
+
+  /**
+   * @return a rollout request taken from the queue of another rollout thread, or null if there isn't one.
+   *
+   * @param xiThreadIndex - the thread doing the stealing.
+   */
+  private RolloutRequest stealRolloutRequest(int xiThreadIndex)
+  {
+    int lVictim = -1;
+    int lVictimQueued = 0;
+
+    for (int lii = 1; lii < ThreadControl.ROLLOUT_THREADS; lii++)
+    {
+      int lThread = (xiThreadIndex + lii) % ThreadControl.ROLLOUT_THREADS;
+      int lQueued = mThreadPipelines[lThread].getNumUnclaimed();
+      if (lQueued > lVictimQueued)
+      {
+        lVictim = lThread;
+        lVictimQueued = lQueued;
+      }
+    }
+
+    return (lVictim == -1) ? null : mThreadPipelines[lVictim].tryClaimRolloutRequest();
+  }
+
+  /**
+   * @return whether a rollout request was stolen from another thread's queue.
+   *
+   * @param xiThreadIndex - the thread processing the request.
+   * @param xiRequest - the request.
+   */
+  public boolean isStolen(int xiThreadIndex, RolloutRequest xiRequest)
+  {
+    return xiRequest.mOwningPipeline != mThreadPipelines[xiThreadIndex];
   }
 
   /**
    * Mark a rollout as complete.
    *
-   * @param xiThreadIndex - the thread making the request.
+   * @param xiRequest - the request, as returned from {@link #getNextRolloutRequest(int)}.
    */
-  public void completedRollout(int xiThreadIndex)
+  public void completedRollout(RolloutRequest xiRequest)
   {
-    mThreadPipelines[xiThreadIndex].rolloutComplete();
+    xiRequest.mOwningPipeline.rolloutComplete(xiRequest);
   }
 
   /**
@@ -152,41 +305,62 @@ public class Pipeline
   }
 
   /**
-   * @return the next rollout request to be back-propagated.
+   * Take a batch of rollout requests for back-propagation - all those that are ready (which can be no more than the
+   * size of the pipeline).  Each rollout thread's requests are taken in the order they were queued, starting with the
+   * thread after the one that was served first last time, so that no thread is starved.
    *
-   * This method will not return until a rollout request is available.
+   * This method will not return until at least one rollout request is available.  The caller MUST call
+   * {@link #completedBackPropagation(RolloutRequest)} for every request in the batch, in order, before taking another.
+   *
+   * @return the number of requests in the batch, which are available from
+   *         {@link #getRequestForBackPropagation(int)}.
    */
-  public RolloutRequest getNextRequestForBackPropagation()
+  public int getRequestsForBackPropagation()
   {
-    // Find the next thread that has some work to do.  Start with thread 1 (unless there only is one thread) so that we
-    // don't yield until we've looked at all threads once.  Always starting at a fixed thread would be in danger of
-    // starving some threads - but we always completely drain the pipeline of back-propagation work (whenever we do any
-    // such work) so that isn't a problem.
     long startSpin = System.currentTimeMillis();
-    for (mNextDrainThread = (ThreadControl.ROLLOUT_THREADS == 1 ? 0 : 1);
-         !mThreadPipelines[mNextDrainThread].canBackPropagate();
-         mNextDrainThread = (mNextDrainThread + 1) % ThreadControl.ROLLOUT_THREADS)
+    while (true)
     {
-      if (mNextDrainThread == 0)
+      mNextDrainThread = (mNextDrainThread + 1) % ThreadControl.ROLLOUT_THREADS;
+
+      int lNumTaken = 0;
+      for (int lii = 0; lii < ThreadControl.ROLLOUT_THREADS; lii++)
       {
-        // Spin for 1-2ms before yielding else we introduce a timeslice latency for what could be a substantially
-        // sub-timeslice wait.
-        if ( startSpin >= System.currentTimeMillis()-1 )
-        {
-          Thread.yield();
-        }
+        int lThread = (mNextDrainThread + lii) % ThreadControl.ROLLOUT_THREADS;
+        lNumTaken += mThreadPipelines[lThread].getRequestsForBackPropagation(mBackPropagationBatch, lNumTaken);
+      }
+
+      if (lNumTaken > 0)
+      {
+        return lNumTaken;
+      }
+
+      // Spin for 1-2ms before yielding else we introduce a timeslice latency for what could be a substantially
+      // sub-timeslice wait.
+      if ( startSpin >= System.currentTimeMillis()-1 )
+      {
+        Thread.yield();
       }
     }
+  }
 
-    return mThreadPipelines[mNextDrainThread].getNextRequestForBackPropagation();
+  /**
+   * @return a request from the batch taken by the last call to {@link #getRequestsForBackPropagation()}.
+   *
+   * @param xiIndex - the index of the request in the batch.
+   */
+  public RolloutRequest getRequestForBackPropagation(int xiIndex)
+  {
+    return mBackPropagationBatch[xiIndex];
   }
 
   /**
    * Mark that back-propagation of a request is complete.
+   *
+   * @param xiRequest - the request, as returned from {@link #getRequestForBackPropagation(int)}.
    */
-  public void completedBackPropagation()
+  public void completedBackPropagation(RolloutRequest xiRequest)
   {
-    mThreadPipelines[mNextDrainThread].backPropagationComplete();
+    xiRequest.mOwningPipeline.backPropagationComplete();
     assert(mCurrentQueuedItems > 0) : "Pipeline unexpectedly empty - num items: " + mCurrentQueuedItems;
     mCurrentQueuedItems--;
   }
@@ -15,6 +15,16 @@ public class RolloutPerfStats
    */
   public final long mBlockedFor;
 
+  /**
+   * The number of rollout requests processed.
+   */
+  public final long mNumRequests;
+
+  /**
+   * The number of those rollout requests that were stolen from another rollout thread's queue.
+   */
+  public final long mNumStolen;
+
   /**
    * The fraction of the total that useful work accounts for, in the range 0-1.
    */
@@ -25,14 +35,18 @@ public class RolloutPerfStats
    *
    * @param xiUsefulWork - the amount of useful work done (in nanoseconds).
    * @param xiBlockedFor - the amount of time the thread was blocked for (in nanoseconds).
+   * @param xiNumRequests - the number of rollout requests processed.
+   * @param xiNumStolen - the number of rollout requests stolen from other threads.
    */
-  public RolloutPerfStats(long xiUsefulWork, long xiBlockedFor)
+  public RolloutPerfStats(long xiUsefulWork, long xiBlockedFor, long xiNumRequests, long xiNumStolen)
   {
     assert(xiUsefulWork >= 0) : "xiUsefulWork was negative: " + xiUsefulWork;
     assert(xiBlockedFor >= 0) : "xiBlockedFor was negative: " + xiBlockedFor;
 
     mUsefulWork = xiUsefulWork;
     mBlockedFor = xiBlockedFor;
+    mNumRequests = xiNumRequests;
+    mNumStolen = xiNumStolen;
 
     long lTotalWork = xiUsefulWork + xiBlockedFor;
     if (lTotalWork == 0)
@@ -54,6 +68,8 @@ public class RolloutPerfStats
   {
     long lUsefulWork = 0;
     long lBlockedFor = 0;
+    long lNumRequests = 0;
+    long lNumStolen = 0;
 
     for (RolloutPerfStats lStats : xiStats)
     {
@@ -61,11 +77,15 @@ public class RolloutPerfStats
       {
         lUsefulWork += lStats.mUsefulWork;
         lBlockedFor += lStats.mBlockedFor;
+        lNumRequests += lStats.mNumRequests;
+        lNumStolen += lStats.mNumStolen;
       }
     }
 
     mUsefulWork = lUsefulWork;
     mBlockedFor = lBlockedFor;
+    mNumRequests = lNumRequests;
+    mNumStolen = lNumStolen;
 
     long lTotalWork = lUsefulWork + lBlockedFor;
     if (lTotalWork == 0)
@@ -89,6 +109,17 @@ public class RolloutPerfStats
     assert(mBlockedFor >= xiPrevious.mBlockedFor) : "Blocked-for has gone backwards";
 
     return new RolloutPerfStats(mUsefulWork - xiPrevious.mUsefulWork,
-                                mBlockedFor - xiPrevious.mBlockedFor);
+                                mBlockedFor - xiPrevious.mBlockedFor,
+                                mNumRequests - xiPrevious.mNumRequests,
+                                mNumStolen - xiPrevious.mNumStolen);
+  }
+
+  /**
+   * @return the mean time spent processing each rollout request, in nanoseconds, or 0 if no requests have been
+   * processed.
+   */
+  public double getMeanServiceTime()
+  {
+    return (mNumRequests == 0) ? 0 : ((double)mUsefulWork / (double)mNumRequests);
   }
 }
@@ -103,6 +103,8 @@ class RolloutProcessor implements Runnable
 
     long lUsefulWork = 0;
     long lBlockedFor = -lNow;
+    long lNumRequests = 0;
+    long lNumStolen = 0;
 
     // Continually process requests until interrupted.
     boolean lCompleteOutstanding = false;
@@ -121,9 +123,20 @@ class RolloutProcessor implements Runnable
         // Do the rollouts
         lRequest.process(mStateMachine, mOurRole, mRoleOrdering);
         lRequest.mEnqueue2Time = System.nanoTime();
-        mPipeline.completedRollout(mThreadIndex);
+
+        // Record metrics here, rather than leave it to the tree thread (and before the request is handed back to it).
+        SanchoMetrics.ROLLOUTS.add(lRequest.mSampleSize);
+        SanchoMetrics.ROLLOUT_QUEUE_LATENCY.observe(lRequest.mQueueLatency);
+
+        mPipeline.completedRollout(lRequest);
         lCompleteOutstanding = false;
 
+        lNumRequests++;
+        if (mPipeline.isStolen(mThreadIndex, lRequest))
+        {
+          lNumStolen++;
+        }
+
         // Get timing information
         lNow = System.nanoTime();
         lUsefulWork += (lNow - lStart);
@@ -131,7 +144,7 @@ class RolloutProcessor implements Runnable
         // Occasionally, update the sample size
         if ((GameSearcher.USE_DYNAMIC_SAMPLE_SIZING) && (lNow > lNextPerfStatsReportTime))
         {
-          publishPerfStats(lUsefulWork, lBlockedFor);
+          publishPerfStats(lUsefulWork, lBlockedFor, lNumRequests, lNumStolen);
           lNextPerfStatsReportTime += lPerfStatsUpdateInterval;
         }
       }
@@ -149,7 +162,7 @@ class RolloutProcessor implements Runnable
           LOGGER.error("Exception in RolloutProcessor", lEx);
           if (lCompleteOutstanding)
           {
-            mPipeline.completedRollout(mThreadIndex);
+            mPipeline.completedRollout(lRequest);
           }
         }
       }
@@ -166,10 +179,12 @@ class RolloutProcessor implements Runnable
    *
    * @param xiUsefulWork - the number of nanoseconds of useful work carried out by this thread.
    * @param xiBlockedFor - the number of nanoseconds this thread has been blocked on the pipeline.
+   * @param xiNumRequests - the number of rollout requests processed by this thread.
+   * @param xiNumStolen - the number of those requests that were stolen from other threads.
    */
-  private void publishPerfStats(long xiUsefulWork, long xiBlockedFor)
+  private void publishPerfStats(long xiUsefulWork, long xiBlockedFor, long xiNumRequests, long xiNumStolen)
   {
-    RolloutPerfStats lStats = new RolloutPerfStats(xiUsefulWork, xiBlockedFor);
+    RolloutPerfStats lStats = new RolloutPerfStats(xiUsefulWork, xiBlockedFor, xiNumRequests, xiNumStolen);
     mPipeline.publishRolloutPerfStats(mThreadIndex, lStats);
   }
 }
\ No newline at end of file
@@ -1,5 +1,6 @@
 package org.ggp.base.player.gamer.statemachine.sancho;
 
+import org.apache.lucene.util.OpenBitSet;
 import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonInternalMachineState;
 import org.ggp.base.util.statemachine.Role;
 import org.ggp.base.util.statemachine.implementation.propnet.forwardDeadReckon.Factor;
@@ -28,6 +29,8 @@ class RolloutRequest
   public int                                   mMinScore;
   public int                                   mMaxScore;
   public int                                   mThreadId;
+  public SimplePipeline                        mOwningPipeline;
+  public long                                  mPipelineSequence;
   private final int[]                          latchedScoreRangeBuffer = new int[2];
 
   public long                                  mSelectElapsedTime;
@@ -43,6 +46,13 @@ class RolloutRequest
 
   public final ForwardDeadReckonPropnetStateMachine.PlayoutInfo mPlayoutInfo;
 
+  /**
+   * The moves played in the rollout, for O(1) existence queries by RAVE during back-propagation (and then added to as
+   * back-propagation works up the path).  BitSet indexes are onto the master move list.  Only filled in if RAVE is in
+   * use, and then by the rollout thread so that the tree thread doesn't have to.
+   */
+  public OpenBitSet                            mPlayedMoves;
+
   /**
    * Create a rollout request.
    *
@@ -159,6 +169,24 @@ class RolloutRequest
 
     assert(!Double.isNaN(mAverageScores[0]));
 
+    if (mTree.mGameSearcher.mUseRAVE)
+    {
+      assert(mRecordPlayoutTrace);
+      if (mPlayedMoves == null)
+      {
+        mPlayedMoves = new OpenBitSet(stateMachine.getFullPropNet().getMasterMoveList().length);
+      }
+      else
+      {
+        mPlayedMoves.clear(0, mPlayedMoves.capacity());
+      }
+
+      for (int i = 0; i < mPlayoutInfo.playoutLength; i++)
+      {
+        mPlayedMoves.set(mPlayoutInfo.playoutTrace[i].mMasterIndex);
+      }
+    }
+
     if ( !mIsWin && mWeight != 1 )
     {
       // Normalize the results for the number of samples and their weights.
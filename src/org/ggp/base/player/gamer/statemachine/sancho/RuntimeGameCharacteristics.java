@@ -39,6 +39,7 @@ public class RuntimeGameCharacteristics extends GameCharacteristics
   private static final String CONTROL_MASK                  = "control_mask";
 
   private final XMLPropertiesConfiguration mConfigFile;
+  private final File          mGameDirectory;
   private boolean             mLoadedConfig;
   private double              explorationBias         = 1.0;
   private double              mExactRolloutSampleSize = 1;
@@ -85,6 +86,17 @@ public class RuntimeGameCharacteristics extends GameCharacteristics
     {
       mConfigFile = null;
     }
+
+    mGameDirectory = (mConfigFile == null) ? null : xiGameDirectory;
+  }
+
+  /**
+   * @return the directory in which to persist per-game information, or null if there isn't one (or learning is
+   * disabled).
+   */
+  public File getGameDirectory()
+  {
+    return mGameDirectory;
   }
 
   /**
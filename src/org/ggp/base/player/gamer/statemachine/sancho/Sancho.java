@@ -5,14 +5,12 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.security.InvalidParameterException;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
 import java.util.Set;
 
 import org.apache.logging.log4j.LogManager;
@@ -30,6 +28,7 @@ import org.ggp.base.player.gamer.statemachine.sancho.heuristic.PieceHeuristic;
 import org.ggp.base.util.gdl.grammar.GdlPool;
 import org.ggp.base.util.gdl.grammar.GdlSentence;
 import org.ggp.base.util.gdl.grammar.GdlTerm;
+import org.ggp.base.util.metrics.MetricsServer;
 import org.ggp.base.util.propnet.polymorphic.PolymorphicProposition;
 import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonInternalMachineState;
 import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonLegalMoveInfo;
@@ -43,8 +42,9 @@ import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
 import org.ggp.base.util.statemachine.implementation.propnet.forwardDeadReckon.Factor;
 import org.ggp.base.util.statemachine.implementation.propnet.forwardDeadReckon.ForwardDeadReckonPropnetStateMachine;
-import org.ggp.base.util.statemachine.implementation.propnet.forwardDeadReckon.ForwardDeadReckonPropnetStateMachine.PlayoutInfo;
+import org.ggp.base.util.statemachine.playoutPolicy.MoveStatisticsTable;
 import org.ggp.base.util.statemachine.playoutPolicy.PlayoutPolicyGoalGreedyWithPop;
+import org.ggp.base.util.statemachine.playoutPolicy.PlayoutPolicyMoveStatistics;
 import org.ggp.base.util.symbol.grammar.SymbolPool;
 
 import com.google.common.io.CharStreams;
@@ -83,8 +83,6 @@ public class Sancho extends SampleGamer implements WatchdogExpiryHandler
   private int                                   mMaxRawNetScore                  = 100;
   private int                                   mMultiRoleAverageScoreDiff       = 0;
   private short                                 mCurrentMoveDepth                = 0;
-  private boolean                               mUnderExpectedRangeScoreReported = false;
-  private boolean                               mOverExpectedRangeScoreReported  = false;
   private GameSearcher                          mSearchProcessor                 = null;
   private String                                mLogName                         = null;
   private SystemStatsLogger                     mSysStatsLogger                  = null;
@@ -94,6 +92,7 @@ public class Sancho extends SampleGamer implements WatchdogExpiryHandler
   private boolean                               mSolvedFromStart                 = false;
   private Tlkio                                 mBroadcaster                     = null;
   private Watchdog                              mWatchdog                        = null;
+  private MoveStatisticsTable                   mMoveStatistics                  = null;
   /**
    * When adding additional state, you MUST null out references in {@link #tidyUp()}.
    */
@@ -115,19 +114,41 @@ public class Sancho extends SampleGamer implements WatchdogExpiryHandler
     GameSearcher.thinkBelowPlanSize = 2;
   }
 
+  @Override
+  public void notePort(int thePort)
+  {
+    super.notePort(thePort);
+
+    // Serve live metrics alongside the player (if configured).
+    int lMetricsPort = MachineSpecificConfiguration.getCfgInt(CfgItem.METRICS_PORT);
+    if (lMetricsPort != -1)
+    {
+      MetricsServer.start(MachineSpecificConfiguration.getCfgStr(CfgItem.METRICS_ADDRESS), lMetricsPort);
+    }
+  }
+
   private boolean isUsingConfiguredPlan()
   {
     return mPlanString != null;
   }
 
-  private int netScore(ForwardDeadReckonPropnetStateMachine stateMachine,
-                       ForwardDeadReckonInternalMachineState state)
+  /**
+   * @return our net score in the specified state - our own goal value, with a bonus for beating (or drawing with) the
+   * best of the other roles - scaled into the range [0, 100].
+   *
+   * @param stateMachine - the state machine.
+   * @param state        - the state, or null for the state machine's current state.
+   * @param ourRole      - our role.
+   */
+  static int rawNetScore(ForwardDeadReckonPropnetStateMachine stateMachine,
+                         ForwardDeadReckonInternalMachineState state,
+                         Role ourRole)
   {
     int result = 0;
     int bestEnemyScore = 0;
     for (Role role : stateMachine.getRoles())
     {
-      if (!role.equals(mOurRole))
+      if (!role.equals(ourRole))
       {
         int score = stateMachine.getGoal(state, role);
         if (score > bestEnemyScore)
@@ -151,24 +172,7 @@ public class Sancho extends SampleGamer implements WatchdogExpiryHandler
         winBonus += 5;
       }
     }
-    int rawResult = (mGameCharacteristics.numRoles == 1 ? result : ((result + winBonus) * 100) / 110);
-    int normalizedResult = ((rawResult - mMinRawNetScore) * 100) /
-                           (mMaxRawNetScore - mMinRawNetScore);
-
-    if (normalizedResult > 100 && !mOverExpectedRangeScoreReported)
-    {
-      normalizedResult = 100;
-      mOverExpectedRangeScoreReported = true;
-      LOGGER.warn("Saw score that nornmalized to > 100");
-    }
-    else if (normalizedResult < 0 && !mUnderExpectedRangeScoreReported)
-    {
-      normalizedResult = 0;
-      mUnderExpectedRangeScoreReported = true;
-      LOGGER.warn("Saw score that nornmalized to < 0");
-    }
-
-    return normalizedResult;
+    return (stateMachine.getRoles().length == 1 ? result : ((result + winBonus) * 100) / 110);
   }
 
   @Override
@@ -197,7 +201,8 @@ public class Sancho extends SampleGamer implements WatchdogExpiryHandler
     ThreadControl.sCPUIdParity = (getPort()%2 == 0);
     ThreadControl.reset();
 
-    mUnderlyingStateMachine = new ForwardDeadReckonPropnetStateMachine(ThreadControl.CPU_INTENSIVE_THREADS + 1,
+    mUnderlyingStateMachine = new ForwardDeadReckonPropnetStateMachine(ThreadControl.CPU_INTENSIVE_THREADS +
+                                                                        ThreadControl.LOCAL_SEARCH_THREADS,
                                                                       getMetaGamingTimeout(),
                                                                       getRole(),
                                                                       mGameCharacteristics);
@@ -290,8 +295,6 @@ public class Sancho extends SampleGamer implements WatchdogExpiryHandler
       lSearchProcessorThread.start();
     }
 
-    Random r = new Random();
-
     if ( MachineSpecificConfiguration.getCfgStr(CfgItem.TLKIO_CHANNEL) != MachineSpecificConfiguration.NO_TLK_CHANNEL )
     {
       mBroadcaster = new Tlkio(getName(), MachineSpecificConfiguration.getCfgStr(CfgItem.TLKIO_CHANNEL));
@@ -329,8 +332,6 @@ public class Sancho extends SampleGamer implements WatchdogExpiryHandler
     mSolvedFromStart = false;
     mMinRawNetScore = 0;
     mMaxRawNetScore = 100;
-    mUnderExpectedRangeScoreReported = false;
-    mOverExpectedRangeScoreReported = false;
 
     int observedMinNetScore = Integer.MAX_VALUE;
     int observedMaxNetScore = Integer.MIN_VALUE;
@@ -402,30 +403,10 @@ public class Sancho extends SampleGamer implements WatchdogExpiryHandler
 
     //  Create masks of possible control props, which we'll whittle down during simulation
     //  If we wind up with a unique prop for each role e'll note it for future use
-    ForwardDeadReckonInternalMachineState[] roleControlMasks = new ForwardDeadReckonInternalMachineState[mNumRoles];
     mRoleControlProps = new ForwardDeadReckonPropositionInfo[mNumRoles];
 
-    for(int i = 0; i < mNumRoles; i++)
-    {
-      roleControlMasks[i] = mUnderlyingStateMachine.createEmptyInternalState();
-      roleControlMasks[i].clear();
-      roleControlMasks[i].invert();
-    }
-
-    //	Also monitor whether any given player always has the SAME choice of move (or just a single choice)
-    //	every turn - such games are (highly probably) iterated games
-    List<Set<Move>> roleMoves = new ArrayList<>();
-    mGameCharacteristics.isIteratedGame = true;
-
-    for (int i = 0; i < mNumRoles; i++)
-    {
-      roleMoves.add(null);
-    }
-
-    double branchingFactorApproximation = 0;
     double averageHyperSequenceLength = 0;
     double varianceHyperSequenceLength = 0;
-    int[] roleScores = new int[mNumRoles];
 
     Collection<Factor> factors = mUnderlyingStateMachine.getFactors();
 
@@ -434,9 +415,6 @@ public class Sancho extends SampleGamer implements WatchdogExpiryHandler
     //	a single decision
     long lMetaGameStartTime = System.currentTimeMillis();
     long lMetaGameStopTime = timeout - 5000;
-    int numSamples = 0;
-    int maxNumTurns = 0;
-    int minNumTurns = Integer.MAX_VALUE;
 
     // Spend half the time determining heuristic weights if there are any heuristics, else spend
     //  a short time just establishing the type of game
@@ -451,221 +429,40 @@ public class Sancho extends SampleGamer implements WatchdogExpiryHandler
       lHeuristicStopTime = lMetaGameStartTime + 4000;
     }
 
-    //  Buffer for new states
-    ForwardDeadReckonInternalMachineState newState = new ForwardDeadReckonInternalMachineState(initialState);
-    int[] playerMoveParity = new int[mNumRoles];
-    for(int i = 0; i < mNumRoles; i++)
-    {
-      playerMoveParity[i] = -1;
-    }
-
     //  Start with greedy rollouts disabled for finding basic characteristics.  This is likely to result in more
     //  simulations, and prevents games with forced greedy paths (like Centipede wherein one choice always leads
     //  to immediate non-win termination and hence is never chosen by greedy processing) giving misleading results
     mUnderlyingStateMachine.enableGreedyRollouts(false, false);
 
-    int totalTurnSamples = 0;
-    int totalGoalChangeCount = 0;
-    int totalHyperSequenceLength = 0;
-    int totalSquaredHyperSequenceLength = 0;
-    int totalHyperSequenceCount = 0;
-    boolean goalsMonotonic = true;
-
     //  Slight hack, but for now we don't bother continuing to simulate for a long time after discovering we're in
     //  a simultaneous turn game, because (for now anyway) we disable heuristics in such games anyway
-    while ((System.currentTimeMillis() < lHeuristicStopTime) &&
-           ((numSamples < MIN_PRIMARY_SIMULATION_SAMPLES) || (!mGameCharacteristics.isSimultaneousMove)))
-    {
-      ForwardDeadReckonInternalMachineState sampleState = new ForwardDeadReckonInternalMachineState(initialState);
-
-      int numRoleMovesSimulated = 0;
-      int numBranchesTaken = 0;
-      int turnNum = 0;
-      int lastOurGoal = mUnderlyingStateMachine.getGoal(sampleState, mOurRole);
-      int hyperExpansionLength = -1;
-      int previousChoosingRoleIndex;
-      int choosingRoleIndex = -2;
-
-      heuristic.tuningStartSampleGame();
-
-      while (!mUnderlyingStateMachine.isTerminal(sampleState))
-      {
-        boolean roleWithChoiceSeen = false;
-        ForwardDeadReckonLegalMoveInfo[] jointMove = new ForwardDeadReckonLegalMoveInfo[mNumRoles];
-        Set<Move> allMovesInState = new HashSet<>();
-
-        previousChoosingRoleIndex = choosingRoleIndex;
-        choosingRoleIndex = -2;
-
-        turnNum++;
-        hyperExpansionLength++;
-
-        for (int i = 0; i < mNumRoles; i++)
-        {
-          List<ForwardDeadReckonLegalMoveInfo> legalMoves =
-                  new ArrayList<>(mUnderlyingStateMachine.getLegalMoves(sampleState, mRoleOrdering.roleIndexToRole(i)));
-
-          if (legalMoves.size() > 1)
-          {
-            if (roleControlMasks[i].size() > 0)
-            {
-              if (roleControlMasks[i].intersectionSize(sampleState) == 0)
-              {
-                LOGGER.debug("Eliminating role control props");
-              }
-              //  This player has control (may not be only this player)
-              roleControlMasks[i].intersect(sampleState);
-            }
-
-            Set<Move> previousChoices = roleMoves.get(i);
-
-            if (previousChoices != null)
-            {
-              if (mGameCharacteristics.isIteratedGame)
-              {
-                Set<Move> moves = new HashSet<>();
-
-                for(ForwardDeadReckonLegalMoveInfo moveInfo : legalMoves)
-                {
-                  moves.add(moveInfo.mMove);
-                }
-
-                if (!previousChoices.equals(moves))
-                {
-                  mGameCharacteristics.isIteratedGame = false;
-                }
-              }
-            }
-            else
-            {
-              Set<Move> moves = new HashSet<>();
-
-              for(ForwardDeadReckonLegalMoveInfo moveInfo : legalMoves)
-              {
-                moves.add(moveInfo.mMove);
-              }
-
-              roleMoves.set(i, moves);
-            }
-
-            choosingRoleIndex = i;
-            Factor turnFactor = null;
-
-            if (mGameCharacteristics.isStrictlyAlternatingPlay)
-            {
-              int moveParity = (turnNum%mNumRoles);
-              if (playerMoveParity[choosingRoleIndex] == -1)
-              {
-                playerMoveParity[choosingRoleIndex] = moveParity;
-              }
-              else if (moveParity != playerMoveParity[choosingRoleIndex])
-              {
-                mGameCharacteristics.isStrictlyAlternatingPlay = false;
-              }
-            }
-
-            for (ForwardDeadReckonLegalMoveInfo moveInfo : legalMoves)
-            {
-              if (factors != null)
-              {
-                for(Factor factor : factors)
-                {
-                  if (factor.getMoves().contains(moveInfo.mMove))
-                  {
-                    if (turnFactor != null && turnFactor != factor)
-                    {
-                      mGameCharacteristics.moveChoicesFromMultipleFactors = true;
-                      break;
-                    }
-                    turnFactor = factor;
-                  }
-                }
-              }
-              if (allMovesInState.contains(moveInfo.mMove))
-              {
-                mGameCharacteristics.isSimultaneousMove = true;
-                choosingRoleIndex = -1;
-                break;
-              }
-              allMovesInState.add(moveInfo.mMove);
-            }
-
-            if (roleWithChoiceSeen)
-            {
-              mGameCharacteristics.isPseudoSimultaneousMove = true;
-              choosingRoleIndex = -1;
-            }
-
-            roleWithChoiceSeen = true;
-
-            numBranchesTaken += legalMoves.size();
-            numRoleMovesSimulated++;
-          }
-
-          jointMove[i] = legalMoves.get(r.nextInt(legalMoves.size()));
-        }
-
-        if (choosingRoleIndex < 0 ||
-            (choosingRoleIndex != previousChoosingRoleIndex && previousChoosingRoleIndex >= 0))
-        {
-          totalHyperSequenceLength += hyperExpansionLength;
-          totalSquaredHyperSequenceLength += hyperExpansionLength*hyperExpansionLength;
-          hyperExpansionLength = 0;
-          totalHyperSequenceCount++;
-        }
-
-        heuristic.tuningInterimStateSample(sampleState, choosingRoleIndex);
-
-        mUnderlyingStateMachine.getNextState(sampleState, null, jointMove, newState);
-
-        sampleState.copy(newState);
-
-        int currentOurGoal = mUnderlyingStateMachine.getGoal(sampleState, mOurRole);
-
-        totalTurnSamples++;
-        if (currentOurGoal != lastOurGoal)
-        {
-          totalGoalChangeCount++;
-          if (lastOurGoal > currentOurGoal)
-          {
-            goalsMonotonic = false;
-          }
-          lastOurGoal = currentOurGoal;
-        }
-      }
-
-      if (hyperExpansionLength > 0)
-      {
-        totalHyperSequenceLength += hyperExpansionLength;
-        totalSquaredHyperSequenceLength += hyperExpansionLength*hyperExpansionLength;
-        totalHyperSequenceCount++;
-      }
-
-      if (turnNum > maxNumTurns)
-      {
-        maxNumTurns = turnNum;
-      }
-      if (turnNum < minNumTurns)
-      {
-        assert(turnNum>0);
-        minNumTurns = turnNum;
-      }
-
-      for (int i = 0; i < mNumRoles; i++)
-      {
-        roleScores[i] = mUnderlyingStateMachine.getGoal(sampleState, mRoleOrdering.roleIndexToRole(i));
-      }
-
-      // Tell the heuristic about the terminal state, for tuning purposes.
-      assert(mUnderlyingStateMachine.isTerminal(sampleState));
-      heuristic.tuningTerminalStateSample(sampleState, roleScores);
-
-      if (numRoleMovesSimulated > 0)
-      {
-        branchingFactorApproximation += (numBranchesTaken / numRoleMovesSimulated);
-      }
-      numSamples++;
-    }
+    MetaGameSampler lSampler = new MetaGameSampler(mUnderlyingStateMachine, mOurRole);
+    MetaGameSampler.PrimaryStats lPrimaryStats = lSampler.playPrimarySamples(initialState,
+                                                                             factors,
+                                                                             heuristic,
+                                                                             lHeuristicStopTime,
+                                                                             MIN_PRIMARY_SIMULATION_SAMPLES);
+
+    ForwardDeadReckonInternalMachineState[] roleControlMasks = lPrimaryStats.mRoleControlMasks;
+    mGameCharacteristics.isSimultaneousMove = lPrimaryStats.mIsSimultaneousMove;
+    mGameCharacteristics.isPseudoSimultaneousMove = lPrimaryStats.mIsPseudoSimultaneousMove;
+    mGameCharacteristics.isStrictlyAlternatingPlay = lPrimaryStats.mIsStrictlyAlternatingPlay;
+    mGameCharacteristics.isIteratedGame = lPrimaryStats.mIsIteratedGame;
+    if (lPrimaryStats.mMoveChoicesFromMultipleFactors)
+    {
+      mGameCharacteristics.moveChoicesFromMultipleFactors = true;
+    }
+
+    int numSamples = lPrimaryStats.mNumSamples;
+    int maxNumTurns = lPrimaryStats.mMaxNumTurns;
+    int minNumTurns = lPrimaryStats.mMinNumTurns;
+    double branchingFactorApproximation = lPrimaryStats.mBranchingFactorApproximation;
+    int totalTurnSamples = lPrimaryStats.mTotalTurnSamples;
+    int totalGoalChangeCount = lPrimaryStats.mTotalGoalChangeCount;
+    int totalHyperSequenceLength = lPrimaryStats.mTotalHyperSequenceLength;
+    int totalSquaredHyperSequenceLength = lPrimaryStats.mTotalSquaredHyperSequenceLength;
+    int totalHyperSequenceCount = lPrimaryStats.mTotalHyperSequenceCount;
+    boolean goalsMonotonic = lPrimaryStats.mGoalsMonotonic;
 
     // Complete heuristic tuning.
     heuristic.tuningComplete();
@@ -794,115 +591,35 @@ public class Sancho extends SampleGamer implements WatchdogExpiryHandler
                                                 simulationStartTime + 1000),
                                        simulationStartTime + 10000);
 
+    MetaGameSampler.SimulationStats lSimulationStats = lSampler.playSimulations(initialState,
+                                                                               simulationStopTime,
+                                                                               minNumTurns,
+                                                                               maxNumTurns);
+    simulationsPerformed = lSimulationStats.mSimulationsPerformed;
+    minNumTurns = lSimulationStats.mMinNumTurns;
+    maxNumTurns = lSimulationStats.mMaxNumTurns;
+
     double averageBranchingFactor = 0;
     double averageNumTurns = 0;
     double averageSquaredNumTurns = 0;
-    double averageNumNonDrawTurns = 0;
-    int numNonDrawSimulations = 0;
-    int numLongDraws = 0;
-    int numLongGames = 0;
-    int minNumNonDrawTurns = Integer.MAX_VALUE;
-    int scoreSum = -1;
-    boolean isFixedSum = true;
-    PlayoutInfo playoutInfo = mUnderlyingStateMachine.new PlayoutInfo(-1);
-
-    playoutInfo.cutoffDepth = 1000;
-    playoutInfo.factor = null;
-    playoutInfo.moveWeights = null;
-
-    while (System.currentTimeMillis() < simulationStopTime)
+    if (simulationsPerformed != 0)
     {
-      simulationsPerformed++;
-
-      mUnderlyingStateMachine.getDepthChargeResult(initialState, playoutInfo);
-
-      int netScore = netScore(mUnderlyingStateMachine, null);
-      if (netScore != 50)
-      {
-        numNonDrawSimulations++;
-        averageNumNonDrawTurns += playoutInfo.playoutLength;
-        if (minNumNonDrawTurns > playoutInfo.playoutLength)
-        {
-          minNumNonDrawTurns = playoutInfo.playoutLength;
-        }
-      }
-
-      int thisScoreSum = 0;
-
-      for (int i = 0; i < mNumRoles; i++)
-      {
-        roleScores[i] = mUnderlyingStateMachine.getGoal(mRoleOrdering.roleIndexToRole(i));
-
-        thisScoreSum += roleScores[i];
-        if (i != 0 && mGameCharacteristics.numRoles > 2)
-        {
-          //	If there are several enemy players involved extract a measure
-          //	of their goal correlation
-          for (Role role2 : mUnderlyingStateMachine.getRoles())
-          {
-            if (!role2.equals(mOurRole) && !role2.equals(mRoleOrdering.roleIndexToRole(i)))
-            {
-              int role2Score = mUnderlyingStateMachine.getGoal(role2);
-
-              multiRoleSamples++;
-              mMultiRoleAverageScoreDiff += Math.abs(role2Score - roleScores[i]);
-            }
-          }
-        }
-      }
-
-      if (scoreSum == -1)
-      {
-        scoreSum = thisScoreSum;
-      }
-      if (scoreSum != thisScoreSum)
-      {
-        isFixedSum = false;
-      }
-
-      averageNumTurns = (averageNumTurns * (simulationsPerformed - 1) + playoutInfo.playoutLength) /
-                        simulationsPerformed;
-      averageSquaredNumTurns = (averageSquaredNumTurns *
-                                (simulationsPerformed - 1) + playoutInfo.playoutLength *
-                                                             playoutInfo.playoutLength) /
-                               simulationsPerformed;
-
-      if (playoutInfo.playoutLength < minNumTurns)
-      {
-        assert(playoutInfo.playoutLength>0);
-        minNumTurns = playoutInfo.playoutLength;
-      }
-      if (playoutInfo.playoutLength > maxNumTurns)
-      {
-        maxNumTurns = playoutInfo.playoutLength;
-      }
-
-      if (playoutInfo.playoutLength >= (maxNumTurns*95)/100)
-      {
-        numLongGames++;
-
-        if (netScore == 50)
-        {
-          numLongDraws++;
-        }
-      }
-
-      averageBranchingFactor = (averageBranchingFactor *
-                                (simulationsPerformed - 1) + playoutInfo.averageBranchingFactor) /
-                               simulationsPerformed;
-      mGameCharacteristics.getChoicesHighWaterMark(playoutInfo.averageBranchingFactor);
-
-      //LOGGER.debug("Saw score of ", netScore);
-      if (netScore < observedMinNetScore)
-      {
-        observedMinNetScore = netScore;
-      }
-
-      if (netScore > observedMaxNetScore)
-      {
-        observedMaxNetScore = netScore;
-      }
+      averageBranchingFactor = (double)lSimulationStats.mTotalBranchingFactor / simulationsPerformed;
+      averageNumTurns = (double)lSimulationStats.mTotalTurns / simulationsPerformed;
+      averageSquaredNumTurns = (double)lSimulationStats.mTotalSquaredTurns / simulationsPerformed;
     }
+    double averageNumNonDrawTurns = lSimulationStats.mTotalNonDrawTurns;
+    int numNonDrawSimulations = lSimulationStats.mNumNonDrawSimulations;
+    int numLongDraws = lSimulationStats.mNumLongDraws;
+    int numLongGames = lSimulationStats.mNumLongGames;
+    int minNumNonDrawTurns = lSimulationStats.mMinNumNonDrawTurns;
+    boolean isFixedSum = lSimulationStats.mIsFixedSum;
+    mGameCharacteristics.getChoicesHighWaterMark(lSimulationStats.mChoicesHighWaterMark);
+
+    multiRoleSamples = lSimulationStats.mMultiRoleSamples;
+    mMultiRoleAverageScoreDiff = lSimulationStats.mMultiRoleScoreDiff;
+    observedMinNetScore = lSimulationStats.mObservedMinNetScore;
+    observedMaxNetScore = lSimulationStats.mObservedMaxNetScore;
 
     if (numNonDrawSimulations != 0)
     {
@@ -1059,6 +776,22 @@ public class Sancho extends SampleGamer implements WatchdogExpiryHandler
       }
     }
 
+    //  Without greedy rollouts, playouts can instead be biased by move statistics learned from earlier playouts -
+    //  including those from previous matches of this game.  Factored games aren't supported by the policy.
+    if (MachineSpecificConfiguration.getCfgBool(CfgItem.USE_LEARNED_PLAYOUT_POLICY) &&
+        greedyRolloutsDisabled &&
+        factors == null &&
+        mUnderlyingStateMachine.getPlayoutPolicy() == null)
+    {
+      mMoveStatistics = new MoveStatisticsTable(mUnderlyingStateMachine.getFullPropNet().getMasterMoveList());
+      if (mGameCharacteristics.getGameDirectory() != null)
+      {
+        mMoveStatistics.load(mGameCharacteristics.getGameDirectory());
+      }
+      mUnderlyingStateMachine.setPlayoutPolicy(new PlayoutPolicyMoveStatistics(mUnderlyingStateMachine,
+                                                                               mMoveStatistics));
+    }
+
     // Attempt to solve puzzles with A* unless we've already found a solution.
     // !! Do we already know whether the game is a pseudo-puzzle at this point and could we apply A* to such a game?
     if ((!MachineSpecificConfiguration.getCfgBool(CfgItem.DISABLE_A_STAR)) &&
@@ -1107,7 +840,9 @@ public class Sancho extends SampleGamer implements WatchdogExpiryHandler
     }
     else
     {
-      rolloutSampleSize = (int)(simulationsPerformed / (40 * (simulationStopTime - simulationStartTime)) + 1);
+      // The simulations were spread across the sampling threads, but the sample size is a per-thread quantity.
+      rolloutSampleSize = (int)(simulationsPerformed /
+                                (40 * lSampler.getParallelism() * (simulationStopTime - simulationStartTime)) + 1);
       if (rolloutSampleSize > 100)
       {
         rolloutSampleSize = 100;
@@ -1623,6 +1358,11 @@ public class Sancho extends SampleGamer implements WatchdogExpiryHandler
     if (xiRegularTermination)
     {
       mGameCharacteristics.saveConfig();
+
+      if (mMoveStatistics != null && mGameCharacteristics.getGameDirectory() != null)
+      {
+        mMoveStatistics.save(mGameCharacteristics.getGameDirectory());
+      }
     }
 
     // Tidy up the proxy.
@@ -1642,6 +1382,7 @@ public class Sancho extends SampleGamer implements WatchdogExpiryHandler
     mPreviousTurnRootState  = null;
     mLogName                = null;
     mLastMove               = null;
+    mMoveStatistics         = null;
     mLastMoveInfo           = null;
 
     // Reset simple variables for the next game.
@@ -0,0 +1,135 @@
+package org.ggp.base.player.gamer.statemachine.sancho;
+
+import org.ggp.base.util.metrics.Counter;
+import org.ggp.base.util.metrics.Gauge;
+import org.ggp.base.util.metrics.Histogram;
+import org.ggp.base.util.metrics.MetricsRegistry;
+
+/**
+ * Live metrics for the Sancho search, served (if configured) by the MetricsServer.  These complement the statistics
+ * logs (see {@link StatsLogUtils}), which are only available after the event.
+ *
+ * Counters and histograms are updated on the hot path and are lock-free.  Gauges are set periodically by the search
+ * thread.
+ */
+public final class SanchoMetrics
+{
+  private static final MetricsRegistry REGISTRY = MetricsRegistry.GLOBAL;
+
+  /**
+   * Upper bounds of the latency buckets (in nanoseconds) - 10us to 1s.
+   */
+  private static final long[] LATENCY_BUCKETS_NS = {10000L,
+                                                    30000L,
+                                                    100000L,
+                                                    300000L,
+                                                    1000000L,
+                                                    3000000L,
+                                                    10000000L,
+                                                    30000000L,
+                                                    100000000L,
+                                                    300000000L,
+                                                    1000000000L};
+
+  /**
+   * Upper bounds of the pipeline depth buckets.
+   */
+  private static final long[] DEPTH_BUCKETS = {0, 1, 2, 4, 8, 16, 32, 64, 128, 256};
+
+  private static final double NANOS = 1e-9;
+
+  /**
+   * MCTS iterations (select, expand, rollout, back-propagate) completed.
+   */
+  public static final Counter ITERATIONS = REGISTRY.register(
+    new Counter("sancho_mcts_iterations_total", "MCTS iterations completed."));
+
+  /**
+   * Rollout requests back-propagated.
+   */
+  public static final Counter ROLLOUT_REQUESTS = REGISTRY.register(
+    new Counter("sancho_rollout_requests_total", "Rollout requests back-propagated."));
+
+  /**
+   * Individual rollouts performed (several per request when the sample size is greater than 1).
+   */
+  public static final Counter ROLLOUTS = REGISTRY.register(
+    new Counter("sancho_rollouts_total", "Rollouts performed."));
+
+  /**
+   * Time rollout requests spent queued before a rollout thread picked them up.
+   */
+  public static final Histogram ROLLOUT_QUEUE_LATENCY = REGISTRY.register(
+    new Histogram("sancho_rollout_queue_latency_seconds",
+                  "Time rollout requests spent queued before processing.",
+                  LATENCY_BUCKETS_NS,
+                  NANOS));
+
+  /**
+   * Number of requests in the rollout pipeline, sampled at each back-propagation batch.
+   */
+  public static final Histogram PIPELINE_DEPTH = REGISTRY.register(
+    new Histogram("sancho_pipeline_depth",
+                  "Requests in the rollout pipeline, sampled at each back-propagation batch.",
+                  DEPTH_BUCKETS,
+                  1));
+
+  /**
+   * Useful work done by the rollout threads.
+   */
+  public static final Counter ROLLOUT_BUSY_TIME = REGISTRY.register(
+    new Counter("sancho_rollout_busy_seconds_total", "Time rollout threads spent doing rollouts.", NANOS));
+
+  /**
+   * Time the rollout threads spent waiting for work.
+   */
+  public static final Counter ROLLOUT_BLOCKED_TIME = REGISTRY.register(
+    new Counter("sancho_rollout_blocked_seconds_total", "Time rollout threads spent waiting for work.", NANOS));
+
+  /**
+   * Rollout requests taken from another thread's queue.
+   */
+  public static final Counter ROLLOUTS_STOLEN = REGISTRY.register(
+    new Counter("sancho_rollout_requests_stolen_total", "Rollout requests taken from another thread's queue."));
+
+  /**
+   * Current rollout sample size.
+   */
+  public static final Gauge SAMPLE_SIZE = REGISTRY.register(
+    new Gauge("sancho_rollout_sample_size", "Rollouts per rollout request."));
+
+  /**
+   * Tree nodes in use.
+   */
+  public static final Gauge NODE_POOL_USED = REGISTRY.register(
+    new Gauge("sancho_node_pool_used", "Tree nodes in use."));
+
+  /**
+   * Tree node pool capacity.
+   */
+  public static final Gauge NODE_POOL_CAPACITY = REGISTRY.register(
+    new Gauge("sancho_node_pool_capacity", "Capacity of the tree node pool."));
+
+  /**
+   * Times the search found the node pool full and had to trim the tree before expanding.
+   */
+  public static final Counter NODE_POOL_FULL = REGISTRY.register(
+    new Counter("sancho_node_pool_full_total", "Times the node pool was full, forcing the tree to be trimmed."));
+
+  /**
+   * Logical tree node allocations, including those satisfied by a transposition.
+   */
+  public static final Counter NODE_ALLOCATIONS = REGISTRY.register(
+    new Counter("sancho_node_allocations_total", "Logical tree node allocations, including transpositions."));
+
+  /**
+   * Node allocations satisfied by an existing node in the transposition table.
+   */
+  public static final Counter TRANSPOSITIONS = REGISTRY.register(
+    new Counter("sancho_transpositions_total", "Node allocations satisfied by the transposition table."));
+
+  private SanchoMetrics()
+  {
+    // Private default constructor.
+  }
+}
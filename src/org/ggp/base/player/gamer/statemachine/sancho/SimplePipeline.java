@@ -1,11 +1,14 @@
 package org.ggp.base.player.gamer.statemachine.sancho;
 
+import java.util.concurrent.atomic.AtomicLongArray;
+
 import org.ggp.base.util.statemachine.implementation.propnet.forwardDeadReckon.ForwardDeadReckonPropnetStateMachine;
 
 import com.lmax.disruptor.Sequence;
 
 /**
- * Highly efficient, lock-free rollout request pipeline with a single consumer.
+ * Highly efficient, lock-free rollout request pipeline.  Requests are normally consumed by a single rollout thread, but
+ * other rollout threads may steal them when idle.
  */
 public class SimplePipeline
 {
@@ -30,12 +33,29 @@ public class SimplePipeline
   private long mLastExpandedCache = -1;
 
   /**
-   * The last request which has been rolled out.
+   * The last request which has been claimed for rollout.  Because an idle rollout thread may steal work from the
+   * queues of the other rollout threads, this is claimed by compare-and-set.
+   *
+   * Written by: Rollout threads.
+   * Read by:    Rollout threads, Tree thread.
+   */
+  private final Sequence mLastClaimed = new Sequence();
+
+  /**
+   * For each slot, the ID of the last request in that slot to have been rolled out.  Requests that have been stolen
+   * can complete out of order, so completion is recorded per slot.
    *
-   * Written by: Rollout thread.
+   * Written by: Rollout threads.
+   * Read by:    Tree thread.
+   */
+  private final AtomicLongArray mRolledOut;
+
+  /**
+   * The last request which is known to have been rolled out, along with all the requests before it.
+   *
+   * Written by: Tree thread.
    * Read by:    Tree thread.
    */
-  private final Sequence mLastRolledOut = new Sequence();
   private long mLastRolledOutCache = -1;
 
   /**
@@ -62,9 +82,12 @@ public class SimplePipeline
 
     // Create the backing store.
     mStore = new RolloutRequest[mSize];
+    mRolledOut = new AtomicLongArray(mSize);
     for (int lii = 0; lii < mSize; lii++)
     {
       mStore[lii] = new RolloutRequest(xiNumRoles, underlyingStateMachine);
+      mStore[lii].mOwningPipeline = this;
+      mRolledOut.set(lii, -1L);
     }
   }
 
@@ -89,7 +112,9 @@ public class SimplePipeline
   public RolloutRequest getNextExpandSlot()
   {
     assert(canExpand()) : "Ensure canExpand() before calling getNextExpandSlot()";
-    return mStore[(int)(mLastExpandedCache + 1) & mIndexMask];
+    final RolloutRequest lRequest = mStore[(int)(mLastExpandedCache + 1) & mIndexMask];
+    lRequest.mPipelineSequence = mLastExpandedCache + 1;
+    return lRequest;
   }
 
   /**
@@ -105,96 +130,113 @@ public class SimplePipeline
   }
 
   /**
-   * Get the next rollout request.
+   * @return the next rollout request, or null if there are no unclaimed requests in this pipeline.
    *
-   * This method will not return until a rollout request is available.
+   * This method never blocks.  On success, the caller MUST call {@link #rolloutComplete(RolloutRequest)} for the
+   * request once it has been processed.
    *
-   * @return the next rollout request.
-   *
-   * Called by the rollout thread only.
+   * Called by any rollout thread (so that idle threads can steal work).
    */
-  public RolloutRequest getNextRolloutRequest()
+  public RolloutRequest tryClaimRolloutRequest()
   {
-    final long lNextRequestID = mLastRolledOutCache + 1;
-
-    // Try a non-volatile read first, for speed.
-    if (mLastExpandedCache >= lNextRequestID)
+    long lLastClaimed;
+    do
     {
-      return mStore[(int)lNextRequestID & mIndexMask];
-    }
+      lLastClaimed = mLastClaimed.get();
+      if (mLastExpanded.get() <= lLastClaimed)
+      {
+        return null;
+      }
+    } while (!mLastClaimed.compareAndSet(lLastClaimed, lLastClaimed + 1));
 
-    final Thread lThread = Thread.currentThread();
-
-    // Perform volatile reads until the next request is available.  (The cached value will be automatically updated
-    // because get() is a volatile read, which fetches everything that happened before, including updating the cache
-    // value.  Furthermore, this thread isn't allowed to write to the cached value.)
-    while ((!lThread.isInterrupted()) && (mLastExpanded.get() < lNextRequestID))
-    {
-      Thread.yield();
-    }
+    return mStore[(int)(lLastClaimed + 1) & mIndexMask];
+  }
 
-    return mStore[(int)lNextRequestID & mIndexMask];
+  /**
+   * @return the number of published requests that haven't yet been claimed by a rollout thread.
+   *
+   * The result is only a snapshot and may be out of date by the time it is used.
+   */
+  public int getNumUnclaimed()
+  {
+    return (int)Math.max(0, mLastExpanded.get() - mLastClaimed.get());
   }
 
   /**
    * Mark a rollout as complete.
    *
-   * Called by the rollout thread only.
+   * @param xiRequest - the request, which must have been claimed from this pipeline.
+   *
+   * Called by the rollout thread that claimed the request.
    */
-  public void rolloutComplete()
+  public void rolloutComplete(RolloutRequest xiRequest)
   {
-    mLastRolledOutCache++;
-    mLastRolledOut.setVolatile(mLastRolledOutCache);
+    assert(xiRequest.mOwningPipeline == this) : "Request completed on the wrong pipeline";
+    mRolledOut.set((int)xiRequest.mPipelineSequence & mIndexMask, xiRequest.mPipelineSequence);
   }
 
   /**
-   * @return whether there are any completed rollout requests ready for back-propagation.
+   * @return whether the specified request has been rolled out, along with all the requests before it.  Updates the
+   * cached value if so.
+   *
+   * @param xiRequestID - the request.  This must be no more than one beyond the last request known to be rolled out.
    *
    * Called by the tree thread only.
    */
-  public boolean canBackPropagate()
+  private boolean isRolledOut(long xiRequestID)
   {
-    // See if we already know that back-propagation will be successful.
-    if (mLastRolledOutCache > mLastBackPropagated)
+    if (mLastRolledOutCache >= xiRequestID)
     {
       return true;
     }
 
-    if (isEmpty())
+    if ((xiRequestID <= mLastExpandedCache) &&
+        (mRolledOut.get((int)xiRequestID & mIndexMask) == xiRequestID))
     {
-      return false;
+      mLastRolledOutCache = xiRequestID;
+      return true;
     }
 
-    // Perform a volatile read.  This will also update the cached value (because of volatile semantics).  We're not
-    // allowed to write to the cached value anyway.
-    return (mLastRolledOut.get() > mLastBackPropagated);
+    return false;
   }
 
   /**
-   * @return the next rollout request to be back-propagated.
-   *
-   * This method will not return until a rollout request is available.
+   * @return whether there are any completed rollout requests ready for back-propagation.
    *
    * Called by the tree thread only.
    */
-  public RolloutRequest getNextRequestForBackPropagation()
+  public boolean canBackPropagate()
   {
-    final long lNextRequestID = mLastBackPropagated + 1;
+    return isRolledOut(mLastBackPropagated + 1);
+  }
 
-    // See if we already know that a request is available.
-    if (mLastRolledOutCache >= lNextRequestID)
-    {
-      return mStore[(int)lNextRequestID & mIndexMask];
-    }
+  /**
+   * Take all the requests that are ready for back-propagation (up to the space available in the buffer).  This never
+   * blocks.
+   *
+   * The caller MUST call {@link #backPropagationComplete()} for each request taken, in the order that they were taken,
+   * before taking any more.
+   *
+   * @return the number of requests taken.
+   *
+   * @param xoBatch - buffer to receive the requests.
+   * @param xiOffset - the index in the buffer at which to put the first request.
+   *
+   * Called by the tree thread only.
+   */
+  public int getRequestsForBackPropagation(RolloutRequest[] xoBatch, int xiOffset)
+  {
+    int lNumTaken = 0;
+    long lRequestID = mLastBackPropagated + 1;
 
-    // Perform volatile reads until the next request is available.  This will also update the cached value (because of
-    // volatile semantics).  We're not allowed to write to the cached value anyway.
-    while (mLastRolledOut.get() < lNextRequestID)
+    while ((xiOffset + lNumTaken < xoBatch.length) && (isRolledOut(lRequestID)))
     {
-      Thread.yield();
+      xoBatch[xiOffset + lNumTaken] = mStore[(int)lRequestID & mIndexMask];
+      lNumTaken++;
+      lRequestID++;
     }
 
-    return mStore[(int)lNextRequestID & mIndexMask];
+    return lNumTaken;
   }
 
   /**
@@ -1,5 +1,7 @@
 package org.ggp.base.player.gamer.statemachine.sancho;
 
+import java.util.Arrays;
+
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.ggp.base.player.gamer.statemachine.sancho.MachineSpecificConfiguration.CfgItem;
@@ -7,7 +9,8 @@ import org.ggp.base.player.gamer.statemachine.sancho.MachineSpecificConfiguratio
 import com.sun.jna.LastErrorException;
 import com.sun.jna.Library;
 import com.sun.jna.Native;
-import com.sun.jna.platform.win32.WinDef.DWORD;
+import com.sun.jna.Platform;
+import com.sun.jna.platform.win32.BaseTSD.DWORD_PTR;
 
 /**
  * Utility class for controlling threading behaviour, including processor affinity.
@@ -17,10 +20,10 @@ import com.sun.jna.platform.win32.WinDef.DWORD;
  * - GameSearcher     - there's always a single instance of this thread.
  * - RolloutProcessor - there can be several of these.
  *
- * These can be bound to vCPUs if desired because on some systems it increases performance.
- *
- * Note that this class contains Windows-specific code.  It would be straightforward to extend to Linux and POSIX
- * systems if required.
+ * These can be bound to vCPUs if desired because on some systems it increases performance.  Binding is supported on
+ * Windows (via kernel32) and Linux (via sched_setaffinity in libc).  On Linux, the threads are placed according to the
+ * {@link CPUTopology} - all on the same NUMA node where possible, and on separate physical cores before using SMT
+ * siblings.
  */
 public class ThreadControl
 {
@@ -72,16 +75,34 @@ public class ThreadControl
   public static final int ROLLOUT_THREADS = CPU_INTENSIVE_THREADS - 1;
 
   /**
-   * Whether to pin the CPU intensive threads to fixed cores to prevent core thrashing.
+   * The maximum number of local search threads used by default.
    */
-  private static final boolean USE_AFFINITY_MAPPING = MachineSpecificConfiguration.getCfgBool(CfgItem.USE_AFFINITY);
+  private static final int MAX_DEFAULT_LOCAL_SEARCH_THREADS = 4;
 
   /**
-   * On hyper-threaded CPUs we get far better performance allocating every other logical core
-   * and so placing our threads on separate physical cores - always do this if we're only using half the
-   * logical cores anyway.
+   * The number of local search threads (in games where local search is used).
+   *
+   * Unless configured otherwise, use the vCPUs not needed by the CPU-intensive threads (but at least 1).
    */
-  private static final int CPU_STRIPE_STRIDE = ((NUM_CPUS + 1) / 2 >= CPU_INTENSIVE_THREADS) ? 2 : 1;
+  public static final int LOCAL_SEARCH_THREADS;
+  static
+  {
+    int lConfiguredValue = MachineSpecificConfiguration.getCfgInt(CfgItem.LOCAL_SEARCH_THREADS);
+    if (lConfiguredValue == -1)
+    {
+      LOCAL_SEARCH_THREADS = Math.max(1, Math.min(MAX_DEFAULT_LOCAL_SEARCH_THREADS,
+                                                  NUM_CPUS - CPU_INTENSIVE_THREADS));
+    }
+    else
+    {
+      LOCAL_SEARCH_THREADS = Math.max(1, lConfiguredValue);
+    }
+  }
+
+  /**
+   * Whether to pin the CPU intensive threads to fixed cores to prevent core thrashing.
+   */
+  private static final boolean USE_AFFINITY_MAPPING = MachineSpecificConfiguration.getCfgBool(CfgItem.USE_AFFINITY);
 
   /**
    * A parity which influences whether logical CPU striping is done on odd or even parity CPU IDs.  Particularly useful
@@ -90,14 +111,21 @@ public class ThreadControl
   public static boolean sCPUIdParity = false;
 
   /**
-   * vCPU index of the last registered search thread.  (Wraps at NUM_CPUS.)
+   * The order in which vCPUs are handed out to CPU-intensive threads.  The first search thread gets the first vCPU and
+   * the rollout threads get the ones after it.  Any further search threads get the vCPUs after those.  (All indices
+   * wrap.)
+   */
+  private static int[] sPlacementOrder;
+
+  /**
+   * Index into the placement order of the vCPU for the next registered search thread.
    */
   private static int sNextSearchThreadCPUIndex = 0;
 
   /**
-   * vCPU index of the last registered rollout thread.  (Wraps at NUM_CPUS.)
+   * Index into the placement order of the vCPU for the next registered rollout thread.
    */
-  private static int sNextRolloutThreadCPUIndex = CPU_STRIPE_STRIDE;
+  private static int sNextRolloutThreadCPUIndex = 1;
 
   private static volatile Thread sTreeOwner;
 
@@ -110,10 +138,11 @@ public class ThreadControl
    * Reset the allocation cursors for CPU id to original values - should be used
    * when destroying the current consuming threads.
    */
-  public static void reset()
+  public static synchronized void reset()
   {
-    sNextSearchThreadCPUIndex = (sCPUIdParity ? 1 : 0);
-    sNextRolloutThreadCPUIndex = (CPU_STRIPE_STRIDE + (sCPUIdParity ? 1 : 0)) % NUM_CPUS;
+    sPlacementOrder = null;
+    sNextSearchThreadCPUIndex = 0;
+    sNextRolloutThreadCPUIndex = 1;
   }
 
   /**
@@ -134,22 +163,13 @@ public class ThreadControl
       synchronized (ThreadControl.class)
       {
         // Bind this thread to the selected virtual CPU.
-        ThreadControl.setThreadAffinity(1 << sNextSearchThreadCPUIndex);
-        LOGGER.info("  Bound search thread to vCPU:  " + sNextSearchThreadCPUIndex);
-
-        // Calculate the next available virtual CPU for search threads.
-        // If we're striping rollout threads with a stride greater than 1 then
-        // then we can interleave the searchers.  If the rollout stride is 1 anyway
-        // anything will clash so this is still as good a policy as any
-        if (sNextSearchThreadCPUIndex == (sCPUIdParity ? 1 : 0))
-        {
-          sNextSearchThreadCPUIndex = CPU_STRIPE_STRIDE + 1 + (sCPUIdParity ? 1 : 0);
-        }
-        else
-        {
-          sNextSearchThreadCPUIndex += CPU_STRIPE_STRIDE;
-        }
-        sNextSearchThreadCPUIndex = sNextSearchThreadCPUIndex % NUM_CPUS;
+        int lCPU = getPlacementOrder()[sNextSearchThreadCPUIndex % sPlacementOrder.length];
+        ThreadControl.setThreadAffinity(lCPU);
+        LOGGER.info("  Bound search thread to vCPU:  " + lCPU);
+
+        // The first search thread sits alongside the rollout threads.  Any more go after them.
+        sNextSearchThreadCPUIndex = (sNextSearchThreadCPUIndex == 0) ? CPU_INTENSIVE_THREADS :
+                                                                       sNextSearchThreadCPUIndex + 1;
       }
     }
   }
@@ -217,22 +237,105 @@ public class ThreadControl
       synchronized (ThreadControl.class)
       {
         // Bind this thread to the selected virtual CPU.
-        ThreadControl.setThreadAffinity(1 << sNextRolloutThreadCPUIndex);
-        LOGGER.info("  Bound rollout processor to vCPU: " + sNextRolloutThreadCPUIndex);
+        int lCPU = getPlacementOrder()[sNextRolloutThreadCPUIndex % sPlacementOrder.length];
+        ThreadControl.setThreadAffinity(lCPU);
+        LOGGER.info("  Bound rollout processor to vCPU: " + lCPU);
 
-        // Calculate the next available virtual CPU for rollout threads, wrapping as required and leaving a gap for the
-        // search thread if required.
-        if (sNextRolloutThreadCPUIndex == (sCPUIdParity ? 1 : 0))
+        // Calculate the next available virtual CPU for rollout threads, leaving a gap for the search thread if the
+        // rollout threads have wrapped.
+        sNextRolloutThreadCPUIndex++;
+        if (sNextRolloutThreadCPUIndex % CPU_INTENSIVE_THREADS == 0)
         {
-          sNextRolloutThreadCPUIndex = CPU_STRIPE_STRIDE + (sCPUIdParity ? 1 : 0);
+          sNextRolloutThreadCPUIndex++;
         }
-        else
+      }
+    }
+  }
+
+  /**
+   * @return the order in which to hand out vCPUs, calculating it if necessary.  Must be called with the class lock
+   * held.
+   */
+  private static int[] getPlacementOrder()
+  {
+    if (sPlacementOrder == null)
+    {
+      int[] lAvailableCPUs = getAvailableCPUs();
+      if (Platform.isLinux())
+      {
+        CPUTopology lTopology = new CPUTopology(lAvailableCPUs);
+        sPlacementOrder = lTopology.getPlacementOrder(sCPUIdParity);
+        LOGGER.info("CPU topology: " + lTopology + ", placing threads on NUMA node " +
+                    lTopology.getNode(sPlacementOrder[0]));
+      }
+      else
+      {
+        // No topology information.  On hyper-threaded CPUs we get far better performance allocating every other
+        // logical core (and so placing our threads on separate physical cores) - always do this if we're only using
+        // half the logical cores anyway.
+        int lStride = ((NUM_CPUS + 1) / 2 >= CPU_INTENSIVE_THREADS) ? 2 : 1;
+        sPlacementOrder = new int[lAvailableCPUs.length];
+        int lNext = 0;
+        for (int lPass = 0; lPass < lStride; lPass++)
         {
-          sNextRolloutThreadCPUIndex += CPU_STRIPE_STRIDE;
+          for (int lii = (lPass + (sCPUIdParity ? 1 : 0)) % lStride; lii < lAvailableCPUs.length; lii += lStride)
+          {
+            sPlacementOrder[lNext++] = lAvailableCPUs[lii];
+          }
         }
-        sNextRolloutThreadCPUIndex = sNextRolloutThreadCPUIndex % NUM_CPUS;
       }
     }
+    return sPlacementOrder;
+  }
+
+  /**
+   * @return the IDs of the vCPUs that this process may run on.
+   */
+  private static int[] getAvailableCPUs()
+  {
+    if (Platform.isLinux())
+    {
+      try
+      {
+        // Ask for the mask of the process (i.e. of its main thread) rather than passing 0, which would give the mask
+        // of the calling thread - and that may already have been bound to a single vCPU.
+        long[] lMask = new long[CPU_SET_WORDS];
+        CLibrary.INSTANCE.sched_getaffinity(CLibrary.INSTANCE.getpid(), CPU_SET_WORDS * 8, lMask);
+        int[] lCPUs = new int[bitCount(lMask)];
+        for (int lii = 0, lNext = 0; lii < CPU_SET_WORDS * 64; lii++)
+        {
+          if ((lMask[lii / 64] & (1L << (lii % 64))) != 0)
+          {
+            lCPUs[lNext++] = lii;
+          }
+        }
+        if (lCPUs.length > 0)
+        {
+          return lCPUs;
+        }
+      }
+      catch (Throwable lEx)
+      {
+        LOGGER.error("Failed to get process affinity: err=", lEx);
+      }
+    }
+
+    int[] lCPUs = new int[NUM_CPUS];
+    for (int lii = 0; lii < NUM_CPUS; lii++)
+    {
+      lCPUs[lii] = lii;
+    }
+    return lCPUs;
+  }
+
+  private static int bitCount(long[] xiMask)
+  {
+    int lCount = 0;
+    for (long lWord : xiMask)
+    {
+      lCount += Long.bitCount(lWord);
+    }
+    return lCount;
   }
 
   /**
@@ -241,26 +344,72 @@ public class ThreadControl
   private interface Kernel32Library extends Library
   {
     public static final Kernel32Library INSTANCE = (Kernel32Library)Native.loadLibrary("kernel32", Kernel32Library.class);
-    public void SetThreadAffinityMask(final int pid, final DWORD lpProcessAffinityMask) throws LastErrorException;
+    public void SetThreadAffinityMask(final int pid,
+                                      final DWORD_PTR lpProcessAffinityMask) throws LastErrorException;
     public int GetCurrentThread() throws LastErrorException;
   }
 
   /**
-   * Set CPU affinity for the current thread.
+   * Number of 64-bit words in the CPU set passed to the Linux affinity calls (enough for 1024 vCPUs, matching glibc).
+   */
+  private static final int CPU_SET_WORDS = 16;
+
+  /**
+   * JNA access to the Linux C library.
+   */
+  private interface CLibrary extends Library
+  {
+    public static final CLibrary INSTANCE = (CLibrary)Native.loadLibrary("c", CLibrary.class);
+    public int sched_setaffinity(final int pid, final int cpusetsize, final long[] mask) throws LastErrorException;
+    public int sched_getaffinity(final int pid, final int cpusetsize, final long[] mask) throws LastErrorException;
+    public int getpid();
+  }
+
+  /**
+   * Bind the current thread to a single vCPU.
    *
-   * @param xiAffinityMask - the affinity mask.
+   * @param xiCPU - the vCPU.
    */
-  private static void setThreadAffinity(final long xiAffinityMask)
+  private static void setThreadAffinity(final int xiCPU)
   {
-    DWORD lAffinityMask = new DWORD(xiAffinityMask);
     try
     {
-      Kernel32Library.INSTANCE.SetThreadAffinityMask(Kernel32Library.INSTANCE.GetCurrentThread(), lAffinityMask);
+      if (Platform.isWindows())
+      {
+        // The mask is pointer-sized, so it only covers the first 32 (or, on 64-bit Windows, 64) vCPUs.  Binding to any
+        // others would need processor group support.
+        if (xiCPU >= Native.POINTER_SIZE * 8)
+        {
+          LOGGER.warn("Not binding thread to vCPU " + xiCPU + " - beyond the range of a Windows affinity mask");
+          return;
+        }
+        Kernel32Library.INSTANCE.SetThreadAffinityMask(Kernel32Library.INSTANCE.GetCurrentThread(),
+                                                       new DWORD_PTR(1L << xiCPU));
+      }
+      else if (Platform.isLinux())
+      {
+        // A pid of 0 means the calling thread.
+        long[] lMask = new long[CPU_SET_WORDS];
+        lMask[xiCPU / 64] = 1L << (xiCPU % 64);
+        CLibrary.INSTANCE.sched_setaffinity(0, CPU_SET_WORDS * 8, lMask);
+
+        // Read the affinity back to verify that the binding took effect.
+        long[] lActual = new long[CPU_SET_WORDS];
+        CLibrary.INSTANCE.sched_getaffinity(0, CPU_SET_WORDS * 8, lActual);
+        if (!Arrays.equals(lMask, lActual))
+        {
+          LOGGER.warn("Thread affinity not as requested for vCPU " + xiCPU + " - now on " + bitCount(lActual) +
+                      " vCPUs");
+        }
+      }
+      else
+      {
+        LOGGER.warn("Thread affinity not supported on this platform");
+      }
     }
     catch (Throwable lEx)
     {
-      // On non-Windows platforms, we'll never manage to load the library.  For now, just log an error.
       LOGGER.error("Failed to set thread affinity: err=", lEx);
     }
   }
-}
\ No newline at end of file
+}
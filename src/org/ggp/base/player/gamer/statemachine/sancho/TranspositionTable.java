@@ -0,0 +1,180 @@
+package org.ggp.base.player.gamer.statemachine.sancho;
+
+import org.ggp.base.player.gamer.statemachine.sancho.pool.Pool;
+import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonInternalMachineState;
+
+/**
+ * A garbage-free transposition table mapping game states to the tree nodes that represent them.
+ *
+ * The table is open-addressed over primitive arrays, keyed by the 64-bit hash key of the state.  It holds no reference
+ * to the state itself - the full state is only compared (against the node's own state) when the keys match.  Entries
+ * whose node has since been recycled are detected via the sequence number in the node reference and treated as empty.
+ *
+ * Each key may only live in a small window of slots following its home slot.  If that window is full of live entries,
+ * the entry for the least visited node is replaced.  That node is still in the tree - it just can't be found as a
+ * transposition any more.
+ */
+public class TranspositionTable
+{
+  /**
+   * Number of slots (starting at the home slot) in which an entry may be placed.
+   */
+  private static final int MAX_PROBES = 8;
+
+  private final Pool<TreeNode> mNodePool;
+  private final long[]         mKeys;
+  private final long[]         mRefs;
+  private final int            mIndexMask;
+
+  private int                  mNumReplacements;
+
+  /**
+   * Create a transposition table.
+   *
+   * @param xiMaxEntries - the maximum number of entries expected in the table.
+   * @param xiNodePool   - the pool from which the indexed nodes are allocated.
+   */
+  public TranspositionTable(int xiMaxEntries, Pool<TreeNode> xiNodePool)
+  {
+    // Size to the next power of 2 at or above a load factor of 0.75.
+    int lCapacity = Integer.highestOneBit(Math.max((int)(xiMaxEntries / 0.75f), MAX_PROBES) - 1) * 2;
+
+    mNodePool = xiNodePool;
+    mKeys = new long[lCapacity];
+    mRefs = new long[lCapacity];
+    mIndexMask = lCapacity - 1;
+
+    clear();
+  }
+
+  /**
+   * Remove all entries from the table.
+   */
+  public void clear()
+  {
+    for (int lii = 0; lii < mRefs.length; lii++)
+    {
+      mRefs[lii] = TreeNode.NULL_REF;
+    }
+    mNumReplacements = 0;
+  }
+
+  /**
+   * @return the node for the specified state, or null if there isn't one in the table.
+   *
+   * @param xiState - the state.
+   */
+  public TreeNode get(ForwardDeadReckonInternalMachineState xiState)
+  {
+    long lKey = xiState.getHashKey();
+    int lSlot = homeSlot(lKey);
+
+    for (int lii = 0; lii < MAX_PROBES; lii++, lSlot = (lSlot + 1) & mIndexMask)
+    {
+      if (mKeys[lSlot] == lKey && mRefs[lSlot] != TreeNode.NULL_REF)
+      {
+        TreeNode lNode = TreeNode.get(mNodePool, mRefs[lSlot]);
+        if (lNode != null && lNode.mState.equals(xiState))
+        {
+          return lNode;
+        }
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Add a node to the table, indexed by its state.
+   *
+   * @param xiNode - the node.
+   */
+  public void put(TreeNode xiNode)
+  {
+    long lKey = xiNode.mState.getHashKey();
+    int lSlot = homeSlot(lKey);
+    int lVictimSlot = -1;
+    int lVictimVisits = Integer.MAX_VALUE;
+
+    for (int lii = 0; lii < MAX_PROBES; lii++, lSlot = (lSlot + 1) & mIndexMask)
+    {
+      long lRef = mRefs[lSlot];
+      TreeNode lNode = (lRef == TreeNode.NULL_REF ? null : TreeNode.get(mNodePool, lRef));
+
+      if (lNode == null)
+      {
+        // Empty, or the node has been recycled since it was indexed.
+        mKeys[lSlot] = lKey;
+        mRefs[lSlot] = xiNode.getRef();
+        return;
+      }
+
+      if (lNode.mNumVisits < lVictimVisits)
+      {
+        lVictimSlot = lSlot;
+        lVictimVisits = lNode.mNumVisits;
+      }
+    }
+
+    mNumReplacements++;
+    mKeys[lVictimSlot] = lKey;
+    mRefs[lVictimSlot] = xiNode.getRef();
+  }
+
+  /**
+   * Remove a node from the table.  If the node isn't in the table (perhaps because it has been replaced by another
+   * node with the same key or home slot), there's nothing to do.
+   *
+   * @param xiNode - the node.
+   */
+  public void remove(TreeNode xiNode)
+  {
+    long lRef = xiNode.getRef();
+    int lSlot = homeSlot(xiNode.mState.getHashKey());
+
+    for (int lii = 0; lii < MAX_PROBES; lii++, lSlot = (lSlot + 1) & mIndexMask)
+    {
+      if (mRefs[lSlot] == lRef)
+      {
+        mRefs[lSlot] = TreeNode.NULL_REF;
+        return;
+      }
+    }
+  }
+
+  /**
+   * @return the number of live entries that have been replaced because their probe window was full (since the table
+   * was last cleared).
+   */
+  public int getNumReplacements()
+  {
+    return mNumReplacements;
+  }
+
+  /**
+   * @return the node held in the specified slot, or null if the slot is empty (or stale).
+   *
+   * For use by validation code, which iterates over all slots in the range [0, capacity).
+   *
+   * @param xiSlot - the slot.
+   */
+  TreeNode getNodeInSlot(int xiSlot)
+  {
+    long lRef = mRefs[xiSlot];
+    return (lRef == TreeNode.NULL_REF ? null : TreeNode.get(mNodePool, lRef));
+  }
+
+  /**
+   * @return the number of slots in the table.
+   */
+  int getCapacity()
+  {
+    return mRefs.length;
+  }
+
+  private int homeSlot(long xiKey)
+  {
+    // Fold the high bits in so that keys which only differ there don't collide.
+    return (int)(xiKey ^ (xiKey >>> 32)) & mIndexMask;
+  }
+}
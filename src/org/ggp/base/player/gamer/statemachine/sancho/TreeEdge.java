@@ -62,6 +62,12 @@ public class TreeEdge
   private int                   numChildVisits       = 0;
 
   double                        explorationAmplifier = 0;
+
+  /**
+   * The number of rollouts currently in the pipeline whose selection path passes through this edge.  Only maintained
+   * when virtual loss is in use.
+   */
+  private int                   mNumVirtualLosses    = 0;
   /**
    * Edge flags hold some binary properties for the edge, which are accessed through
    * public get/setters
@@ -263,6 +269,37 @@ public class TreeEdge
     numChildVisits |= HAS_BEEN_TRIMMED_MASK;
   }
 
+  /**
+   * @return the number of in-flight rollouts that were selected through this edge.
+   */
+  public int getNumVirtualLosses()
+  {
+    return mNumVirtualLosses;
+  }
+
+  /**
+   * Note that a rollout selected through this edge has been queued for asynchronous processing.
+   */
+  public void addVirtualLoss()
+  {
+    assert(ThreadControl.checkTreeOwnership());
+
+    mNumVirtualLosses++;
+  }
+
+  /**
+   * Note that a rollout selected through this edge has been back-propagated (or discarded).
+   */
+  public void removeVirtualLoss()
+  {
+    assert(ThreadControl.checkTreeOwnership());
+
+    //  TreePath only releases virtual loss through edges that are still valid (not reset and re-used since it was
+    //  applied), so the count can't go negative.
+    assert(mNumVirtualLosses > 0) : "Virtual loss released more often than applied";
+    mNumVirtualLosses--;
+  }
+
   /**
    * Set the edge's parent (and the move from the parent).
    *
@@ -336,6 +373,7 @@ public class TreeEdge
     numChildVisits = 0;
     mPartialMove = null;
     explorationAmplifier = 0;
+    mNumVirtualLosses = 0;
     mFlags = 0;
     hyperSuccessor = null;
     nextHyperChild = TreeNode.NULL_REF;
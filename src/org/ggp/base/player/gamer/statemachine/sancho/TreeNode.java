@@ -3,7 +3,7 @@ package org.ggp.base.player.gamer.statemachine.sancho;
 import java.io.File;
 import java.io.PrintWriter;
 import java.text.DecimalFormat;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -195,8 +195,15 @@ public class TreeNode
   private boolean                       mAllChildrenComplete  = false;
   LocalSearchStatus                     mLocalSearchStatus    = LocalSearchStatus.LOCAL_SEARCH_UNSEARCHED;
   short                                 mNumChildren          = 0;
-  final ArrayList<TreeNode>             mParents              = new ArrayList<>(1);
+  //  Parents are held inline rather than in a collection, since the vast majority of nodes only ever have one.  This
+  //  saves two objects per node over an ArrayList.  Any further parents (from transpositions) are kept, in order, in
+  //  an overflow array, which grows geometrically.
+  private TreeNode                      mFirstParent          = null;
+  private TreeNode[]                    mOtherParents         = null;
+  private int                           mNumOtherParents      = 0;
   private int                           mSweepSeq;
+  //  Epoch (of the tree's NodeReclaimer) in which this node was last known to be reachable from the root.
+  private int                           mEpoch;
   boolean                               mFreed                = false;
   private short                         mUpdatesToNormalization = NORMALIZATION_WARMUP_PERIOD;
   private short                         mLastSelectionMade    = -1;
@@ -245,6 +252,7 @@ public class TreeNode
     mRef = xiPoolIndex;
     mInstanceID = xiPoolIndex;
     mState = mTree.mUnderlyingStateMachine.createEmptyInternalState();
+    mEpoch = mTree.mReclaimer.getEpoch();
 
     int lMaxDirectChildren = mTree.mGameCharacteristics.getChoicesHighWaterMark(0);
     mChildren = new Object[lMaxDirectChildren];
@@ -301,12 +309,155 @@ public class TreeNode
   public void addParent(TreeNode xiParent)
   {
     assert(this != mTree.mRoot);
-    mParents.add(xiParent);
 
-    // Trim off any excess array slots from the last time this node was used.
-    if (mParents.size() == 1)
+    if (mFirstParent == null)
     {
-      mParents.trimToSize();
+      mFirstParent = xiParent;
+    }
+    else
+    {
+      if (mOtherParents == null)
+      {
+        mOtherParents = new TreeNode[2];
+      }
+      else if (mNumOtherParents == mOtherParents.length)
+      {
+        mOtherParents = Arrays.copyOf(mOtherParents, mNumOtherParents * 2);
+      }
+      mOtherParents[mNumOtherParents++] = xiParent;
+    }
+  }
+
+  /**
+   * @return the number of parents of this node.
+   */
+  int getNumParents()
+  {
+    if (mFirstParent == null)
+    {
+      return 0;
+    }
+
+    return mNumOtherParents + 1;
+  }
+
+  /**
+   * @return the specified parent of this node.
+   *
+   * @param xiIndex - the index of the parent, which must be less than {@link #getNumParents()}.
+   */
+  TreeNode getParent(int xiIndex)
+  {
+    assert(xiIndex < getNumParents());
+
+    return (xiIndex == 0 ? mFirstParent : mOtherParents[xiIndex - 1]);
+  }
+
+  /**
+   * @return whether the specified node is a parent of this node.
+   *
+   * @param xiParent - the node.
+   */
+  boolean hasParent(TreeNode xiParent)
+  {
+    for (int lii = 0; lii < getNumParents(); lii++)
+    {
+      if (getParent(lii) == xiParent)
+      {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Remove (the first instance of) a parent from this node, preserving the order of the remaining parents.
+   *
+   * @param xiParent - the parent to remove.
+   */
+  private void removeParent(TreeNode xiParent)
+  {
+    int lNumParents = getNumParents();
+    int lIndex;
+    for (lIndex = 0; lIndex < lNumParents; lIndex++)
+    {
+      if (getParent(lIndex) == xiParent)
+      {
+        break;
+      }
+    }
+
+    if (lIndex == lNumParents)
+    {
+      return;
+    }
+
+    if (lNumParents == 1)
+    {
+      mFirstParent = null;
+      return;
+    }
+
+    if (lIndex == 0)
+    {
+      mFirstParent = mOtherParents[0];
+      lIndex = 1;
+    }
+
+    //  Close the gap in the overflow array.
+    System.arraycopy(mOtherParents, lIndex, mOtherParents, lIndex - 1, mNumOtherParents - lIndex);
+    mOtherParents[--mNumOtherParents] = null;
+    if (mNumOtherParents == 0)
+    {
+      mOtherParents = null;
+    }
+  }
+
+  /**
+   * Remove all parents from this node.
+   */
+  void clearParents()
+  {
+    mFirstParent = null;
+    mOtherParents = null;
+    mNumOtherParents = 0;
+  }
+
+  /**
+   * Remove any parents that were not reached when marking the tree from the current root.
+   */
+  void unlinkAbandonedParents()
+  {
+    int lEpoch = mTree.mReclaimer.getEpoch();
+    int lParentIndex = 0;
+    while (lParentIndex < getNumParents())
+    {
+      //  All the preceding parents are live, so this is the first instance of this parent.
+      TreeNode lParent = getParent(lParentIndex);
+      if (lParent.mEpoch != lEpoch)
+      {
+        removeParent(lParent);
+      }
+      else
+      {
+        lParentIndex++;
+      }
+    }
+  }
+
+  /**
+   * Remove all parents from this node, apart from the specified one (if it is a parent).
+   *
+   * @param xiParent - the parent to keep.
+   */
+  void clearParentsBut(TreeNode xiParent)
+  {
+    boolean lKeep = hasParent(xiParent);
+    clearParents();
+    if (lKeep)
+    {
+      addParent(xiParent);
     }
   }
 
@@ -350,8 +501,9 @@ public class TreeNode
       TreeNode primaryPathParent = null;
       int mostSelectedRouteCount = 0;
 
-      for (TreeNode parent : mParents)
+      for (int lParentIndex = 0; lParentIndex < getNumParents(); lParentIndex++)
       {
+        TreeNode parent = getParent(lParentIndex);
         if (parent.mNumUpdates > 0)
         {
           for (short index = 0; index < parent.mNumChildren; index++)
@@ -638,7 +790,7 @@ public class TreeNode
                   deleteEdge(index);
                   if (lChild != null)
                   {
-                    lChild.freeFromAncestor(this, null);
+                    lChild.freeFromAncestor(this);
                   }
                 }
                 else
@@ -661,8 +813,9 @@ public class TreeNode
       }
     }
 
-    for (TreeNode parent : mParents)
+    for (int lParentIndex = 0; lParentIndex < getNumParents(); lParentIndex++)
     {
+      TreeNode parent = getParent(lParentIndex);
       if (!parent.mComplete)
       {
         boolean decidingRoleWin = false;
@@ -846,7 +999,7 @@ public class TreeNode
 
             if (child != null)
             {
-              if (edge.hyperSuccessor == null && child != mTree.mRoot && !child.mParents.contains(this))
+              if (edge.hyperSuccessor == null && child != mTree.mRoot && !child.hasParent(this))
               {
                 assert(false) : "child link not reflected in back-link";
                 return false;
@@ -884,8 +1037,9 @@ public class TreeNode
       }
     }
 
-    for (TreeNode parent : mParents)
+    for (int lParentIndex = 0; lParentIndex < getNumParents(); lParentIndex++)
     {
+      TreeNode parent = getParent(lParentIndex);
       if (!parent.validateHasChild(this))
       {
         assert(false) : "parent missing child link";
@@ -895,20 +1049,14 @@ public class TreeNode
     return true;
   }
 
-  private void freeFromAncestor(TreeNode ancestor, TreeNode xiKeep)
+  private void freeFromAncestor(TreeNode ancestor)
   {
-    assert(this == xiKeep || mParents.contains(ancestor));
-
-    boolean keep = (xiKeep == null ? (mParents.size() > 1) : (mSweepSeq == mTree.mSweepInstance));
+    assert(hasParent(ancestor));
 
-    if (keep)
+    if (getNumParents() > 1)
     {
-      // We're re-rooting the tree and have already calculated that this node (which we happen to have reached through
-      // a part of the tree that's being pruned) is reachable from the new root.  Therefore, we know it needs to be
-      // kept.
-      assert(mParents.size() != 0 || this == xiKeep) : "Oops - no link left to new root";
-
-      mParents.remove(ancestor);
+      // This node is still reachable through another parent, so it needs to be kept.
+      removeParent(ancestor);
       assert(linkageValid());
       return;
     }
@@ -937,9 +1085,9 @@ public class TreeNode
         }
 
         // Free the child (at least from us) and free our edge to it.
-        if (lChild != null && lChild != xiKeep)
+        if (lChild != null)
         {
-          lChild.freeFromAncestor(this, xiKeep);
+          lChild.freeFromAncestor(this);
         }
       }
     }
@@ -949,8 +1097,9 @@ public class TreeNode
 
   private boolean hasSiblings()
   {
-    for (TreeNode parent : mParents)
+    for (int lParentIndex = 0; lParentIndex < getNumParents(); lParentIndex++)
     {
+      TreeNode parent = getParent(lParentIndex);
       for (short index = 0; index < parent.mNumChildren; index++)
       {
         if (parent.mPrimaryChoiceMapping == null || parent.mPrimaryChoiceMapping[index] == index)
@@ -972,15 +1121,17 @@ public class TreeNode
 
   private boolean hasSiblinglessParents()
   {
-    for (TreeNode parent : mParents)
+    for (int lParentIndex = 0; lParentIndex < getNumParents(); lParentIndex++)
     {
+      TreeNode parent = getParent(lParentIndex);
       if (parent == mTree.mRoot)
       {
         return false;
       }
 
-      for (TreeNode grandParent : parent.mParents)
+      for (int lGrandParentIndex = 0; lGrandParentIndex < parent.getNumParents(); lGrandParentIndex++)
       {
+        TreeNode grandParent = parent.getParent(lGrandParentIndex);
         if (grandParent.mNumChildren > 1)
         {
           return false;
@@ -1011,8 +1162,9 @@ public class TreeNode
 
   private boolean allNephewsComplete()
   {
-    for (TreeNode parent : mParents)
+    for (int lParentIndex = 0; lParentIndex < getNumParents(); lParentIndex++)
     {
+      TreeNode parent = getParent(lParentIndex);
       for (short index = 0; index < parent.mNumChildren; index++)
       {
         if (parent.mPrimaryChoiceMapping == null || parent.mPrimaryChoiceMapping[index] == index)
@@ -1075,8 +1227,9 @@ public class TreeNode
    */
   private void checkSiblingCompletion()
   {
-    for (TreeNode lParent : mParents)
+    for (int lParentIndex = 0; lParentIndex < getNumParents(); lParentIndex++)
     {
+      TreeNode lParent = getParent(lParentIndex);
       for (short lIndex = 0; lIndex < lParent.mNumChildren; lIndex++)
       {
         if (lParent.mPrimaryChoiceMapping == null || lParent.mPrimaryChoiceMapping[lIndex] == lIndex)
@@ -1099,8 +1252,9 @@ public class TreeNode
 
   private boolean isBestMoveInAllUncles(Set<Move> moves, int roleIndex)
   {
-    for (TreeNode parent : mParents)
+    for (int lParentIndex = 0; lParentIndex < getNumParents(); lParentIndex++)
     {
+      TreeNode parent = getParent(lParentIndex);
       for (short index = 0; index < parent.mNumChildren; index++)
       {
         if (parent.mPrimaryChoiceMapping == null || parent.mPrimaryChoiceMapping[index] == index)
@@ -1182,8 +1336,9 @@ public class TreeNode
   {
     TreeNode result = null;
 
-    for (TreeNode parent : mParents)
+    for (int lParentIndex = 0; lParentIndex < getNumParents(); lParentIndex++)
     {
+      TreeNode parent = getParent(lParentIndex);
       for (short index = 0; index < parent.mNumChildren; index++)
       {
         if (parent.mPrimaryChoiceMapping == null || parent.mPrimaryChoiceMapping[index] == index)
@@ -1788,6 +1943,7 @@ public class TreeNode
     mFreed = (xiTree == null);
     mDepth = -1;
     mSweepSeq = 0;
+    mEpoch = (xiTree == null ? 0 : xiTree.mReclaimer.getEpoch());
     //sweepParent = null;
     mHeuristicValue = 0;
     mHeuristicWeight = 0;
@@ -1796,7 +1952,7 @@ public class TreeNode
 
     // Reset objects (without allocating new ones).
     mTree = xiTree;
-    mParents.clear();
+    clearParents();
     mState.clear();
 
     // Reset score values
@@ -1928,7 +2084,7 @@ public class TreeNode
           TreeNode lNode = get(edge.getChildRef());
           if (lNode != null)
           {
-            if (!lNode.mParents.contains(this))
+            if (!lNode.hasParent(this))
             {
               LOGGER.error("Missing parent link");
             }
@@ -1952,12 +2108,13 @@ public class TreeNode
       }
     }
 
-    if (mParents.size() > 0)
+    if (getNumParents() > 0)
     {
       int numInwardVisits = 0;
 
-      for (TreeNode parent : mParents)
+      for (int lParentIndex = 0; lParentIndex < getNumParents(); lParentIndex++)
       {
+        TreeNode parent = getParent(lParentIndex);
         for (short index = 0; index < parent.mNumChildren; index++)
         {
           if (parent.mPrimaryChoiceMapping == null || parent.mPrimaryChoiceMapping[index] == index)
@@ -1982,35 +2139,52 @@ public class TreeNode
   }
 
   /**
-   * Mark all the nodes that will be in the live part of the graph with a sequence number.  When clearing out the graph,
-   * if we meet a marked node, we know that it can't be deleted because it's still reachable.
+   * @return the epoch in which this node was last known to be reachable from the root.
+   */
+  int getEpoch()
+  {
+    return mEpoch;
+  }
+
+  /**
+   * Stamp this node as reachable from the root in the specified epoch.
+   *
+   * @param xiEpoch - the epoch.
+   */
+  void setEpoch(int xiEpoch)
+  {
+    mEpoch = xiEpoch;
+  }
+
+  /**
+   * Pass all this node's children to the reclaimer for marking.
+   *
+   * @param xiReclaimer - the reclaimer.
    */
-  private void markTreeForSweep(TreeNode parent)
+  void shadeChildren(NodeReclaimer xiReclaimer)
   {
-    assert(parent == null || mParents.contains(parent)) : "Marked node for sweep from unexpected parent";
-    if (mSweepSeq != mTree.mSweepInstance)
+    for (short index = 0; index < mNumChildren; index++)
     {
-      //sweepParent = parent;
-      mSweepSeq = mTree.mSweepInstance;
-      for (short index = 0; index < mNumChildren; index++)
+      if (mPrimaryChoiceMapping == null || mPrimaryChoiceMapping[index] == index)
       {
-        if (mPrimaryChoiceMapping == null || mPrimaryChoiceMapping[index] == index)
-        {
-          Object lChoice = mChildren[index];
+        Object lChoice = mChildren[index];
 
-          TreeEdge edge = (lChoice instanceof TreeEdge ? (TreeEdge)lChoice : null);
-          if (edge != null)
+        TreeEdge edge = (lChoice instanceof TreeEdge ? (TreeEdge)lChoice : null);
+        if (edge != null)
+        {
+          //  No need to traverse hyper-edges when marking.  Also, since hyper-edges
+          //  always follow the full set of direct edges in the array as soon as we see one
+          //  we can stop looking
+          if (edge.isHyperEdge())
           {
-            //  No need to traverse hyper-edges in this sweep.  Also, since hyper-edges
-            //  always follow the full set of direct edges in the array as soon as we see one
-            //  we can stop looking
-            if (edge.isHyperEdge())
-            {
-              break;
-            }
-            if (edge.getChildRef() != NULL_REF && get(edge.getChildRef()) != null)
+            break;
+          }
+          if (edge.getChildRef() != NULL_REF)
+          {
+            TreeNode lChild = get(edge.getChildRef());
+            if (lChild != null)
             {
-              get(edge.getChildRef()).markTreeForSweep(this);
+              xiReclaimer.shade(lChild);
             }
           }
         }
@@ -2041,25 +2215,17 @@ public class TreeNode
   }
 
   /**
-   * Free all nodes apart from those reachable from the specified descendant
-   * of this node
-   * @param descendant
-   * @return percentage of allocated nodes freed
+   * Free this node, which is no longer reachable from the root.
+   *
+   * Unlike the other ways of freeing nodes, this doesn't free the node's children.  Any that are also unreachable will
+   * be reclaimed in their own right, and those that are still reachable just lose this node as a parent.
    */
-  public int freeAllBut(TreeNode descendant)
+  void reclaim()
   {
-    LOGGER.info("Freeing redundant state");
-    LOGGER.debug("Free all but rooted in state: " + descendant.mState);
-
-    int numNodesInUseBeforeTrim = mTree.mNodePool.getNumItemsInUse();
-
-    // Mark the live portions of the tree.  This allows us to tidy up the state without repeatedly visiting live parts
-    // of the tree.
-    mTree.mSweepInstance++;
-    descendant.markTreeForSweep(null);
-    descendant.mParents.clear(); //	Do this here to allow generic orphan checking in node freeing
-                                //	without tripping over this special case
-    LOGGER.info("Sweep complete, beginning delete...");
+    for (int lParentIndex = 0; lParentIndex < getNumParents(); lParentIndex++)
+    {
+      assert(getParent(lParentIndex).mEpoch != mTree.mReclaimer.getEpoch()) : "Reclaiming node with a live parent";
+    }
 
     for (int index = 0; index < mNumChildren; index++)
     {
@@ -2071,31 +2237,19 @@ public class TreeNode
         if (edge != null)
         {
           //  Note that hyper-edges represent duplicate paths that are not back-linked
-          //  by parentage, so node-freeing via hyper-edges is not needed (or correct)
-          TreeNode lNode = (edge.getChildRef() == NULL_REF || edge.isHyperEdge()) ? null : get(edge.getChildRef());
-
-          // Delete our edge to the child anyway.  (We only set "descendant" when re-rooting the tree.  In that case,
-          // we don't need the edge any more.)
-          deleteEdge(index);
-
-          // Free the child (at least from us)
-          if (lNode != null)
+          //  by parentage
+          TreeNode lChild = (edge.getChildRef() == NULL_REF || edge.isHyperEdge()) ? null : get(edge.getChildRef());
+          if (lChild != null)
           {
-            lNode.freeFromAncestor(this, descendant);
+            lChild.removeParent(this);
           }
+
+          deleteEdge(index);
         }
       }
     }
 
     freeNode();
-    mTree.mSweepInstance++;
-
-    int numNodesInUseAfterTrim = mTree.mNodePool.getNumItemsInUse();
-    int percentageFreed = (100*(numNodesInUseBeforeTrim-numNodesInUseAfterTrim))/numNodesInUseBeforeTrim;
-
-    LOGGER.info("Freed " + percentageFreed + "% of allocated nodes (" + (numNodesInUseBeforeTrim-numNodesInUseAfterTrim) + " of " + numNodesInUseBeforeTrim + ")");
-
-    return percentageFreed;
   }
 
   private void deleteEdge(int xiChildIndex)
@@ -2240,7 +2394,7 @@ public class TreeNode
 
           if (child != null)
           {
-            child.freeFromAncestor(this, null);
+            child.freeFromAncestor(this);
           }
         }
       }
@@ -2568,10 +2722,9 @@ public class TreeNode
       //  Pick arbitrary path back to the root
       TreeNode current = this;
 
-      while(current.getDepth() != mTree.mRoot.getDepth())
+      while(current.getDepth() > mTree.mRoot.getDepth() && current.getNumParents() > 0)
       {
-        assert(!current.mParents.isEmpty());
-        TreeNode parent = current.mParents.get(0);
+        TreeNode parent = current.getParent(0);
 
         if (current.mDecidingRoleIndex == 0)
         {
@@ -2597,7 +2750,8 @@ public class TreeNode
       //  setting a new root (and reconnecting it to the existing tree).  This happens before
       //  the tree is trimmed to remove no-longer referenced nodes, and in this processing it is
       //  possible that parent paths can lead outside the scope of the new root (since we just
-      //  follow one path arbitrarily).  Such paths are not valid as plans, so if we find ourselves
+      //  follow one path arbitrarily).  The same goes for paths through parents that are no longer
+      //  reachable but have not yet been reclaimed.  Such paths are not valid as plans, so if we find ourselves
       //  at/above the root level but not at the root we discard it.  Typically this only happens
       //  when enacting plans previously discovered (since we'll normally discover the win much
       //  deeper than immediately in  forced-move sequence from the root), when we anyway won't
@@ -2611,7 +2765,7 @@ public class TreeNode
 
   public TreeNode expand(TreePath fullPathTo, ForwardDeadReckonLegalMoveInfo[] jointPartialMove, int parentDepth)
   {
-    assert(this == mTree.mRoot || fullPathTo == null || mParents.contains(fullPathTo.getTailElement().getParentNode()));
+    assert(this == mTree.mRoot || fullPathTo == null || hasParent(fullPathTo.getTailElement().getParentNode()));
 
     assert(linkageValid());
 
@@ -2927,7 +3081,7 @@ public class TreeNode
 
     TreePathElement pathTo = (fullPathTo == null ? null : fullPathTo.getTailElement());
 
-    assert(this == mTree.mRoot || mParents.size() > 0);
+    assert(this == mTree.mRoot || getNumParents() > 0);
     assert((mDepth / mTree.mNumRoles == mTree.mRoot.mDepth / mTree.mNumRoles) ||
            (!mTree.mRemoveNonDecisionNodes && mDecidingRoleIndex != mTree.mNumRoles-1) ||
            (pathTo != null && pathTo.getEdgeUnsafe().mPartialMove.mIsPseudoNoOp) ||
@@ -3056,7 +3210,7 @@ public class TreeNode
 
             //  Need to check that we don't already have a different edge leading from the same parent to this newly transposed-to
             //  node (multiple forced move paths can have a common destination)
-            if (existing.mParents.contains(parent))
+            if (existing.hasParent(parent))
             {
               short thisIndex = -1;
               short otherPathIndex = -1;
@@ -3155,7 +3309,7 @@ public class TreeNode
             //  not be unique (it could turn out that multiple forced move sequences which
             //  have different starting moves lead to the same result)
             //  If it's NOT unique we must make it so
-            if (!existing.mParents.contains(parent))
+            if (!existing.hasParent(parent))
             {
               existing.addParent(parent);
             }
@@ -3182,10 +3336,10 @@ public class TreeNode
               assert(this != mTree.mRoot);
               assert(mNumChildren == 1) : "Expansion of non-decision node occuring on apparent decision node!";
               mNumChildren = 0; //  Must reset this so it appears unexpanded for other paths if it doesn't get freed
-              assert(mParents.size() > 0);
-              if (mParents.contains(parent))
+              assert(getNumParents() > 0);
+              if (hasParent(parent))
               {
-                freeFromAncestor(parent, null);
+                freeFromAncestor(parent);
               }
 
               assert(mFreed || linkageValid());
@@ -3544,9 +3698,9 @@ public class TreeNode
 
         if (mTree.mGameSearcher.mUseGoalGreedy)
         {
-          if (bestChildGoalValue <= mHeuristicValue && !mParents.isEmpty())
+          if (bestChildGoalValue <= mHeuristicValue && getNumParents() > 0)
           {
-            mHeuristicValue = mParents.get(0).mHeuristicValue;
+            mHeuristicValue = getParent(0).mHeuristicValue;
           }
         }
       }
@@ -4179,8 +4333,9 @@ public class TreeNode
       mTree.mCousinMoveCache.clear();
       mTree.mCachedMoveScorePool.clear(mTree.mMoveScoreInfoAllocator, false);
 
-      for (TreeNode parent : mParents)
+      for (int lParentIndex = 0; lParentIndex < getNumParents(); lParentIndex++)
       {
+        TreeNode parent = getParent(lParentIndex);
         for (short index = 0; index < parent.mNumChildren; index++)
         {
           if (parent.mPrimaryChoiceMapping == null || parent.mPrimaryChoiceMapping[index] == index)
@@ -4240,7 +4395,7 @@ public class TreeNode
     {
       if (lNode.mNumUpdates > 0)
       {
-        mParents.get(0).dumpTree("subTree.txt");
+        getParent(0).dumpTree("subTree.txt");
         LOGGER.warn("No newphews found for search move including own child!");
         mTree.mCousinMovesCachedFor = NULL_REF;
       }
@@ -4511,8 +4666,9 @@ public class TreeNode
         if ( Math.abs(getAverageScore(role) - newValue) > 3 )
         {
           //  Flag the parents as in need of normalization
-          for(TreeNode parent : mParents)
+          for (int lParentIndex = 0; lParentIndex < getNumParents(); lParentIndex++)
           {
+            TreeNode parent = getParent(lParentIndex);
             parent.mUpdatesToNormalization = 0;
           }
         }
@@ -4551,13 +4707,24 @@ public class TreeNode
       //  children seems to give decent results.  Both applying it in full and not
       //  applying it (both of which can be rationalized!) seem to fare worse in at
       //  least some games
+      double lExploitation = exploitationUCT(edge, roleIndex);
+
+      //  Each rollout still in flight below this edge is counted as a loss for the choosing role until its real
+      //  result is back-propagated.  The edge visit count already includes the in-flight selections.
+      int lNumVirtualLosses = edge.getNumVirtualLosses();
+      if (lNumVirtualLosses > 0 && !c.mComplete)
+      {
+        int lNumEdgeVisits = edge.getNumChildVisits();
+        lExploitation *= (double)Math.max(lNumEdgeVisits - lNumVirtualLosses, 0) / Math.max(lNumEdgeVisits, 1);
+      }
+
       uctValue = (c.mComplete ? explorationUCT(mNumVisits,
                                               edge,
                                               roleIndex)/2
                              : explorationUCT(mNumVisits,
                                               edge,
                                               roleIndex)) +
-                 exploitationUCT(edge, roleIndex) +
+                 lExploitation +
                  heuristicUCT(edge);
     }
 
@@ -4973,7 +5140,7 @@ public class TreeNode
     //  so that the stats update applies to the correct intermediate states also
     if (selected.hyperSuccessor == null)
     {
-      assert(get(selected.getChildRef()).mParents.contains(this));
+      assert(get(selected.getChildRef()).hasParent(this));
       result = path.push(this, selected);
     }
     else
@@ -5010,7 +5177,7 @@ public class TreeNode
         assert(principalEdge.getChildRef() == selected.nextHyperChild);
         TreeNode nextNode = get(principalEdge.getChildRef());
 
-        assert(nextNode.mParents.contains(intermediaryParent));
+        assert(nextNode.hasParent(intermediaryParent));
         intermediaryParent = nextNode;
 
         assert(intermediaryParent != null);
@@ -5031,7 +5198,7 @@ public class TreeNode
 
       if (!intermediaryParent.mComplete)
       {
-        assert(get(selected.getChildRef()).mParents.contains(intermediaryParent));
+        assert(get(selected.getChildRef()).hasParent(intermediaryParent));
         result = path.push(intermediaryParent, selected);
       }
     }
@@ -5927,6 +6094,11 @@ public class TreeNode
 
     if (lRequest != mTree.mNodeSynchronousRequest)
     {
+      if (mTree.mGameSearcher.mUseVirtualLoss)
+      {
+        path.applyVirtualLoss();
+      }
+
       // Queue the request for processing.
       lRequest.mEnqueueTime = System.nanoTime();
       xiPipeline.completedExpansion();
@@ -6205,12 +6377,12 @@ public class TreeNode
 
     do
     {
-      if ( ancestor.mParents.isEmpty() )
+      if ( ancestor.getNumParents() == 0 )
       {
         return null;
       }
 
-      ancestor = ancestor.mParents.get(0);  //  Any parentage will do
+      ancestor = ancestor.getParent(0);  //  Any parentage will do
     } while(ancestor.mDecidingRoleIndex != mDecidingRoleIndex);
 
     return ancestor;
@@ -202,6 +202,10 @@ public class TreePath
   // A cursor to an item in the path.  Used for iteration.
   private int mCursor = 0;
 
+  // The number of leading elements whose edges currently carry a virtual loss on behalf of this path.  This is tracked
+  // separately from mNumElements because the path may be trimmed before the virtual loss is released.
+  private int mNumVirtualLossElements = 0;
+
   /**
    * Construct a new selection path.
    *
@@ -299,6 +303,39 @@ public class TreePath
     resetCursor();
   }
 
+  /**
+   * Apply a virtual loss to every edge in the path.  Called when a rollout from the end of this path is queued for
+   * asynchronous processing, so that subsequent selections are discouraged from following the same path until the
+   * result is known.
+   */
+  public void applyVirtualLoss()
+  {
+    assert(mNumVirtualLossElements == 0) : "Virtual loss already applied";
+
+    for (int lii = 0; lii < mNumElements; lii++)
+    {
+      mElements[lii].getEdgeUnsafe().addVirtualLoss();
+    }
+    mNumVirtualLossElements = mNumElements;
+  }
+
+  /**
+   * Release any virtual loss applied by {@link #applyVirtualLoss()}.  Edges that have since been freed (and possibly
+   * re-used) are skipped.
+   */
+  public void releaseVirtualLoss()
+  {
+    for (int lii = 0; lii < mNumVirtualLossElements; lii++)
+    {
+      TreeEdge lEdge = mElements[lii].getEdge();
+      if (lEdge != null)
+      {
+        lEdge.removeVirtualLoss();
+      }
+    }
+    mNumVirtualLossElements = 0;
+  }
+
   /**
    * @return the tail path element.
    */
@@ -354,6 +391,7 @@ public class TreePath
     }
     mNumElements = 0;
     mCursor = 0;
+    mNumVirtualLossElements = 0;
   }
 
   /**
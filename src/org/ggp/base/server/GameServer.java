@@ -1,15 +1,17 @@
 
 package org.ggp.base.server;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.ggp.base.server.event.ServerAbortedMatchEvent;
 import org.ggp.base.server.event.ServerCompletedMatchEvent;
@@ -27,21 +29,68 @@ import org.ggp.base.server.threads.PreviewRequestThread;
 import org.ggp.base.server.threads.RandomPlayRequestThread;
 import org.ggp.base.server.threads.StartRequestThread;
 import org.ggp.base.server.threads.StopRequestThread;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.logging.GamerLogger;
 import org.ggp.base.util.match.Match;
+import org.ggp.base.util.match.MatchJournal;
 import org.ggp.base.util.match.MatchPublisher;
 import org.ggp.base.util.observer.Event;
 import org.ggp.base.util.observer.Observer;
 import org.ggp.base.util.observer.Subject;
+import org.ggp.base.util.statemachine.FailsafeStateMachine;
 import org.ggp.base.util.statemachine.MachineState;
 import org.ggp.base.util.statemachine.Move;
 import org.ggp.base.util.statemachine.Role;
 import org.ggp.base.util.statemachine.StateMachine;
 import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.implementation.propnet.forwardDeadReckon.ForwardDeadReckonPropnetStateMachine;
 import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.ggp.base.util.statemachine.verifier.DifferentialStateMachine;
+import org.ggp.base.util.statemachine.verifier.StateMachineVerifier;
 
 public final class GameServer extends Thread implements Subject
 {
+  /**
+   * The state machines that a match can be refereed with.
+   */
+  public enum Referee
+  {
+    /**
+     * The prover - the reference implementation of GDL.
+     */
+    PROVER,
+
+    /**
+     * A propnet.  It is checked against the prover at the start of the match
+     * and the prover is used instead if they disagree (or if the propnet fails
+     * later on).
+     */
+    PROPNET,
+
+    /**
+     * A propnet, as above, with every answer also checked against the prover
+     * (for testing).
+     */
+    VERIFIED_PROPNET
+  }
+
+  /**
+   * Time to spend checking a propnet referee against the prover, in milliseconds.
+   */
+  private static final long    REFEREE_CHECK_TIME = 2000;
+
+  /**
+   * Suffix added to the save file name to give the name of the journal that
+   * the match is saved to whilst in progress.
+   */
+  public static final String   JOURNAL_SUFFIX = ".journal";
+
+  /**
+   * Time to wait, at the end of a match, for it to be saved.
+   */
+  private static final long    SAVE_FLUSH_TIME = 10000;
+
   private final Match          match;
   private final StateMachine   stateMachine;
   private MachineState         currentState;
@@ -57,11 +106,18 @@ public final class GameServer extends Thread implements Subject
   private Map<Role, String>    mostRecentErrors;
 
   private String               saveToFilename;
+  private volatile MatchJournal journal;
+  private volatile Future<?>   lastSave;
   private String               spectatorServerURL;
   private String               spectatorServerKey;
   private boolean              forceUsingEntireClock;
 
   public GameServer(Match match, List<String> hosts, List<Integer> ports)
+  {
+    this(match, hosts, ports, Referee.PROVER);
+  }
+
+  public GameServer(Match match, List<String> hosts, List<Integer> ports, Referee referee)
   {
     this.match = match;
 
@@ -74,8 +130,7 @@ public final class GameServer extends Thread implements Subject
     playerPlaysRandomly = new Boolean[hosts.size()];
     Arrays.fill(playerPlaysRandomly, Boolean.FALSE);
 
-    stateMachine = new ProverStateMachine();
-    stateMachine.initialize(match.getGame().getRules());
+    stateMachine = createRefereeStateMachine(match.getGame().getRules(), referee);
     currentState = stateMachine.getInitialState();
     previousMoves = null;
 
@@ -89,8 +144,48 @@ public final class GameServer extends Thread implements Subject
     forceUsingEntireClock = false;
   }
 
+  /**
+   * @return an initialized state machine with which to referee a game.  This is the prover, unless asked to use a
+   * propnet - in which case, it is a propnet that has been checked against the prover and will fall back to it in the
+   * event of failure.
+   *
+   * @param rules - the game rules.
+   * @param kind - the kind of state machine to referee with.
+   */
+  private static StateMachine createRefereeStateMachine(List<Gdl> rules, Referee kind)
+  {
+    StateMachine prover = new ProverStateMachine();
+    prover.initialize(rules);
+
+    if (kind == Referee.PROVER)
+    {
+      return prover;
+    }
+
+    StateMachine propNet = new ForwardDeadReckonPropnetStateMachine();
+    if (kind == Referee.VERIFIED_PROPNET)
+    {
+      propNet = new DifferentialStateMachine(new ProverStateMachine(), propNet);
+    }
+
+    // The failsafe machine falls back to the prover part way through a match, so the propnet must produce exactly the
+    // same states.  (Propnets may drop base propositions that can't affect the game.)
+    StateMachine referee = new FailsafeStateMachine(propNet);
+    referee.initialize(rules);
+    if (!StateMachineVerifier.checkMachineConsistency(prover, referee, REFEREE_CHECK_TIME, true))
+    {
+      GamerLogger.logError("GameServer", "Propnet doesn't agree with the prover - refereeing with the prover");
+      return prover;
+    }
+
+    GamerLogger.log("GameServer", "Refereeing with " + referee.getName());
+    return referee;
+  }
+
   public void startSavingToFilename(String theFilename)
   {
+    journal = new MatchJournal(new File(theFilename + JOURNAL_SUFFIX),
+                               new File(theFilename));
     saveToFilename = theFilename;
   }
 
@@ -233,6 +328,42 @@ public final class GameServer extends Thread implements Subject
     {
       e.printStackTrace();
     }
+    finally
+    {
+      // Make sure the match has been saved before anyone who joins this
+      // thread carries on (and perhaps exits). An aborted match leaves this
+      // thread interrupted, which would otherwise cut the wait short.
+      if (journal != null)
+      {
+        boolean wasInterrupted = Thread.interrupted();
+        try
+        {
+          // The thread that aborted the match may not have saved it yet.
+          if (match.isAborted())
+          {
+            saveWhenNecessary();
+          }
+
+          Future<?> save = lastSave;
+          if (save != null)
+          {
+            save.get(SAVE_FLUSH_TIME, TimeUnit.MILLISECONDS);
+          }
+        }
+        catch (InterruptedException e)
+        {
+          // Abandon the wait - the writes will still happen.
+        }
+        catch (ExecutionException | TimeoutException e)
+        {
+          GamerLogger.logError("GameServer", "Failed to save match: " + e);
+        }
+        if (wasInterrupted)
+        {
+          interrupt();
+        }
+      }
+    }
   }
 
   public void abort()
@@ -257,27 +388,26 @@ public final class GameServer extends Thread implements Subject
 
   private void saveWhenNecessary()
   {
-    if (saveToFilename == null)
+    if (journal == null)
     {
       return;
     }
 
-    try
+    // Journal the match as it goes, rather than rewriting the whole thing
+    // after every move. The full match is written when it's over.
+    Future<?> save;
+    if (match.isCompleted() || match.isAborted())
     {
-      File file = new File(saveToFilename);
-      if (!file.exists())
-      {
-        file.createNewFile();
-      }
-      FileWriter fw = new FileWriter(file);
-      BufferedWriter bw = new BufferedWriter(fw);
-      bw.write(match.toJSON().toString());
-      bw.close();
-      fw.close();
+      save = journal.finish(match);
     }
-    catch (IOException ie)
+    else
     {
-      ie.printStackTrace();
+      save = journal.record(match);
+    }
+
+    if (save != null)
+    {
+      lastSave = save;
     }
   }
 
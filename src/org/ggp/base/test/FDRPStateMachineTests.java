@@ -1,22 +1,44 @@
 
 package org.ggp.base.test;
 
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
+import java.util.Set;
 
+import org.ggp.base.player.gamer.statemachine.sancho.MachineSpecificConfiguration;
+import org.ggp.base.player.gamer.statemachine.sancho.MachineSpecificConfiguration.CfgItem;
+import org.ggp.base.player.gamer.statemachine.sancho.RuntimeGameCharacteristics;
 import org.ggp.base.util.game.TestGameRepository;
 import org.ggp.base.util.gdl.grammar.Gdl;
 import org.ggp.base.util.gdl.grammar.GdlConstant;
 import org.ggp.base.util.gdl.grammar.GdlPool;
 import org.ggp.base.util.gdl.grammar.GdlTerm;
+import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonInternalMachineState;
+import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonLegalMoveInfo;
+import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonLegalMoveSet;
+import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonStateEncoding;
 import org.ggp.base.util.statemachine.MachineState;
 import org.ggp.base.util.statemachine.Move;
 import org.ggp.base.util.statemachine.Role;
 import org.ggp.base.util.statemachine.StateMachine;
 import org.ggp.base.util.statemachine.implementation.propnet.forwardDeadReckon.ForwardDeadReckonPropnetStateMachine;
+import org.ggp.base.util.statemachine.implementation.propnet.forwardDeadReckon.ForwardDeadReckonPropnetStateMachine.PlayoutInfo;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.ggp.base.util.statemachine.playoutPolicy.IPlayoutPolicy;
+import org.ggp.base.util.statemachine.playoutPolicy.MoveStatisticsTable;
+import org.ggp.base.util.statemachine.playoutPolicy.PlayoutPolicyMoveStatistics;
+import org.ggp.base.util.statemachine.verifier.DifferentialStateMachine;
+import org.ggp.base.util.statemachine.verifier.StateMachineVerifier;
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Ignore;
 import org.junit.Test;
 
@@ -184,6 +206,469 @@ public class FDRPStateMachineTests extends Assert
     assertEquals(Collections.singletonList(100), mStateMachine.getGoals(state));
   }
 
+  @Test
+  public void testBatchEvaluationOnTicTacToe() throws Exception
+  {
+    checkBatchEvaluationMatchesSequential("ticTacToe");
+  }
+
+  @Test
+  public void testBatchEvaluationOnConnectFour() throws Exception
+  {
+    checkBatchEvaluationMatchesSequential("connectFour");
+  }
+
+  @Test
+  public void testPropNetCacheOnConnectFour() throws Exception
+  {
+    List<Gdl> lDescription = new TestGameRepository().getGame("connectFour").getRules();
+    File lGameDirectory = Files.createTempDirectory("propnetcache").toFile();
+    Role lOurRole = new Role(GdlPool.getConstant("red"));
+
+    try
+    {
+      // The first machine builds the propnet and saves it.  The second loads it.
+      ForwardDeadReckonPropnetStateMachine lBuilt = createCachingStateMachine(lGameDirectory, lOurRole);
+      lBuilt.initialize(lDescription);
+      File lCacheFile = new File(lGameDirectory, "propnet.red.bin");
+      assertTrue(lCacheFile.exists());
+
+      // Playing the other role caches a separate propnet, rather than overwriting this one.
+      byte[] lCacheFileContents = Files.readAllBytes(lCacheFile.toPath());
+      createCachingStateMachine(lGameDirectory, new Role(GdlPool.getConstant("black"))).initialize(lDescription);
+      assertTrue(new File(lGameDirectory, "propnet.black.bin").exists());
+      assertArrayEquals(lCacheFileContents, Files.readAllBytes(lCacheFile.toPath()));
+      assertEquals(2, lGameDirectory.listFiles().length);
+
+      ForwardDeadReckonPropnetStateMachine lLoaded = createCachingStateMachine(lGameDirectory, lOurRole);
+      lLoaded.initialize(lDescription);
+      assertEquals(lBuilt.getFullPropNet().getComponents().size(), lLoaded.getFullPropNet().getComponents().size());
+
+      checkStateMachinesAgree(lBuilt, lLoaded);
+    }
+    finally
+    {
+      for (File lFile : lGameDirectory.listFiles())
+      {
+        lFile.delete();
+      }
+      lGameDirectory.delete();
+    }
+  }
+
+  @Test
+  public void testParallelPropNetBuildOnConnectFour() throws Exception
+  {
+    List<Gdl> lDescription = new TestGameRepository().getGame("connectFour").getRules();
+
+    try
+    {
+      MachineSpecificConfiguration.setCfgVal(CfgItem.PROPNET_BUILD_THREADS, 1);
+      ForwardDeadReckonPropnetStateMachine lSerial = new ForwardDeadReckonPropnetStateMachine();
+      lSerial.initialize(lDescription);
+
+      MachineSpecificConfiguration.setCfgVal(CfgItem.PROPNET_BUILD_THREADS, 4);
+      ForwardDeadReckonPropnetStateMachine lParallel = new ForwardDeadReckonPropnetStateMachine();
+      lParallel.initialize(lDescription);
+
+      checkStateMachinesAgree(lSerial, lParallel);
+    }
+    finally
+    {
+      MachineSpecificConfiguration.setCfgVal(CfgItem.PROPNET_BUILD_THREADS, -1);
+    }
+  }
+
+  @Test
+  public void testReleasedInstanceSlotsAreReset() throws Exception
+  {
+    List<Gdl> lDescription = new TestGameRepository().getGame("ticTacToe").getRules();
+    ForwardDeadReckonPropnetStateMachine lExpected = new ForwardDeadReckonPropnetStateMachine();
+    lExpected.initialize(lDescription);
+
+    // Goals come from the dedicated goals network when greedy rollouts are off.
+    long lTimeout = System.currentTimeMillis() + 30000;
+    ForwardDeadReckonPropnetStateMachine lMaster = new ForwardDeadReckonPropnetStateMachine(2, lTimeout, null, null);
+    lMaster.initialize(lDescription);
+    lMaster.enableGreedyRollouts(false, false);
+
+    // Leave the released slot's networks in a terminal state.
+    checkGoalsAndTerminalityAgree(lExpected, lMaster.createInstance(), 5);
+    lMaster.releaseInstances(1);
+
+    checkGoalsAndTerminalityAgree(lExpected, lMaster.createInstance(), 20);
+  }
+
+  /**
+   * Play some random games, checking that a state machine instance gets the same goals and terminality (from its
+   * dedicated networks) as a fresh state machine.
+   */
+  private static void checkGoalsAndTerminalityAgree(ForwardDeadReckonPropnetStateMachine xiExpected,
+                                                    ForwardDeadReckonPropnetStateMachine xiActual,
+                                                    int xiNumGames) throws Exception
+  {
+    Random lRandom = new Random(42);
+    for (int lGame = 0; lGame < xiNumGames; lGame++)
+    {
+      MachineState lState = xiExpected.getInitialState();
+      while (true)
+      {
+        ForwardDeadReckonInternalMachineState lInternalState = xiActual.createInternalState(lState);
+        boolean lTerminal = xiExpected.isTerminal(lState);
+        assertEquals(lTerminal, xiActual.isTerminalDedicated(lInternalState));
+        for (Role lRole : xiExpected.getRoles())
+        {
+          assertEquals(xiExpected.getGoal(lState, lRole), xiActual.getGoal(lInternalState, lRole));
+        }
+
+        if (lTerminal)
+        {
+          break;
+        }
+        List<MachineState> lNextStates = xiExpected.getNextStates(lState);
+        lState = lNextStates.get(lRandom.nextInt(lNextStates.size()));
+      }
+    }
+  }
+
+  @Test
+  public void testDepthChargeIsAllocationFreeOnTicTacToe() throws Exception
+  {
+    checkDepthChargeIsAllocationFree("ticTacToe", false);
+    checkDepthChargeIsAllocationFree("ticTacToe", true);
+  }
+
+  @Test
+  public void testDepthChargeIsAllocationFreeOnConnectFour() throws Exception
+  {
+    checkDepthChargeIsAllocationFree("connectFour", false);
+    checkDepthChargeIsAllocationFree("connectFour", true);
+  }
+
+  /**
+   * Check that, once warmed up, playouts (with and without a recorded trace) allocate nothing at all.  Any allocation
+   * in the playout loop is multiplied by the playout rate of every rollout thread.
+   */
+  private static void checkDepthChargeIsAllocationFree(String xiGame, boolean xiGreedy) throws Exception
+  {
+    final int NUM_WARMUP_PLAYOUTS = 20000;
+    final int NUM_MEASURED_PLAYOUTS = 5000;
+    final int MAX_TRACE_DEPTH = 500;
+
+    ThreadMXBean lThreadBean = ManagementFactory.getThreadMXBean();
+    Assume.assumeTrue(lThreadBean instanceof com.sun.management.ThreadMXBean);
+    com.sun.management.ThreadMXBean lAllocationBean = (com.sun.management.ThreadMXBean)lThreadBean;
+    Assume.assumeTrue(lAllocationBean.isThreadAllocatedMemorySupported() &&
+                      lAllocationBean.isThreadAllocatedMemoryEnabled());
+
+    ForwardDeadReckonPropnetStateMachine lStateMachine = new ForwardDeadReckonPropnetStateMachine();
+    lStateMachine.initialize(new TestGameRepository().getGame(xiGame).getRules());
+    if (!xiGreedy)
+    {
+      lStateMachine.enableGreedyRollouts(false, true);
+    }
+    ForwardDeadReckonInternalMachineState lInitialState =
+                                            lStateMachine.createInternalState(lStateMachine.getInitialState());
+
+    for (boolean lRecordTrace : new boolean[] {false, true})
+    {
+      PlayoutInfo lPlayoutInfo = lStateMachine.new PlayoutInfo(lRecordTrace ? MAX_TRACE_DEPTH : -1);
+      lPlayoutInfo.cutoffDepth = MAX_TRACE_DEPTH;
+      lPlayoutInfo.recordTrace = lRecordTrace;
+      lPlayoutInfo.recordTraceStates = lRecordTrace;
+
+      for (int lii = 0; lii < NUM_WARMUP_PLAYOUTS; lii++)
+      {
+        lStateMachine.getDepthChargeResult(lInitialState, lPlayoutInfo);
+      }
+
+      long lThreadId = Thread.currentThread().getId();
+      long lStartBytes = lAllocationBean.getThreadAllocatedBytes(lThreadId);
+      for (int lii = 0; lii < NUM_MEASURED_PLAYOUTS; lii++)
+      {
+        lStateMachine.getDepthChargeResult(lInitialState, lPlayoutInfo);
+      }
+      long lAllocatedBytes = lAllocationBean.getThreadAllocatedBytes(lThreadId) - lStartBytes;
+
+      assertEquals("Bytes allocated by " + NUM_MEASURED_PLAYOUTS + " playouts of " + xiGame +
+                     " (greedy " + xiGreedy + ", trace " + lRecordTrace + ")",
+                   0,
+                   lAllocatedBytes);
+    }
+  }
+
+  /**
+   * Check that move statistics decay once per game turn, however many policy instances share them and whenever those
+   * instances were created.
+   */
+  @Test
+  public void testMoveStatisticsDecayFollowsGameTurn() throws Exception
+  {
+    ForwardDeadReckonPropnetStateMachine lStateMachine = new ForwardDeadReckonPropnetStateMachine();
+    lStateMachine.initialize(new TestGameRepository().getGame("ticTacToe").getRules());
+
+    MoveStatisticsTable lTable = new MoveStatisticsTable(lStateMachine.getFullPropNet().getMasterMoveList());
+    for (int lii = 0; lii < 4; lii++)
+    {
+      lTable.update(-1, 0, 100);
+    }
+
+    PlayoutPolicyMoveStatistics lPolicy = new PlayoutPolicyMoveStatistics(lStateMachine, lTable);
+    lPolicy.noteNewTurn(1);
+    assertEquals(2, lTable.getMoveCount(0));
+
+    // An instance created later (e.g. for a new rollout thread) still decays the statistics on the next turn.
+    IPlayoutPolicy lLatePolicy = lPolicy.cloneFor(lStateMachine);
+    lLatePolicy.noteNewTurn(2);
+    assertEquals(1, lTable.getMoveCount(0));
+
+    // Only the first instance to see each turn decays the statistics.
+    lPolicy.noteNewTurn(2);
+    assertEquals(1, lTable.getMoveCount(0));
+  }
+
+  /**
+   * Check that move statistics learned in playouts are saved and then loaded intact (in a later match).
+   */
+  @Test
+  public void testMoveStatisticsSaveAndLoadOnTicTacToe() throws Exception
+  {
+    ForwardDeadReckonPropnetStateMachine lStateMachine = new ForwardDeadReckonPropnetStateMachine();
+    lStateMachine.initialize(new TestGameRepository().getGame("ticTacToe").getRules());
+    lStateMachine.enableGreedyRollouts(false, true);
+
+    ForwardDeadReckonLegalMoveInfo[] lMoves = lStateMachine.getFullPropNet().getMasterMoveList();
+    MoveStatisticsTable lTable = new MoveStatisticsTable(lMoves);
+    lStateMachine.setPlayoutPolicy(new PlayoutPolicyMoveStatistics(lStateMachine, lTable));
+
+    ForwardDeadReckonInternalMachineState lInitialState =
+                                            lStateMachine.createInternalState(lStateMachine.getInitialState());
+    PlayoutInfo lPlayoutInfo = lStateMachine.new PlayoutInfo(20);
+    lPlayoutInfo.cutoffDepth = 20;
+    for (int lii = 0; lii < 1000; lii++)
+    {
+      lStateMachine.getDepthChargeResult(lInitialState, lPlayoutInfo);
+    }
+
+    File lGameDirectory = Files.createTempDirectory("movestats").toFile();
+    try
+    {
+      lTable.save(lGameDirectory);
+      MoveStatisticsTable lLoaded = new MoveStatisticsTable(lMoves);
+      lLoaded.load(lGameDirectory);
+
+      long lTotalCount = 0;
+      for (int lii = 0; lii < lMoves.length; lii++)
+      {
+        lTotalCount += lTable.getMoveCount(lii);
+        assertEquals(lTable.getMoveCount(lii), lLoaded.getMoveCount(lii));
+        assertEquals(lTable.getMoveValue(lii, -1), lLoaded.getMoveValue(lii, -1), 0);
+        for (int ljj = 0; ljj < lMoves.length; ljj++)
+        {
+          assertEquals(lTable.getPairValue(lii, ljj, 1, -1), lLoaded.getPairValue(lii, ljj, 1, -1), 0);
+        }
+      }
+      assertTrue(lTotalCount > 0);
+    }
+    finally
+    {
+      for (File lFile : lGameDirectory.listFiles())
+      {
+        lFile.delete();
+      }
+      lGameDirectory.delete();
+    }
+  }
+
+  @Test
+  public void testStateEncodingOnTicTacToe() throws Exception
+  {
+    ForwardDeadReckonPropnetStateMachine lStateMachine = new ForwardDeadReckonPropnetStateMachine();
+    lStateMachine.initialize(new TestGameRepository().getGame("ticTacToe").getRules());
+
+    ForwardDeadReckonStateEncoding lEncoding =
+                                         new ForwardDeadReckonStateEncoding(lStateMachine.createEmptyInternalState());
+
+    // Each cell has 3 possible contents, which need just 2 bits between them.
+    assertTrue(lEncoding.getNumBits() < lStateMachine.getInfoSet().length);
+    ForwardDeadReckonInternalMachineState lDecoded = lStateMachine.createEmptyInternalState();
+    long[] lEncoded = new long[lEncoding.getNumWords()];
+
+    Random lRandom = new Random(42);
+    for (int lGame = 0; lGame < 20; lGame++)
+    {
+      MachineState lState = lStateMachine.getInitialState();
+      while (true)
+      {
+        ForwardDeadReckonInternalMachineState lInternalState = lStateMachine.createInternalState(lState);
+        assertTrue(lEncoding.encode(lInternalState, lEncoded));
+        lEncoding.decode(lEncoded, lDecoded);
+        assertEquals(lInternalState, lDecoded);
+        assertEquals(lInternalState.getHashKey(), lDecoded.getHashKey());
+
+        if (lStateMachine.isTerminal(lState))
+        {
+          break;
+        }
+
+        List<Move> lJointMove = new ArrayList<>();
+        for (Role lRole : lStateMachine.getRoles())
+        {
+          List<Move> lLegals = lStateMachine.getLegalMoves(lState, lRole);
+          lJointMove.add(lLegals.get(lRandom.nextInt(lLegals.size())));
+        }
+        lState = lStateMachine.getNextState(lState, lJointMove);
+      }
+    }
+  }
+
+  @Test
+  public void testDifferentialCheckAgainstProverOnConnectFour() throws Exception
+  {
+    List<Gdl> lDescription = new TestGameRepository().getGame("connectFour").getRules();
+
+    // This is how the game server checks a propnet referee before using it.
+    StateMachine lProver = new ProverStateMachine();
+    lProver.initialize(lDescription);
+    StateMachine lPropNet = new ForwardDeadReckonPropnetStateMachine();
+    lPropNet.initialize(lDescription);
+    assertTrue(StateMachineVerifier.checkMachineConsistency(lProver, lPropNet, 500, true));
+
+    // Every query to the differential machine is checked, so playing through some games is enough.
+    StateMachine lDifferential = new DifferentialStateMachine(new ProverStateMachine(),
+                                                              new ForwardDeadReckonPropnetStateMachine());
+    lDifferential.initialize(lDescription);
+    for (int lGame = 0; lGame < 5; lGame++)
+    {
+      MachineState lState = lDifferential.getInitialState();
+      while (!lDifferential.isTerminal(lState))
+      {
+        for (Role lRole : lDifferential.getRoles())
+        {
+          lDifferential.getLegalMoves(lState, lRole);
+        }
+        lState = lDifferential.getRandomNextState(lState);
+      }
+      lDifferential.getGoals(lState);
+    }
+  }
+
+  /**
+   * Play some random games and check that two state machines (for the same game) agree throughout.
+   */
+  private static void checkStateMachinesAgree(ForwardDeadReckonPropnetStateMachine xiExpected,
+                                              ForwardDeadReckonPropnetStateMachine xiActual) throws Exception
+  {
+    Random lRandom = new Random(42);
+    for (int lGame = 0; lGame < 20; lGame++)
+    {
+      MachineState lState = xiExpected.getInitialState();
+      assertEquals(lState, xiActual.getInitialState());
+
+      while (!xiExpected.isTerminal(lState))
+      {
+        assertFalse(xiActual.isTerminal(lState));
+
+        List<Move> lJointMove = new ArrayList<>();
+        for (Role lRole : xiExpected.getRoles())
+        {
+          List<Move> lLegals = xiExpected.getLegalMoves(lState, lRole);
+          assertEquals(new HashSet<>(lLegals), new HashSet<>(xiActual.getLegalMoves(lState, lRole)));
+          lJointMove.add(lLegals.get(lRandom.nextInt(lLegals.size())));
+        }
+
+        MachineState lNextState = xiExpected.getNextState(lState, lJointMove);
+        assertEquals(lNextState, xiActual.getNextState(lState, lJointMove));
+        lState = lNextState;
+      }
+
+      assertTrue(xiActual.isTerminal(lState));
+      assertEquals(xiExpected.getGoals(lState), xiActual.getGoals(lState));
+    }
+  }
+
+  private static ForwardDeadReckonPropnetStateMachine createCachingStateMachine(File xiGameDirectory, Role xiOurRole)
+  {
+    return new ForwardDeadReckonPropnetStateMachine(1,
+                                                    System.currentTimeMillis() + 30000,
+                                                    xiOurRole,
+                                                    new RuntimeGameCharacteristics(xiGameDirectory));
+  }
+
+  /**
+   * Check that bit-parallel batch evaluation gives the same next states and legal moves as the normal (differential)
+   * evaluation, for a sample of states reached by random play.  Uses more states than fit in a single batch.
+   */
+  private void checkBatchEvaluationMatchesSequential(String xiGame) throws Exception
+  {
+    final int NUM_STATES = 150;
+
+    ForwardDeadReckonPropnetStateMachine lStateMachine = new ForwardDeadReckonPropnetStateMachine();
+    lStateMachine.initialize(new TestGameRepository().getGame(xiGame).getRules());
+    int lNumRoles = lStateMachine.getRoles().length;
+    Random lRandom = new Random(42);
+
+    ForwardDeadReckonInternalMachineState lInitialState =
+                                            lStateMachine.createInternalState(lStateMachine.getInitialState());
+    ForwardDeadReckonInternalMachineState[] lStates = new ForwardDeadReckonInternalMachineState[NUM_STATES];
+    ForwardDeadReckonLegalMoveInfo[][] lMoves = new ForwardDeadReckonLegalMoveInfo[NUM_STATES][lNumRoles];
+    List<Set<Integer>> lExpectedLegals = new ArrayList<>();
+    ForwardDeadReckonInternalMachineState[] lExpectedNextStates = new ForwardDeadReckonInternalMachineState[NUM_STATES];
+
+    // Generate the states by random play, recording the sequential results as we go.
+    ForwardDeadReckonInternalMachineState lState = lInitialState;
+    for (int lii = 0; lii < NUM_STATES; lii++)
+    {
+      lStates[lii] = lState;
+
+      ForwardDeadReckonLegalMoveSet lLegalMoveSet = lStateMachine.getLegalMoveSet(lState);
+      Set<Integer> lLegals = new HashSet<>();
+      for (int lRoleIndex = 0; lRoleIndex < lNumRoles; lRoleIndex++)
+      {
+        List<ForwardDeadReckonLegalMoveInfo> lRoleLegals = new ArrayList<>(lLegalMoveSet.getContents(lRoleIndex));
+        for (ForwardDeadReckonLegalMoveInfo lLegal : lRoleLegals)
+        {
+          lLegals.add(lLegal.mMasterIndex);
+        }
+        lMoves[lii][lRoleIndex] = lRoleLegals.get(lRandom.nextInt(lRoleLegals.size()));
+      }
+      lExpectedLegals.add(lLegals);
+
+      lExpectedNextStates[lii] = lStateMachine.createEmptyInternalState();
+      lStateMachine.getNextState(lState, null, lMoves[lii], lExpectedNextStates[lii]);
+
+      lState = lStateMachine.isTerminal(lExpectedNextStates[lii]) ? lInitialState : lExpectedNextStates[lii];
+    }
+
+    // Check the batch results agree.
+    ForwardDeadReckonInternalMachineState[] lNextStates = new ForwardDeadReckonInternalMachineState[NUM_STATES];
+    ForwardDeadReckonLegalMoveSet[] lLegalMoveSets = new ForwardDeadReckonLegalMoveSet[NUM_STATES];
+    for (int lii = 0; lii < NUM_STATES; lii++)
+    {
+      lNextStates[lii] = lStateMachine.createEmptyInternalState();
+      lLegalMoveSets[lii] = lStateMachine.createLegalMoveSetBuffer();
+    }
+
+    lStateMachine.getNextStates(lStates, null, lMoves, NUM_STATES, lNextStates);
+    lStateMachine.getLegalMoveSets(lStates, NUM_STATES, lLegalMoveSets);
+
+    for (int lii = 0; lii < NUM_STATES; lii++)
+    {
+      assertEquals("Next state " + lii, lExpectedNextStates[lii], lNextStates[lii]);
+      assertEquals("isXState " + lii, lExpectedNextStates[lii].isXState, lNextStates[lii].isXState);
+
+      Set<Integer> lLegals = new HashSet<>();
+      for (int lRoleIndex = 0; lRoleIndex < lNumRoles; lRoleIndex++)
+      {
+        for (ForwardDeadReckonLegalMoveInfo lLegal : lLegalMoveSets[lii].getContents(lRoleIndex))
+        {
+          lLegals.add(lLegal.mMasterIndex);
+        }
+      }
+      assertEquals("Legal moves " + lii, lExpectedLegals.get(lii), lLegals);
+    }
+  }
+
   private Move move(String description)
   {
     String[] parts = description.split(" ");
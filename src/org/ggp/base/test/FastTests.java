@@ -1,14 +1,20 @@
 
 package org.ggp.base.test;
 
+import org.ggp.base.player.gamer.statemachine.sancho.CPUTopologyTest;
+import org.ggp.base.player.gamer.statemachine.sancho.NodeReclaimerTest;
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 
 @RunWith(Suite.class)
-@Suite.SuiteClasses({FDRPStateMachineTests.class,
+@Suite.SuiteClasses({CPUTopologyTest.class,
+                     FDRPStateMachineTests.class,
                      GameParsingTests.class,
+                     GameServerTests.class,
                      GdlCleanerTests.class,
                      KnownGameTest.class,
+                     MatchJournalTests.class,
+                     NodeReclaimerTest.class,
                      NoTabsInRulesheetsTest.class,
                      ProverStateMachineTests.class,
                      SimpleSentenceFormTest.class,
@@ -0,0 +1,110 @@
+package org.ggp.base.test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.ggp.base.server.GameServer;
+import org.ggp.base.server.GameServer.Referee;
+import org.ggp.base.util.files.FileUtils;
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.match.Match;
+import org.ggp.base.util.statemachine.FailsafeStateMachine;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+public class GameServerTests extends Assert
+{
+  @Test
+  public void testPropNetRefereeOnTicTacToe() throws Exception
+  {
+    Game game = new TestGameRepository().getGame("ticTacToe");
+    Match match = new Match("gameServerTest." + System.currentTimeMillis(), -1, 0, 0, 0, game);
+
+    GameServer server = createRandomMatchServer(match, Referee.PROPNET);
+    assertTrue(server.getStateMachine() instanceof FailsafeStateMachine);
+
+    server.start();
+    server.join(60000);
+    assertFalse(server.isAlive());
+    assertTrue(match.isCompleted());
+
+    // Replay the match with the prover, which should agree on every state and
+    // on the result.
+    ProverStateMachine prover = new ProverStateMachine();
+    prover.initialize(game.getRules());
+    MachineState state = prover.getInitialState();
+    List<Set<GdlSentence>> states = match.getStateHistory();
+    assertEquals(state.getContents(), states.get(0));
+    for (int i = 0; i < match.getMoveHistory().size(); i++)
+    {
+      List<Move> moves = new ArrayList<>();
+      for (int j = 0; j < match.getMoveHistory().get(i).size(); j++)
+      {
+        moves.add(new Move(match.getMoveHistory().get(i).get(j)));
+      }
+      state = prover.getNextState(state, moves);
+      assertEquals(state.getContents(), states.get(i + 1));
+    }
+
+    assertTrue(prover.isTerminal(state));
+    assertEquals(prover.getGoals(state), match.getGoalValues());
+    assertEquals(prover.getGoals(state), server.getGoals());
+  }
+
+  @Test
+  public void testMatchIsSavedWhenServerFinishes() throws Exception
+  {
+    Game game = new TestGameRepository().getGame("ticTacToe");
+    Match match = new Match("gameServerTest." + System.currentTimeMillis(), -1, 0, 0, 0, game);
+
+    File matchFile = File.createTempFile("match", ".json");
+    File journalFile = new File(matchFile.getPath() + GameServer.JOURNAL_SUFFIX);
+    matchFile.deleteOnExit();
+    journalFile.deleteOnExit();
+
+    GameServer server = createRandomMatchServer(match, Referee.PROVER);
+    server.startSavingToFilename(matchFile.getPath());
+    server.start();
+    server.join(60000);
+    assertFalse(server.isAlive());
+    assertTrue(match.isCompleted());
+
+    // Once the server thread is done, so is the save.
+    assertFalse(journalFile.exists());
+    assertEquals(match.toJSON(), FileUtils.readFileAsString(matchFile));
+  }
+
+  /**
+   * @return a game server for a match between players that play randomly, on
+   * the server, so that no hosts are contacted.
+   *
+   * @param match - the match.
+   * @param referee - the state machine to referee the match with.
+   */
+  private static GameServer createRandomMatchServer(Match match, Referee referee)
+  {
+    List<String> hosts = new ArrayList<>();
+    List<Integer> ports = new ArrayList<>();
+    for (int i = 0; i < Role.computeRoles(match.getGame().getRules()).length; i++)
+    {
+      hosts.add("localhost");
+      ports.add(9147);
+    }
+
+    GameServer server = new GameServer(match, hosts, ports, referee);
+    for (int i = 0; i < hosts.size(); i++)
+    {
+      server.makePlayerPlayRandomly(i);
+    }
+    return server;
+  }
+}
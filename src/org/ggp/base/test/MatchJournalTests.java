@@ -0,0 +1,78 @@
+package org.ggp.base.test;
+
+import java.io.File;
+import java.util.List;
+
+import org.ggp.base.util.files.FileUtils;
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.match.Match;
+import org.ggp.base.util.match.MatchJournal;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.junit.Assert;
+import org.junit.Test;
+
+import external.JSON.JSONObject;
+
+
+public class MatchJournalTests extends Assert
+{
+  @Test
+  public void testJournalCompactsToMatchDescription() throws Exception
+  {
+    Game game = new TestGameRepository().getGame("ticTacToe");
+    ProverStateMachine sm = new ProverStateMachine();
+    sm.initialize(game.getRules());
+
+    File matchFile = File.createTempFile("match", ".json");
+    File journalFile = new File(matchFile.getPath() + ".journal");
+    matchFile.deleteOnExit();
+    journalFile.deleteOnExit();
+
+    Match match = new Match("journalTest", -1, 10, 10, 0, game);
+    MatchJournal journal = new MatchJournal(journalFile, matchFile);
+
+    MachineState state = sm.getInitialState();
+    match.appendState(state.getContents());
+    journal.record(match);
+    match.appendNoErrors();
+
+    // Play the match out, journalling as the game server does.
+    while (!sm.isTerminal(state))
+    {
+      journal.record(match);
+      List<Move> moves = sm.getRandomJointMove(state);
+      state = sm.getNextState(state, moves);
+      match.appendMoves2(moves);
+      match.appendState(state.getContents());
+      match.appendNoErrors();
+    }
+    match.markCompleted(sm.getGoals(state));
+    journal.record(match);
+
+    assertTrue(MatchJournal.flush(10000));
+    assertSameMatch(match.toJSON(), MatchJournal.compact(journalFile));
+    assertSameMatch(match.toJSON(), journal.read());
+
+    // Finishing the match writes out the full description and removes the journal.
+    journal.finish(match);
+    assertTrue(MatchJournal.flush(10000));
+    assertFalse(journalFile.exists());
+    assertSameMatch(match.toJSON(), FileUtils.readFileAsString(matchFile));
+    assertEquals(match.toJSON(), journal.read());
+  }
+
+  private static void assertSameMatch(String expected, String actual) throws Exception
+  {
+    // Compare field by field - the order of the fields isn't significant.
+    JSONObject expectedJSON = new JSONObject(expected);
+    JSONObject actualJSON = new JSONObject(actual);
+    assertEquals(expectedJSON.length(), actualJSON.length());
+    for (String key : JSONObject.getNames(expectedJSON))
+    {
+      assertEquals(key, expectedJSON.get(key).toString(), actualJSON.get(key).toString());
+    }
+  }
+}
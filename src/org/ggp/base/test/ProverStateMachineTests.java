@@ -4,16 +4,22 @@ package org.ggp.base.test;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.factory.GdlFactory;
 import org.ggp.base.util.gdl.grammar.Gdl;
 import org.ggp.base.util.gdl.grammar.GdlConstant;
 import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
 import org.ggp.base.util.gdl.grammar.GdlTerm;
+import org.ggp.base.util.prover.aima.AimaProver;
 import org.ggp.base.util.statemachine.MachineState;
 import org.ggp.base.util.statemachine.Move;
 import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.cache.CachedStateMachine;
 import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
 import org.junit.Assert;
 import org.junit.Test;
@@ -202,6 +208,82 @@ public class ProverStateMachineTests extends Assert
     assertEquals(Collections.singletonList(100), sm.getGoals(state));
   }
 
+  @Test
+  public void testProverStatesBehaveAsPlainStates() throws Exception
+  {
+    sm.initialize(new TestGameRepository().getGame("ticTacToe").getRules());
+    MachineState state = sm.getInitialState();
+
+    // States are stored compactly, but must still be interchangeable with ordinary states with the same contents.
+    MachineState plain = new MachineState(new HashSet<>(state.getContents()));
+    assertEquals(plain, state);
+    assertEquals(state, plain);
+    assertEquals(plain.hashCode(), state.hashCode());
+    assertEquals(plain.toString().length(), state.toString().length());
+
+    // Equal states are the same instance.
+    List<Move> moves = Arrays.asList(new Move[] {move("mark 1 1"), move("noop")});
+    MachineState next = sm.getNextState(state, moves);
+    assertSame(next, sm.getNextState(plain, moves));
+    assertFalse(next.equals(state));
+
+    // Clones can be modified.
+    MachineState clone = next.clone();
+    assertEquals(next, clone);
+    clone.getContents().clear();
+    assertFalse(next.equals(clone));
+    assertFalse(next.getContents().isEmpty());
+  }
+
+  @Test
+  public void testCachedStateMachineIsBounded() throws Exception
+  {
+    List<Gdl> ticTacToeDesc = new TestGameRepository().getGame("ticTacToe").getRules();
+    sm.initialize(ticTacToeDesc);
+    CachedStateMachine cached = new CachedStateMachine(new ProverStateMachine(), 2);
+    cached.initialize(ticTacToeDesc);
+
+    MachineState state = cached.getInitialState();
+    List<Move> moves = Arrays.asList(new Move[] {move("mark 1 1"), move("noop")});
+    assertEquals(sm.getLegalJointMoves(state).size(), cached.getLegalJointMoves(state).size());
+    assertEquals(sm.getNextState(state, moves), cached.getNextState(state, moves));
+    assertEquals(3, cached.getMissCount());
+    assertEquals(0, cached.getHitCount());
+
+    // Answers come from the cache the second time around.
+    assertEquals(sm.getLegalJointMoves(state).size(), cached.getLegalJointMoves(state).size());
+    assertEquals(sm.getNextState(state, moves), cached.getNextState(state, moves));
+    assertEquals(3, cached.getHitCount());
+
+    // Random play visits many more states than the cache can hold.
+    for (int i = 0; i < 5; i++)
+    {
+      cached.performDepthCharge(cached.getInitialState(), null);
+    }
+    assertTrue(cached.getSize() <= 2);
+    assertTrue(cached.getEvictionCount() > 0);
+  }
+
+  @Test
+  public void testProverSeesChangesToQueryContext() throws Exception
+  {
+    // The prover reuses its answers whilst the context is unchanged, so check that it notices when the caller changes
+    // the contents of the same set.
+    AimaProver prover = new AimaProver(Arrays.asList(GdlFactory.create("(<= terminal (true (cell ?x x)))"),
+                                                     GdlFactory.create("(<= (goal you 100) (true (cell 1 x)))")));
+    GdlSentence terminal = (GdlSentence)GdlFactory.create("terminal");
+    GdlSentence goal = (GdlSentence)GdlFactory.create("(goal you ?g)");
+
+    Set<GdlSentence> context = new HashSet<>();
+    context.add((GdlSentence)GdlFactory.create("(true (cell 1 b))"));
+    assertFalse(prover.prove(terminal, context));
+    assertTrue(prover.askAll(goal, context).isEmpty());
+
+    context.add((GdlSentence)GdlFactory.create("(true (cell 1 x))"));
+    assertTrue(prover.prove(terminal, context));
+    assertEquals(1, prover.askAll(goal, context).size());
+  }
+
   protected Move move(String description)
   {
     String[] parts = description.split(" ");
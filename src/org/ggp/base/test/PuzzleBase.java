@@ -155,7 +155,7 @@ public abstract class PuzzleBase extends Assert
 
     // Prevent Sancho from using learned solutions.  We want to test that we haven't regressed the function for solving
     // puzzles.
-    MachineSpecificConfiguration.utOverrideCfgVal(CfgItem.DISABLE_LEARNING, true);
+    MachineSpecificConfiguration.setCfgVal(CfgItem.DISABLE_LEARNING, true);
   }
 
   /**
@@ -102,7 +102,7 @@ public class TiltyardTest extends Assert
     mRequestFactory = new RequestFactory();
 
     // Prevent Sancho from using learned solutions.
-    MachineSpecificConfiguration.utOverrideCfgVal(CfgItem.DISABLE_LEARNING, true);
+    MachineSpecificConfiguration.setCfgVal(CfgItem.DISABLE_LEARNING, true);
   }
 
   /**
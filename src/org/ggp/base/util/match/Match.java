@@ -185,6 +185,45 @@ public final class Match
   /* Complex accessors */
 
   public String toJSON()
+  {
+    JSONObject theJSON = toUnsignedJSONObject();
+    if (theJSON == null)
+    {
+      return null;
+    }
+
+    if (theCryptographicKeys != null)
+    {
+      try
+      {
+        SignableJSON.signJSON(theJSON,
+                              theCryptographicKeys.thePublicKey,
+                              theCryptographicKeys.thePrivateKey);
+        if (!SignableJSON.isSignedJSON(theJSON))
+        {
+          throw new Exception("Could not recognize signed match: " + theJSON);
+        }
+        if (!SignableJSON.verifySignedJSON(theJSON))
+        {
+          throw new Exception("Could not verify signed match: " + theJSON);
+        }
+      }
+      catch (Exception e)
+      {
+        System.err.println(e);
+        theJSON.remove("matchHostPK");
+        theJSON.remove("matchHostSignature");
+      }
+    }
+
+    return theJSON.toString();
+  }
+
+  /**
+   * @return the match description as a JSON object, without any signature,
+   *         or null if it couldn't be rendered.
+   */
+  JSONObject toUnsignedJSONObject()
   {
     JSONObject theJSON = new JSONObject();
 
@@ -237,31 +276,7 @@ public final class Match
       return null;
     }
 
-    if (theCryptographicKeys != null)
-    {
-      try
-      {
-        SignableJSON.signJSON(theJSON,
-                              theCryptographicKeys.thePublicKey,
-                              theCryptographicKeys.thePrivateKey);
-        if (!SignableJSON.isSignedJSON(theJSON))
-        {
-          throw new Exception("Could not recognize signed match: " + theJSON);
-        }
-        if (!SignableJSON.verifySignedJSON(theJSON))
-        {
-          throw new Exception("Could not verify signed match: " + theJSON);
-        }
-      }
-      catch (Exception e)
-      {
-        System.err.println(e);
-        theJSON.remove("matchHostPK");
-        theJSON.remove("matchHostSignature");
-      }
-    }
-
-    return theJSON.toString();
+    return theJSON;
   }
 
   public String toXML()
@@ -439,8 +454,8 @@ public final class Match
 
   /* JSON rendering methods */
 
-  private static final String renderArrayAsJSON(List<?> theList,
-                                                boolean useQuotes)
+  static final String renderArrayAsJSON(List<?> theList,
+                                        boolean useQuotes)
   {
     String s = "[";
     for (int i = 0; i < theList.size(); i++)
@@ -492,7 +507,7 @@ public final class Match
     return renderedErrors;
   }
 
-  private static final String renderStateAsSymbolList(Set<GdlSentence> theState)
+  static final String renderStateAsSymbolList(Set<GdlSentence> theState)
   {
     // Strip out the TRUE proposition, since those are implied for states.
     String s = "( ";
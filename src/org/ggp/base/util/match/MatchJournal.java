@@ -0,0 +1,402 @@
+package org.ggp.base.util.match;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.ggp.base.util.files.FileUtils;
+
+import external.JSON.JSONArray;
+import external.JSON.JSONException;
+import external.JSON.JSONObject;
+
+/**
+ * An append-only record of a match in progress, for saving matches without
+ * rewriting the whole match description on every move.
+ *
+ * The journal is a file of JSON records, one per line. The first record
+ * holds the match description as it was when the journal was started. Each
+ * later record holds one addition to it: a set of moves, a state (with its
+ * time), a set of errors, the completion of the match (with its goal
+ * values), or the fact that the match was aborted. The full match description can be rebuilt from the journal with
+ * {@link #compact(File)} - e.g. to recover a match from a server that
+ * crashed.
+ *
+ * Records are rendered on the caller's thread, but written by a background
+ * thread, so saving a move costs the caller no more than rendering it. Each
+ * write returns a Future, so a caller can wait for its own match to be saved.
+ * When the match is over, {@link #finish(Match)} writes the full (signed)
+ * match description and removes the journal. The match description as saved
+ * so far is available at any time from {@link #read()}.
+ */
+public final class MatchJournal
+{
+  // A single thread writes the journals of all matches, in order.
+  private static final ExecutorService writer = Executors.newSingleThreadExecutor(new ThreadFactory()
+  {
+    @Override
+    public Thread newThread(Runnable r)
+    {
+      Thread thread = new Thread(r, "MatchJournalWriter");
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+
+  /**
+   * Time to wait, on shutdown, for outstanding writes to finish.
+   */
+  private static final long SHUTDOWN_FLUSH_TIME = 10000;
+
+  static
+  {
+    // The writer is a daemon thread, so that it doesn't keep the JVM alive,
+    // but that means a prompt exit could lose the last few writes (including
+    // the full description of a match that has just finished).
+    Runtime.getRuntime().addShutdownHook(new Thread("MatchJournalFlush")
+    {
+      @Override
+      public void run()
+      {
+        try
+        {
+          flush(SHUTDOWN_FLUSH_TIME);
+        }
+        catch (InterruptedException e)
+        {
+          // Nothing more we can do.
+        }
+      }
+    });
+  }
+
+  private final File journalFile;
+  private final File matchFile;
+
+  // Used only by the writer thread.
+  private BufferedWriter out;
+
+  // How much of the match has been journalled.
+  private boolean started;
+  private int numMoves;
+  private int numStates;
+  private int numErrors;
+  private boolean completionRecorded;
+  private boolean abortRecorded;
+  private boolean finished;
+
+  /**
+   * Create a journal. Nothing is written until the first call to
+   * {@link #record(Match)}.
+   *
+   * @param journalFile - the file to journal the match to.
+   * @param matchFile - the file to write the full match description to,
+   *                    when the match is over.
+   */
+  public MatchJournal(File journalFile, File matchFile)
+  {
+    this.journalFile = journalFile;
+    this.matchFile = matchFile;
+  }
+
+  /**
+   * Journal anything that has been added to a match since the last call.
+   *
+   * @param match - the match.
+   *
+   * @return a Future that completes once the additions have been written, or
+   * null if there was nothing to write.
+   */
+  public synchronized Future<?> record(Match match)
+  {
+    if (finished)
+    {
+      return null;
+    }
+
+    final List<String> records = new ArrayList<>();
+
+    if (!started)
+    {
+      JSONObject header = match.toUnsignedJSONObject();
+      if (header == null)
+      {
+        return null;
+      }
+      records.add(header.toString());
+      started = true;
+      numMoves = match.getMoveHistory().size();
+      numStates = match.getStateHistory().size();
+      numErrors = match.getErrorHistory().size();
+      completionRecorded = match.isCompleted();
+      abortRecorded = match.isAborted();
+    }
+
+    try
+    {
+      for (; numMoves < match.getMoveHistory().size(); numMoves++)
+      {
+        JSONObject record = new JSONObject();
+        record.put("moves", new JSONArray(Match.renderArrayAsJSON(match.getMoveHistory().get(numMoves), true)));
+        records.add(record.toString());
+      }
+      for (; numStates < match.getStateHistory().size(); numStates++)
+      {
+        JSONObject record = new JSONObject();
+        record.put("state", Match.renderStateAsSymbolList(match.getStateHistory().get(numStates)));
+        record.put("stateTime", match.getStateTimeHistory().get(numStates).getTime());
+        records.add(record.toString());
+      }
+      for (; numErrors < match.getErrorHistory().size(); numErrors++)
+      {
+        JSONObject record = new JSONObject();
+        record.put("errors", new JSONArray(Match.renderArrayAsJSON(match.getErrorHistory().get(numErrors), true)));
+        records.add(record.toString());
+      }
+      if (!completionRecorded && match.isCompleted())
+      {
+        JSONObject record = new JSONObject();
+        record.put("isCompleted", true);
+        if (!match.getGoalValues().isEmpty())
+        {
+          record.put("goalValues", match.getGoalValues());
+        }
+        records.add(record.toString());
+        completionRecorded = true;
+      }
+      if (!abortRecorded && match.isAborted())
+      {
+        JSONObject record = new JSONObject();
+        record.put("isAborted", true);
+        records.add(record.toString());
+        abortRecorded = true;
+      }
+    }
+    catch (JSONException e)
+    {
+      e.printStackTrace();
+    }
+
+    if (records.isEmpty())
+    {
+      return null;
+    }
+
+    return writer.submit(new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        try
+        {
+          if (out == null)
+          {
+            out = new BufferedWriter(new FileWriter(journalFile));
+          }
+          for (String record : records)
+          {
+            out.write(record);
+            out.newLine();
+          }
+          out.flush();
+        }
+        catch (IOException e)
+        {
+          e.printStackTrace();
+        }
+      }
+    });
+  }
+
+  /**
+   * Write the full description of a finished match and remove the journal.
+   * This may be called again, if the match changes after it has finished
+   * (e.g. by being aborted).
+   *
+   * @param match - the match.
+   *
+   * @return a Future that completes once the match description has been
+   * written (along with everything journalled before it).
+   */
+  public synchronized Future<?> finish(Match match)
+  {
+    // Journal the end of the match first, so that it can be recovered even
+    // if the full description can't be written.
+    record(match);
+    finished = true;
+
+    final String matchJSON = match.toJSON();
+    return writer.submit(new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        try
+        {
+          BufferedWriter matchOut = new BufferedWriter(new FileWriter(matchFile));
+          matchOut.write(matchJSON);
+          matchOut.close();
+
+          if (out != null)
+          {
+            out.close();
+            out = null;
+          }
+          journalFile.delete();
+        }
+        catch (IOException e)
+        {
+          e.printStackTrace();
+        }
+      }
+    });
+  }
+
+  /**
+   * Get the description of the match as saved so far, after waiting for
+   * everything already recorded to be written. While the match is in
+   * progress, this is rebuilt from the journal (with {@link #compact(File)}),
+   * so it isn't signed. Once the match is over, it's the full description.
+   *
+   * @return the match description, or null if nothing has been saved yet.
+   */
+  public String read() throws IOException, InterruptedException
+  {
+    try
+    {
+      return writer.submit(new Callable<String>()
+      {
+        @Override
+        public String call() throws IOException, JSONException
+        {
+          // This runs on the writer thread, so the files can't change under it.
+          if (journalFile.exists())
+          {
+            return compact(journalFile);
+          }
+          if (matchFile.exists())
+          {
+            return FileUtils.readFileAsString(matchFile);
+          }
+          return null;
+        }
+      }).get();
+    }
+    catch (ExecutionException e)
+    {
+      throw new IOException("Failed to read saved match from " + journalFile, e.getCause());
+    }
+  }
+
+  /**
+   * Wait for everything journalled so far (by all journals) to be written.
+   *
+   * @param timeoutMillis - the maximum time to wait.
+   *
+   * @return whether everything was written in time.
+   */
+  public static boolean flush(long timeoutMillis) throws InterruptedException
+  {
+    try
+    {
+      writer.submit(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          // Nothing to do - this runs after everything already queued.
+        }
+      }).get(timeoutMillis, TimeUnit.MILLISECONDS);
+      return true;
+    }
+    catch (ExecutionException | TimeoutException e)
+    {
+      return false;
+    }
+  }
+
+  /**
+   * Rebuild the description of a match from its journal. The description
+   * isn't signed, even if the match was.
+   *
+   * @param journalFile - the journal.
+   *
+   * @return the match description, in the same form as {@link Match#toJSON()}.
+   */
+  public static String compact(File journalFile) throws IOException, JSONException
+  {
+    BufferedReader in = new BufferedReader(new FileReader(journalFile));
+    try
+    {
+      String line = in.readLine();
+      if (line == null)
+      {
+        throw new IOException("Empty match journal: " + journalFile);
+      }
+
+      JSONObject match = new JSONObject(line);
+      if (!match.has("errors"))
+      {
+        match.put("errors", new JSONArray());
+      }
+
+      while ((line = in.readLine()) != null)
+      {
+        if (line.isEmpty())
+        {
+          continue;
+        }
+
+        JSONObject record = new JSONObject(line);
+        if (record.has("moves"))
+        {
+          match.getJSONArray("moves").put(record.getJSONArray("moves"));
+        }
+        else if (record.has("state"))
+        {
+          match.getJSONArray("states").put(record.getString("state"));
+          match.getJSONArray("stateTimes").put(record.getLong("stateTime"));
+        }
+        else if (record.has("errors"))
+        {
+          match.getJSONArray("errors").put(record.getJSONArray("errors"));
+        }
+        else if (record.has("isCompleted"))
+        {
+          match.put("isCompleted", true);
+          if (record.has("goalValues"))
+          {
+            match.put("goalValues", record.getJSONArray("goalValues"));
+          }
+        }
+        else if (record.has("isAborted"))
+        {
+          match.put("isAborted", true);
+        }
+      }
+
+      if (match.getJSONArray("errors").length() == 0)
+      {
+        match.remove("errors");
+      }
+      return match.toString();
+    }
+    finally
+    {
+      in.close();
+    }
+  }
+}
@@ -0,0 +1,76 @@
+package org.ggp.base.util.metrics;
+
+/**
+ * A monotonically increasing count.  Updates are lock-free and cheap even when made from many threads at once.
+ */
+public class Counter extends Metric
+{
+  private final StripedLong mValue = new StripedLong();
+  private final double      mScale;
+
+  /**
+   * Create a counter.
+   *
+   * @param xiName - the metric name.  By Prometheus convention, this should end in "_total".
+   * @param xiHelp - a description of the metric.
+   */
+  public Counter(String xiName, String xiHelp)
+  {
+    this(xiName, xiHelp, 1);
+  }
+
+  /**
+   * Create a counter whose exposed value is a scaled version of the recorded count - e.g. for recording nanoseconds
+   * but exposing seconds.
+   *
+   * @param xiName  - the metric name.
+   * @param xiHelp  - a description of the metric.
+   * @param xiScale - the factor to multiply the recorded count by when exposing it.
+   */
+  public Counter(String xiName, String xiHelp, double xiScale)
+  {
+    super(xiName, xiHelp);
+    mScale = xiScale;
+  }
+
+  /**
+   * Add one to the count.
+   */
+  public void increment()
+  {
+    mValue.add(1);
+  }
+
+  /**
+   * Add to the count.
+   *
+   * @param xiAmount - the amount to add.  Negative amounts are ignored, so that counters never go backwards.
+   */
+  public void add(long xiAmount)
+  {
+    if (xiAmount > 0)
+    {
+      mValue.add(xiAmount);
+    }
+  }
+
+  /**
+   * @return the (unscaled) count.
+   */
+  public long get()
+  {
+    return mValue.sum();
+  }
+
+  @Override
+  protected String getType()
+  {
+    return "counter";
+  }
+
+  @Override
+  protected void appendSamples(StringBuilder xiBuffer)
+  {
+    appendSample(xiBuffer, getName(), null, get() * mScale);
+  }
+}
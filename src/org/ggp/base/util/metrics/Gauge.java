@@ -0,0 +1,51 @@
+package org.ggp.base.util.metrics;
+
+/**
+ * A value that can go up and down, such as a queue depth.  The value is set (rather than accumulated), so it should be
+ * owned by a single thread.
+ */
+public class Gauge extends Metric
+{
+  private volatile long mValue;
+
+  /**
+   * Create a gauge.
+   *
+   * @param xiName - the metric name.
+   * @param xiHelp - a description of the metric.
+   */
+  public Gauge(String xiName, String xiHelp)
+  {
+    super(xiName, xiHelp);
+  }
+
+  /**
+   * Set the value.
+   *
+   * @param xiValue - the new value.
+   */
+  public void set(long xiValue)
+  {
+    mValue = xiValue;
+  }
+
+  /**
+   * @return the value.
+   */
+  public long get()
+  {
+    return mValue;
+  }
+
+  @Override
+  protected String getType()
+  {
+    return "gauge";
+  }
+
+  @Override
+  protected void appendSamples(StringBuilder xiBuffer)
+  {
+    appendSample(xiBuffer, getName(), null, mValue);
+  }
+}
@@ -0,0 +1,83 @@
+package org.ggp.base.util.metrics;
+
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A distribution of observed values, counted into fixed buckets.  Observations are lock-free.
+ */
+public class Histogram extends Metric
+{
+  private final long[]          mUpperBounds;
+  private final String[]        mBucketLabels;
+  private final double          mScale;
+  private final AtomicLongArray mBucketCounts;
+  private final StripedLong     mSum = new StripedLong();
+
+  /**
+   * Create a histogram.
+   *
+   * @param xiName        - the metric name.
+   * @param xiHelp        - a description of the metric.
+   * @param xiUpperBounds - the (inclusive) upper bound of each bucket, in ascending order, in the units observed.  A
+   *                        final bucket for everything larger is added automatically.
+   * @param xiScale       - the factor to multiply observed values by when exposing them - e.g. 1e-9 to observe
+   *                        nanoseconds but expose seconds.
+   */
+  public Histogram(String xiName, String xiHelp, long[] xiUpperBounds, double xiScale)
+  {
+    super(xiName, xiHelp);
+    mUpperBounds = xiUpperBounds.clone();
+    mScale = xiScale;
+    mBucketCounts = new AtomicLongArray(xiUpperBounds.length + 1);
+
+    //  Format the bounds exactly, so that (e.g.) 300000ns appears as 0.0003s, not 3.0000000000000003E-4s
+    mBucketLabels = new String[xiUpperBounds.length];
+    for (int lii = 0; lii < xiUpperBounds.length; lii++)
+    {
+      BigDecimal lBound = BigDecimal.valueOf(xiUpperBounds[lii]).multiply(BigDecimal.valueOf(xiScale));
+      mBucketLabels[lii] = "le=\"" + lBound.stripTrailingZeros().toPlainString() + "\"";
+    }
+  }
+
+  /**
+   * Record an observation.
+   *
+   * @param xiValue - the observed value.
+   */
+  public void observe(long xiValue)
+  {
+    int lBucket = 0;
+    while (lBucket < mUpperBounds.length && xiValue > mUpperBounds[lBucket])
+    {
+      lBucket++;
+    }
+
+    mBucketCounts.incrementAndGet(lBucket);
+    mSum.add(xiValue);
+  }
+
+  @Override
+  protected String getType()
+  {
+    return "histogram";
+  }
+
+  @Override
+  protected void appendSamples(StringBuilder xiBuffer)
+  {
+    String lName = getName();
+    long lCumulative = 0;
+
+    for (int lii = 0; lii < mUpperBounds.length; lii++)
+    {
+      lCumulative += mBucketCounts.get(lii);
+      appendSample(xiBuffer, lName + "_bucket", mBucketLabels[lii], lCumulative);
+    }
+    lCumulative += mBucketCounts.get(mUpperBounds.length);
+    appendSample(xiBuffer, lName + "_bucket", "le=\"+Inf\"", lCumulative);
+
+    appendSample(xiBuffer, lName + "_sum", null, mSum.sum() * mScale);
+    appendSample(xiBuffer, lName + "_count", null, lCumulative);
+  }
+}
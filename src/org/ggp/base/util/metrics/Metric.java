@@ -0,0 +1,85 @@
+package org.ggp.base.util.metrics;
+
+/**
+ * A metric, exposed in the Prometheus text format.
+ *
+ * Implementations must allow their values to be updated on any thread without locking, and to be read (for rendering)
+ * concurrently with those updates.  Rendering may therefore see a metric part-way through an update, which is fine for
+ * monitoring purposes.
+ */
+public abstract class Metric
+{
+  private final String mName;
+  private final String mHelp;
+
+  /**
+   * Create a metric.
+   *
+   * @param xiName - the metric name.  This must be a valid Prometheus metric name.
+   * @param xiHelp - a description of the metric.
+   */
+  protected Metric(String xiName, String xiHelp)
+  {
+    mName = xiName;
+    mHelp = xiHelp;
+  }
+
+  /**
+   * @return the metric name.
+   */
+  public String getName()
+  {
+    return mName;
+  }
+
+  /**
+   * @return the Prometheus metric type - "counter", "gauge" or "histogram".
+   */
+  protected abstract String getType();
+
+  /**
+   * Append the sample lines for this metric.
+   *
+   * @param xiBuffer - the buffer to append to.
+   */
+  protected abstract void appendSamples(StringBuilder xiBuffer);
+
+  /**
+   * Append this metric, with its HELP and TYPE lines, in the Prometheus text format.
+   *
+   * @param xiBuffer - the buffer to append to.
+   */
+  public void appendTo(StringBuilder xiBuffer)
+  {
+    xiBuffer.append("# HELP ").append(mName).append(' ').append(mHelp).append('\n');
+    xiBuffer.append("# TYPE ").append(mName).append(' ').append(getType()).append('\n');
+    appendSamples(xiBuffer);
+  }
+
+  /**
+   * Append a single sample line.
+   *
+   * @param xiBuffer - the buffer to append to.
+   * @param xiName   - the sample name.
+   * @param xiLabels - the sample labels (e.g. "le=\"0.5\""), or null for none.
+   * @param xiValue  - the sample value.
+   */
+  protected static void appendSample(StringBuilder xiBuffer, String xiName, String xiLabels, double xiValue)
+  {
+    xiBuffer.append(xiName);
+    if (xiLabels != null)
+    {
+      xiBuffer.append('{').append(xiLabels).append('}');
+    }
+    xiBuffer.append(' ');
+    if (xiValue == Math.rint(xiValue) && Math.abs(xiValue) < 1e15)
+    {
+      xiBuffer.append((long)xiValue);
+    }
+    else
+    {
+      xiBuffer.append(xiValue);
+    }
+    xiBuffer.append('\n');
+  }
+}
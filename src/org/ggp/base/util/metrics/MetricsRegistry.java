@@ -0,0 +1,124 @@
+package org.ggp.base.util.metrics;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryUsage;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A set of metrics, rendered together in the Prometheus text format.
+ */
+public class MetricsRegistry
+{
+  /**
+   * The registry served by the MetricsServer.
+   */
+  public static final MetricsRegistry GLOBAL = new MetricsRegistry(true);
+
+  private final List<Metric> mMetrics = new CopyOnWriteArrayList<>();
+
+  /**
+   * Create a registry.
+   *
+   * @param xiIncludeJVMMetrics - whether to include metrics for GC and heap usage.
+   */
+  public MetricsRegistry(boolean xiIncludeJVMMetrics)
+  {
+    if (xiIncludeJVMMetrics)
+    {
+      registerJVMMetrics();
+    }
+  }
+
+  /**
+   * Add a metric to the registry.
+   *
+   * @param xiMetric - the metric.
+   *
+   * @return the metric (for convenience when initialising fields).
+   */
+  public <T extends Metric> T register(T xiMetric)
+  {
+    mMetrics.add(xiMetric);
+    return xiMetric;
+  }
+
+  /**
+   * @return all the metrics in the Prometheus text format.
+   */
+  public String render()
+  {
+    StringBuilder lBuffer = new StringBuilder(4096);
+    for (Metric lMetric : mMetrics)
+    {
+      lMetric.appendTo(lBuffer);
+    }
+    return lBuffer.toString();
+  }
+
+  private void registerJVMMetrics()
+  {
+    final List<GarbageCollectorMXBean> lGCBeans = ManagementFactory.getGarbageCollectorMXBeans();
+    final MemoryMXBean lMemoryBean = ManagementFactory.getMemoryMXBean();
+
+    register(new Metric("jvm_gc_collection_seconds_total", "Time spent in garbage collection.")
+    {
+      @Override
+      protected String getType()
+      {
+        return "counter";
+      }
+
+      @Override
+      protected void appendSamples(StringBuilder xiBuffer)
+      {
+        long lTime = 0;
+        for (GarbageCollectorMXBean lGCBean : lGCBeans)
+        {
+          lTime += Math.max(0, lGCBean.getCollectionTime());
+        }
+        appendSample(xiBuffer, getName(), null, lTime / 1000.0);
+      }
+    });
+
+    register(new Metric("jvm_gc_collections_total", "Number of garbage collections.")
+    {
+      @Override
+      protected String getType()
+      {
+        return "counter";
+      }
+
+      @Override
+      protected void appendSamples(StringBuilder xiBuffer)
+      {
+        long lCount = 0;
+        for (GarbageCollectorMXBean lGCBean : lGCBeans)
+        {
+          lCount += Math.max(0, lGCBean.getCollectionCount());
+        }
+        appendSample(xiBuffer, getName(), null, lCount);
+      }
+    });
+
+    register(new Metric("jvm_memory_heap_bytes", "Heap memory used, committed and available.")
+    {
+      @Override
+      protected String getType()
+      {
+        return "gauge";
+      }
+
+      @Override
+      protected void appendSamples(StringBuilder xiBuffer)
+      {
+        MemoryUsage lUsage = lMemoryBean.getHeapMemoryUsage();
+        appendSample(xiBuffer, getName(), "area=\"used\"", lUsage.getUsed());
+        appendSample(xiBuffer, getName(), "area=\"committed\"", lUsage.getCommitted());
+        appendSample(xiBuffer, getName(), "area=\"max\"", lUsage.getMax());
+      }
+    });
+  }
+}
@@ -0,0 +1,83 @@
+package org.ggp.base.util.metrics;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.ggp.base.util.http.HttpReader;
+import org.ggp.base.util.http.HttpWriter;
+
+/**
+ * Minimal HTTP server exposing the global metrics registry for scraping by Prometheus.  Every GET request is answered
+ * with the current metrics, whatever the path (so both "/" and "/metrics" work).
+ *
+ * The server runs for the life of the process, on its own daemon thread.
+ */
+public final class MetricsServer implements Runnable
+{
+  private static final Logger LOGGER = LogManager.getLogger();
+
+  private static final String CONTENT_TYPE = "text/plain; version=0.0.4";
+  private static final int    READ_TIMEOUT = 5000;
+  private static final int    BACKLOG      = 50;
+
+  private static MetricsServer sServer = null;
+
+  private final ServerSocket mListener;
+
+  private MetricsServer(ServerSocket xiListener)
+  {
+    mListener = xiListener;
+  }
+
+  /**
+   * Start serving metrics, unless already started.
+   *
+   * @param xiAddress - the local address to listen on (e.g. 127.0.0.1 for local scrapers only, or 0.0.0.0 for all
+   *                    interfaces).
+   * @param xiPort    - the port to listen on.
+   */
+  public static synchronized void start(String xiAddress, int xiPort)
+  {
+    if (sServer != null)
+    {
+      return;
+    }
+
+    try
+    {
+      sServer = new MetricsServer(new ServerSocket(xiPort, BACKLOG, InetAddress.getByName(xiAddress)));
+    }
+    catch (IOException lEx)
+    {
+      LOGGER.warn("Failed to start metrics server on " + xiAddress + ":" + xiPort + ": " + lEx);
+      return;
+    }
+
+    Thread lThread = new Thread(sServer, "MetricsServer (" + xiPort + ")");
+    lThread.setDaemon(true);
+    lThread.start();
+    LOGGER.info("Serving metrics on " + xiAddress + ":" + xiPort);
+  }
+
+  @Override
+  public void run()
+  {
+    while (true)
+    {
+      try (Socket lConnection = mListener.accept())
+      {
+        HttpReader.readAsServer(lConnection, READ_TIMEOUT);
+        HttpWriter.writeAsServer(lConnection, MetricsRegistry.GLOBAL.render(), CONTENT_TYPE);
+      }
+      catch (IOException lEx)
+      {
+        //  A scrape that failed part way through - nothing to do but wait for the next one
+        LOGGER.debug("Failed to serve metrics: " + lEx);
+      }
+    }
+  }
+}
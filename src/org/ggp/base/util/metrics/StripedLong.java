@@ -0,0 +1,45 @@
+package org.ggp.base.util.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A long that can be added to from many threads at once without them all contending for the same cache line.  Each
+ * thread adds to one of several stripes (chosen by its thread ID) and reads sum all the stripes.
+ *
+ * This is a stand-in for java.util.concurrent.atomic.LongAdder, which isn't available in Java 7.
+ */
+class StripedLong
+{
+  //  Each stripe is padded out to its own 64-byte cache line.  There are at least twice as many stripes as CPUs (and a
+  //  power of 2, for cheap selection).
+  private static final int PADDING     = 8;
+  private static final int NUM_STRIPES =
+                            Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1)) * 2;
+
+  private final AtomicLongArray mStripes = new AtomicLongArray(NUM_STRIPES * PADDING);
+
+  /**
+   * Add to the value.
+   *
+   * @param xiAmount - the amount to add.
+   */
+  void add(long xiAmount)
+  {
+    int lStripe = (int)(Thread.currentThread().getId() & (NUM_STRIPES - 1));
+    mStripes.addAndGet(lStripe * PADDING, xiAmount);
+  }
+
+  /**
+   * @return the value.  If there are concurrent updates, some of them may not be included.
+   */
+  long sum()
+  {
+    long lSum = 0;
+    for (int lii = 0; lii < NUM_STRIPES; lii++)
+    {
+      lSum += mStripes.get(lii * PADDING);
+    }
+
+    return lSum;
+  }
+}
@@ -15,6 +15,12 @@ import java.util.Queue;
 import java.util.Random;
 import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -119,6 +125,25 @@ public class OptimizingPolymorphicPropNetFactory
   public static PolymorphicPropNet create(List<Gdl> xiDescription,
                                           PolymorphicComponentFactory xiComponentFactory)
       throws InterruptedException
+  {
+    return create(xiDescription, xiComponentFactory, 1);
+  }
+
+  /**
+   * @return a PropNet for the game with the given description.
+   *
+   * @param xiDescription      - the GDL description of the game.
+   * @param xiComponentFactory - a factory for creating individual propnet components.
+   * @param xiNumThreads       - the number of threads to use for instantiating the rules.  With more than 1, sentence
+   *                             forms that don't depend on each other are instantiated concurrently.
+   *
+   * @throws InterruptedException
+   *           if the thread is interrupted during PropNet creation.
+   */
+  public static PolymorphicPropNet create(List<Gdl> xiDescription,
+                                          PolymorphicComponentFactory xiComponentFactory,
+                                          int xiNumThreads)
+      throws InterruptedException
   {
     LOGGER.debug("Building propnet");
 
@@ -177,65 +202,54 @@ public class OptimizingPolymorphicPropNetFactory
     PolymorphicConstant falseComponent = xiComponentFactory.createConstant(-1, false);
     Map<SentenceForm, FunctionInfo> functionInfoMap = new HashMap<>();
     Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues = new HashMap<>();
-    for (SentenceForm form : topologicalOrdering)
+    if (xiNumThreads > 1)
     {
-      ConcurrencyUtils.checkForInterruption();
+      // Other forms may be added to the component maps whilst a form is being instantiated.
+      components = new ConcurrentHashMap<>();
+      negations = new ConcurrentHashMap<>();
 
-      LOGGER.trace("Adding sentence form: " + form);
+      addSentenceFormsInParallel(topologicalOrdering,
+                                 dependencyGraph,
+                                 model,
+                                 constantChecker,
+                                 components,
+                                 negations,
+                                 trueComponent,
+                                 falseComponent,
+                                 usingBase,
+                                 usingInput,
+                                 functionInfoMap,
+                                 completedSentenceFormValues,
+                                 xiComponentFactory,
+                                 xiNumThreads);
 
-      if (constantChecker.isConstantForm(form))
+      components = new HashMap<>(components);
+      negations = new HashMap<>(negations);
+    }
+    else
+    {
+      Object wiringLock = new Object();
+      for (SentenceForm form : topologicalOrdering)
       {
-        // We only add sentence in constant form if they are important.
-        if (form.getName().equals(GdlPool.LEGAL) ||
-            form.getName().equals(GdlPool.GOAL) ||
-            form.getName().equals(GdlPool.INIT) ||
-            form.getName().equals(GdlPool.NEXT) ||
-            form.getName().equals(GdlPool.TERMINAL))
+        ConcurrencyUtils.checkForInterruption();
+
+        instantiateSentenceForm(form,
+                                model,
+                                constantChecker,
+                                components,
+                                negations,
+                                trueComponent,
+                                falseComponent,
+                                usingBase,
+                                usingInput,
+                                functionInfoMap,
+                                completedSentenceFormValues,
+                                xiComponentFactory,
+                                wiringLock);
+        if (!constantChecker.isConstantForm(form))
         {
-          for (GdlSentence trueSentence : constantChecker.getTrueSentences(form))
-          {
-            // Create the proposition and wire it up to the 'true' constant.
-            PolymorphicProposition trueProp = xiComponentFactory.createProposition(-1, trueSentence);
-            trueProp.addInput(trueComponent);
-            trueComponent.addOutput(trueProp);
-            components.put(trueSentence, trueComponent);
-          }
+          addFormToCompletedValues(form, completedSentenceFormValues, components);
         }
-
-        addConstantsToFunctionInfo(form, constantChecker, functionInfoMap);
-        addFormToCompletedValues(form,
-                                 completedSentenceFormValues,
-                                 constantChecker);
-      }
-      else
-      {
-        //TODO: Adjust "recursive forms" appropriately
-        //Add a temporary sentence form thingy? ...
-        Map<GdlSentence, PolymorphicComponent> temporaryComponents = new HashMap<>();
-        Map<GdlSentence, PolymorphicComponent> temporaryNegations = new HashMap<>();
-        addSentenceForm(form,
-                        model,
-                        components,
-                        negations,
-                        trueComponent,
-                        falseComponent,
-                        usingBase,
-                        usingInput,
-                        Collections.singleton(form),
-                        temporaryComponents,
-                        temporaryNegations,
-                        functionInfoMap,
-                        constantChecker,
-                        completedSentenceFormValues,
-                        xiComponentFactory);
-        //TODO: Pass these over groups of multiple sentence forms
-        processTemporaryComponents(temporaryComponents,
-                                   temporaryNegations,
-                                   components,
-                                   negations,
-                                   trueComponent,
-                                   falseComponent);
-        addFormToCompletedValues(form, completedSentenceFormValues, components);
       }
     }
 
@@ -278,6 +292,258 @@ public class OptimizingPolymorphicPropNetFactory
   }
 
 
+  /**
+   * Add the components for a single sentence form to the propnet under construction.  For non-constant forms, the
+   * caller must subsequently add the form to the completed sentence form values (once it is safe to scan the
+   * components map).
+   *
+   * Any changes to the wiring of components that may be shared with other forms are made whilst holding the wiring
+   * lock, so that independent forms may be instantiated concurrently.
+   */
+  private static void instantiateSentenceForm(SentenceForm form,
+                                              SentenceDomainModel model,
+                                              ConstantChecker constantChecker,
+                                              Map<GdlSentence, PolymorphicComponent> components,
+                                              Map<GdlSentence, PolymorphicComponent> negations,
+                                              PolymorphicConstant trueComponent,
+                                              PolymorphicConstant falseComponent,
+                                              boolean usingBase,
+                                              boolean usingInput,
+                                              Map<SentenceForm, FunctionInfo> functionInfoMap,
+                                              Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues,
+                                              PolymorphicComponentFactory componentFactory,
+                                              Object wiringLock)
+      throws InterruptedException
+  {
+    LOGGER.trace("Adding sentence form: " + form);
+
+    if (constantChecker.isConstantForm(form))
+    {
+      // We only add sentence in constant form if they are important.
+      if (form.getName().equals(GdlPool.LEGAL) ||
+          form.getName().equals(GdlPool.GOAL) ||
+          form.getName().equals(GdlPool.INIT) ||
+          form.getName().equals(GdlPool.NEXT) ||
+          form.getName().equals(GdlPool.TERMINAL))
+      {
+        for (GdlSentence trueSentence : constantChecker.getTrueSentences(form))
+        {
+          // Create the proposition and wire it up to the 'true' constant.
+          PolymorphicProposition trueProp = componentFactory.createProposition(-1, trueSentence);
+          synchronized (wiringLock)
+          {
+            trueProp.addInput(trueComponent);
+            trueComponent.addOutput(trueProp);
+          }
+          components.put(trueSentence, trueComponent);
+        }
+      }
+
+      addConstantsToFunctionInfo(form, constantChecker, functionInfoMap);
+      addFormToCompletedValues(form,
+                               completedSentenceFormValues,
+                               constantChecker);
+    }
+    else
+    {
+      //TODO: Adjust "recursive forms" appropriately
+      //Add a temporary sentence form thingy? ...
+      Map<GdlSentence, PolymorphicComponent> temporaryComponents = new HashMap<>();
+      Map<GdlSentence, PolymorphicComponent> temporaryNegations = new HashMap<>();
+      addSentenceForm(form,
+                      model,
+                      components,
+                      negations,
+                      trueComponent,
+                      falseComponent,
+                      usingBase,
+                      usingInput,
+                      Collections.singleton(form),
+                      temporaryComponents,
+                      temporaryNegations,
+                      functionInfoMap,
+                      constantChecker,
+                      completedSentenceFormValues,
+                      componentFactory,
+                      wiringLock);
+      //TODO: Pass these over groups of multiple sentence forms
+      processTemporaryComponents(temporaryComponents,
+                                 temporaryNegations,
+                                 components,
+                                 negations,
+                                 trueComponent,
+                                 falseComponent);
+    }
+  }
+
+  /**
+   * Add the components for all sentence forms to the propnet under construction, instantiating independent forms
+   * concurrently.
+   *
+   * The forms are grouped into levels, where each form's level is one more than the highest level of any form that it
+   * depends on (including the implicit dependencies of true/next/init on base and of does/legal on input).  Forms in
+   * the same level never look up each other's components, so the only interaction between them is the wiring of shared
+   * components into their outputs (which is done under a lock).
+   *
+   * Constant forms are cheap, and recursive forms run optimization over the whole of the components map (in
+   * processTemporaryComponents), so those are instantiated serially before the rest of their level.  The components map
+   * is only scanned for completed sentence form values once the whole level is done.
+   */
+  private static void addSentenceFormsInParallel(List<SentenceForm> topologicalOrdering,
+                                                 Multimap<SentenceForm, SentenceForm> dependencyGraph,
+                                                 SentenceDomainModel model,
+                                                 ConstantChecker constantChecker,
+                                                 Map<GdlSentence, PolymorphicComponent> components,
+                                                 Map<GdlSentence, PolymorphicComponent> negations,
+                                                 PolymorphicConstant trueComponent,
+                                                 PolymorphicConstant falseComponent,
+                                                 boolean usingBase,
+                                                 boolean usingInput,
+                                                 Map<SentenceForm, FunctionInfo> functionInfoMap,
+                                                 Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues,
+                                                 PolymorphicComponentFactory componentFactory,
+                                                 int numThreads)
+      throws InterruptedException
+  {
+    // Group the forms into levels.
+    Map<SentenceForm, Integer> formLevels = new HashMap<>();
+    List<List<SentenceForm>> levels = new ArrayList<>();
+    for (SentenceForm form : topologicalOrdering)
+    {
+      Set<SentenceForm> prerequisites = new HashSet<>(dependencyGraph.get(form));
+      if (usingBase &&
+          (form.getName().equals(GdlPool.TRUE) || form.getName().equals(GdlPool.NEXT) ||
+           form.getName().equals(GdlPool.INIT)))
+      {
+        prerequisites.add(form.withName(GdlPool.BASE));
+      }
+      if (usingInput && (form.getName().equals(GdlPool.DOES) || form.getName().equals(GdlPool.LEGAL)))
+      {
+        prerequisites.add(form.withName(GdlPool.INPUT));
+      }
+
+      int level = 0;
+      for (SentenceForm prerequisite : prerequisites)
+      {
+        Integer prerequisiteLevel = formLevels.get(prerequisite);
+        if (prerequisiteLevel != null)
+        {
+          level = Math.max(level, prerequisiteLevel + 1);
+        }
+      }
+
+      formLevels.put(form, level);
+      while (levels.size() <= level)
+      {
+        levels.add(new ArrayList<SentenceForm>());
+      }
+      levels.get(level).add(form);
+    }
+
+    LOGGER.debug("Instantiating " + topologicalOrdering.size() + " sentence forms in " + levels.size() +
+                 " levels using " + numThreads + " threads");
+
+    Object wiringLock = new Object();
+    ExecutorService executor = new ForkJoinPool(numThreads);
+    try
+    {
+      for (List<SentenceForm> level : levels)
+      {
+        // Instantiate the constant and recursive forms first, serially.
+        List<SentenceForm> parallelForms = new ArrayList<>();
+        for (SentenceForm form : level)
+        {
+          if (constantChecker.isConstantForm(form) || dependencyGraph.get(form).contains(form))
+          {
+            ConcurrencyUtils.checkForInterruption();
+            instantiateSentenceForm(form,
+                                    model,
+                                    constantChecker,
+                                    components,
+                                    negations,
+                                    trueComponent,
+                                    falseComponent,
+                                    usingBase,
+                                    usingInput,
+                                    functionInfoMap,
+                                    completedSentenceFormValues,
+                                    componentFactory,
+                                    wiringLock);
+          }
+          else
+          {
+            parallelForms.add(form);
+          }
+        }
+
+        // Then the rest, concurrently.
+        List<Future<Void>> futures = new ArrayList<>(parallelForms.size());
+        for (SentenceForm form : parallelForms)
+        {
+          futures.add(executor.submit(new Callable<Void>()
+          {
+            @Override
+            public Void call() throws InterruptedException
+            {
+              instantiateSentenceForm(form,
+                                      model,
+                                      constantChecker,
+                                      components,
+                                      negations,
+                                      trueComponent,
+                                      falseComponent,
+                                      usingBase,
+                                      usingInput,
+                                      functionInfoMap,
+                                      completedSentenceFormValues,
+                                      componentFactory,
+                                      wiringLock);
+              return null;
+            }
+          }));
+        }
+
+        for (Future<Void> future : futures)
+        {
+          try
+          {
+            future.get();
+          }
+          catch (ExecutionException lEx)
+          {
+            Throwable cause = lEx.getCause();
+            if (cause instanceof InterruptedException)
+            {
+              throw (InterruptedException)cause;
+            }
+            if (cause instanceof RuntimeException)
+            {
+              throw (RuntimeException)cause;
+            }
+            if (cause instanceof Error)
+            {
+              throw (Error)cause;
+            }
+            throw new RuntimeException(cause);
+          }
+        }
+
+        for (SentenceForm form : level)
+        {
+          if (!constantChecker.isConstantForm(form))
+          {
+            addFormToCompletedValues(form, completedSentenceFormValues, components);
+          }
+        }
+      }
+    }
+    finally
+    {
+      // Stops (via interruption) any forms still being instantiated if we're bailing out early.
+      executor.shutdownNow();
+    }
+  }
+
   private static void removeUselessBasePropositions(Map<GdlSentence, PolymorphicComponent> components,
                                                     Map<GdlSentence, PolymorphicComponent> negations,
                                                     PolymorphicConstant trueComponent,
@@ -1065,7 +1331,8 @@ public class OptimizingPolymorphicPropNetFactory
                                       Map<SentenceForm, FunctionInfo> functionInfoMap,
                                       ConstantChecker constantChecker,
                                       Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues,
-                                      PolymorphicComponentFactory componentFactory)
+                                      PolymorphicComponentFactory componentFactory,
+                                      Object wiringLock)
       throws InterruptedException
   {
     //This is the meat of it (along with the entire Assignments class).
@@ -1087,8 +1354,11 @@ public class OptimizingPolymorphicPropNetFactory
       {
         PolymorphicProposition prop = componentFactory.createProposition(-1, alwaysTrueSentence);
         //Attach to true
-        trueComponent.addOutput(prop);
-        prop.addInput(trueComponent);
+        synchronized (wiringLock)
+        {
+          trueComponent.addOutput(prop);
+          prop.addInput(trueComponent);
+        }
         //Still want the same components;
         //we just don't want this to be anonymized
       }
@@ -1269,8 +1539,11 @@ public class OptimizingPolymorphicPropNetFactory
               //So we add the "not" gate and set it in temporaryNegations
               PolymorphicNot not = componentFactory.createNot(-1);
               //Add positive as input
-              not.addInput(positive);
-              positive.addOutput(not);
+              synchronized (wiringLock)
+              {
+                not.addInput(positive);
+                positive.addOutput(not);
+              }
               temporaryNegations.put(transformed, not);
               conj = not;
             }
@@ -1292,21 +1565,24 @@ public class OptimizingPolymorphicPropNetFactory
                 continue; //to the next conjunct
               }
 
-              //Check if we're sharing a component with another sentence with a negation
-              //(i.e. look for "nots" in our outputs and use those instead)
-              PolymorphicNot existingNotOutput = getNotOutput(positive);
-              if (existingNotOutput != null)
+              synchronized (wiringLock)
               {
-                componentsToConnect.add(existingNotOutput);
-                negations.put(transformed, existingNotOutput);
-                continue; //to the next conjunct
-              }
+                //Check if we're sharing a component with another sentence with a negation
+                //(i.e. look for "nots" in our outputs and use those instead)
+                PolymorphicNot existingNotOutput = getNotOutput(positive);
+                if (existingNotOutput != null)
+                {
+                  componentsToConnect.add(existingNotOutput);
+                  negations.put(transformed, existingNotOutput);
+                  continue; //to the next conjunct
+                }
 
-              PolymorphicNot not = componentFactory.createNot(-1);
-              not.addInput(positive);
-              positive.addOutput(not);
-              negations.put(transformed, not);
-              conj = not;
+                PolymorphicNot not = componentFactory.createNot(-1);
+                not.addInput(positive);
+                positive.addOutput(not);
+                negations.put(transformed, not);
+                conj = not;
+              }
             }
             componentsToConnect.add(conj);
           }
@@ -1325,10 +1601,13 @@ public class OptimizingPolymorphicPropNetFactory
           PolymorphicProposition andComponent = componentFactory
               .createProposition(-1, TEMP);
 
-          andify(componentsToConnect,
-                 andComponent,
-                 trueComponent,
-                 componentFactory);
+          synchronized (wiringLock)
+          {
+            andify(componentsToConnect,
+                   andComponent,
+                   trueComponent,
+                   componentFactory);
+          }
           if (!isThisConstant(andComponent, falseComponent))
           {
             if (!inputsToOr.containsKey(sentence))
@@ -1354,24 +1633,27 @@ public class OptimizingPolymorphicPropNetFactory
       GdlSentence sentence = entry.getKey();
       Set<PolymorphicComponent> inputs = entry.getValue();
       Set<PolymorphicComponent> realInputs = new HashSet<>();
-      for (PolymorphicComponent input : inputs)
+      PolymorphicProposition prop = componentFactory
+          .createProposition(-1, sentence);
+      synchronized (wiringLock)
       {
-        if (input instanceof PolymorphicConstant ||
-            input.getInputs().size() == 0)
-        {
-          realInputs.add(input);
-        }
-        else
+        for (PolymorphicComponent input : inputs)
         {
-          realInputs.add(input.getSingleInput());
-          input.getSingleInput().removeOutput(input);
-          input.removeAllInputs();
+          if (input instanceof PolymorphicConstant ||
+              input.getInputs().size() == 0)
+          {
+            realInputs.add(input);
+          }
+          else
+          {
+            realInputs.add(input.getSingleInput());
+            input.getSingleInput().removeOutput(input);
+            input.removeAllInputs();
+          }
         }
-      }
 
-      PolymorphicProposition prop = componentFactory
-          .createProposition(-1, sentence);
-      orify(realInputs, prop, falseComponent, componentFactory);
+        orify(realInputs, prop, falseComponent, componentFactory);
+      }
       components.put(sentence, prop);
     }
 
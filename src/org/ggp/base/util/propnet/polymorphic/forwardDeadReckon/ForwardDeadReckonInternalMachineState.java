@@ -101,9 +101,10 @@ public class ForwardDeadReckonInternalMachineState implements ForwardDeadReckonC
    */
   public final OpenBitSet                                 contents;
 
-  //  We cache the hash code to speed up equals, invalidating the cache on mutation operations
-  private boolean                                  hashCached = false;
-  private int                                      cachedHashCode;
+  //  Zobrist hash key (the XOR of the keys of all the set propositions).  Single proposition changes update it
+  //  incrementally.  Bulk operations just invalidate it, and it is recalculated when next needed.
+  private boolean                                  hashCached = true;
+  private long                                     hashKey = 0;
 
   /**
    * Whether the state is one handled by the X-split of the state machine (else the O split)
@@ -134,12 +135,6 @@ public class ForwardDeadReckonInternalMachineState implements ForwardDeadReckonC
   {
     this(copyFrom.infoSet, copyFrom.firstBasePropIndex);
     copy(copyFrom);
-
-    if ( copyFrom.hashCached )
-    {
-      cachedHashCode = copyFrom.cachedHashCode;
-      hashCached = true;
-    }
   }
 
   /**
@@ -167,18 +162,18 @@ public class ForwardDeadReckonInternalMachineState implements ForwardDeadReckonC
    */
   public void add(ForwardDeadReckonPropositionInfo info)
   {
-    contents.fastSet(info.index);
-
-    hashCached = false;
+    add(info.index);
   }
 
   @Override
   public void add(int index)
   {
     assert(index < infoSet.length);
-    contents.fastSet(index);
-
-    //hashCached = false;
+    if ( !contents.fastGet(index) )
+    {
+      contents.fastSet(index);
+      hashKey ^= infoSet[index].zobristKey;
+    }
   }
 
   /**
@@ -307,8 +302,15 @@ public class ForwardDeadReckonInternalMachineState implements ForwardDeadReckonC
       heuristicData.putAll(other.heuristicData);
     }
 
-    hashCached = false;
-    cachedHashCode = other.cachedHashCode;
+    // Bits below the first base prop weren't copied, so adjust the other state's key for the difference in those.
+    if ( other.hashCached && hashCached )
+    {
+      hashKey = other.hashKey ^ nonBasePropHashKey(other) ^ nonBasePropHashKey(this);
+    }
+    else
+    {
+      hashCached = false;
+    }
   }
 
   /**
@@ -356,7 +358,8 @@ public class ForwardDeadReckonInternalMachineState implements ForwardDeadReckonC
 
     isXState = false;
 
-    hashCached = false;
+    hashKey = 0;
+    hashCached = true;
   }
 
   /**
@@ -365,15 +368,17 @@ public class ForwardDeadReckonInternalMachineState implements ForwardDeadReckonC
    */
   public void remove(ForwardDeadReckonPropositionInfo info)
   {
-    contents.fastClear(info.index);
-
-    hashCached = false;
+    remove(info.index);
   }
 
   @Override
   public void remove(int index)
   {
-    contents.fastClear(index);
+    if ( contents.fastGet(index) )
+    {
+      contents.fastClear(index);
+      hashKey ^= infoSet[index].zobristKey;
+    }
   }
 
   /**
@@ -421,14 +426,48 @@ public class ForwardDeadReckonInternalMachineState implements ForwardDeadReckonC
   /* Utility methods */
   @Override
   public int hashCode()
+  {
+    long lKey = getHashKey();
+    return (int)(lKey ^ (lKey >>> 32));
+  }
+
+  /**
+   * @return a 64-bit hash of the state, suitable for keying transposition tables.  Equal states have equal keys.
+   */
+  public long getHashKey()
   {
     if ( !hashCached )
     {
-      cachedHashCode = contents.hashCode();
+      hashKey = calculateHashKey();
       hashCached = true;
     }
 
-    return cachedHashCode;
+    assert(hashKey == calculateHashKey()) : "Incrementally maintained hash key is out of step with the state";
+    return hashKey;
+  }
+
+  private long calculateHashKey()
+  {
+    long lKey = 0;
+
+    for (int lii = contents.nextSetBit(0); lii >= 0; lii = contents.nextSetBit(lii + 1))
+    {
+      lKey ^= infoSet[lii].zobristKey;
+    }
+
+    return lKey;
+  }
+
+  private static long nonBasePropHashKey(ForwardDeadReckonInternalMachineState xiState)
+  {
+    long lKey = 0;
+
+    for (int lii = xiState.contents.nextSetBit(0); lii >= 0 && lii < xiState.firstBasePropIndex; lii = xiState.contents.nextSetBit(lii + 1))
+    {
+      lKey ^= xiState.infoSet[lii].zobristKey;
+    }
+
+    return lKey;
   }
 
   @Override
@@ -448,8 +487,8 @@ public class ForwardDeadReckonInternalMachineState implements ForwardDeadReckonC
   }
 
   /**
-   * Explicitly mark as dirty (used during state propagation so as to avoid the
-   * overhead of having to set the dirty flag on each instance of a trigger)
+   * Explicitly mark the hash key as dirty, forcing it to be recalculated in full when next needed.  Not required
+   * after changes made through this class (including transition notifications), which keep it up to date.
    */
   public void markDirty()
   {
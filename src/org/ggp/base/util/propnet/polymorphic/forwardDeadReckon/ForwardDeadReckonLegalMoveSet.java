@@ -794,14 +794,59 @@ public class ForwardDeadReckonLegalMoveSet implements ForwardDeadReckonComponent
   public ForwardDeadReckonLegalMoveInfo getRandomMove(int roleIndex)
   {
     assert(numActive[roleIndex] > 0);
-    int count = rand.nextInt(numActive[roleIndex]);
+    return getMoveAtPosition(roleIndex, rand.nextInt(numActive[roleIndex]));
+  }
+
+  /**
+   * Retrieve the move at a given position in the enumeration order of the legal moves for
+   * a role.  Unlike iterating over getContents() this is safe to use re-entrantly
+   * @param roleIndex - role for which we want the move
+   * @param position - position of the move (must be less than getNumChoices(roleIndex))
+   * @return move at that position
+   */
+  public ForwardDeadReckonLegalMoveInfo getMoveAtPosition(int roleIndex, int position)
+  {
+    assert(position < numActive[roleIndex]);
     int index = firstActive[roleIndex];
 
-    while(count-- > 0)
+    while(position-- > 0)
     {
       index = linkage[roleIndex][index] & LINKAGE_MASK_NEXT;
     }
 
     return masterListAsArray[index];
   }
+
+  /**
+   * Index-based enumeration of the legal moves for a role, which (unlike iterating over
+   * getContents()) neither allocates nor shares iterator state.  Usage:
+   *   for (int index = set.getFirstIndex(role); index != -1; index = set.getNextIndex(role, index))
+   * @param roleIndex - role for which we want the legal moves
+   * @return master index of the first legal move, or -1 if there are none
+   */
+  public int getFirstIndex(int roleIndex)
+  {
+    int index = firstActive[roleIndex] & LINKAGE_MASK_NEXT;
+    return (index == 0xFFFF ? -1 : index);
+  }
+
+  /**
+   * @param roleIndex - role for which we want the legal moves
+   * @param index - master index of a legal move, as returned by getFirstIndex() or getNextIndex()
+   * @return master index of the next legal move, or -1 if there are no more
+   */
+  public int getNextIndex(int roleIndex, int index)
+  {
+    int nextIndex = linkage[roleIndex][index] & LINKAGE_MASK_NEXT;
+    return (nextIndex == 0xFFFF ? -1 : nextIndex);
+  }
+
+  /**
+   * @param index - master index of a move, as returned by getFirstIndex() or getNextIndex()
+   * @return the move with that index
+   */
+  public ForwardDeadReckonLegalMoveInfo getMove(int index)
+  {
+    return masterListAsArray[index];
+  }
 }
@@ -286,17 +286,27 @@ public ForwardDeadReckonPropNet(Role[] roles,
   {
     for (int instanceId = 0; instanceId < numInstances; instanceId++)
     {
-      activeBasePropositions[instanceId].clear();
-      activeBasePropositions[instanceId].merge(alwaysTrueBasePropositions);
+      reset(instanceId, fullEquilibrium);
+    }
+  }
 
-      if (activeLegalMoves != null)
-      {
-        activeLegalMoves[instanceId].clear();
-        activeLegalMoves[instanceId].merge(alwaysTrueLegalMoves);
-      }
+  /**
+   * Reset the state of a single instance of the propNet, as for {@link #reset(boolean)}.
+   * @param instanceId the instance to reset
+   * @param fullEquilibrium whether to propagate a fully consistent network state
+   */
+  public void reset(int instanceId, boolean fullEquilibrium)
+  {
+    activeBasePropositions[instanceId].clear();
+    activeBasePropositions[instanceId].merge(alwaysTrueBasePropositions);
 
-      animator.reset(instanceId, fullEquilibrium);
+    if (activeLegalMoves != null)
+    {
+      activeLegalMoves[instanceId].clear();
+      activeLegalMoves[instanceId].merge(alwaysTrueLegalMoves);
     }
+
+    animator.reset(instanceId, fullEquilibrium);
   }
 
   @SuppressWarnings("unused")
@@ -0,0 +1,500 @@
+package org.ggp.base.util.propnet.polymorphic.forwardDeadReckon;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ggp.base.util.propnet.polymorphic.PolymorphicAnd;
+import org.ggp.base.util.propnet.polymorphic.PolymorphicComponent;
+import org.ggp.base.util.propnet.polymorphic.PolymorphicConstant;
+import org.ggp.base.util.propnet.polymorphic.PolymorphicNot;
+import org.ggp.base.util.propnet.polymorphic.PolymorphicOr;
+import org.ggp.base.util.propnet.polymorphic.PolymorphicProposition;
+import org.ggp.base.util.propnet.polymorphic.PolymorphicTransition;
+
+/**
+ * Bit-parallel evaluator for a propnet, which advances up to {@link #BATCH_SIZE} independent states at once.
+ *
+ * Unlike the fast animator (which propagates differential changes to a single state through the network), this
+ * evaluates every component afresh, in topological order.  The value of each component is held as a long, with bit
+ * i holding its value for the i'th state of the batch, so each gate costs a handful of word operations for the whole
+ * batch.  That makes it the better choice for advancing many unrelated states (e.g. all the children of a node), where
+ * successive states share little and differential propagation has to undo most of its previous work.
+ *
+ * The network is compiled into flat arrays on construction - after that, evaluation is garbage-free.  Instances are
+ * NOT thread-safe.
+ */
+public class ForwardDeadReckonPropnetBatchEvaluator
+{
+  /**
+   * The maximum number of states that can be evaluated in a single batch.
+   */
+  public static final int BATCH_SIZE = 64;
+
+  // Gate types.
+  private static final int GATE_COPY = 0;
+  private static final int GATE_NOT  = 1;
+  private static final int GATE_AND  = 2;
+  private static final int GATE_OR   = 3;
+
+  // Fixed slots for constant values (and for input-less propositions, such as INIT, which are always false).
+  private static final int FALSE_SLOT = 0;
+  private static final int TRUE_SLOT  = 1;
+
+  private final int                              mFirstBasePropIndex;
+
+  // Value slot for each base proposition, indexed by its index in the master info set (-1 if not in the network).
+  private final int[]                            mBasePropSlots;
+
+  // Value slot for each move's DOES proposition, indexed by the move's master index (-1 if not in the network).
+  private final int[]                            mInputSlots;
+
+  // The gates, in topological order.  Gate g writes its result to slot (mFirstGateSlot + g) and reads the slots listed
+  // in mGateInputs between mGateInputStart[g] (inclusive) and mGateInputStart[g + 1] (exclusive).
+  private final int                              mFirstGateSlot;
+  private final byte[]                           mGateType;
+  private final int[]                            mGateInputStart;
+  private final int[]                            mGateInputs;
+
+  // For each base proposition, the slot holding its value in the next state.
+  private final int[]                            mNextStateInfoIndex;
+  private final int[]                            mNextStateSlot;
+
+  // For each legal proposition that isn't constant, the move and the slot holding its value.
+  private final ForwardDeadReckonLegalMoveInfo[] mLegalMoves;
+  private final int[]                            mLegalSlot;
+
+  private final int                              mTerminalSlot;
+
+  // The legal move set template (holding the moves that are always legal), for use when creating legal move buffers.
+  private final ForwardDeadReckonLegalMoveSet    mLegalMoveSetTemplate;
+
+  private final long[]                           mValues;
+  private int                                    mBatchCount;
+
+  /**
+   * Compile a propnet for bit-parallel evaluation.
+   *
+   * @param xiPropNet           - the propnet, which must have been crystalized.  It is not modified.
+   * @param xiNumInfos          - the number of entries in the master proposition info set.
+   * @param xiFirstBasePropIndex - index of the first base proposition in the master proposition info set.
+   *
+   * @throws IllegalStateException if the network has a cycle that doesn't pass through a transition.
+   */
+  public ForwardDeadReckonPropnetBatchEvaluator(ForwardDeadReckonPropNet xiPropNet,
+                                                int xiNumInfos,
+                                                int xiFirstBasePropIndex)
+  {
+    mFirstBasePropIndex = xiFirstBasePropIndex;
+    mLegalMoveSetTemplate = xiPropNet.getActiveLegalProps(0);
+
+    ForwardDeadReckonLegalMoveInfo[] lMasterMoveList = xiPropNet.getMasterMoveList();
+    Map<PolymorphicComponent, Integer> lSlots = new HashMap<>();
+    int lNextSlot = TRUE_SLOT + 1;
+
+    // Allocate slots for the sources - the base and input propositions.
+    mBasePropSlots = new int[xiNumInfos];
+    Arrays.fill(mBasePropSlots, -1);
+    for (PolymorphicProposition lBaseProp : xiPropNet.getBasePropositions().values())
+    {
+      int lIndex = ((ForwardDeadReckonProposition)lBaseProp).getInfo().index;
+      mBasePropSlots[lIndex] = lNextSlot;
+      lSlots.put(lBaseProp, lNextSlot++);
+    }
+
+    mInputSlots = new int[lMasterMoveList.length];
+    Arrays.fill(mInputSlots, -1);
+    for (PolymorphicProposition[] lLegalProps : xiPropNet.getLegalPropositions().values())
+    {
+      for (PolymorphicProposition lLegalProp : lLegalProps)
+      {
+        PolymorphicComponent lInputProp = xiPropNet.getLegalInputMap().get(lLegalProp);
+        if (lInputProp != null)
+        {
+          if (!lSlots.containsKey(lInputProp))
+          {
+            lSlots.put(lInputProp, lNextSlot++);
+          }
+          mInputSlots[((ForwardDeadReckonProposition)lLegalProp).getInfo().index] = lSlots.get(lInputProp);
+        }
+      }
+    }
+
+    // Order the gates needed to compute the outputs.
+    List<PolymorphicComponent> lRoots = new ArrayList<>();
+    for (PolymorphicProposition lBaseProp : xiPropNet.getBasePropositions().values())
+    {
+      PolymorphicComponent lInput = lBaseProp.getSingleInput();
+      if (lInput instanceof PolymorphicTransition)
+      {
+        lRoots.add(lInput.getSingleInput());
+      }
+    }
+    for (PolymorphicProposition[] lLegalProps : xiPropNet.getLegalPropositions().values())
+    {
+      lRoots.addAll(Arrays.asList(lLegalProps));
+    }
+    lRoots.add(xiPropNet.getTerminalProposition());
+
+    List<PolymorphicComponent> lGates = new ArrayList<>();
+    Map<PolymorphicComponent, Boolean> lVisited = new HashMap<>();
+    for (PolymorphicComponent lRoot : lRoots)
+    {
+      addGatesInTopologicalOrder(lRoot, lSlots, lVisited, lGates);
+    }
+
+    // Allocate slots to the gates (in order) and flatten their inputs.
+    mFirstGateSlot = lNextSlot;
+    for (PolymorphicComponent lGate : lGates)
+    {
+      lSlots.put(lGate, lNextSlot++);
+    }
+
+    mGateType = new byte[lGates.size()];
+    mGateInputStart = new int[lGates.size() + 1];
+    int lNumGateInputs = 0;
+    for (PolymorphicComponent lGate : lGates)
+    {
+      lNumGateInputs += lGate.getInputs().size();
+    }
+    mGateInputs = new int[lNumGateInputs];
+
+    int lInputIndex = 0;
+    for (int lii = 0; lii < lGates.size(); lii++)
+    {
+      PolymorphicComponent lGate = lGates.get(lii);
+
+      if (lGate instanceof PolymorphicAnd)
+      {
+        mGateType[lii] = GATE_AND;
+      }
+      else if (lGate instanceof PolymorphicOr)
+      {
+        mGateType[lii] = GATE_OR;
+      }
+      else if (lGate instanceof PolymorphicNot)
+      {
+        mGateType[lii] = GATE_NOT;
+      }
+      else
+      {
+        mGateType[lii] = GATE_COPY;
+      }
+
+      mGateInputStart[lii] = lInputIndex;
+      for (PolymorphicComponent lInput : lGate.getInputs())
+      {
+        mGateInputs[lInputIndex++] = slotOf(lInput, lSlots);
+      }
+    }
+    mGateInputStart[lGates.size()] = lInputIndex;
+
+    // Record where to find the outputs.
+    int lNumBaseProps = xiPropNet.getBasePropositions().size();
+    mNextStateInfoIndex = new int[lNumBaseProps];
+    mNextStateSlot = new int[lNumBaseProps];
+
+    int lBasePropIndex = 0;
+    for (PolymorphicProposition lBaseProp : xiPropNet.getBasePropositions().values())
+    {
+      PolymorphicComponent lInput = lBaseProp.getSingleInput();
+
+      mNextStateInfoIndex[lBasePropIndex] = ((ForwardDeadReckonProposition)lBaseProp).getInfo().index;
+      mNextStateSlot[lBasePropIndex] = (lInput instanceof PolymorphicTransition) ?
+                                          slotOf(lInput.getSingleInput(), lSlots) :
+                                          slotOf(lInput, lSlots);
+      lBasePropIndex++;
+    }
+
+    List<ForwardDeadReckonLegalMoveInfo> lLegalMoves = new ArrayList<>();
+    List<Integer> lLegalSlots = new ArrayList<>();
+    for (PolymorphicProposition[] lLegalProps : xiPropNet.getLegalPropositions().values())
+    {
+      for (PolymorphicProposition lLegalProp : lLegalProps)
+      {
+        // Constant legal moves are either always legal (and so in the template) or never legal.
+        if (!(lLegalProp.getSingleInput() instanceof PolymorphicConstant))
+        {
+          lLegalMoves.add(lMasterMoveList[((ForwardDeadReckonProposition)lLegalProp).getInfo().index]);
+          lLegalSlots.add(lSlots.get(lLegalProp));
+        }
+      }
+    }
+    mLegalMoves = lLegalMoves.toArray(new ForwardDeadReckonLegalMoveInfo[lLegalMoves.size()]);
+    mLegalSlot = new int[lLegalSlots.size()];
+    for (int lii = 0; lii < mLegalSlot.length; lii++)
+    {
+      mLegalSlot[lii] = lLegalSlots.get(lii);
+    }
+
+    mTerminalSlot = slotOf(xiPropNet.getTerminalProposition(), lSlots);
+
+    mValues = new long[lNextSlot];
+  }
+
+  /**
+   * Add the gates feeding a component (and the component itself, if it's a gate) to a list, such that each gate comes
+   * after all the gates that it reads from.  Uses an explicit stack, because propnets can be very deep.
+   *
+   * @param xiRoot    - the component.
+   * @param xiSources - the source components, which aren't gates.
+   * @param xbVisited - gates already visited, shared across calls.  Those fully ordered map to TRUE and those still
+   *                    being ordered (i.e. on the stack) map to FALSE.
+   * @param xbGates   - the gates, in topological order.
+   */
+  private static void addGatesInTopologicalOrder(PolymorphicComponent xiRoot,
+                                                 Map<PolymorphicComponent, Integer> xiSources,
+                                                 Map<PolymorphicComponent, Boolean> xbVisited,
+                                                 List<PolymorphicComponent> xbGates)
+  {
+    if (!isGate(xiRoot, xiSources) || xbVisited.containsKey(xiRoot))
+    {
+      return;
+    }
+
+    List<PolymorphicComponent> lStack = new ArrayList<>();
+    lStack.add(xiRoot);
+
+    while (!lStack.isEmpty())
+    {
+      PolymorphicComponent lComponent = lStack.get(lStack.size() - 1);
+
+      if (!xbVisited.containsKey(lComponent))
+      {
+        // First visit - push any inputs that still need ordering, and come back to this one once they're done.
+        xbVisited.put(lComponent, Boolean.FALSE);
+        boolean lAllInputsOrdered = true;
+
+        for (PolymorphicComponent lInput : lComponent.getInputs())
+        {
+          if (isGate(lInput, xiSources))
+          {
+            Boolean lOrdered = xbVisited.get(lInput);
+            if (lOrdered == null)
+            {
+              lStack.add(lInput);
+              lAllInputsOrdered = false;
+            }
+            else if (!lOrdered)
+            {
+              throw new IllegalStateException("Propnet contains a cycle through " + lInput);
+            }
+          }
+        }
+
+        if (!lAllInputsOrdered)
+        {
+          continue;
+        }
+      }
+
+      lStack.remove(lStack.size() - 1);
+
+      // A gate reached by two routes can be on the stack twice - only add it the first time it's popped.
+      if (!xbVisited.get(lComponent))
+      {
+        xbVisited.put(lComponent, Boolean.TRUE);
+        xbGates.add(lComponent);
+      }
+    }
+  }
+
+  private static boolean isGate(PolymorphicComponent xiComponent, Map<PolymorphicComponent, Integer> xiSources)
+  {
+    if (xiSources.containsKey(xiComponent) ||
+        xiComponent instanceof PolymorphicConstant ||
+        xiComponent instanceof PolymorphicTransition)
+    {
+      return false;
+    }
+
+    // Propositions with no inputs (other than the sources) are constant - e.g. INIT.
+    return !(xiComponent instanceof PolymorphicProposition) || xiComponent.getInputs().size() == 1;
+  }
+
+  private static int slotOf(PolymorphicComponent xiComponent, Map<PolymorphicComponent, Integer> xiSlots)
+  {
+    Integer lSlot = xiSlots.get(xiComponent);
+    if (lSlot != null)
+    {
+      return lSlot;
+    }
+
+    if (xiComponent instanceof PolymorphicConstant)
+    {
+      return xiComponent.getValue() ? TRUE_SLOT : FALSE_SLOT;
+    }
+
+    assert(xiComponent instanceof PolymorphicProposition && xiComponent.getInputs().isEmpty()) :
+                                                                     "Unexpected unslotted component: " + xiComponent;
+    return FALSE_SLOT;
+  }
+
+  /**
+   * Evaluate the network for a batch of states and joint moves.  Following this, the results can be read with
+   * {@link #getNextState}, {@link #getLegalMoves} and {@link #isTerminal}.
+   *
+   * @param xiStates - the states.
+   * @param xiMoves  - a joint move to play in each state, or null to evaluate the states alone (which is sufficient for
+   *                   legality and terminality).  Pseudo-noops are ignored.
+   * @param xiFirst  - the index (in the arrays above) of the first state in the batch.  Batch index i then refers to
+   *                   array index (xiFirst + i).
+   * @param xiCount  - the number of states in the batch (at most {@link #BATCH_SIZE}).
+   */
+  public void evaluate(ForwardDeadReckonInternalMachineState[] xiStates,
+                       ForwardDeadReckonLegalMoveInfo[][] xiMoves,
+                       int xiFirst,
+                       int xiCount)
+  {
+    assert(xiCount <= BATCH_SIZE);
+
+    final long[] lValues = mValues;
+    Arrays.fill(lValues, 0, mFirstGateSlot, 0);
+    lValues[TRUE_SLOT] = -1L;
+
+    // Load the sources.
+    for (int lStateIndex = 0; lStateIndex < xiCount; lStateIndex++)
+    {
+      long lBit = 1L << lStateIndex;
+      ForwardDeadReckonInternalMachineState lState = xiStates[xiFirst + lStateIndex];
+
+      for (int lii = lState.contents.nextSetBit(mFirstBasePropIndex); lii >= 0; lii = lState.contents.nextSetBit(lii + 1))
+      {
+        int lSlot = mBasePropSlots[lii];
+        if (lSlot >= 0)
+        {
+          lValues[lSlot] |= lBit;
+        }
+      }
+
+      if (xiMoves != null)
+      {
+        for (ForwardDeadReckonLegalMoveInfo lMove : xiMoves[xiFirst + lStateIndex])
+        {
+          if (!lMove.mIsPseudoNoOp && mInputSlots[lMove.mMasterIndex] >= 0)
+          {
+            lValues[mInputSlots[lMove.mMasterIndex]] |= lBit;
+          }
+        }
+      }
+    }
+
+    // Evaluate the gates.
+    final byte[] lGateType = mGateType;
+    final int[] lGateInputStart = mGateInputStart;
+    final int[] lGateInputs = mGateInputs;
+    int lSlot = mFirstGateSlot;
+
+    for (int lGate = 0; lGate < lGateType.length; lGate++, lSlot++)
+    {
+      int lFirstInput = lGateInputStart[lGate];
+      int lEndInput = lGateInputStart[lGate + 1];
+      long lValue;
+
+      switch (lGateType[lGate])
+      {
+        case GATE_COPY:
+          lValue = lValues[lGateInputs[lFirstInput]];
+          break;
+
+        case GATE_NOT:
+          lValue = ~lValues[lGateInputs[lFirstInput]];
+          break;
+
+        case GATE_AND:
+          lValue = -1L;
+          for (int lii = lFirstInput; lii < lEndInput; lii++)
+          {
+            lValue &= lValues[lGateInputs[lii]];
+          }
+          break;
+
+        default:
+          lValue = 0;
+          for (int lii = lFirstInput; lii < lEndInput; lii++)
+          {
+            lValue |= lValues[lGateInputs[lii]];
+          }
+          break;
+      }
+
+      lValues[lSlot] = lValue;
+    }
+
+    mBatchCount = xiCount;
+  }
+
+  /**
+   * Retrieve the next state for one member of the last evaluated batch.  Only the base propositions are written - any
+   * other content of the buffer is left unchanged.
+   *
+   * @param xiBatchIndex - the index of the state in the batch.
+   * @param xbNewState   - the buffer into which the next state is written.
+   */
+  public void getNextState(int xiBatchIndex, ForwardDeadReckonInternalMachineState xbNewState)
+  {
+    assert(xiBatchIndex < mBatchCount);
+
+    for (int lii = 0; lii < mNextStateSlot.length; lii++)
+    {
+      if ((mValues[mNextStateSlot[lii]] & (1L << xiBatchIndex)) != 0)
+      {
+        xbNewState.add(mNextStateInfoIndex[lii]);
+      }
+      else
+      {
+        xbNewState.remove(mNextStateInfoIndex[lii]);
+      }
+    }
+  }
+
+  /**
+   * Retrieve the legal moves for one member of the last evaluated batch.
+   *
+   * @param xiBatchIndex   - the index of the state in the batch.
+   * @param xbLegalMoveSet - the buffer into which the legal moves are written.  Must have been created by
+   *                         {@link #createLegalMoveSet()}.
+   */
+  public void getLegalMoves(int xiBatchIndex, ForwardDeadReckonLegalMoveSet xbLegalMoveSet)
+  {
+    assert(xiBatchIndex < mBatchCount);
+
+    xbLegalMoveSet.clear();
+    for (int lii = 0; lii < mLegalSlot.length; lii++)
+    {
+      if ((mValues[mLegalSlot[lii]] & (1L << xiBatchIndex)) != 0)
+      {
+        xbLegalMoveSet.add(mLegalMoves[lii]);
+      }
+    }
+  }
+
+  /**
+   * @return whether one member of the last evaluated batch is terminal.
+   *
+   * @param xiBatchIndex - the index of the state in the batch.
+   */
+  public boolean isTerminal(int xiBatchIndex)
+  {
+    assert(xiBatchIndex < mBatchCount);
+    return (mValues[mTerminalSlot] & (1L << xiBatchIndex)) != 0;
+  }
+
+  /**
+   * @return a new legal move set, suitable for use with {@link #getLegalMoves}.
+   */
+  public ForwardDeadReckonLegalMoveSet createLegalMoveSet()
+  {
+    return new ForwardDeadReckonLegalMoveSet(mLegalMoveSetTemplate);
+  }
+
+  /**
+   * @return the number of gates evaluated per batch.
+   */
+  public int getNumGates()
+  {
+    return mGateType.length;
+  }
+}
@@ -0,0 +1,242 @@
+package org.ggp.base.util.propnet.polymorphic.forwardDeadReckon;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ggp.base.util.gdl.grammar.GdlFunction;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
+
+/**
+ * A compact encoding of ForwardDeadReckonInternalMachineStates, for use wherever large numbers of states need to be
+ * stored.
+ *
+ * The propositions of a state are divided into groups which are expected to be mutually exclusive - those whose
+ * sentences differ only in the final argument, such as (cell 1 1 wp), (cell 1 1 bk), etc.  Each group is then stored
+ * as a field just wide enough to record which (if any) of its members is set.  In board games, this is several times
+ * smaller than the bitset representation, which needs a bit for every possible piece on every cell.
+ *
+ * The grouping is by the form of the sentences alone, so it's possible for a state to have more than one member of a
+ * group set (e.g. in a game where a cell can hold several pieces).  Such a state can't be encoded, which the caller must
+ * allow for - typically by storing the state's bitset instead.
+ *
+ * So far, this is only used for the A* solver's frontier, where states are stored in bulk and only decoded again when
+ * expanded.  Nothing hashes or compares encoded states - the solver fingerprints the decoded state.
+ */
+public class ForwardDeadReckonStateEncoding
+{
+  // For each proposition (by index), the group it's in and its value in that group's field (1-based - 0 is used for a
+  // group with no members set).
+  private final int[]                              mGroupOfProp;
+  private final int[]                              mValueOfProp;
+
+  // For each group, the position of its field (word index and shift) and the width of that field.  Fields never span
+  // words.
+  private final int[]                              mGroupWord;
+  private final int[]                              mGroupShift;
+  private final int[]                              mGroupWidth;
+
+  // For each group, its members (by proposition index), in field value order.
+  private final int[][]                            mGroupMembers;
+
+  private final int                                mNumWords;
+
+  /**
+   * Create an encoding for states of the same kind as the specified state.
+   *
+   * @param xiTemplate - a state (of any content) from the state machine whose states are to be encoded.
+   */
+  public ForwardDeadReckonStateEncoding(ForwardDeadReckonInternalMachineState xiTemplate)
+  {
+    ForwardDeadReckonPropositionInfo[] lInfoSet = xiTemplate.infoSet;
+
+    int lNumProps = lInfoSet.length;
+    mGroupOfProp = new int[lNumProps];
+    mValueOfProp = new int[lNumProps];
+
+    // Group the propositions.  Any that don't have the form of a (true (name args... value)) sentence are in a group of
+    // their own.
+    Map<String, List<Integer>> lGroupsByKey = new HashMap<>();
+    List<List<Integer>> lGroups = new ArrayList<>();
+    for (int lii = 0; lii < lNumProps; lii++)
+    {
+      String lKey = groupKey(lInfoSet[lii] == null ? null : lInfoSet[lii].sentence);
+      List<Integer> lGroup = (lKey == null) ? null : lGroupsByKey.get(lKey);
+      if (lGroup == null)
+      {
+        lGroup = new ArrayList<>();
+        lGroups.add(lGroup);
+        if (lKey != null)
+        {
+          lGroupsByKey.put(lKey, lGroup);
+        }
+      }
+      lGroup.add(lii);
+    }
+
+    int lNumGroups = lGroups.size();
+    mGroupWord = new int[lNumGroups];
+    mGroupShift = new int[lNumGroups];
+    mGroupWidth = new int[lNumGroups];
+    mGroupMembers = new int[lNumGroups][];
+
+    int lWord = 0;
+    int lShift = 0;
+    for (int lGroupIndex = 0; lGroupIndex < lNumGroups; lGroupIndex++)
+    {
+      List<Integer> lGroup = lGroups.get(lGroupIndex);
+      int lWidth = 32 - Integer.numberOfLeadingZeros(lGroup.size());
+
+      if (lShift + lWidth > 64)
+      {
+        lWord++;
+        lShift = 0;
+      }
+
+      mGroupWord[lGroupIndex] = lWord;
+      mGroupShift[lGroupIndex] = lShift;
+      mGroupWidth[lGroupIndex] = lWidth;
+      mGroupMembers[lGroupIndex] = new int[lGroup.size()];
+      lShift += lWidth;
+
+      for (int ljj = 0; ljj < lGroup.size(); ljj++)
+      {
+        int lPropIndex = lGroup.get(ljj);
+        mGroupOfProp[lPropIndex] = lGroupIndex;
+        mValueOfProp[lPropIndex] = ljj + 1;
+        mGroupMembers[lGroupIndex][ljj] = lPropIndex;
+      }
+    }
+
+    mNumWords = (lShift == 0) ? lWord : lWord + 1;
+  }
+
+  /**
+   * @return the key shared by the propositions in a group, or null if the proposition should be in a group of its own.
+   *
+   * @param xiSentence - the proposition's sentence.
+   */
+  private static String groupKey(GdlSentence xiSentence)
+  {
+    if (xiSentence == null || !xiSentence.getName().getValue().equals("true") || xiSentence.arity() != 1)
+    {
+      return null;
+    }
+
+    GdlTerm lBody = xiSentence.get(0);
+    if (!(lBody instanceof GdlFunction))
+    {
+      return null;
+    }
+
+    GdlFunction lFunction = (GdlFunction)lBody;
+    StringBuilder lKey = new StringBuilder(lFunction.getName().getValue());
+    for (int lii = 0; lii < lFunction.arity() - 1; lii++)
+    {
+      lKey.append(' ').append(lFunction.get(lii));
+    }
+    return lKey.toString();
+  }
+
+  /**
+   * @return the number of words in an encoded state.
+   */
+  public int getNumWords()
+  {
+    return mNumWords;
+  }
+
+  /**
+   * @return the number of bits used by the fields of an encoded state (excluding any padding at the ends of words).
+   */
+  public int getNumBits()
+  {
+    int lNumBits = 0;
+    for (int lWidth : mGroupWidth)
+    {
+      lNumBits += lWidth;
+    }
+    return lNumBits;
+  }
+
+  /**
+   * @return the number of groups into which the propositions have been divided.
+   */
+  public int getNumGroups()
+  {
+    return mGroupMembers.length;
+  }
+
+  /**
+   * Encode a state.
+   *
+   * @return whether the state could be encoded.  If not (because it has more than one member of a group set), the
+   *         contents of the buffer are undefined.
+   *
+   * @param xiState  - the state.
+   * @param xoBuffer - buffer for the encoded state, which must be at least {@link #getNumWords()} long.
+   */
+  public boolean encode(ForwardDeadReckonInternalMachineState xiState, long[] xoBuffer)
+  {
+    for (int lii = 0; lii < mNumWords; lii++)
+    {
+      xoBuffer[lii] = 0;
+    }
+
+    for (int lii = xiState.contents.nextSetBit(0); lii >= 0; lii = xiState.contents.nextSetBit(lii + 1))
+    {
+      int lGroupIndex = mGroupOfProp[lii];
+      int lWord = mGroupWord[lGroupIndex];
+      int lShift = mGroupShift[lGroupIndex];
+
+      if (((xoBuffer[lWord] >>> lShift) & fieldMask(lGroupIndex)) != 0)
+      {
+        return false;
+      }
+      xoBuffer[lWord] |= ((long)mValueOfProp[lii]) << lShift;
+    }
+
+    return true;
+  }
+
+  /**
+   * @return an encoded copy of a state, or null if the state can't be encoded.
+   *
+   * @param xiState - the state.
+   */
+  public long[] encode(ForwardDeadReckonInternalMachineState xiState)
+  {
+    long[] lEncoded = new long[mNumWords];
+    return encode(xiState, lEncoded) ? lEncoded : null;
+  }
+
+  /**
+   * Decode a state.
+   *
+   * @param xiEncoded - the encoded state.
+   * @param xoState   - the state to decode into.  Its previous contents are replaced, apart from its X-state flag,
+   *                    which isn't part of the encoding.
+   */
+  public void decode(long[] xiEncoded, ForwardDeadReckonInternalMachineState xoState)
+  {
+    boolean lIsXState = xoState.isXState;
+    xoState.clear();
+    xoState.isXState = lIsXState;
+
+    for (int lGroupIndex = 0; lGroupIndex < mGroupMembers.length; lGroupIndex++)
+    {
+      int lValue = (int)((xiEncoded[mGroupWord[lGroupIndex]] >>> mGroupShift[lGroupIndex]) & fieldMask(lGroupIndex));
+      if (lValue != 0)
+      {
+        xoState.add(mGroupMembers[lGroupIndex][lValue - 1]);
+      }
+    }
+  }
+
+  private long fieldMask(int xiGroupIndex)
+  {
+    return (1L << mGroupWidth[xiGroupIndex]) - 1;
+  }
+}
@@ -40,6 +40,14 @@ public final class AimaProver implements Prover
 
 	private final ProverCache fixedAnswerCache = ProverCache.createMultiThreadedCache();
 
+	/*
+	 * The context of the most recent query on each thread, with the answers found so far
+	 * that depend on it. A state machine typically makes several queries in a row about
+	 * the same state (terminality, then legal moves for each role, etc.), so these answers
+	 * are reused until a query comes along with a different context.
+	 */
+	private final ThreadLocal<ContextAnswers> contextAnswers = new ThreadLocal<>();
+
 	public AimaProver(List<Gdl> description)
 	{
 		description = DistinctAndNotMover.run(description);
@@ -51,8 +59,10 @@ public final class AimaProver implements Prover
 		LinkedList<GdlLiteral> goals = new LinkedList<>();
 		goals.add(query);
 
+		ContextAnswers answersInContext = getContextAnswers(context);
+
 		Set<Substitution> answers = new HashSet<>();
-		ask(goals, new KnowledgeBase(context), new Substitution(), ProverCache.createSingleThreadedCache(),
+		ask(goals, answersInContext.knowledgeBase, new Substitution(), answersInContext.cache,
 				new VariableRenamer(), askOne, answers, new RecursionHandler(), new IsConstant());
 
 		Set<GdlSentence> results = new HashSet<>();
@@ -64,6 +74,17 @@ public final class AimaProver implements Prover
 		return results;
 	}
 
+	private ContextAnswers getContextAnswers(Set<GdlSentence> context)
+	{
+		ContextAnswers answers = contextAnswers.get();
+		if ((answers == null) || !answers.context.equals(context))
+		{
+			answers = new ContextAnswers(context);
+			contextAnswers.set(answers);
+		}
+		return answers;
+	}
+
 	private void ask(LinkedList<GdlLiteral> goals, KnowledgeBase context, Substitution theta, ProverCache cache, VariableRenamer renamer, boolean askOne, Set<Substitution> results, RecursionHandler recursionHandler, IsConstant isConstant)
 	{
 		if (goals.size() == 0)
@@ -310,6 +331,21 @@ public final class AimaProver implements Prover
 		public boolean value = true;
 	}
 
+	/*
+	 * A query context, indexed, and the answers that have been found in it. The context
+	 * is copied, so that a caller changing its own set can't make the answers stale.
+	 */
+	private static class ContextAnswers {
+		public final Set<GdlSentence> context;
+		public final KnowledgeBase knowledgeBase;
+		public final ProverCache cache = ProverCache.createSingleThreadedCache();
+
+		public ContextAnswers(Set<GdlSentence> context) {
+			this.context = new HashSet<>(context);
+			this.knowledgeBase = new KnowledgeBase(this.context);
+		}
+	}
+
 	/*
 	 * Contains some mutable values used by the recursion implementation, to reduce
 	 * the number of arguments being passed around.
@@ -1,4 +1,3 @@
-
 package org.ggp.base.util.prover.aima.knowledge;
 
 import java.util.ArrayList;
@@ -9,15 +8,32 @@ import java.util.Set;
 
 import org.ggp.base.util.gdl.grammar.Gdl;
 import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlFunction;
 import org.ggp.base.util.gdl.grammar.GdlPool;
 import org.ggp.base.util.gdl.grammar.GdlRule;
 import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
 
 
+/**
+ * The rules (and facts) of a game description, indexed for lookup by the sentences that they might prove.
+ *
+ * Rules are indexed by the name of their head and then by its first argument - the constant itself or, where the first
+ * argument is a function, the function's name.  A rule whose head has a variable as its first argument might prove
+ * anything of that name, so it's included in every index entry for the name.  Index entries keep the rules in their
+ * original order.
+ */
 public final class KnowledgeBase
 {
   private final Map<GdlConstant, List<GdlRule>> contents;
 
+  // For each name, the rules indexed by first argument.
+  private final Map<GdlConstant, Map<GdlConstant, List<GdlRule>>> contentsByFirstArg;
+
+  // For each name, the rules whose first argument is a variable.  These are all that need to be tried for a sentence
+  // whose first argument isn't in the index.
+  private final Map<GdlConstant, List<GdlRule>> contentsWithVariableFirstArg;
+
   public KnowledgeBase(Set<? extends Gdl> description)
   {
     contents = new HashMap<>();
@@ -33,16 +49,88 @@ public final class KnowledgeBase
       }
       contents.get(key).add(rule);
     }
+
+    contentsByFirstArg = new HashMap<>();
+    contentsWithVariableFirstArg = new HashMap<>();
+    for (Map.Entry<GdlConstant, List<GdlRule>> entry : contents.entrySet())
+    {
+      // Create the index entries first, so that rules with a variable first argument can be added to all of them in
+      // order.
+      Map<GdlConstant, List<GdlRule>> rulesByFirstArg = new HashMap<>();
+      for (GdlRule rule : entry.getValue())
+      {
+        GdlConstant firstArgKey = getFirstArgKey(rule.getHead());
+        if (firstArgKey != null && !rulesByFirstArg.containsKey(firstArgKey))
+        {
+          rulesByFirstArg.put(firstArgKey, new ArrayList<GdlRule>());
+        }
+      }
+
+      List<GdlRule> variableRules = new ArrayList<>();
+      for (GdlRule rule : entry.getValue())
+      {
+        GdlConstant firstArgKey = getFirstArgKey(rule.getHead());
+        if (firstArgKey != null)
+        {
+          rulesByFirstArg.get(firstArgKey).add(rule);
+        }
+        else if (rule.getHead().arity() > 0)
+        {
+          variableRules.add(rule);
+          for (List<GdlRule> rules : rulesByFirstArg.values())
+          {
+            rules.add(rule);
+          }
+        }
+      }
+
+      contentsByFirstArg.put(entry.getKey(), rulesByFirstArg);
+      contentsWithVariableFirstArg.put(entry.getKey(), variableRules);
+    }
   }
 
+  /**
+   * @return the key under which rules with the specified head (or sentences matching it) are indexed, or null if the
+   * first argument is a variable (or there are no arguments).
+   */
+  private static GdlConstant getFirstArgKey(GdlSentence sentence)
+  {
+    if (sentence.arity() == 0)
+    {
+      return null;
+    }
+
+    GdlTerm firstArg = sentence.get(0);
+    if (firstArg instanceof GdlConstant)
+    {
+      return (GdlConstant)firstArg;
+    }
+    if (firstArg instanceof GdlFunction)
+    {
+      return ((GdlFunction)firstArg).getName();
+    }
+    return null;
+  }
+
+  /**
+   * @return the rules that might prove the specified sentence.  This is a superset of the rules whose heads unify with
+   * the sentence.  The caller must not modify the list.
+   */
   public synchronized List<GdlRule> fetch(GdlSentence sentence)
   {
     GdlConstant key = sentence.getName();
 
     if (contents.containsKey(key))
     {
-      return contents.get(key);
+      GdlConstant firstArgKey = getFirstArgKey(sentence);
+      if (firstArgKey == null)
+      {
+        return contents.get(key);
+      }
+
+      List<GdlRule> rules = contentsByFirstArg.get(key).get(firstArgKey);
+      return (rules != null) ? rules : contentsWithVariableFirstArg.get(key);
     }
     return new ArrayList<>();
   }
-}
\ No newline at end of file
+}
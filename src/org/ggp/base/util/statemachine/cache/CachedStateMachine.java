@@ -1,9 +1,9 @@
-
 package org.ggp.base.util.statemachine.cache;
 
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.ggp.base.util.gdl.grammar.Gdl;
 import org.ggp.base.util.statemachine.MachineState;
@@ -14,41 +14,113 @@ import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+
+/**
+ * A state machine that caches the answers of another, by state.
+ *
+ * The cache holds a bounded number of states, evicting the least recently used (approximately - eviction is done
+ * separately within each of several segments of the cache).  It may be used from many threads at once: lookups in
+ * different segments don't contend, and answers for a state are computed without holding any lock.  If two threads ask
+ * the same question at once, both may consult the backing state machine, but they get the same answer.
+ */
 public final class CachedStateMachine extends StateMachine
 {
-  private final StateMachine                  backingStateMachine;
-  private final TtlCache<MachineState, Entry> ttlCache;
+  /**
+   * Default maximum number of states to hold answers for.
+   */
+  public static final int DEFAULT_MAXIMUM_SIZE = 50000;
 
-  private final class Entry
-  {
-    public Map<Role, Integer>            goals;
-    public Map<Role, List<Move>>         moves;
-    public Map<List<Move>, MachineState> nexts;
-    public Boolean                       terminal;
+  private final StateMachine              backingStateMachine;
+  private final Cache<MachineState, Entry> cache;
 
-    public Entry()
-    {
-      goals = new HashMap<>();
-      moves = new HashMap<>();
-      nexts = new HashMap<>();
-      terminal = null;
-    }
+  private final AtomicLong hits      = new AtomicLong();
+  private final AtomicLong misses    = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  private static final class Entry
+  {
+    public final ConcurrentMap<Role, Integer>            goals = new ConcurrentHashMap<>();
+    public final ConcurrentMap<Role, List<Move>>         moves = new ConcurrentHashMap<>();
+    public final ConcurrentMap<List<Move>, MachineState> nexts = new ConcurrentHashMap<>();
+    public volatile Boolean                              terminal;
   }
 
   public CachedStateMachine(StateMachine backingStateMachine)
+  {
+    this(backingStateMachine, DEFAULT_MAXIMUM_SIZE);
+  }
+
+  /**
+   * @param backingStateMachine - the state machine whose answers are cached.
+   * @param maximumSize         - the maximum number of states to hold answers for.
+   */
+  public CachedStateMachine(StateMachine backingStateMachine, long maximumSize)
   {
     this.backingStateMachine = backingStateMachine;
-    ttlCache = new TtlCache<>(1);
+    cache = CacheBuilder.newBuilder()
+                        .maximumSize(maximumSize)
+                        .concurrencyLevel(Math.max(4, Runtime.getRuntime().availableProcessors()))
+                        .removalListener(new RemovalListener<MachineState, Entry>()
+                        {
+                          @Override
+                          public void onRemoval(RemovalNotification<MachineState, Entry> notification)
+                          {
+                            if (notification.wasEvicted())
+                            {
+                              evictions.incrementAndGet();
+                            }
+                          }
+                        })
+                        .build();
   }
 
   private Entry getEntry(MachineState state)
   {
-    if (!ttlCache.containsKey(state))
+    Entry entry = cache.getIfPresent(state);
+    if (entry == null)
     {
-      ttlCache.put(state, new Entry());
+      Entry newEntry = new Entry();
+      entry = cache.asMap().putIfAbsent(state, newEntry);
+      if (entry == null)
+      {
+        entry = newEntry;
+      }
     }
 
-    return ttlCache.get(state);
+    return entry;
+  }
+
+  /**
+   * Record whether a cached answer was found.
+   *
+   * @return the cached answer.
+   */
+  private <T> T recordLookup(T cached)
+  {
+    if (cached == null)
+    {
+      misses.incrementAndGet();
+    }
+    else
+    {
+      hits.incrementAndGet();
+    }
+    return cached;
+  }
+
+  /**
+   * Cache an answer, unless another thread has already done so.
+   *
+   * @return the cached answer.
+   */
+  private static <K, V> V putAnswer(ConcurrentMap<K, V> answers, K key, V answer)
+  {
+    V existing = answers.putIfAbsent(key, answer);
+    return (existing == null) ? answer : existing;
   }
 
   @Override
@@ -56,15 +128,13 @@ public final class CachedStateMachine extends StateMachine
       throws GoalDefinitionException
   {
     Entry entry = getEntry(state);
-    synchronized (entry)
+    Integer goal = recordLookup(entry.goals.get(role));
+    if (goal == null)
     {
-      if (!entry.goals.containsKey(role))
-      {
-        entry.goals.put(role, backingStateMachine.getGoal(state, role));
-      }
-
-      return entry.goals.get(role);
+      goal = putAnswer(entry.goals, role, backingStateMachine.getGoal(state, role));
     }
+
+    return goal;
   }
 
   @Override
@@ -72,15 +142,13 @@ public final class CachedStateMachine extends StateMachine
       throws MoveDefinitionException
   {
     Entry entry = getEntry(state);
-    synchronized (entry)
+    List<Move> legalMoves = recordLookup(entry.moves.get(role));
+    if (legalMoves == null)
     {
-      if (!entry.moves.containsKey(role))
-      {
-        entry.moves.put(role, backingStateMachine.getLegalMoves(state, role));
-      }
-
-      return entry.moves.get(role);
+      legalMoves = putAnswer(entry.moves, role, backingStateMachine.getLegalMoves(state, role));
     }
+
+    return legalMoves;
   }
 
   @Override
@@ -88,30 +156,27 @@ public final class CachedStateMachine extends StateMachine
       throws TransitionDefinitionException
   {
     Entry entry = getEntry(state);
-    synchronized (entry)
+    MachineState nextState = recordLookup(entry.nexts.get(moves));
+    if (nextState == null)
     {
-      if (!entry.nexts.containsKey(moves))
-      {
-        entry.nexts.put(moves, backingStateMachine.getNextState(state, moves));
-      }
-
-      return entry.nexts.get(moves);
+      nextState = putAnswer(entry.nexts, moves, backingStateMachine.getNextState(state, moves));
     }
+
+    return nextState;
   }
 
   @Override
   public boolean isTerminal(MachineState state)
   {
     Entry entry = getEntry(state);
-    synchronized (entry)
+    Boolean terminal = recordLookup(entry.terminal);
+    if (terminal == null)
     {
-      if (entry.terminal == null)
-      {
-        entry.terminal = backingStateMachine.isTerminal(state);
-      }
-
-      return entry.terminal;
+      terminal = backingStateMachine.isTerminal(state);
+      entry.terminal = terminal;
     }
+
+    return terminal;
   }
 
   @Override
@@ -120,9 +185,45 @@ public final class CachedStateMachine extends StateMachine
     prune();
   }
 
+  /**
+   * Perform any pending cache maintenance.  Eviction is driven by the size of the cache, so there's no need to call
+   * this for correctness.
+   */
   public void prune()
   {
-    ttlCache.prune();
+    cache.cleanUp();
+  }
+
+  /**
+   * @return the number of queries answered from the cache.
+   */
+  public long getHitCount()
+  {
+    return hits.get();
+  }
+
+  /**
+   * @return the number of queries passed to the backing state machine.
+   */
+  public long getMissCount()
+  {
+    return misses.get();
+  }
+
+  /**
+   * @return the number of states evicted from the cache to keep within its maximum size.
+   */
+  public long getEvictionCount()
+  {
+    return evictions.get();
+  }
+
+  /**
+   * @return the number of states currently held in the cache.
+   */
+  public long getSize()
+  {
+    return cache.size();
   }
 
   @Override
@@ -144,4 +245,4 @@ public final class CachedStateMachine extends StateMachine
     // TODO(schreib): Should this be cached as well?
     return backingStateMachine.getInitialState();
   }
-}
\ No newline at end of file
+}
@@ -1,6 +1,7 @@
 
 package org.ggp.base.util.statemachine.implementation.propnet.forwardDeadReckon;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -15,8 +16,11 @@ import java.util.Set;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.ggp.base.player.gamer.statemachine.sancho.MachineSpecificConfiguration;
+import org.ggp.base.player.gamer.statemachine.sancho.MachineSpecificConfiguration.CfgItem;
 import org.ggp.base.player.gamer.statemachine.sancho.RoleOrdering;
 import org.ggp.base.player.gamer.statemachine.sancho.RuntimeGameCharacteristics;
+import org.ggp.base.player.gamer.statemachine.sancho.ThreadControl;
 import org.ggp.base.player.gamer.statemachine.sancho.TreePath;
 import org.ggp.base.util.gdl.grammar.Gdl;
 import org.ggp.base.util.gdl.grammar.GdlSentence;
@@ -36,6 +40,7 @@ import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckon
 import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonLegalMoveInfo;
 import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonLegalMoveSet;
 import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonPropNet;
+import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonPropnetBatchEvaluator;
 import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonPropnetFastAnimator;
 import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonProposition;
 import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonPropositionInfo;
@@ -133,6 +138,7 @@ public class ForwardDeadReckonPropnetStateMachine extends StateMachine
   private StateMachineFilter                                           searchFilter                    = null;
   private ForwardDeadReckonInternalMachineState                        mNonControlMask                 = null;
   private ForwardDeadReckonInternalMachineState                        mControlMask                    = null;
+  private ForwardDeadReckonPropnetBatchEvaluator                       mBatchEvaluator                 = null;
   public long                                                          totalNumGatesPropagated         = 0;
   public long                                                          totalNumPropagates              = 0;
   private Map<PolymorphicProposition, ForwardDeadReckonInternalMachineState> mPositiveGoalLatches      = null;
@@ -1595,6 +1601,15 @@ public class ForwardDeadReckonPropnetStateMachine extends StateMachine
     previouslyChosenJointMovePropIdsO = new int[numRoles];
     isPseudoPuzzle = master.isPseudoPuzzle;
 
+    //  Start out on the X network, as the master does once crystallized, so that queries which assume a current
+    //  network (such as the terminality check in getGoal() for factored games) work on a brand new instance.
+    if (propNetX != null)
+    {
+      propNet = propNetX;
+      propNetInstanceInfo = propNet.animator.getInstanceInfo(instanceId);
+      legalPropositions = legalPropositionsX;
+    }
+
     stats = new TestPropnetStateMachineStats(fullPropNet.getBasePropositions().size(),
                                              fullPropNet.getInputPropositions().size(),
                                              fullPropNet.getLegalPropositions().get(getRoles()[0]).length);
@@ -1612,6 +1627,57 @@ public class ForwardDeadReckonPropnetStateMachine extends StateMachine
     return result;
   }
 
+  /**
+   * @return the number of instances in use, including this (master) instance.
+   */
+  public int getNumInstances()
+  {
+    return numInstances;
+  }
+
+  /**
+   * @return the number of further instances that can be created with {@link #createInstance()}.
+   */
+  public int getNumFreeInstances()
+  {
+    return maxInstances - numInstances;
+  }
+
+  /**
+   * Release the most recently created instances, so that their slots can be used by new instances.  The released
+   * instances must not be used again.
+   *
+   * The propnet state of the released slots is reset, because a new instance assumes that it starts from a reset
+   * network.  That includes the goals and terminality networks, which all instances share.  (The X and O networks
+   * without goals only have slots once they have replaced propNetX and propNetO, so they're covered by those.)
+   *
+   * @param xiNumToKeep - the number of instances (including this master instance) to keep.
+   */
+  public void releaseInstances(int xiNumToKeep)
+  {
+    assert(xiNumToKeep >= 1 && xiNumToKeep <= numInstances) : "Can't keep " + xiNumToKeep + " of " + numInstances;
+    for (int lInstanceId = xiNumToKeep; lInstanceId < numInstances; lInstanceId++)
+    {
+      propNetX.reset(lInstanceId, true);
+      propNetO.reset(lInstanceId, true);
+      goalsNet.reset(lInstanceId, true);
+      terminalityNet.reset(lInstanceId, true);
+    }
+    numInstances = xiNumToKeep;
+  }
+
+  /**
+   * Add the greedy rollout statistics (and the terminating moves discovered) by another instance to this one's.
+   *
+   * @param xiInstance - the other instance.
+   */
+  public void mergeGreedyRolloutStats(ForwardDeadReckonPropnetStateMachine xiInstance)
+  {
+    numRolloutDecisionNodeExpansions += xiInstance.numRolloutDecisionNodeExpansions;
+    greedyRolloutEffectiveness += xiInstance.greedyRolloutEffectiveness;
+    terminatingMoveProps.addAll(xiInstance.terminatingMoveProps);
+  }
+
   @Override
   public void initialize(List<Gdl> description)
   {
@@ -1632,52 +1698,81 @@ public class ForwardDeadReckonPropnetStateMachine extends StateMachine
       //validationMachine = new ProverStateMachine();
       //validationMachine.initialize(description);
 
-      fullPropNet = (ForwardDeadReckonPropNet)OptimizingPolymorphicPropNetFactory.create(
-                                                                               description,
-                                                                               new ForwardDeadReckonComponentFactory());
-      fullPropNet.renderToFile("propnet_001.dot");
+      // The reduced propnet depends only on the GDL and our role, so use the one from a previous game if possible.
+      PropNetCache lPropNetCache = null;
+      File lGameDirectory = (mGameCharacteristics == null) ? null : mGameCharacteristics.getGameDirectory();
+      if ((lGameDirectory != null) && !MachineSpecificConfiguration.getCfgBool(CfgItem.DISABLE_PROPNET_CACHE))
+      {
+        lPropNetCache = new PropNetCache(lGameDirectory, lGDLString.toString(), ourRole);
+        fullPropNet = lPropNetCache.load();
+      }
+
+      if (fullPropNet != null)
+      {
+        isPseudoPuzzle = lPropNetCache.isPseudoPuzzle();
+        mFillerMoves.addAll(lPropNetCache.getFillerMoves());
+      }
+      else
+      {
+        int lBuildThreads = MachineSpecificConfiguration.getCfgInt(CfgItem.PROPNET_BUILD_THREADS);
+        if (lBuildThreads == -1)
+        {
+          lBuildThreads = ThreadControl.NUM_CPUS;
+        }
 
-      OptimizingPolymorphicPropNetFactory.removeAnonymousPropositions(fullPropNet);
-      fullPropNet.renderToFile("propnet_012_AnonRemoved.dot");
-      LOGGER.debug("Num components after anon prop removal: " + fullPropNet.getComponents().size());
+        fullPropNet = (ForwardDeadReckonPropNet)OptimizingPolymorphicPropNetFactory.create(
+                                                                        description,
+                                                                        new ForwardDeadReckonComponentFactory(),
+                                                                        lBuildThreads);
+        fullPropNet.renderToFile("propnet_001.dot");
 
-      OptimizingPolymorphicPropNetFactory.removeUnreachableBasesAndInputs(fullPropNet);
-      fullPropNet.renderToFile("propnet_014_UnreachablesRemoved.dot");
+        OptimizingPolymorphicPropNetFactory.removeAnonymousPropositions(fullPropNet);
+        fullPropNet.renderToFile("propnet_012_AnonRemoved.dot");
+        LOGGER.debug("Num components after anon prop removal: " + fullPropNet.getComponents().size());
 
-      isPseudoPuzzle = OptimizingPolymorphicPropNetFactory.removeIrrelevantBasesAndInputs(fullPropNet, ourRole, mFillerMoves);
-      fullPropNet.renderToFile("propnet_016_IrrelevantRemoved.dot");
-      LOGGER.debug("Num components after unreachable removal: " + fullPropNet.getComponents().size());
+        OptimizingPolymorphicPropNetFactory.removeUnreachableBasesAndInputs(fullPropNet);
+        fullPropNet.renderToFile("propnet_014_UnreachablesRemoved.dot");
 
-      OptimizingPolymorphicPropNetFactory.removeRedundantConstantsAndGates(fullPropNet, false);
-      fullPropNet.renderToFile("propnet_018_RedundantRemoved.dot");
-      LOGGER.debug("Num components after first pass redundant components removal: " +
-                   fullPropNet.getComponents().size());
+        isPseudoPuzzle = OptimizingPolymorphicPropNetFactory.removeIrrelevantBasesAndInputs(fullPropNet, ourRole, mFillerMoves);
+        fullPropNet.renderToFile("propnet_016_IrrelevantRemoved.dot");
+        LOGGER.debug("Num components after unreachable removal: " + fullPropNet.getComponents().size());
 
-      OptimizingPolymorphicPropNetFactory.refactorLargeGates(fullPropNet);
-      fullPropNet.renderToFile("propnet_020_BeforeLargeFanout.dot");
+        OptimizingPolymorphicPropNetFactory.removeRedundantConstantsAndGates(fullPropNet, false);
+        fullPropNet.renderToFile("propnet_018_RedundantRemoved.dot");
+        LOGGER.debug("Num components after first pass redundant components removal: " +
+                     fullPropNet.getComponents().size());
 
-      OptimizingPolymorphicPropNetFactory.refactorLargeFanouts(fullPropNet);
-      fullPropNet.renderToFile("propnet_030_AfterLargeFanout.dot");
-      LOGGER.debug("Num components after large gate refactoring: " + fullPropNet.getComponents().size());
+        OptimizingPolymorphicPropNetFactory.refactorLargeGates(fullPropNet);
+        fullPropNet.renderToFile("propnet_020_BeforeLargeFanout.dot");
 
-      OptimizingPolymorphicPropNetFactory.removeDuplicateLogic(fullPropNet);
-      LOGGER.debug("Num components after duplicate removal: " + fullPropNet.getComponents().size());
+        OptimizingPolymorphicPropNetFactory.refactorLargeFanouts(fullPropNet);
+        fullPropNet.renderToFile("propnet_030_AfterLargeFanout.dot");
+        LOGGER.debug("Num components after large gate refactoring: " + fullPropNet.getComponents().size());
 
-      OptimizingPolymorphicPropNetFactory.optimizeInputSets(fullPropNet);
-      LOGGER.debug("Num components after input set optimization: " + fullPropNet.getComponents().size());
+        OptimizingPolymorphicPropNetFactory.removeDuplicateLogic(fullPropNet);
+        LOGGER.debug("Num components after duplicate removal: " + fullPropNet.getComponents().size());
 
-      OptimizingPolymorphicPropNetFactory.optimizeInvertedInputs(fullPropNet);
-      LOGGER.debug("Num components after inverted input optimization: " + fullPropNet.getComponents().size());
+        OptimizingPolymorphicPropNetFactory.optimizeInputSets(fullPropNet);
+        LOGGER.debug("Num components after input set optimization: " + fullPropNet.getComponents().size());
 
-      OptimizingPolymorphicPropNetFactory.removeRedundantConstantsAndGates(fullPropNet);
-      LOGGER.debug("Num components after further removal of redundant components: " +
-                   fullPropNet.getComponents().size());
+        OptimizingPolymorphicPropNetFactory.optimizeInvertedInputs(fullPropNet);
+        LOGGER.debug("Num components after inverted input optimization: " + fullPropNet.getComponents().size());
 
-      // Ensure that no propositions apart from strict input props (base, does, init) have any outputs, as this is
-      // assumed by the fast animator.  Accordingly we re-wire slightly such that if any such do exist we replace their
-      // output connection by one from their input (which they anyway just directly forward, so this also removes a
-      // small propagation step).
-      OptimizingPolymorphicPropNetFactory.removeNonBaseOrDoesPropositionOutputs(fullPropNet);
+        OptimizingPolymorphicPropNetFactory.removeRedundantConstantsAndGates(fullPropNet);
+        LOGGER.debug("Num components after further removal of redundant components: " +
+                     fullPropNet.getComponents().size());
+
+        // Ensure that no propositions apart from strict input props (base, does, init) have any outputs, as this is
+        // assumed by the fast animator.  Accordingly we re-wire slightly such that if any such do exist we replace
+        // their output connection by one from their input (which they anyway just directly forward, so this also
+        // removes a small propagation step).
+        OptimizingPolymorphicPropNetFactory.removeNonBaseOrDoesPropositionOutputs(fullPropNet);
+
+        if (lPropNetCache != null)
+        {
+          lPropNetCache.save(fullPropNet, isPseudoPuzzle, mFillerMoves);
+        }
+      }
 
       fullPropNet.renderToFile("propnet_040_Reduced.dot");
       roles = fullPropNet.getRoles();
@@ -1742,7 +1837,7 @@ public class ForwardDeadReckonPropnetStateMachine extends StateMachine
           info.xNetProp = (ForwardDeadReckonProposition)prop;
           info.oNetProp = (ForwardDeadReckonProposition)prop;
           info.goalsNetProp = (ForwardDeadReckonProposition)prop;
-          info.index = index;
+          info.setIndex(index);
 
           masterInfoSet[index++] = info;
 
@@ -1760,7 +1855,7 @@ public class ForwardDeadReckonPropnetStateMachine extends StateMachine
         info.oNetProp = prop;
         info.goalsNetProp = prop;
         info.terminalityNetProp = prop;
-        info.index = index;
+        info.setIndex(index);
 
         masterInfoSet[index++] = info;
 
@@ -1781,7 +1876,7 @@ public class ForwardDeadReckonPropnetStateMachine extends StateMachine
         info.oNetProp = prop;
         info.goalsNetProp = prop;
         info.terminalityNetProp = prop;
-        info.index = index;
+        info.setIndex(index);
 
         masterInfoSet[index++] = info;
 
@@ -2991,37 +3086,145 @@ public class ForwardDeadReckonPropnetStateMachine extends StateMachine
       }
     }
 
-    propNet.getActiveBaseProps(instanceId).markDirty();
     getInternalStateFromBase(xbNewState);
 
     if ( nonNullMovesCount == 0 )
     {
-      ForwardDeadReckonInternalMachineState nonControlMask;
-      ForwardDeadReckonInternalMachineState controlMask;
+      reimposeNonControlBaseProps(state, factor, xbNewState);
+    }
+  }
 
-      if ( factor != null )
+  /**
+   * Get the next states for a batch of states, each with its own joint move.  This is equivalent to calling
+   * {@link #getNextState(ForwardDeadReckonInternalMachineState, Factor, ForwardDeadReckonLegalMoveInfo[],
+   * ForwardDeadReckonInternalMachineState)} for each one in turn, but evaluates up to 64 states at a time with a
+   * bit-parallel pass over the full propnet, which is considerably cheaper when the states are not closely related
+   * (such as when expanding all the children of a node).
+   *
+   * Experimental - nothing in the search uses batch evaluation yet.
+   *
+   * @param xiStates    - the original states.
+   * @param xiFactor    - the factor.
+   * @param xiMoves     - for each state, the moves to make from it - in INTERNAL ordering.
+   * @param xiCount     - the number of states.
+   * @param xbNewStates - the buffers into which the resulting states are written.
+   */
+  public void getNextStates(ForwardDeadReckonInternalMachineState[] xiStates,
+                            Factor xiFactor,
+                            ForwardDeadReckonLegalMoveInfo[][] xiMoves,
+                            int xiCount,
+                            ForwardDeadReckonInternalMachineState[] xbNewStates)
+  {
+    ForwardDeadReckonPropnetBatchEvaluator lEvaluator = getBatchEvaluator();
+
+    for (int lBatchStart = 0; lBatchStart < xiCount; lBatchStart += ForwardDeadReckonPropnetBatchEvaluator.BATCH_SIZE)
+    {
+      int lBatchCount = Math.min(xiCount - lBatchStart, ForwardDeadReckonPropnetBatchEvaluator.BATCH_SIZE);
+
+      lEvaluator.evaluate(xiStates, xiMoves, lBatchStart, lBatchCount);
+
+      for (int lii = 0; lii < lBatchCount; lii++)
       {
-        nonControlMask = factor.getStateMask(true);
-        controlMask = factor.getInverseStateMask(true);
+        ForwardDeadReckonInternalMachineState lNewState = xbNewStates[lBatchStart + lii];
+
+        lEvaluator.getNextState(lii, lNewState);
+        lNewState.isXState = (XSentenceInfo != null && lNewState.contains(XSentenceInfo));
+
+        boolean lAllNoOps = true;
+        for (ForwardDeadReckonLegalMoveInfo lMove : xiMoves[lBatchStart + lii])
+        {
+          lAllNoOps &= lMove.mIsPseudoNoOp;
+        }
+
+        if ( lAllNoOps )
+        {
+          reimposeNonControlBaseProps(xiStates[lBatchStart + lii], xiFactor, lNewState);
+        }
       }
-      else
+    }
+  }
+
+  /**
+   * Get the legal moves for a batch of states.  This is the batch equivalent of
+   * {@link #getLegalMoveSet(ForwardDeadReckonInternalMachineState)} - see {@link #getNextStates} for when it's
+   * worthwhile.
+   *
+   * @param xiStates        - the states.
+   * @param xiCount         - the number of states.
+   * @param xbLegalMoveSets - the buffers into which the legal moves are written.  Must have been created by
+   *                          {@link #createLegalMoveSetBuffer()}.
+   */
+  public void getLegalMoveSets(ForwardDeadReckonInternalMachineState[] xiStates,
+                               int xiCount,
+                               ForwardDeadReckonLegalMoveSet[] xbLegalMoveSets)
+  {
+    ForwardDeadReckonPropnetBatchEvaluator lEvaluator = getBatchEvaluator();
+
+    for (int lBatchStart = 0; lBatchStart < xiCount; lBatchStart += ForwardDeadReckonPropnetBatchEvaluator.BATCH_SIZE)
+    {
+      int lBatchCount = Math.min(xiCount - lBatchStart, ForwardDeadReckonPropnetBatchEvaluator.BATCH_SIZE);
+
+      lEvaluator.evaluate(xiStates, null, lBatchStart, lBatchCount);
+
+      for (int lii = 0; lii < lBatchCount; lii++)
       {
-        nonControlMask = getNonControlMask();
-        controlMask = getControlMask();
+        lEvaluator.getLegalMoves(lii, xbLegalMoveSets[lBatchStart + lii]);
       }
+    }
+  }
 
-      if ( controlMask != null )
-      {
-        //  Hack - re-impose the base props from the starting state.  We need to do it this
-        //  way in order for the non-factor turn logic (control prop, step, etc) to generate
-        //  correctly, but then make sure we have not changed any factor-specific base props
-        //  which can happen because no moves were played (consider distinct clauses on moves)
-        ForwardDeadReckonInternalMachineState basePropState = new ForwardDeadReckonInternalMachineState(state);
+  /**
+   * @return a legal move set suitable for use with {@link #getLegalMoveSets}.
+   */
+  public ForwardDeadReckonLegalMoveSet createLegalMoveSetBuffer()
+  {
+    return getBatchEvaluator().createLegalMoveSet();
+  }
 
-        basePropState.intersect(nonControlMask);
-        xbNewState.intersect(controlMask);
-        xbNewState.merge(basePropState);
-      }
+  private ForwardDeadReckonPropnetBatchEvaluator getBatchEvaluator()
+  {
+    // Built on first use, because most users never need it.  Each instance has its own, because the evaluator holds
+    // the component values.
+    if ( mBatchEvaluator == null )
+    {
+      mBatchEvaluator = new ForwardDeadReckonPropnetBatchEvaluator(fullPropNet, masterInfoSet.length, firstBasePropIndex);
+      LOGGER.debug("Compiled " + mBatchEvaluator.getNumGates() + " gates for batch evaluation");
+    }
+
+    return mBatchEvaluator;
+  }
+
+  /**
+   * When no (real) moves have been played, re-impose the base props from the starting state.  We need to do it this
+   * way in order for the non-factor turn logic (control prop, step, etc) to generate correctly, but then make sure we
+   * have not changed any factor-specific base props which can happen because no moves were played (consider distinct
+   * clauses on moves).
+   */
+  private void reimposeNonControlBaseProps(ForwardDeadReckonInternalMachineState state,
+                                           Factor factor,
+                                           ForwardDeadReckonInternalMachineState xbNewState)
+  {
+    ForwardDeadReckonInternalMachineState nonControlMask;
+    ForwardDeadReckonInternalMachineState controlMask;
+
+    if ( factor != null )
+    {
+      nonControlMask = factor.getStateMask(true);
+      controlMask = factor.getInverseStateMask(true);
+    }
+    else
+    {
+      nonControlMask = getNonControlMask();
+      controlMask = getControlMask();
+    }
+
+    if ( controlMask != null )
+    {
+      ForwardDeadReckonInternalMachineState basePropState = new ForwardDeadReckonInternalMachineState(state);
+
+      basePropState.intersect(nonControlMask);
+      xbNewState.intersect(controlMask);
+      xbNewState.merge(basePropState);
     }
   }
 
@@ -3268,7 +3471,8 @@ public class ForwardDeadReckonPropnetStateMachine extends StateMachine
     public boolean[]                        propProcessed;
     public int                              numChoices;
     //  The following are pre-allocated buffers used repeatedly to avoid GC
-    //  It is expanded as necessary but never shrunk
+    //  They are allocated on first use at this depth, large enough for any
+    //  legal move set, so that a playout never allocates once warmed up
     private ForwardDeadReckonLegalMoveInfo[] chooserMovesBuffer;
     private boolean[]                       propProcessedBuffer;
     public final ForwardDeadReckonProposition[]   nonChooserProps = new ForwardDeadReckonProposition[numRoles];
@@ -3291,9 +3495,11 @@ public class ForwardDeadReckonPropnetStateMachine extends StateMachine
     {
       if ( chooserMovesBuffer == null || chooserMovesBuffer.length < numMoveChoices )
       {
-        //  Allow extra so we don't have to repeatedly expand
-        chooserMovesBuffer = new ForwardDeadReckonLegalMoveInfo[numMoveChoices*2];
-        propProcessedBuffer = new boolean[numMoveChoices*2];
+        //  No role can have more choices than there are moves in the game (plus a
+        //  pseudo-noop in factored games), so size for that and never expand again
+        int bufferSize = Math.max(numMoveChoices, totalNumMoves + 1);
+        chooserMovesBuffer = new ForwardDeadReckonLegalMoveInfo[bufferSize];
+        propProcessedBuffer = new boolean[bufferSize];
       }
 
       numChoices = numMoveChoices;
@@ -3504,10 +3710,11 @@ public class ForwardDeadReckonPropnetStateMachine extends StateMachine
       decisionState.maxAchievableOpponentScoreTotal = -1;
       totalRoleoutNodesExamined++;
 
-      for (Role role : getRoles())
+      for (int roleIndex = 0; roleIndex < numRoles; roleIndex++)
       {
+        Role role = roles[roleIndex];
         ForwardDeadReckonLegalMoveSet moves = activeLegalMoves;
-        int numChoices = StateMachineFilterUtils.getFilteredSize(null, moves, role, factor, false);
+        int numChoices = StateMachineFilterUtils.getFilteredSize(null, moves, roleIndex, factor, false);
 
         if (numChoices > maxChoices)
         {
@@ -3546,11 +3753,21 @@ public class ForwardDeadReckonPropnetStateMachine extends StateMachine
         {
           int rand = getRandom(numChoices);
 
-          Iterator<ForwardDeadReckonLegalMoveInfo> itr = moves.getContents(role).iterator();
+          Iterator<ForwardDeadReckonLegalMoveInfo> itr = (factor == null ? null : moves.getContents(roleIndex).iterator());
+          int moveSetIndex = moves.getFirstIndex(roleIndex);
           for (int iMove = 0; iMove < numChoices; iMove++)
           {
             // Get next move for this factor
-            ForwardDeadReckonLegalMoveInfo info = StateMachineFilterUtils.nextFilteredMove(factor, itr);
+            ForwardDeadReckonLegalMoveInfo info;
+            if (factor == null)
+            {
+              info = moves.getMove(moveSetIndex);
+              moveSetIndex = moves.getNextIndex(roleIndex, moveSetIndex);
+            }
+            else
+            {
+              info = StateMachineFilterUtils.nextFilteredMove(factor, itr);
+            }
 
             if (rand-- <= 0)
             {
@@ -3567,11 +3784,21 @@ public class ForwardDeadReckonPropnetStateMachine extends StateMachine
         else
         {
           int chooserMoveIndex = 0;
-          Iterator<ForwardDeadReckonLegalMoveInfo> itr = moves.getContents(role).iterator();
+          Iterator<ForwardDeadReckonLegalMoveInfo> itr = (factor == null ? null : moves.getContents(roleIndex).iterator());
+          int moveSetIndex = moves.getFirstIndex(roleIndex);
           for (int iMove = 0; iMove < numChoices; iMove++)
           {
             // Get next move for this factor
-            ForwardDeadReckonLegalMoveInfo info = StateMachineFilterUtils.nextFilteredMove(factor, itr);
+            ForwardDeadReckonLegalMoveInfo info;
+            if (factor == null)
+            {
+              info = moves.getMove(moveSetIndex);
+              moveSetIndex = moves.getNextIndex(roleIndex, moveSetIndex);
+            }
+            else
+            {
+              info = StateMachineFilterUtils.nextFilteredMove(factor, itr);
+            }
 
             if (decisionState.choosingRole == role)
             {
@@ -3974,7 +4201,7 @@ public class ForwardDeadReckonPropnetStateMachine extends StateMachine
       {
         ForwardDeadReckonLegalMoveSet moves = activeLegalMoves;
         ForwardDeadReckonLegalMoveInfo chosen = null;
-        Iterator<ForwardDeadReckonLegalMoveInfo> itr;
+        Iterator<ForwardDeadReckonLegalMoveInfo> itr = null;
 
         if ( mPlayoutPolicy != null && playedMoves != null )
         {
@@ -3986,7 +4213,6 @@ public class ForwardDeadReckonPropnetStateMachine extends StateMachine
           if ( factor == null )
           {
             numChoices = moves.getNumChoices(roleIndex);
-            itr = moves.getContents(roleIndex).iterator();
           }
           else
           {
@@ -4043,23 +4269,33 @@ public class ForwardDeadReckonPropnetStateMachine extends StateMachine
             moveIndex = 0;
           }
 
-          for (int iMove = 0; iMove < numChoices; iMove++)
+          if ( factor == null )
           {
-            ForwardDeadReckonLegalMoveInfo info;
-
-            // Get next move for this factor
-            info = StateMachineFilterUtils.nextFilteredMove(factor, itr);
-
-            if (moveIndex == iMove)
+            //  Walk the legal move set directly - no iterator or filter needed
+            if ( numChoices > 0 )
+            {
+              chosen = moves.getMoveAtPosition(roleIndex, moveIndex);
+            }
+          }
+          else
+          {
+            for (int iMove = 0; iMove < numChoices; iMove++)
             {
-              chosen = info;
-              if ( roleIndex == choosingRole )
+              // Get next move for this factor
+              ForwardDeadReckonLegalMoveInfo info = StateMachineFilterUtils.nextFilteredMove(factor, itr);
+
+              if (moveIndex == iMove)
               {
-                chooserChoice = chosen;
+                chosen = info;
+                break;
               }
-              break;
             }
           }
+
+          if ( roleIndex == choosingRole )
+          {
+            chooserChoice = chosen;
+          }
         }
         else
         {
@@ -4370,10 +4606,11 @@ public class ForwardDeadReckonPropnetStateMachine extends StateMachine
 
       if ( mPlayoutPolicy != null && info.statesVisited != null )
       {
-        if ( mMaster.mTurnNumber != mLastPlayoutTurnNumber )
+        int lTurnNumber = mMaster.mTurnNumber;
+        if ( lTurnNumber != mLastPlayoutTurnNumber )
         {
-          mPlayoutPolicy.noteNewTurn();
-          mLastPlayoutTurnNumber = mMaster.mTurnNumber;
+          mPlayoutPolicy.noteNewTurn(lTurnNumber);
+          mLastPlayoutTurnNumber = lTurnNumber;
         }
         mPlayoutPolicy.noteNewPlayout();
         if ( mPlayoutPolicy.requiresMoveHistory() )
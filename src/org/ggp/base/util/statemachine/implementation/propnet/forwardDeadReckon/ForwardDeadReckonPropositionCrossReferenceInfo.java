@@ -17,4 +17,23 @@ public class ForwardDeadReckonPropositionCrossReferenceInfo extends ForwardDeadR
   //  For now it is just slightly more efficient
   public int                          xNetPropId;
   public int                          oNetPropId;
+  //  Key XOR'd into the (Zobrist) hash of any state in which this proposition is set.  Derived from the index
+  //  rather than drawn from an RNG so that it is the same for every state machine instance and every run
+  public long                         zobristKey;
+
+  /**
+   * Set the index of this proposition in the master proposition list, and its corresponding hash key.
+   *
+   * @param xiIndex - the index.
+   */
+  public void setIndex(int xiIndex)
+  {
+    index = xiIndex;
+
+    // SplitMix64 finalizer over the (Weyl-sequenced) index.
+    long lKey = (xiIndex + 1) * 0x9E3779B97F4A7C15L;
+    lKey = (lKey ^ (lKey >>> 30)) * 0xBF58476D1CE4E5B9L;
+    lKey = (lKey ^ (lKey >>> 27)) * 0x94D049BB133111EBL;
+    zobristKey = lKey ^ (lKey >>> 31);
+  }
 }
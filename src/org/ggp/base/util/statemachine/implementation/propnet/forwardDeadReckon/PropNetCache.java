@@ -0,0 +1,382 @@
+package org.ggp.base.util.statemachine.implementation.propnet.forwardDeadReckon;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.gdl.factory.exceptions.GdlFormatException;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.propnet.polymorphic.PolymorphicAnd;
+import org.ggp.base.util.propnet.polymorphic.PolymorphicComponent;
+import org.ggp.base.util.propnet.polymorphic.PolymorphicComponentFactory;
+import org.ggp.base.util.propnet.polymorphic.PolymorphicConstant;
+import org.ggp.base.util.propnet.polymorphic.PolymorphicNot;
+import org.ggp.base.util.propnet.polymorphic.PolymorphicOr;
+import org.ggp.base.util.propnet.polymorphic.PolymorphicProposition;
+import org.ggp.base.util.propnet.polymorphic.PolymorphicTransition;
+import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonComponentFactory;
+import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonPropNet;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.symbol.factory.exceptions.SymbolFormatException;
+
+/**
+ * On-disk cache of a game's reduced propnet (the output of all the optimization passes that are run before the propnet
+ * is crystalized), along with the results of the role-specific reductions.
+ *
+ * Building and reducing the propnet is a large part of the meta-gaming time for big games, but its result depends
+ * only on the GDL and the role we're playing.  The cache is keyed on exactly that, so a cached propnet is only ever
+ * used for the game it was built from.
+ *
+ * There is a file for each role, so that playing the game as one role doesn't evict the cached propnet for another
+ * (e.g. when playing against ourselves).  The file is a flat binary image - the component types, the proposition names,
+ * and the connections (as indices into the component list).  It is written to a uniquely named temporary file which is
+ * then renamed into place, so neither a crash part way through a write nor two concurrent writers can leave a corrupt
+ * cache behind.  Any failure to load (including a key mismatch) is treated as a cache miss.
+ */
+public class PropNetCache
+{
+  private static final Logger LOGGER = LogManager.getLogger();
+
+  /**
+   * Prefix and suffix of the file name (in the game directory) in which the propnet is stored.  The role goes in
+   * between.
+   */
+  private static final String CACHE_FILE_PREFIX = "propnet.";
+  private static final String CACHE_FILE_SUFFIX = ".bin";
+
+  /**
+   * Magic number and format version.  Bump the version whenever the format, or the reductions that produce the
+   * cached propnet, change.
+   */
+  private static final int MAGIC   = 0x53504e43;
+  private static final int VERSION = 1;
+
+  private static final byte TYPE_PROPOSITION    = 0;
+  private static final byte TYPE_TRANSITION     = 1;
+  private static final byte TYPE_AND            = 2;
+  private static final byte TYPE_OR             = 3;
+  private static final byte TYPE_NOT            = 4;
+  private static final byte TYPE_CONSTANT_FALSE = 5;
+  private static final byte TYPE_CONSTANT_TRUE  = 6;
+
+  private final File             mFile;
+  private final long             mKey;
+
+  private boolean                mPseudoPuzzle;
+  private final Set<GdlSentence> mFillerMoves = new HashSet<>();
+
+  /**
+   * Create a propnet cache.
+   *
+   * @param xiGameDirectory - the directory in which to store the cached propnet.
+   * @param xiGDL           - the game description (in string form).
+   * @param xiOurRole       - the role we're playing.
+   */
+  public PropNetCache(File xiGameDirectory, String xiGDL, Role xiOurRole)
+  {
+    mFile = new File(xiGameDirectory, getFileName(xiOurRole));
+
+    // 64-bit FNV-1a hash of everything that the reduced propnet depends on.
+    long lKey = 0xcbf29ce484222325L;
+    String lKeyString = VERSION + "\n" + xiOurRole + "\n" + xiGDL;
+    for (int lii = 0; lii < lKeyString.length(); lii++)
+    {
+      lKey ^= lKeyString.charAt(lii);
+      lKey *= 0x100000001b3L;
+    }
+    mKey = lKey;
+  }
+
+  /**
+   * @return the name of the file in which to cache the propnet for the specified role.
+   *
+   * @param xiOurRole - the role we're playing (or null if not known).
+   */
+  static String getFileName(Role xiOurRole)
+  {
+    //  Role names are GDL constants, which may contain characters that aren't safe in a file name.
+    String lRoleName = (xiOurRole == null) ? "none" : xiOurRole.getName().getValue().replaceAll("[^A-Za-z0-9_-]", "_");
+    return CACHE_FILE_PREFIX + lRoleName + CACHE_FILE_SUFFIX;
+  }
+
+  /**
+   * @return whether the propnet most recently loaded was for a pseudo-puzzle.
+   */
+  public boolean isPseudoPuzzle()
+  {
+    return mPseudoPuzzle;
+  }
+
+  /**
+   * @return the filler moves for the propnet most recently loaded.
+   */
+  public Set<GdlSentence> getFillerMoves()
+  {
+    return mFillerMoves;
+  }
+
+  /**
+   * Load the cached propnet.
+   *
+   * @return the propnet, or null if there isn't a valid one in the cache.
+   */
+  public ForwardDeadReckonPropNet load()
+  {
+    if (!mFile.exists())
+    {
+      return null;
+    }
+
+    long lStartTime = System.currentTimeMillis();
+
+    try (FileChannel lChannel = FileChannel.open(mFile.toPath(), StandardOpenOption.READ))
+    {
+      ByteBuffer lBuffer = lChannel.map(FileChannel.MapMode.READ_ONLY, 0, lChannel.size());
+
+      if (lBuffer.getInt() != MAGIC || lBuffer.getInt() != VERSION || lBuffer.getLong() != mKey)
+      {
+        LOGGER.info("Cached propnet is for a different game, role or version - ignoring it");
+        return null;
+      }
+
+      mPseudoPuzzle = (lBuffer.get() != 0);
+      mFillerMoves.clear();
+      int lNumFillerMoves = lBuffer.getInt();
+      for (int lii = 0; lii < lNumFillerMoves; lii++)
+      {
+        mFillerMoves.add(readSentence(lBuffer));
+      }
+
+      Role[] lRoles = new Role[lBuffer.getInt()];
+      for (int lii = 0; lii < lRoles.length; lii++)
+      {
+        lRoles[lii] = new Role(GdlPool.getConstant(readString(lBuffer)));
+      }
+
+      int lNumBaseProps = lBuffer.getInt();
+      int lNumInputProps = lBuffer.getInt();
+      int lNumLegalProps = lBuffer.getInt();
+
+      // Create the components...
+      PolymorphicComponentFactory lFactory = new ForwardDeadReckonComponentFactory();
+      PolymorphicComponent[] lComponents = new PolymorphicComponent[lBuffer.getInt()];
+      for (int lii = 0; lii < lComponents.length; lii++)
+      {
+        byte lType = lBuffer.get();
+        switch (lType)
+        {
+          case TYPE_PROPOSITION:    lComponents[lii] = lFactory.createProposition(-1, readSentence(lBuffer)); break;
+          case TYPE_TRANSITION:     lComponents[lii] = lFactory.createTransition(-1); break;
+          case TYPE_AND:            lComponents[lii] = lFactory.createAnd(-1, -1); break;
+          case TYPE_OR:             lComponents[lii] = lFactory.createOr(-1, -1); break;
+          case TYPE_NOT:            lComponents[lii] = lFactory.createNot(-1); break;
+          case TYPE_CONSTANT_FALSE: lComponents[lii] = lFactory.createConstant(-1, false); break;
+          case TYPE_CONSTANT_TRUE:  lComponents[lii] = lFactory.createConstant(-1, true); break;
+          default: throw new IOException("Invalid component type " + lType);
+        }
+      }
+
+      // ...and connect them up.
+      for (PolymorphicComponent lComponent : lComponents)
+      {
+        int lNumInputs = lBuffer.getInt();
+        for (int lii = 0; lii < lNumInputs; lii++)
+        {
+          lComponent.addInput(lComponents[lBuffer.getInt()]);
+        }
+
+        int lNumOutputs = lBuffer.getInt();
+        for (int lii = 0; lii < lNumOutputs; lii++)
+        {
+          lComponent.addOutput(lComponents[lBuffer.getInt()]);
+        }
+      }
+
+      Set<PolymorphicComponent> lComponentSet = new HashSet<>(lComponents.length);
+      for (PolymorphicComponent lComponent : lComponents)
+      {
+        lComponentSet.add(lComponent);
+      }
+      ForwardDeadReckonPropNet lPropNet = (ForwardDeadReckonPropNet)lFactory.createPropNet(lRoles, lComponentSet);
+
+      // The propnet re-derives its proposition indices from the components.  Check that they match the original.
+      if (lPropNet.getBasePropositions().size() != lNumBaseProps ||
+          lPropNet.getInputPropositions().size() != lNumInputProps ||
+          countLegalPropositions(lPropNet) != lNumLegalProps)
+      {
+        LOGGER.warn("Cached propnet doesn't match the original - ignoring it");
+        return null;
+      }
+
+      LOGGER.info("Loaded cached propnet (" + lComponents.length + " components) in " +
+                  (System.currentTimeMillis() - lStartTime) + "ms");
+      return lPropNet;
+    }
+    catch (IOException | BufferUnderflowException | IndexOutOfBoundsException | ClassCastException |
+           GdlFormatException | SymbolFormatException lEx)
+    {
+      LOGGER.warn("Failed to load cached propnet: " + lEx);
+      return null;
+    }
+  }
+
+  /**
+   * Save a propnet to the cache.
+   *
+   * @param xiPropNet     - the propnet, which must not yet have been crystalized.
+   * @param xiPseudoPuzzle - whether the game is a pseudo-puzzle.
+   * @param xiFillerMoves  - the filler moves.
+   */
+  public void save(ForwardDeadReckonPropNet xiPropNet, boolean xiPseudoPuzzle, Set<GdlSentence> xiFillerMoves)
+  {
+    File lTempFile;
+    try
+    {
+      lTempFile = File.createTempFile(mFile.getName() + ".", ".tmp", mFile.getParentFile());
+    }
+    catch (IOException lEx)
+    {
+      LOGGER.warn("Failed to save propnet to cache: " + lEx);
+      return;
+    }
+
+    try (DataOutputStream lOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(lTempFile))))
+    {
+      lOutput.writeInt(MAGIC);
+      lOutput.writeInt(VERSION);
+      lOutput.writeLong(mKey);
+
+      lOutput.writeBoolean(xiPseudoPuzzle);
+      lOutput.writeInt(xiFillerMoves.size());
+      for (GdlSentence lMove : xiFillerMoves)
+      {
+        writeString(lOutput, lMove.toString());
+      }
+
+      lOutput.writeInt(xiPropNet.getRoles().length);
+      for (Role lRole : xiPropNet.getRoles())
+      {
+        writeString(lOutput, lRole.getName().getValue());
+      }
+
+      lOutput.writeInt(xiPropNet.getBasePropositions().size());
+      lOutput.writeInt(xiPropNet.getInputPropositions().size());
+      lOutput.writeInt(countLegalPropositions(xiPropNet));
+
+      Map<PolymorphicComponent, Integer> lIndices = new HashMap<>();
+      lOutput.writeInt(xiPropNet.getComponents().size());
+      for (PolymorphicComponent lComponent : xiPropNet.getComponents())
+      {
+        lIndices.put(lComponent, lIndices.size());
+
+        if (lComponent instanceof PolymorphicProposition)
+        {
+          lOutput.writeByte(TYPE_PROPOSITION);
+          writeString(lOutput, ((PolymorphicProposition)lComponent).getName().toString());
+        }
+        else if (lComponent instanceof PolymorphicTransition)
+        {
+          lOutput.writeByte(TYPE_TRANSITION);
+        }
+        else if (lComponent instanceof PolymorphicAnd)
+        {
+          lOutput.writeByte(TYPE_AND);
+        }
+        else if (lComponent instanceof PolymorphicOr)
+        {
+          lOutput.writeByte(TYPE_OR);
+        }
+        else if (lComponent instanceof PolymorphicNot)
+        {
+          lOutput.writeByte(TYPE_NOT);
+        }
+        else if (lComponent instanceof PolymorphicConstant)
+        {
+          lOutput.writeByte(((PolymorphicConstant)lComponent).getValue() ? TYPE_CONSTANT_TRUE : TYPE_CONSTANT_FALSE);
+        }
+        else
+        {
+          throw new IOException("Invalid component " + lComponent);
+        }
+      }
+
+      for (PolymorphicComponent lComponent : xiPropNet.getComponents())
+      {
+        lOutput.writeInt(lComponent.getInputs().size());
+        for (PolymorphicComponent lInput : lComponent.getInputs())
+        {
+          lOutput.writeInt(lIndices.get(lInput));
+        }
+
+        lOutput.writeInt(lComponent.getOutputs().size());
+        for (PolymorphicComponent lOutputComponent : lComponent.getOutputs())
+        {
+          lOutput.writeInt(lIndices.get(lOutputComponent));
+        }
+      }
+    }
+    catch (IOException lEx)
+    {
+      LOGGER.warn("Failed to save propnet to cache: " + lEx);
+      lTempFile.delete();
+      return;
+    }
+
+    try
+    {
+      Files.move(lTempFile.toPath(), mFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+      LOGGER.debug("Saved propnet to cache");
+    }
+    catch (IOException lEx)
+    {
+      LOGGER.warn("Failed to save propnet to cache: " + lEx);
+      lTempFile.delete();
+    }
+  }
+
+  private static int countLegalPropositions(ForwardDeadReckonPropNet xiPropNet)
+  {
+    int lCount = 0;
+    for (PolymorphicProposition[] lLegals : xiPropNet.getLegalPropositions().values())
+    {
+      lCount += lLegals.length;
+    }
+    return lCount;
+  }
+
+  private static void writeString(DataOutputStream xiOutput, String xiString) throws IOException
+  {
+    byte[] lBytes = xiString.getBytes(StandardCharsets.UTF_8);
+    xiOutput.writeInt(lBytes.length);
+    xiOutput.write(lBytes);
+  }
+
+  private static String readString(ByteBuffer xiBuffer)
+  {
+    byte[] lBytes = new byte[xiBuffer.getInt()];
+    xiBuffer.get(lBytes);
+    return new String(lBytes, StandardCharsets.UTF_8);
+  }
+
+  private static GdlSentence readSentence(ByteBuffer xiBuffer) throws GdlFormatException, SymbolFormatException
+  {
+    return (GdlSentence)GdlFactory.create(readString(xiBuffer));
+  }
+}
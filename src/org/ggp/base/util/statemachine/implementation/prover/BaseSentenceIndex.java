@@ -0,0 +1,139 @@
+package org.ggp.base.util.statemachine.implementation.prover;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.statemachine.MachineState;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+/**
+ * A numbering of the (true ...) sentences that appear in the states of a game.  Used to store prover states as bitsets
+ * (see {@link ProverMachineState}) and to intern them, so that equal states share a single instance.
+ *
+ * Sentences are numbered as they're first seen, rather than by enumerating the possible sentences up front.  The
+ * prover is the state machine of last resort, so it mustn't depend on the sentence domain model, which can't be built
+ * for some valid games (e.g. those in which functions can be nested without limit).
+ *
+ * This class is thread-safe.
+ */
+final class BaseSentenceIndex
+{
+  /**
+   * Largest number of sentences that will be numbered.  Beyond this, the bitsets start to become bigger than the sets of
+   * sentences that they replace, so states containing any further sentences are left as ordinary MachineStates.
+   */
+  private static final int MAX_BASE_SENTENCES = 8192;
+
+  private final Map<GdlSentence, Integer> mIndices = new ConcurrentHashMap<>();
+
+  // The sentences and, for each, a random key that is XORed into the fingerprint of any state containing it.  Entries
+  // are written before the sentence is added to mIndices, so anyone who has an index can read them.
+  private volatile GdlSentence[]          mSentences = new GdlSentence[64];
+  private volatile long[]                 mFingerprintKeys = new long[64];
+
+  // Guarded by this.
+  private int                             mSize;
+  private final Random                    mRandom = new Random(0);
+
+  private final Interner<ProverMachineState> mInterner = Interners.newWeakInterner();
+
+  /**
+   * @return the sentence with the specified index.
+   *
+   * @param xiIndex - the index.
+   */
+  GdlSentence getSentence(int xiIndex)
+  {
+    return mSentences[xiIndex];
+  }
+
+  /**
+   * @return the index of a sentence, or -1 if it hasn't been numbered.
+   *
+   * @param xiSentence - the sentence.
+   */
+  int getIndex(Object xiSentence)
+  {
+    Integer lIndex = mIndices.get(xiSentence);
+    return (lIndex == null) ? -1 : lIndex;
+  }
+
+  /**
+   * @return the fingerprint key for the sentence with the specified index.
+   *
+   * @param xiIndex - the index.
+   */
+  long getFingerprintKey(int xiIndex)
+  {
+    return mFingerprintKeys[xiIndex];
+  }
+
+  /**
+   * @return the index of a sentence, numbering it if necessary, or -1 if there's no room for any more sentences.
+   *
+   * @param xiSentence - the sentence.
+   */
+  private synchronized int addSentence(GdlSentence xiSentence)
+  {
+    int lIndex = getIndex(xiSentence);
+    if ((lIndex != -1) || (mSize == MAX_BASE_SENTENCES))
+    {
+      return lIndex;
+    }
+
+    if (mSize == mSentences.length)
+    {
+      mSentences = Arrays.copyOf(mSentences, mSize * 2);
+      mFingerprintKeys = Arrays.copyOf(mFingerprintKeys, mSize * 2);
+    }
+
+    lIndex = mSize++;
+    mSentences[lIndex] = xiSentence;
+    mFingerprintKeys[lIndex] = mRandom.nextLong();
+    mIndices.put(xiSentence, lIndex);
+    return lIndex;
+  }
+
+  /**
+   * @return the canonical state with the specified contents - usually a ProverMachineState, but an ordinary
+   * MachineState if the game has too many distinct sentences to number.
+   *
+   * @param xiContents - the contents of the state.  The caller must not modify them afterwards.
+   */
+  MachineState toState(Set<GdlSentence> xiContents)
+  {
+    // Find the indices first, so that the bitset can be sized exactly.  It must have no trailing zero words, so that
+    // equal states have equal bitsets.
+    int[] lIndices = new int[xiContents.size()];
+    int lMaxIndex = -1;
+    int lNumIndices = 0;
+    for (GdlSentence lSentence : xiContents)
+    {
+      int lIndex = getIndex(lSentence);
+      if (lIndex == -1)
+      {
+        lIndex = addSentence(lSentence);
+        if (lIndex == -1)
+        {
+          return new MachineState(xiContents);
+        }
+      }
+      lIndices[lNumIndices++] = lIndex;
+      lMaxIndex = Math.max(lMaxIndex, lIndex);
+    }
+
+    long[] lBits = new long[(lMaxIndex + 64) >> 6];
+    for (int lii = 0; lii < lNumIndices; lii++)
+    {
+      lBits[lIndices[lii] >>> 6] |= (1L << lIndices[lii]);
+    }
+
+    return mInterner.intern(new ProverMachineState(this, lBits));
+  }
+}
@@ -0,0 +1,194 @@
+package org.ggp.base.util.statemachine.implementation.prover;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.statemachine.MachineState;
+
+/**
+ * A prover state, stored as a bitset over the game's base sentences.
+ *
+ * These states are immutable and interned (by {@link BaseSentenceIndex#toState}), so equal states are usually the same
+ * instance.  The hash code and a 64-bit fingerprint are computed once, on creation, so hashing and comparing states is
+ * cheap however large they are.  The hash code is that of the set of sentences, so these states are still equal to
+ * (and hash the same as) ordinary MachineStates with the same contents.
+ *
+ * The GDL sentences are available, as ever, from {@link #getContents()}, which returns a read-only view of the bitset.
+ */
+final class ProverMachineState extends MachineState
+{
+  private final BaseSentenceIndex mIndex;
+  private final long[]            mBits;
+  private final int               mSize;
+  private final int               mHashCode;
+  private final long              mFingerprint;
+
+  // View of the contents as a set of sentences, created on demand.
+  private Set<GdlSentence>        mContentsView;
+
+  /**
+   * Create a state.
+   *
+   * @param xiIndex - the numbering of the game's base sentences.
+   * @param xiBits  - the bits of the sentences that are true in this state, with no trailing zero words.  Ownership
+   *                  passes to the state.
+   */
+  ProverMachineState(BaseSentenceIndex xiIndex, long[] xiBits)
+  {
+    mIndex = xiIndex;
+    mBits = xiBits;
+
+    int lSize = 0;
+    int lHashCode = 0;
+    long lFingerprint = 0;
+    for (int lii = nextSetBit(0); lii >= 0; lii = nextSetBit(lii + 1))
+    {
+      lSize++;
+      lHashCode += mIndex.getSentence(lii).hashCode();
+      lFingerprint ^= mIndex.getFingerprintKey(lii);
+    }
+
+    mSize = lSize;
+    mHashCode = lHashCode;
+    mFingerprint = lFingerprint;
+  }
+
+  /**
+   * @return the index of the next base sentence that is true in this state, starting from the specified index, or -1
+   * if there are no more.
+   *
+   * @param xiFrom - the index to start from.
+   */
+  private int nextSetBit(int xiFrom)
+  {
+    int lWordIndex = xiFrom >>> 6;
+    if (lWordIndex >= mBits.length)
+    {
+      return -1;
+    }
+
+    long lWord = mBits[lWordIndex] & (-1L << xiFrom);
+    while (lWord == 0)
+    {
+      if (++lWordIndex == mBits.length)
+      {
+        return -1;
+      }
+      lWord = mBits[lWordIndex];
+    }
+    return (lWordIndex << 6) + Long.numberOfTrailingZeros(lWord);
+  }
+
+  /**
+   * @return a 64-bit fingerprint of the state.  Equal states have equal fingerprints.
+   */
+  long getFingerprint()
+  {
+    return mFingerprint;
+  }
+
+  @Override
+  public Set<GdlSentence> getContents()
+  {
+    if (mContentsView == null)
+    {
+      mContentsView = new ContentsView();
+    }
+    return mContentsView;
+  }
+
+  @Override
+  public MachineState clone()
+  {
+    return new MachineState(new HashSet<>(getContents()));
+  }
+
+  @Override
+  public int hashCode()
+  {
+    return mHashCode;
+  }
+
+  @Override
+  public boolean equals(Object xiOther)
+  {
+    if (xiOther == this)
+    {
+      return true;
+    }
+
+    if (xiOther instanceof ProverMachineState)
+    {
+      ProverMachineState lOther = (ProverMachineState)xiOther;
+      if (lOther.mIndex == mIndex)
+      {
+        return (lOther.mFingerprint == mFingerprint) && Arrays.equals(lOther.mBits, mBits);
+      }
+    }
+
+    return super.equals(xiOther);
+  }
+
+  /**
+   * Read-only view of the state's bitset as a set of sentences.
+   */
+  private class ContentsView extends AbstractSet<GdlSentence>
+  {
+    @Override
+    public int size()
+    {
+      return mSize;
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return mHashCode;
+    }
+
+    @Override
+    public boolean contains(Object xiSentence)
+    {
+      int lIndex = mIndex.getIndex(xiSentence);
+      return (lIndex != -1) && ((lIndex >>> 6) < mBits.length) && ((mBits[lIndex >>> 6] & (1L << lIndex)) != 0);
+    }
+
+    @Override
+    public Iterator<GdlSentence> iterator()
+    {
+      return new Iterator<GdlSentence>()
+      {
+        private int mNext = nextSetBit(0);
+
+        @Override
+        public boolean hasNext()
+        {
+          return mNext != -1;
+        }
+
+        @Override
+        public GdlSentence next()
+        {
+          if (mNext == -1)
+          {
+            throw new NoSuchElementException();
+          }
+          GdlSentence lSentence = mIndex.getSentence(mNext);
+          mNext = nextSetBit(mNext + 1);
+          return lSentence;
+        }
+
+        @Override
+        public void remove()
+        {
+          throw new UnsupportedOperationException("Prover states are immutable");
+        }
+      };
+    }
+  }
+}
@@ -28,6 +28,9 @@ public class ProverStateMachine extends StateMachine
   private Prover       prover;
   private Role[]       roles;
 
+  // Numbering of the game's base sentences, used to store states compactly.
+  private BaseSentenceIndex baseSentenceIndex;
+
   /**
    * Initialize must be called before using the StateMachine
    */
@@ -41,6 +44,7 @@ public class ProverStateMachine extends StateMachine
   {
     prover = new AimaProver(description);
     roles = Role.computeRoles(description);
+    baseSentenceIndex = new BaseSentenceIndex();
     initialState = computeInitialState();
   }
 
@@ -48,7 +52,12 @@ public class ProverStateMachine extends StateMachine
   {
     Set<GdlSentence> results = prover
         .askAll(ProverQueryBuilder.getInitQuery(), new HashSet<GdlSentence>());
-    return new ProverResultParser().toState(results);
+    return toState(results);
+  }
+
+  private MachineState toState(Set<GdlSentence> results)
+  {
+    return baseSentenceIndex.toState(new ProverResultParser().toState(results).getContents());
   }
 
   @Override
@@ -112,7 +121,7 @@ public class ProverStateMachine extends StateMachine
       }
     }
 
-    return new ProverResultParser().toState(results);
+    return toState(results);
   }
 
   @Override
@@ -53,8 +53,9 @@ public interface IPlayoutPolicy
   public boolean terminatePlayout();
   /**
    * Note a new turn has started in the game
+   * @param xiTurnNumber - the game's turn number
    */
-  public void noteNewTurn();
+  public void noteNewTurn(int xiTurnNumber);
   /**
    * Note that a new playout is beginning
    */
@@ -0,0 +1,353 @@
+package org.ggp.base.util.statemachine.playoutPolicy;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonLegalMoveInfo;
+
+/**
+ * Move statistics gathered from playouts, for use as move priors by a playout policy.  Two tables are kept: one
+ * indexed by move (as in MAST) and one indexed by pairs of consecutive moves (as in NST).  Each entry is the number
+ * of playouts the move (or pair) appeared in, along with the sum of the goal values achieved in those playouts by the
+ * role that played the (second) move.
+ *
+ * A single table is shared by all the rollout threads.  Each entry packs its count and sum into one long, so updates
+ * are a single atomic add and no locks are needed.
+ *
+ * The tables can be saved to the game directory and loaded again when the same game is played later.  Moves are
+ * identified on disk by their persistent names rather than their indices, so the saved statistics remain valid even
+ * if the propnet is built with its moves in a different order.
+ */
+public class MoveStatisticsTable
+{
+  private static final Logger LOGGER = LogManager.getLogger();
+
+  /**
+   * The file (in the game directory) in which the statistics are stored.
+   */
+  private static final String STATS_FILE = "move_statistics.bin";
+
+  private static final int MAGIC   = 0x534d5354;
+  private static final int VERSION = 1;
+
+  /**
+   * The pair table is only kept if it needs no more than this many entries (i.e. up to 1024 moves).
+   */
+  private static final int MAX_PAIR_ENTRIES = 1 << 20;
+
+  /**
+   * Packing of the entries.  The count is in the top half and the sum of the goal values in the bottom half.  Entries
+   * are halved once the count reaches MAX_COUNT, which keeps the sum (of values up to 100) well within 32 bits.
+   */
+  private static final int  COUNT_SHIFT = 32;
+  private static final long ONE_COUNT   = 1L << COUNT_SHIFT;
+  private static final long SUM_MASK    = ONE_COUNT - 1;
+  private static final long MAX_COUNT   = 1L << 24;
+
+  private final ForwardDeadReckonLegalMoveInfo[] mMoves;
+  private final int                              mNumMoves;
+  private final AtomicLongArray                  mMoveStats;
+  private final AtomicLongArray                  mPairStats;
+  private final AtomicInteger                    mLastDecayedTurn = new AtomicInteger(0);
+
+  /**
+   * Create an empty table.
+   *
+   * @param xiMoves - the master list of moves for the game (i.e. as indexed by ForwardDeadReckonLegalMoveInfo's
+   *                  master index).
+   */
+  public MoveStatisticsTable(ForwardDeadReckonLegalMoveInfo[] xiMoves)
+  {
+    mMoves = xiMoves;
+    mNumMoves = xiMoves.length;
+    mMoveStats = new AtomicLongArray(mNumMoves);
+    mPairStats = ((long)mNumMoves * mNumMoves <= MAX_PAIR_ENTRIES) ? new AtomicLongArray(mNumMoves * mNumMoves) : null;
+  }
+
+  /**
+   * Record the result of a playout for one of the moves played in it.
+   *
+   * @param xiPreviousIndex - master index of the move played before it, or -1 if it was the first move.
+   * @param xiIndex         - master index of the move.
+   * @param xiValue         - goal value achieved (at the end of the playout) by the role that played the move.
+   */
+  public void update(int xiPreviousIndex, int xiIndex, int xiValue)
+  {
+    long lIncrement = ONE_COUNT + xiValue;
+
+    if (mMoveStats.addAndGet(xiIndex, lIncrement) >>> COUNT_SHIFT >= MAX_COUNT)
+    {
+      halve(mMoveStats, xiIndex);
+    }
+
+    if (mPairStats != null && xiPreviousIndex >= 0)
+    {
+      int lPairIndex = xiPreviousIndex * mNumMoves + xiIndex;
+      if (mPairStats.addAndGet(lPairIndex, lIncrement) >>> COUNT_SHIFT >= MAX_COUNT)
+      {
+        halve(mPairStats, lPairIndex);
+      }
+    }
+  }
+
+  /**
+   * @return the average value achieved by playing a move, or the default value if it hasn't been played.
+   *
+   * @param xiIndex        - master index of the move.
+   * @param xiDefaultValue - value to use for a move that hasn't been played.
+   */
+  public double getMoveValue(int xiIndex, double xiDefaultValue)
+  {
+    return average(mMoveStats.get(xiIndex), 1, xiDefaultValue);
+  }
+
+  /**
+   * @return the average value achieved by playing a move in response to another, or the default value if the pair
+   *         hasn't been played at least the minimum number of times (or pair statistics aren't being kept).
+   *
+   * @param xiPreviousIndex - master index of the previous move.
+   * @param xiIndex         - master index of the move.
+   * @param xiMinCount      - number of times the pair must have been played for its statistics to be used.
+   * @param xiDefaultValue  - value to use otherwise.
+   */
+  public double getPairValue(int xiPreviousIndex, int xiIndex, int xiMinCount, double xiDefaultValue)
+  {
+    if (mPairStats == null || xiPreviousIndex < 0)
+    {
+      return xiDefaultValue;
+    }
+
+    return average(mPairStats.get(xiPreviousIndex * mNumMoves + xiIndex), xiMinCount, xiDefaultValue);
+  }
+
+  /**
+   * @return the number of playouts in which a move has been played (since it was last decayed).
+   *
+   * @param xiIndex - master index of the move.
+   */
+  public long getMoveCount(int xiIndex)
+  {
+    return mMoveStats.get(xiIndex) >>> COUNT_SHIFT;
+  }
+
+  private static double average(long xiEntry, int xiMinCount, double xiDefaultValue)
+  {
+    long lCount = xiEntry >>> COUNT_SHIFT;
+    if (lCount < xiMinCount || lCount == 0)
+    {
+      return xiDefaultValue;
+    }
+    return (double)(xiEntry & SUM_MASK) / lCount;
+  }
+
+  /**
+   * Decay the statistics at the start of a turn, so that they follow the changing value of moves as the game
+   * progresses.  Every user of the table calls this as it notices a new turn, but only the first call for each turn
+   * has any effect.
+   *
+   * @param xiTurn - the game's turn number.  Every user must pass the same number for the same turn, so this must
+   *                 come from the game, not from a count of the turns that the user has seen.
+   */
+  public void noteNewTurn(int xiTurn)
+  {
+    int lLastDecayedTurn = mLastDecayedTurn.get();
+    if (xiTurn > lLastDecayedTurn && mLastDecayedTurn.compareAndSet(lLastDecayedTurn, xiTurn))
+    {
+      for (int lii = 0; lii < mMoveStats.length(); lii++)
+      {
+        halve(mMoveStats, lii);
+      }
+
+      if (mPairStats != null)
+      {
+        for (int lii = 0; lii < mPairStats.length(); lii++)
+        {
+          halve(mPairStats, lii);
+        }
+      }
+    }
+  }
+
+  /**
+   * Halve the count and sum of an entry, without losing any concurrent updates.
+   */
+  private static void halve(AtomicLongArray xiStats, int xiIndex)
+  {
+    long lEntry;
+    do
+    {
+      lEntry = xiStats.get(xiIndex);
+      if (lEntry == 0)
+      {
+        return;
+      }
+    }
+    while (!xiStats.compareAndSet(xiIndex, lEntry, halved(lEntry)));
+  }
+
+  private static long halved(long xiEntry)
+  {
+    // An entry whose count drops to 0 must lose its sum too, or it would skew the entry's next average.
+    long lCount = (xiEntry >>> COUNT_SHIFT) >> 1;
+    return (lCount == 0) ? 0 : (lCount << COUNT_SHIFT) | ((xiEntry & SUM_MASK) >> 1);
+  }
+
+  /**
+   * Load statistics saved by an earlier match of this game, adding them to those already in the table.
+   *
+   * Any failure to load (including a missing file) just leaves the table as it was.
+   *
+   * @param xiGameDirectory - the directory in which statistics for the game are stored.
+   */
+  public void load(File xiGameDirectory)
+  {
+    File lFile = new File(xiGameDirectory, STATS_FILE);
+    if (!lFile.exists())
+    {
+      return;
+    }
+
+    Map<String, Integer> lIndexByName = new HashMap<>();
+    for (int lii = 0; lii < mNumMoves; lii++)
+    {
+      if (mMoves[lii] != null)
+      {
+        lIndexByName.put(mMoves[lii].toPersistentString(), lii);
+      }
+    }
+
+    try (DataInputStream lInput = new DataInputStream(new BufferedInputStream(new FileInputStream(lFile))))
+    {
+      if (lInput.readInt() != MAGIC || lInput.readInt() != VERSION)
+      {
+        LOGGER.info("Saved move statistics are for a different version - ignoring them");
+        return;
+      }
+
+      // Map the saved move indices onto ours.  Moves that no longer exist are mapped to -1 and their statistics
+      // dropped.
+      int lNumSavedMoves = lInput.readInt();
+      int[] lIndexMap = new int[lNumSavedMoves];
+      int lNumMatched = 0;
+      for (int lii = 0; lii < lNumSavedMoves; lii++)
+      {
+        Integer lIndex = lIndexByName.get(lInput.readUTF());
+        lIndexMap[lii] = (lIndex == null) ? -1 : lIndex;
+        long lEntry = lInput.readLong();
+        if (lIndex != null)
+        {
+          mMoveStats.addAndGet(lIndex, lEntry);
+          lNumMatched++;
+        }
+      }
+
+      int lNumPairs = lInput.readInt();
+      for (int lii = 0; lii < lNumPairs; lii++)
+      {
+        int lPrevious = lIndexMap[lInput.readInt()];
+        int lMove = lIndexMap[lInput.readInt()];
+        long lEntry = lInput.readLong();
+        if (mPairStats != null && lPrevious != -1 && lMove != -1)
+        {
+          mPairStats.addAndGet(lPrevious * mNumMoves + lMove, lEntry);
+        }
+      }
+
+      LOGGER.info("Loaded saved statistics for " + lNumMatched + " of " + mNumMoves + " moves");
+    }
+    catch (IOException | IndexOutOfBoundsException lEx)
+    {
+      LOGGER.warn("Failed to load saved move statistics: " + lEx);
+    }
+  }
+
+  /**
+   * Save the statistics, for use in later matches of this game.
+   *
+   * @param xiGameDirectory - the directory in which statistics for the game are stored.
+   */
+  public void save(File xiGameDirectory)
+  {
+    File lFile = new File(xiGameDirectory, STATS_FILE);
+    File lTempFile;
+    try
+    {
+      //  Use a unique temporary file, so that concurrent saves (e.g. from two players on the same machine) can't
+      //  interleave their writes.
+      lTempFile = File.createTempFile(STATS_FILE + ".", ".tmp", xiGameDirectory);
+    }
+    catch (IOException lEx)
+    {
+      LOGGER.warn("Failed to save move statistics: " + lEx);
+      return;
+    }
+
+    try (DataOutputStream lOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(lTempFile))))
+    {
+      lOutput.writeInt(MAGIC);
+      lOutput.writeInt(VERSION);
+
+      lOutput.writeInt(mNumMoves);
+      for (int lii = 0; lii < mNumMoves; lii++)
+      {
+        lOutput.writeUTF(mMoves[lii] == null ? "" : mMoves[lii].toPersistentString());
+        lOutput.writeLong(mMoveStats.get(lii));
+      }
+
+      // The pair table is mostly empty, so just write the pairs that have been played.  Take a copy first so that the
+      // count written matches the pairs that follow, even if the table is still being updated.
+      long[] lPairStats = new long[(mPairStats == null) ? 0 : mPairStats.length()];
+      int lNumPairs = 0;
+      for (int lii = 0; lii < lPairStats.length; lii++)
+      {
+        lPairStats[lii] = mPairStats.get(lii);
+        if (lPairStats[lii] != 0)
+        {
+          lNumPairs++;
+        }
+      }
+
+      lOutput.writeInt(lNumPairs);
+      for (int lii = 0; lii < lPairStats.length; lii++)
+      {
+        if (lPairStats[lii] != 0)
+        {
+          lOutput.writeInt(lii / mNumMoves);
+          lOutput.writeInt(lii % mNumMoves);
+          lOutput.writeLong(lPairStats[lii]);
+        }
+      }
+    }
+    catch (IOException lEx)
+    {
+      LOGGER.warn("Failed to save move statistics: " + lEx);
+      lTempFile.delete();
+      return;
+    }
+
+    try
+    {
+      Files.move(lTempFile.toPath(), lFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+      LOGGER.debug("Saved move statistics");
+    }
+    catch (IOException lEx)
+    {
+      LOGGER.warn("Failed to save move statistics: " + lEx);
+      lTempFile.delete();
+    }
+  }
+}
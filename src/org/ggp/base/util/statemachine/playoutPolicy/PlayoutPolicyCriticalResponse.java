@@ -82,7 +82,7 @@ public class PlayoutPolicyCriticalResponse implements IPlayoutPolicy
   }
 
   @Override
-  public void noteNewTurn()
+  public void noteNewTurn(int xiTurnNumber)
   {
     // TODO Auto-generated method stub
 
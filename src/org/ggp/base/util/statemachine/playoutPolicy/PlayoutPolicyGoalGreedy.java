@@ -124,7 +124,7 @@ public class PlayoutPolicyGoalGreedy implements IPlayoutPolicy
   }
 
   @Override
-  public void noteNewTurn()
+  public void noteNewTurn(int xiTurnNumber)
   {
     // TODO Auto-generated method stub
 
@@ -233,7 +233,7 @@ public class PlayoutPolicyLastGoodResponse implements IPlayoutPolicy
   }
 
   @Override
-  public void noteNewTurn()
+  public void noteNewTurn(int xiTurnNumber)
   {
     //  Dump best responses from the previous turn for first non-master instance
     if ( traceStats && stateMachine.getInstanceId() == 1 )
@@ -0,0 +1,220 @@
+package org.ggp.base.util.statemachine.playoutPolicy;
+
+import java.util.Random;
+
+import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonInternalMachineState;
+import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonLegalMoveInfo;
+import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonLegalMoveSet;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.implementation.propnet.forwardDeadReckon.ForwardDeadReckonPropnetStateMachine;
+import org.ggp.base.util.statemachine.implementation.propnet.forwardDeadReckon.StateMachineFilter;
+
+/**
+ * Playout policy that biases move selection by the results of earlier playouts, using MAST-style statistics for
+ * each move, refined by NST-style statistics for each move in response to the previous one.  With probability
+ * EXPLORATION_PROBABILITY a random move is played, otherwise the legal move with the best average value.
+ *
+ * Every instance cloned for a rollout thread shares the same MoveStatisticsTable, which can be saved at the end of a
+ * match and loaded at the start of the next one of the same game.
+ */
+public class PlayoutPolicyMoveStatistics implements IPlayoutPolicy
+{
+  private static final double EXPLORATION_PROBABILITY = 0.3;
+  private static final double UNSEEN_MOVE_VALUE       = 50;
+  private static final int    MIN_PAIR_COUNT          = 5;
+
+  private final ForwardDeadReckonPropnetStateMachine stateMachine;
+  private final MoveStatisticsTable                  table;
+  private final Role[]                               roles;
+  private final int[]                                goalValues;
+  private final Random                               rand = new Random();
+
+  private ForwardDeadReckonLegalMoveSet              availableMoves = null;
+  private StateMachineFilter                         currentFactor  = null;
+  private ForwardDeadReckonLegalMoveInfo[]           playoutMoves   = null;
+  private int                                        currentMoveIndex;
+
+  /**
+   * Construct a new instance, with its own (empty) statistics
+   * @param xiStateMachine - state machine instance this policy will be used from
+   */
+  public PlayoutPolicyMoveStatistics(ForwardDeadReckonPropnetStateMachine xiStateMachine)
+  {
+    this(xiStateMachine, new MoveStatisticsTable(xiStateMachine.getFullPropNet().getMasterMoveList()));
+  }
+
+  /**
+   * Construct a new instance
+   * @param xiStateMachine - state machine instance this policy will be used from
+   * @param xiTable - move statistics, which may be shared with other instances
+   */
+  public PlayoutPolicyMoveStatistics(ForwardDeadReckonPropnetStateMachine xiStateMachine, MoveStatisticsTable xiTable)
+  {
+    stateMachine = xiStateMachine;
+    table = xiTable;
+    roles = xiStateMachine.getRoles();
+    goalValues = new int[roles.length];
+  }
+
+  /**
+   * @return the move statistics used by this policy
+   */
+  public MoveStatisticsTable getTable()
+  {
+    return table;
+  }
+
+  @Override
+  public IPlayoutPolicy cloneFor(ForwardDeadReckonPropnetStateMachine xiStateMachine)
+  {
+    return new PlayoutPolicyMoveStatistics(xiStateMachine, table);
+  }
+
+  @Override
+  public void noteCurrentState(ForwardDeadReckonInternalMachineState xiState,
+                               ForwardDeadReckonLegalMoveSet xiLegalMoves,
+                               StateMachineFilter xiFactor,
+                               int xiMoveIndex,
+                               ForwardDeadReckonLegalMoveInfo[] xiMoveHistory,
+                               ForwardDeadReckonInternalMachineState[] xiStateHistory)
+  {
+    availableMoves = xiLegalMoves;
+    currentFactor = xiFactor;
+    playoutMoves = xiMoveHistory;
+    currentMoveIndex = xiMoveIndex;
+  }
+
+  @Override
+  public boolean requiresMoveHistory()
+  {
+    return true;
+  }
+
+  @Override
+  public boolean requiresStateHistory()
+  {
+    return false;
+  }
+
+  @Override
+  public boolean terminatePlayout()
+  {
+    return false;
+  }
+
+  @Override
+  public void noteNewTurn(int xiTurnNumber)
+  {
+    table.noteNewTurn(xiTurnNumber);
+  }
+
+  @Override
+  public void noteNewPlayout()
+  {
+  }
+
+  @Override
+  public void noteCompletePlayout(int xiLength,
+                                  ForwardDeadReckonLegalMoveInfo[] xiMoves,
+                                  ForwardDeadReckonInternalMachineState[] xiStates)
+  {
+    if ( xiMoves == null )
+    {
+      return;
+    }
+
+    for(int i = 0; i < roles.length; i++)
+    {
+      goalValues[i] = stateMachine.getGoal(roles[i]);
+    }
+
+    int previousIndex = -1;
+    for(int i = 0; i < xiLength; i++)
+    {
+      ForwardDeadReckonLegalMoveInfo move = xiMoves[i];
+      if ( move == null )
+      {
+        previousIndex = -1;
+        continue;
+      }
+
+      table.update(previousIndex, move.mMasterIndex, goalValues[move.mRoleIndex]);
+      previousIndex = move.mMasterIndex;
+    }
+  }
+
+  @Override
+  public ForwardDeadReckonLegalMoveInfo selectMove(int xiRoleIndex)
+  {
+    //  Moves in factored games have to be chosen through the factor's filter, so leave those to the
+    //  default (random) selection
+    if ( currentFactor != null ||
+         availableMoves.getNumChoices(xiRoleIndex) <= 1 ||
+         rand.nextDouble() < EXPLORATION_PROBABILITY )
+    {
+      return null;
+    }
+
+    int previousIndex = -1;
+    if ( currentMoveIndex > 0 && playoutMoves[currentMoveIndex-1] != null )
+    {
+      previousIndex = playoutMoves[currentMoveIndex-1].mMasterIndex;
+    }
+
+    int bestIndex = -1;
+    double bestValue = -Double.MAX_VALUE;
+    int numBest = 0;
+
+    for(int index = availableMoves.getFirstIndex(xiRoleIndex);
+        index != -1;
+        index = availableMoves.getNextIndex(xiRoleIndex, index))
+    {
+      double value = table.getMoveValue(index, UNSEEN_MOVE_VALUE);
+      double pairValue = table.getPairValue(previousIndex, index, MIN_PAIR_COUNT, -1);
+      if ( pairValue >= 0 )
+      {
+        value = (value + pairValue)/2;
+      }
+
+      if ( value > bestValue )
+      {
+        bestValue = value;
+        bestIndex = index;
+        numBest = 1;
+      }
+      else if ( value == bestValue && rand.nextInt(++numBest) == 0 )
+      {
+        //  Break ties uniformly at random
+        bestIndex = index;
+      }
+    }
+
+    return availableMoves.getMove(bestIndex);
+  }
+
+  @Override
+  public boolean isAcceptableMove(ForwardDeadReckonLegalMoveInfo xiCandidate,
+                                  int xiRoleIndex)
+  {
+    return true;
+  }
+
+  @Override
+  public boolean isAcceptableState(ForwardDeadReckonInternalMachineState xiToState,
+                                   int xiRoleIndex)
+  {
+    return true;
+  }
+
+  @Override
+  public boolean popStackOnAllUnacceptableMoves(int xiPopDepth)
+  {
+    return false;
+  }
+
+  @Override
+  public String toString()
+  {
+    return "Move statistics (MAST/NST)";
+  }
+}
@@ -0,0 +1,135 @@
+package org.ggp.base.util.statemachine.verifier;
+
+import java.util.HashSet;
+import java.util.List;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.logging.GamerLogger;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+
+/**
+ * A state machine that answers every query from a reference machine, but also puts the query to a subject machine and
+ * checks that the answers agree.  For testing a faster state machine (such as a propnet) against the prover, in
+ * situations where it would otherwise be used for real.
+ *
+ * Any disagreement is logged and reported by throwing an IllegalStateException.  Under a FailsafeStateMachine, this
+ * causes the failsafe machine to switch to the prover.  Because the answers always come from the reference machine,
+ * the states that have already been handed out remain valid after the switch.
+ */
+public class DifferentialStateMachine extends StateMachine
+{
+  private final StateMachine mReference;
+  private final StateMachine mSubject;
+
+  /**
+   * Create a state machine which checks one machine against another.
+   *
+   * @param xiReference - the machine which is trusted to give the right answers.
+   * @param xiSubject   - the machine under test.
+   */
+  public DifferentialStateMachine(StateMachine xiReference, StateMachine xiSubject)
+  {
+    mReference = xiReference;
+    mSubject = xiSubject;
+  }
+
+  @Override
+  public String getName()
+  {
+    return "Differential(" + mReference.getName() + ", " + mSubject.getName() + ")";
+  }
+
+  @Override
+  public void initialize(List<Gdl> xiDescription)
+  {
+    mReference.initialize(xiDescription);
+    mSubject.initialize(xiDescription);
+
+    if (!mReference.getRoleIndices().equals(mSubject.getRoleIndices()))
+    {
+      disagree("roles", mReference.getRoleIndices(), mSubject.getRoleIndices());
+    }
+  }
+
+  @Override
+  public int getGoal(MachineState xiState, Role xiRole) throws GoalDefinitionException
+  {
+    int lExpected = mReference.getGoal(xiState, xiRole);
+    int lActual = mSubject.getGoal(xiState, xiRole);
+    if (lExpected != lActual)
+    {
+      disagree("goal for " + xiRole + " in " + xiState, lExpected, lActual);
+    }
+    return lExpected;
+  }
+
+  @Override
+  public boolean isTerminal(MachineState xiState)
+  {
+    boolean lExpected = mReference.isTerminal(xiState);
+    boolean lActual = mSubject.isTerminal(xiState);
+    if (lExpected != lActual)
+    {
+      disagree("terminality of " + xiState, lExpected, lActual);
+    }
+    return lExpected;
+  }
+
+  @Override
+  public Role[] getRoles()
+  {
+    return mReference.getRoles();
+  }
+
+  @Override
+  public MachineState getInitialState()
+  {
+    MachineState lExpected = mReference.getInitialState();
+    MachineState lActual = mSubject.getInitialState();
+    if (!lExpected.getContents().equals(lActual.getContents()))
+    {
+      disagree("initial state", lExpected, lActual);
+    }
+    return lExpected;
+  }
+
+  @Override
+  public List<Move> getLegalMoves(MachineState xiState, Role xiRole) throws MoveDefinitionException
+  {
+    List<Move> lExpected = mReference.getLegalMoves(xiState, xiRole);
+    List<Move> lActual = mSubject.getLegalMoves(xiState, xiRole);
+
+    // The order of the moves doesn't matter.
+    if ((lExpected.size() != lActual.size()) || (!new HashSet<>(lExpected).equals(new HashSet<>(lActual))))
+    {
+      disagree("legal moves for " + xiRole + " in " + xiState, lExpected, lActual);
+    }
+    return lExpected;
+  }
+
+  @Override
+  public MachineState getNextState(MachineState xiState, List<Move> xiMoves) throws TransitionDefinitionException
+  {
+    MachineState lExpected = mReference.getNextState(xiState, xiMoves);
+    MachineState lActual = mSubject.getNextState(xiState, xiMoves);
+    if (!lExpected.getContents().equals(lActual.getContents()))
+    {
+      disagree("state after " + xiMoves + " in " + xiState, lExpected, lActual);
+    }
+    return lExpected;
+  }
+
+  private void disagree(String xiQuery, Object xiExpected, Object xiActual)
+  {
+    String lMessage = mSubject.getName() + " disagrees with " + mReference.getName() + " over " + xiQuery +
+                      ": expected " + xiExpected + " but got " + xiActual;
+    GamerLogger.logError("StateMachine", lMessage);
+    throw new IllegalStateException(lMessage);
+  }
+}
@@ -40,6 +40,23 @@ public class StateMachineVerifier
   public static boolean checkMachineConsistency(StateMachine theReference,
                                                 StateMachine theSubject,
                                                 long timeToSpend)
+  {
+    return checkMachineConsistency(theReference, theSubject, timeToSpend, false);
+  }
+
+  /**
+   * @return whether the subject machine agreed with the reference machine throughout a series of random games.
+   *
+   * @param theReference - the machine which is trusted to give the right answers.
+   * @param theSubject - the machine under test.
+   * @param timeToSpend - the time to spend checking, in milliseconds.
+   * @param matchFullStates - whether the contents of the states must match exactly.  This is required if the machines
+   *                          are to be interchangeable part way through a game.
+   */
+  public static boolean checkMachineConsistency(StateMachine theReference,
+                                                StateMachine theSubject,
+                                                long timeToSpend,
+                                                boolean matchFullStates)
   {
     long startTime = System.currentTimeMillis();
 
@@ -55,7 +72,6 @@ public class StateMachineVerifier
 
     GamerLogger.emitToConsole("Consistency checking: [");
     int nRound = 0;
-    boolean matchFullStates = false;
     while (true)
     {
       nRound++;